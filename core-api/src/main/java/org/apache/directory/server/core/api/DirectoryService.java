@@ -579,6 +579,21 @@ public interface DirectoryService extends ServerEntryFactory
     long getSyncPeriodMillis();
 
 
+    /**
+     * Sets the maximum number of sort keys kept in memory when sorting the results of a
+     * search. Above this number, the sorted keys are written in temporary files.
+     *
+     * @param sortMemoryLimit The maximum number of sort keys kept in memory
+     */
+    void setSortMemoryLimit( int sortMemoryLimit );
+
+
+    /**
+     * @return The maximum number of sort keys kept in memory when sorting the results of a search
+     */
+    int getSortMemoryLimit();
+
+
     /**
      * @return The AccessControl AdministrativePoint cache
      */
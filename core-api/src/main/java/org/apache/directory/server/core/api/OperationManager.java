@@ -38,6 +38,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
@@ -171,31 +172,105 @@ public interface OperationManager
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires the server WriteLock, which blocks all the operations on all the partitions
      */
     void lockWrite();
 
 
     /**
-     * Releases a WriteLock
+     * Releases the server WriteLock
      */
     void unlockWrite();
 
 
     /**
-     * Acquires a ReadLock
+     * Acquires the server ReadLock
      */
     void lockRead();
 
 
     /**
-     * Releases a ReadLock
+     * Releases the server ReadLock
      */
     void unlockRead();
 
 
     /**
-     * @return the OperationManager R/W lock
+     * Acquires a WriteLock on a partition. The other partitions can still be read and
+     * written, except if the partition is the schema partition : a schema update
+     * blocks the whole server, unless it's nested in another operation.
+     * 
+     * @param partition The partition to lock
+     * @throws LdapException If the lock can't be acquired without risking a deadlock
+     */
+    void lockWrite( Partition partition ) throws LdapException;
+
+
+    /**
+     * Acquires a WriteLock on two partitions, for an operation involving both of them.
+     * The locks are always acquired in the same order, whatever the order of the
+     * parameters, so that two such operations can't deadlock.
+     * 
+     * @param partition The first partition to lock
+     * @param otherPartition The second partition to lock. It may be the first partition
+     * @throws LdapException If the locks can't be acquired without risking a deadlock
+     */
+    void lockWrite( Partition partition, Partition otherPartition ) throws LdapException;
+
+
+    /**
+     * Releases a WriteLock on a partition
+     * 
+     * @param partition The partition to unlock
+     */
+    void unlockWrite( Partition partition );
+
+
+    /**
+     * Releases a WriteLock on two partitions
+     * 
+     * @param partition The first partition to unlock
+     * @param otherPartition The second partition to unlock. It may be the first partition
+     */
+    void unlockWrite( Partition partition, Partition otherPartition );
+
+
+    /**
+     * Acquires a ReadLock on a partition
+     * 
+     * @param partition The partition to lock
+     * @throws LdapException If the lock can't be acquired without risking a deadlock
+     */
+    void lockRead( Partition partition ) throws LdapException;
+
+
+    /**
+     * Releases a ReadLock on a partition
+     * 
+     * @param partition The partition to unlock
+     */
+    void unlockRead( Partition partition );
+
+
+    /**
+     * @return the OperationManager R/W lock, protecting the whole server
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * Gets the R/W lock protecting a partition against concurrent modifications
+     * 
+     * @param partition The partition
+     * @return the partition R/W lock
+     */
+    ReadWriteLock getRWLock( Partition partition );
+
+
+    /**
+     * Forgets the R/W lock of a partition which has been removed
+     * 
+     * @param partition The removed partition
+     */
+    void removeRWLock( Partition partition );
 }
@@ -26,6 +26,7 @@ import java.io.ObjectOutput;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
@@ -75,6 +76,37 @@ public class ClonedServerEntry implements Entry
     }
 
 
+    /**
+     * Creates a new instance of ClonedServerEntry, containing only some of the
+     * original entry attributes.
+     *
+     * Only the selected attributes are cloned, the other ones are not copied at all.
+     *
+     * @param originalEntry The original entry
+     * @param attributeTypes The attributeTypes to copy
+     * @throws LdapException If the attributes can't be copied
+     */
+    public ClonedServerEntry( Entry originalEntry, Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        this.originalEntry = originalEntry;
+        this.clonedEntry = originalEntry.shallowClone();
+
+        for ( Attribute attribute : originalEntry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( attributeTypes.contains( attributeType ) )
+            {
+                clonedEntry.put( attribute.clone() );
+            }
+            else
+            {
+                clonedEntry.removeAttributes( attributeType );
+            }
+        }
+    }
+
+
     /**
      * @return the originalEntry
      */
@@ -22,17 +22,29 @@ package org.apache.directory.server.core.api.interceptor.context;
 
 import static org.apache.directory.api.ldap.model.message.SearchScope.ONELEVEL;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.naming.directory.SearchControls;
 
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.controls.ManageDsaIT;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.AttributeTypeOptions;
+import org.apache.directory.api.ldap.model.schema.registries.AttributeTypeRegistry;
 import org.apache.directory.api.util.StringConstants;
 import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.OperationEnum;
 
 
@@ -65,6 +77,9 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
+
+    /** The attributeTypes the interceptors read in the entries, besides the returned ones */
+    private Set<AttributeType> requiredAttributes = new HashSet<>();
     
     /**
      * Creates a new instance of SearchOperationContext.
@@ -221,6 +236,112 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * Adds some attributeTypes the partition must read in the entries, even if they are
+     * not returned. An interceptor which reads some attributes of the found entries
+     * must declare them before calling the next interceptor.
+     *
+     * @param attributeTypes The required attributeTypes
+     */
+    public void addRequiredAttributes( AttributeType... attributeTypes )
+    {
+        Collections.addAll( requiredAttributes, attributeTypes );
+    }
+
+
+    /**
+     * @return The attributeTypes the interceptors read in the entries
+     */
+    public Set<AttributeType> getRequiredAttributes()
+    {
+        return requiredAttributes;
+    }
+
+
+    /**
+     * Computes the attributeTypes the partition has to read in the found entries : the
+     * returned ones, the ones used by the filter and the ones required by the interceptors.
+     * The other attributes don't have to be copied at all.
+     *
+     * @return The attributeTypes to read, or null if the whole entries must be read
+     * @throws LdapException If the attributeTypes can't be checked
+     */
+    public Set<AttributeType> getFetchedAttributes() throws LdapException
+    {
+        // The replication needs the whole entries
+        if ( ( session == null ) || syncreplSearch || isAllUserAttributes() || isAllOperationalAttributes() )
+        {
+            return null;
+        }
+
+        DirectoryService directoryService = session.getDirectoryService();
+        AttributeTypeRegistry registry = directoryService.getSchemaManager().getAttributeTypeRegistry();
+        Set<AttributeType> fetchedAttributes = new HashSet<>( requiredAttributes );
+
+        // The attributes used to identify the entries all along the chain
+        fetchedAttributes.add( directoryService.getAtProvider().getObjectClass() );
+        fetchedAttributes.add( directoryService.getAtProvider().getEntryUUID() );
+        fetchedAttributes.add( directoryService.getSchemaManager().lookupAttributeTypeRegistry( SchemaConstants.REF_AT ) );
+
+        if ( !isNoAttributes() && ( returningAttributes != null ) )
+        {
+            for ( AttributeTypeOptions attributeTypeOptions : returningAttributes )
+            {
+                // The returned subtypes are not known
+                AttributeType attributeType = attributeTypeOptions.getAttributeType();
+
+                if ( registry.hasDescendants( attributeType ) )
+                {
+                    return null;
+                }
+
+                fetchedAttributes.add( attributeType );
+            }
+        }
+
+        if ( !collectFilterAttributes( registry, filter, fetchedAttributes ) )
+        {
+            return null;
+        }
+
+        return fetchedAttributes;
+    }
+
+
+    /**
+     * Collects the attributeTypes used by a filter.
+     *
+     * @return false if one of the attributeTypes isn't known
+     */
+    private boolean collectFilterAttributes( AttributeTypeRegistry registry, ExprNode node,
+        Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !collectFilterAttributes( registry, child, attributeTypes ) )
+                {
+                    return false;
+                }
+            }
+        }
+        else if ( node instanceof LeafNode )
+        {
+            AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+
+            if ( ( attributeType == null ) || registry.hasDescendants( attributeType ) )
+            {
+                return false;
+            }
+
+            attributeTypes.add( attributeType );
+        }
+
+        return true;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
@@ -252,6 +252,17 @@ public abstract class AbstractPartition implements Partition
     }
 
 
+    /**
+     * {@inheritDoc}
+     * The entries can't be read by ID by default.
+     */
+    @Override
+    public Entry fetch( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return null;
+    }
+
+
     /**
      * Check that the operation is done on an initialized store
      * 
@@ -239,6 +239,19 @@ public interface Partition
     Entry lookup( LookupOperationContext lookupContext ) throws LdapException;
 
 
+    /**
+     * Reads an entry knowing its ID (its entryUUID), in a given transaction. This is used to
+     * read again the entries found by a search.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @return The entry, or null if it can't be found, or if the partition can't read its
+     * entries by ID : it has then to be looked up by Dn
+     * @throws LdapException If the entry can't be read
+     */
+    Entry fetch( PartitionTxn partitionTxn, String id ) throws LdapException;
+
+
     /**
      * Fast operation to check and see if a particular entry exists.
      *
@@ -37,6 +37,30 @@ public class PartitionWriteTxn implements PartitionTxn
     }
 
 
+    /**
+     * Commits the changes, but does not wait for them to be durable. The caller must
+     * call {@link #awaitCommit()} before acknowledging the changes. This allows the
+     * locks to be released before the changes are written on disk, so that concurrent
+     * transactions can share the same disk synchronization.
+     * 
+     * @throws IOException If the commit failed
+     */
+    public void commitAsync() throws IOException
+    {
+        commit();
+    }
+
+
+    /**
+     * Waits until the changes committed by {@link #commitAsync()} are durable.
+     * 
+     * @throws IOException If the changes could not be written on disk
+     */
+    public void awaitCommit() throws IOException
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
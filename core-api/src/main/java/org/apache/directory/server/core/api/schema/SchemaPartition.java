@@ -511,6 +511,16 @@ public final class SchemaPartition extends AbstractPartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry fetch( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return wrapped.fetch( partitionTxn, id );
+    }
+
+
     /**
      * Updates the schemaModifiersName and schemaModifyTimestamp attributes of
      * the schemaModificationAttributes entry for the global schema at
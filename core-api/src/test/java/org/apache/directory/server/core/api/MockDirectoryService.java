@@ -477,6 +477,17 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public int getSortMemoryLimit()
+    {
+        return 10000;
+    }
+
+
+    public void setSortMemoryLimit( int sortMemoryLimit )
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
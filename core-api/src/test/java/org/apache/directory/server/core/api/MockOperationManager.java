@@ -149,6 +149,42 @@ public class MockOperationManager implements OperationManager
     }
 
 
+    @Override
+    public void lockWrite( Partition partition )
+    {
+    }
+
+
+    @Override
+    public void lockWrite( Partition partition, Partition otherPartition )
+    {
+    }
+
+
+    @Override
+    public void unlockWrite( Partition partition )
+    {
+    }
+
+
+    @Override
+    public void unlockWrite( Partition partition, Partition otherPartition )
+    {
+    }
+
+
+    @Override
+    public void lockRead( Partition partition )
+    {
+    }
+
+
+    @Override
+    public void unlockRead( Partition partition )
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -156,4 +192,21 @@ public class MockOperationManager implements OperationManager
     {
         return new ReentrantReadWriteLock();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return new ReentrantReadWriteLock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeRWLock( Partition partition )
+    {
+    }
 }
@@ -20,10 +20,8 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
-import java.nio.file.Files;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,9 +31,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.recman.BaseRecordManager;
-
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
@@ -63,6 +63,7 @@ import org.apache.directory.api.ldap.model.message.ResultResponse;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.UnbindRequest;
+import org.apache.directory.api.ldap.model.message.controls.ManageDsaIT;
 import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.message.controls.SortResponse;
@@ -80,6 +81,10 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.changelog.LogChange;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.entry.ServerEntryUtils;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.context.AbstractOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
@@ -1199,6 +1204,22 @@ public class DefaultCoreSession implements CoreSession
 
         LdapResult ldapResult = done.getLdapResult();
 
+        // Check if we received a VLV Control, which requires a sort Control
+        VirtualListViewRequest vlvControl = ( VirtualListViewRequest ) searchRequest.getControls().get(
+            VirtualListViewRequest.OID );
+
+        if ( ( vlvControl != null ) && ( sortControl == null ) )
+        {
+            VirtualListViewResponse vlvRespCtrl = new VirtualListViewResponseImpl();
+            vlvRespCtrl.setViewListResult( VirtualListViewResultCode.SORTCONTROLMISSING );
+            vlvRespCtrl.setContextId( vlvControl.getContextId() );
+            ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+            ldapResult.setDiagnosticMessage( "A VLV control requires a sort control" );
+            done.addControl( vlvRespCtrl );
+
+            return new EmptyCursor<>();
+        }
+
         if ( sortControl != null )
         {
             sortRespCtrl = canSort( sortControl, ldapResult, getDirectoryService().getSchemaManager() );
@@ -1218,13 +1239,41 @@ public class DefaultCoreSession implements CoreSession
         {
             cursor = operationManager.search( searchContext );
 
-            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
+            // The partition may have returned the entries sorted, or only the VLV window, reading
+            // the index of the sort attribute. Its sort response control is then returned.
+            boolean sorted = searchContext.hasResponseControl( SortResponse.OID );
+            boolean windowRead = searchContext.hasResponseControl( VirtualListViewResponse.OID );
+
+            if ( sorted )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                sortRespCtrl = null;
+            }
+            else if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
+            {
+                // Only the first entries are needed if there is a size limit, but the whole list is
+                // needed for a VLV window
+                long sizeLimit = ( vlvControl == null ) ? searchRequest.getSizeLimit() : 0L;
+
+                cursor = sortResults( cursor, sortControl, sizeLimit, searchContext );
+
+                if ( vlvControl != null )
+                {
+                    VirtualListViewResponse vlvRespCtrl = new VirtualListViewResponseImpl();
+                    cursor = SortedEntryWindow.extract( cursor, vlvControl, vlvRespCtrl, sortControl,
+                        getDirectoryService().getSchemaManager() );
+                    searchContext.addResponseControl( vlvRespCtrl );
+                    windowRead = true;
+
+                    if ( vlvRespCtrl.getViewListResult() == VirtualListViewResultCode.OFFSETRANGEERROR )
+                    {
+                        ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+                        ldapResult.setDiagnosticMessage( "The VLV offset must be greater than 0" );
+                    }
+                }
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
-            if ( sortRespCtrl != null )
+            if ( ( sortRespCtrl != null ) && !windowRead )
             {
                 cursor.beforeFirst();
 
@@ -1235,7 +1284,7 @@ public class DefaultCoreSession implements CoreSession
                 else
                 {
                     // move the cursor back
-                    cursor.previous();
+                    cursor.beforeFirst();
                 }
             }
         }
@@ -1390,19 +1439,23 @@ public class DefaultCoreSession implements CoreSession
 
 
     /**
-     * Sorts the entries based on the given sortkey and returns the cursor
+     * Sorts the entries based on the given sortkey and returns the cursor. Only the sort keys,
+     * the IDs and the Dns of the entries are kept, the entries being read again when they are
+     * returned.
+     * When there is a size limit, only the first keys are kept. Otherwise, when there are too
+     * many keys to be kept in memory, they are sorted on disk.
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
-     * @param schemaManager schema manager
+     * @param sizeLimit the maximum number of entries to return, or 0 if there is no limit
+     * @param searchContext the search context
      * @return a cursor containing sorted entries
      * @throws CursorException
      * @throws LdapException
      * @throws IOException
-     * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
-        throws CursorException, LdapException, IOException
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, long sizeLimit,
+        SearchOperationContext searchContext ) throws CursorException, LdapException, IOException
     {
         unsortedEntries.beforeFirst();
 
@@ -1420,6 +1473,7 @@ public class DefaultCoreSession implements CoreSession
             return unsortedEntries;
         }
 
+        SchemaManager schemaManager = directoryService.getSchemaManager();
         SortKey sk = control.getSortKeys().get( 0 );
 
         AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
@@ -1427,42 +1481,81 @@ public class DefaultCoreSession implements CoreSession
         SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
             schemaManager );
 
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
-        SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
+        EntrySorter sorter = new EntrySorter( comparator, sizeLimit, directoryService.getSortMemoryLimit() );
+
+        sorter.add( first );
+
+        // at this stage the cursor will be _on_ the next element, so read it
+        sorter.add( unsortedEntries.get() );
+
+        while ( unsortedEntries.next() )
         {
-            file = Files.createTempFile( "replica", ".sorted-data" ).toFile();    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
+            sorter.add( unsortedEntries.get() );
+        }
+
+        // The entries read again by ID go through the same filters as the search results
+        List<EntryFilter> filters = null;
+
+        if ( unsortedEntries instanceof EntryFilteringCursor )
         {
-            // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
-            throw e;
+            filters = new ArrayList<>( ( ( EntryFilteringCursor ) unsortedEntries ).getEntryFilters() );
         }
 
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
+        unsortedEntries.close();
 
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
+        List<EntryFilter> entryFilters = filters;
 
-        btree.insert( first, "", false );
+        return sorter.sort( ( id, dn ) -> fetchSortedEntry( id, dn, entryFilters, searchContext ) );
+    }
 
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
 
-        while ( unsortedEntries.next() )
+    /**
+     * Reads again a sorted entry, with the attributes requested by the search. The entry is
+     * read by ID from the searched partition, in the search transaction, and goes through the
+     * search filters. When the partition can't read it this way, it is looked up by Dn.
+     *
+     * @return The entry, or null if the filters reject it
+     */
+    private Entry fetchSortedEntry( String id, String dn, List<EntryFilter> filters,
+        SearchOperationContext searchContext ) throws LdapException
+    {
+        Partition partition = searchContext.getPartition();
+
+        if ( ( id != null ) && ( filters != null ) && ( partition != null ) )
         {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
+            Entry entry = partition.fetch( searchContext.getTransaction(), id );
+
+            if ( entry != null )
+            {
+                ClonedServerEntry result = new ClonedServerEntry( entry );
+
+                for ( EntryFilter filter : filters )
+                {
+                    if ( !filter.accept( searchContext, result ) )
+                    {
+                        return null;
+                    }
+                }
+
+                ServerEntryUtils.filterContents( directoryService.getSchemaManager(), searchContext, result );
+
+                return result;
+            }
         }
 
-        unsortedEntries.close();
+        LookupOperationContext lookupContext = new LookupOperationContext( this,
+            new Dn( directoryService.getSchemaManager(), dn ), searchContext.getReturningAttributesString() );
+        lookupContext.setAllUserAttributes( searchContext.isAllUserAttributes() );
+        lookupContext.setAllOperationalAttributes( searchContext.isAllOperationalAttributes() );
+        lookupContext.setNoAttributes( searchContext.isNoAttributes() );
+        lookupContext.setTypesOnly( searchContext.isTypesOnly() );
+
+        if ( searchContext.hasRequestControl( ManageDsaIT.OID ) )
+        {
+            lookupContext.addRequestControl( searchContext.getRequestControl( ManageDsaIT.OID ) );
+        }
 
-        return new SortedEntryCursor( btree, recMan, file );
+        return directoryService.getOperationManager().lookup( lookupContext );
     }
 
 
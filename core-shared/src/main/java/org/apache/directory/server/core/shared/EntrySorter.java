@@ -0,0 +1,839 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search, for the sort control. Only the collation key of
+ * each entry, computed once, its ID and its Dn are kept : the entries are read again when
+ * they are returned.
+ * <br>
+ * When a size limit is known, only the first keys are kept, in a bounded heap. Otherwise, the
+ * keys are kept in memory until there are too many of them. They are then sorted, and written
+ * in a run file, in a temporary directory. The runs are merged when the entries are returned.
+ * When there are too many runs to be read at once, they are first merged by groups into
+ * bigger runs.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class EntrySorter
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The default maximum number of runs merged at once */
+    static final int DEFAULT_FAN_IN = 64;
+
+    /**
+     * Reads again a sorted entry
+     */
+    @FunctionalInterface
+    interface EntryFetcher
+    {
+        /**
+         * @param id The entry ID, or null if it's unknown
+         * @param dn The entry Dn
+         * @return The entry, as returned by the search, or null if it should be skipped
+         * @throws LdapException If the entry can't be read
+         */
+        Entry fetch( String id, String dn ) throws LdapException;
+    }
+
+    /** The sort key of an entry */
+    private static final class Record
+    {
+        /** The collation key, or null if the entry has no value */
+        private final String key;
+
+        /** The entry ID, or null if it's unknown */
+        private final String id;
+
+        /** The entry Dn */
+        private final String dn;
+
+        /** The arrival order, to keep the sort stable */
+        private final long rank;
+
+
+        private Record( String key, String id, String dn, long rank )
+        {
+            this.key = key;
+            this.id = id;
+            this.dn = dn;
+            this.rank = rank;
+        }
+    }
+
+    /** The entries comparator */
+    private final SortedEntryComparator comparator;
+
+    /** The comparator of the records */
+    private final Comparator<Record> recordComparator;
+
+    /** The maximum number of entries to return, or 0 */
+    private final int sizeLimit;
+
+    /** The maximum number of keys kept in memory */
+    private final int memoryLimit;
+
+    /** The maximum number of runs merged at once */
+    private final int fanIn;
+
+    /** The keys kept in memory */
+    private final List<Record> records = new ArrayList<>();
+
+    /** The first keys, when there is a size limit */
+    private final PriorityQueue<Record> heap;
+
+    /** The run files */
+    private final List<File> runs = new ArrayList<>();
+
+    /** The directory of the run files */
+    private File runDirectory;
+
+    /** The number of run files created so far, used to name them */
+    private int nbRunFiles;
+
+    /** The number of added entries */
+    private long nbEntries;
+
+    /** The number of sorted records, once all the entries have been added */
+    private int nbRecords;
+
+
+    /**
+     * Creates a new EntrySorter.
+     *
+     * @param comparator The entries comparator
+     * @param sizeLimit The maximum number of entries to return, or 0 if there is no limit
+     * @param memoryLimit The maximum number of keys kept in memory
+     */
+    EntrySorter( SortedEntryComparator comparator, long sizeLimit, int memoryLimit )
+    {
+        this( comparator, sizeLimit, memoryLimit, DEFAULT_FAN_IN );
+    }
+
+
+    /**
+     * Creates a new EntrySorter.
+     *
+     * @param comparator The entries comparator
+     * @param sizeLimit The maximum number of entries to return, or 0 if there is no limit
+     * @param memoryLimit The maximum number of keys kept in memory
+     * @param fanIn The maximum number of runs merged at once, at least 2
+     */
+    EntrySorter( SortedEntryComparator comparator, long sizeLimit, int memoryLimit, int fanIn )
+    {
+        this.comparator = comparator;
+        this.memoryLimit = Math.max( 1, memoryLimit );
+        this.fanIn = Math.max( 2, fanIn );
+        recordComparator = ( record1, record2 ) ->
+        {
+            int c = comparator.compareKeys( record1.key, record2.key );
+
+            return ( c != 0 ) ? c : Long.compare( record1.rank, record2.rank );
+        };
+
+        if ( ( sizeLimit > 0L ) && ( sizeLimit <= this.memoryLimit ) )
+        {
+            this.sizeLimit = ( int ) sizeLimit;
+            heap = new PriorityQueue<>( this.sizeLimit + 1, recordComparator.reversed() );
+        }
+        else
+        {
+            this.sizeLimit = 0;
+            heap = null;
+        }
+    }
+
+
+    /**
+     * Adds an entry to sort.
+     *
+     * @param entry The entry
+     * @throws LdapException If the sorted keys can't be written
+     */
+    void add( Entry entry ) throws LdapException
+    {
+        Record record = new Record( comparator.getCollationKey( entry ), getId( entry ), entry.getDn().getName(),
+            nbEntries++ );
+
+        if ( heap != null )
+        {
+            heap.add( record );
+
+            if ( heap.size() > sizeLimit )
+            {
+                heap.poll();
+            }
+
+            return;
+        }
+
+        records.add( record );
+
+        if ( records.size() >= memoryLimit )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * Gets the ID of an entry, read from the original entry if the attributes returned by
+     * the search have been selected.
+     *
+     * @return The entry ID, or null if it has no entryUUID
+     */
+    private static String getId( Entry entry )
+    {
+        Entry original = entry;
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            original = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        Attribute entryUuid = original.get( SchemaConstants.ENTRY_UUID_AT );
+
+        if ( ( entryUuid == null ) || ( entryUuid.get() == null ) )
+        {
+            return null;
+        }
+
+        return entryUuid.getString();
+    }
+
+
+    /**
+     * Creates a new run file.
+     */
+    private File newRun() throws IOException
+    {
+        if ( runDirectory == null )
+        {
+            runDirectory = Files.createTempDirectory( "sorted-data" ).toFile();
+        }
+
+        return new File( runDirectory, "run-" + nbRunFiles++ );
+    }
+
+
+    /**
+     * Writes the keys kept in memory in a new run file.
+     */
+    private void spill() throws LdapException
+    {
+        records.sort( recordComparator );
+
+        try
+        {
+            File run = newRun();
+            runs.add( run );
+
+            try ( DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( run ) ) ) )
+            {
+                for ( Record record : records )
+                {
+                    write( out, record );
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Error writing the sorted keys in directory {} : {}", runDirectory, ioe.getMessage(), ioe );
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        LOG.debug( "Wrote a run of {} sorted keys", records.size() );
+        nbRecords += records.size();
+        records.clear();
+    }
+
+
+    /**
+     * Merges the runs by groups of at most fanIn runs, until they can all be read at once.
+     */
+    private void mergeRuns() throws LdapException
+    {
+        try
+        {
+            while ( runs.size() > fanIn )
+            {
+                List<File> merged = new ArrayList<>();
+
+                for ( int start = 0; start < runs.size(); start += fanIn )
+                {
+                    List<File> group = runs.subList( start, Math.min( start + fanIn, runs.size() ) );
+
+                    if ( group.size() == 1 )
+                    {
+                        merged.add( group.get( 0 ) );
+                    }
+                    else
+                    {
+                        merged.add( merge( group ) );
+                    }
+                }
+
+                LOG.debug( "Merged {} sorted runs into {}", runs.size(), merged.size() );
+                runs.clear();
+                runs.addAll( merged );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Error merging the sorted keys in directory {} : {}", runDirectory, ioe.getMessage(), ioe );
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Merges some runs into a new run, and deletes them.
+     */
+    private File merge( List<File> group ) throws IOException
+    {
+        File run = newRun();
+        PriorityQueue<RunReader> readers = openReaders( group );
+
+        try ( DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( new FileOutputStream( run ) ) ) )
+        {
+            Record record = nextRecord( readers );
+
+            while ( record != null )
+            {
+                write( out, record );
+                record = nextRecord( readers );
+            }
+        }
+        finally
+        {
+            closeReaders( readers );
+        }
+
+        for ( File merged : group )
+        {
+            Files.delete( merged.toPath() );
+        }
+
+        return run;
+    }
+
+
+    /**
+     * Opens the runs to merge.
+     *
+     * @return The run readers, ordered by their current record
+     */
+    private PriorityQueue<RunReader> openReaders( List<File> runFiles ) throws IOException
+    {
+        PriorityQueue<RunReader> readers = new PriorityQueue<>( runFiles.size(),
+            ( reader1, reader2 ) -> recordComparator.compare( reader1.current, reader2.current ) );
+
+        try
+        {
+            for ( File run : runFiles )
+            {
+                RunReader reader = new RunReader( run );
+
+                if ( reader.next() )
+                {
+                    readers.add( reader );
+                }
+                else
+                {
+                    reader.in.close();
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            closeReaders( readers );
+
+            throw ioe;
+        }
+
+        return readers;
+    }
+
+
+    /**
+     * Reads the next record, in the sort order, from the runs being merged.
+     *
+     * @return The next record, or null if all the records have been read
+     */
+    private static Record nextRecord( PriorityQueue<RunReader> readers ) throws IOException
+    {
+        RunReader reader = readers.poll();
+
+        if ( reader == null )
+        {
+            return null;
+        }
+
+        Record record = reader.current;
+
+        if ( reader.next() )
+        {
+            readers.add( reader );
+        }
+        else
+        {
+            reader.in.close();
+        }
+
+        return record;
+    }
+
+
+    private static void closeReaders( PriorityQueue<RunReader> readers )
+    {
+        for ( RunReader reader : readers )
+        {
+            try
+            {
+                reader.in.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot close a sorted run : {}", ioe.getMessage() );
+            }
+        }
+
+        readers.clear();
+    }
+
+
+    private static void write( DataOutputStream out, Record record ) throws IOException
+    {
+        writeNullableString( out, record.key );
+        writeNullableString( out, record.id );
+        writeString( out, record.dn );
+        out.writeLong( record.rank );
+    }
+
+
+    private static void writeNullableString( DataOutputStream out, String value ) throws IOException
+    {
+        out.writeBoolean( value != null );
+
+        if ( value != null )
+        {
+            writeString( out, value );
+        }
+    }
+
+
+    private static void writeString( DataOutputStream out, String value ) throws IOException
+    {
+        byte[] bytes = Strings.getBytesUtf8( value );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    /**
+     * Reads the next record of a run file.
+     *
+     * @return The record, or null if the end of the run is reached
+     */
+    private static Record read( DataInputStream in ) throws IOException
+    {
+        boolean hasKey;
+
+        try
+        {
+            hasKey = in.readBoolean();
+        }
+        catch ( EOFException eofe )
+        {
+            return null;
+        }
+
+        String key = hasKey ? readString( in ) : null;
+        String id = in.readBoolean() ? readString( in ) : null;
+        String dn = readString( in );
+
+        return new Record( key, id, dn, in.readLong() );
+    }
+
+
+    private static String readString( DataInputStream in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return Strings.utf8ToString( bytes );
+    }
+
+
+    /**
+     * Gets the sorted entries. No more entry can be added.
+     *
+     * @param fetcher The fetcher reading the entries
+     * @return A Cursor over the sorted entries, which deletes the run files when closed
+     * @throws LdapException If the sorted keys can't be written
+     */
+    SortedCursor sort( EntryFetcher fetcher ) throws LdapException
+    {
+        if ( heap != null )
+        {
+            records.addAll( heap );
+            heap.clear();
+        }
+
+        if ( !runs.isEmpty() && !records.isEmpty() )
+        {
+            spill();
+        }
+
+        if ( runs.isEmpty() )
+        {
+            nbRecords = records.size();
+        }
+
+        mergeRuns();
+        records.sort( recordComparator );
+
+        return new SortedCursor( fetcher );
+    }
+
+
+    /**
+     * A run being merged
+     */
+    private static final class RunReader
+    {
+        private final DataInputStream in;
+
+        private Record current;
+
+
+        private RunReader( File run ) throws IOException
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ) ) );
+        }
+
+
+        private boolean next() throws IOException
+        {
+            current = read( in );
+
+            return current != null;
+        }
+    }
+
+
+    /**
+     * A Cursor over the sorted entries, either kept in memory, or merged from the runs. It can
+     * only be read forward, but it can be read again from the beginning. The entries can be
+     * counted and skipped reading only their keys.
+     */
+    final class SortedCursor extends AbstractCursor<Entry>
+    {
+        /** The fetcher reading the entries */
+        private final EntryFetcher fetcher;
+
+        /** The position in the records kept in memory */
+        private int position = -1;
+
+        /** The runs being merged, ordered by their current record */
+        private PriorityQueue<RunReader> readers;
+
+        /** The current entry */
+        private Entry current;
+
+
+        private SortedCursor( EntryFetcher fetcher )
+        {
+            this.fetcher = fetcher;
+        }
+
+
+        @Override
+        public boolean available()
+        {
+            return current != null;
+        }
+
+
+        @Override
+        public void before( Entry element ) throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public void after( Entry element ) throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public void beforeFirst() throws LdapException, CursorException
+        {
+            checkNotClosed();
+            closeReaders();
+            position = -1;
+            current = null;
+        }
+
+
+        @Override
+        public void afterLast() throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public boolean first() throws LdapException, CursorException
+        {
+            beforeFirst();
+
+            return next();
+        }
+
+
+        @Override
+        public boolean last() throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public boolean previous() throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public boolean next() throws LdapException, CursorException
+        {
+            checkNotClosed();
+
+            Record record = nextRecord();
+
+            while ( record != null )
+            {
+                try
+                {
+                    current = fetcher.fetch( record.id, record.dn );
+
+                    if ( current != null )
+                    {
+                        return true;
+                    }
+                }
+                catch ( LdapNoSuchObjectException lnsoe )
+                {
+                    // The entry has been deleted since it was found
+                    LOG.debug( "The sorted entry {} does not exist anymore", record.dn );
+                }
+
+                record = nextRecord();
+            }
+
+            current = null;
+
+            return false;
+        }
+
+
+        /**
+         * @return The number of sorted entries. The entries deleted since they have been found
+         * are counted, but not returned
+         */
+        int count()
+        {
+            return nbRecords;
+        }
+
+
+        /**
+         * Counts the entries sorted before a collation key, without reading them. The cursor
+         * is then positioned before the first entry.
+         *
+         * @param key The collation key
+         * @return The number of entries which keys are lower than the given key
+         * @throws LdapException If the sorted keys can't be read
+         * @throws CursorException If the cursor can't be moved
+         */
+        int countBefore( String key ) throws LdapException, CursorException
+        {
+            beforeFirst();
+
+            int count = 0;
+            Record record = nextRecord();
+
+            while ( ( record != null ) && ( comparator.compareKeys( record.key, key ) < 0 ) )
+            {
+                count++;
+                record = nextRecord();
+            }
+
+            beforeFirst();
+
+            return count;
+        }
+
+
+        /**
+         * Moves forward, without reading the skipped entries.
+         *
+         * @param nbSkipped The number of entries to skip
+         * @throws LdapException If the sorted keys can't be read
+         * @throws CursorException If the cursor is closed
+         */
+        void skip( int nbSkipped ) throws LdapException, CursorException
+        {
+            checkNotClosed();
+            current = null;
+            int skipped = 0;
+
+            while ( ( skipped < nbSkipped ) && ( nextRecord() != null ) )
+            {
+                skipped++;
+            }
+        }
+
+
+        /**
+         * @return The next record, in the sort order, or null if all the records have been read
+         */
+        private Record nextRecord() throws LdapException
+        {
+            if ( runs.isEmpty() )
+            {
+                position = Math.min( position + 1, records.size() );
+
+                return ( position < records.size() ) ? records.get( position ) : null;
+            }
+
+            try
+            {
+                if ( readers == null )
+                {
+                    readers = openReaders( runs );
+                }
+
+                return EntrySorter.nextRecord( readers );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+
+
+        private void closeReaders()
+        {
+            if ( readers != null )
+            {
+                EntrySorter.closeReaders( readers );
+                readers = null;
+            }
+        }
+
+
+        @Override
+        public Entry get() throws CursorException
+        {
+            checkNotClosed();
+
+            if ( current == null )
+            {
+                throw new InvalidCursorPositionException();
+            }
+
+            return current;
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            release();
+            super.close();
+        }
+
+
+        @Override
+        public void close( Exception cause ) throws IOException
+        {
+            release();
+            super.close( cause );
+        }
+
+
+        /**
+         * Releases the sorted keys, and deletes the run files
+         */
+        private void release() throws IOException
+        {
+            closeReaders();
+            records.clear();
+
+            if ( runDirectory != null )
+            {
+                FileUtils.deleteDirectory( runDirectory );
+                runDirectory = null;
+            }
+        }
+    }
+}
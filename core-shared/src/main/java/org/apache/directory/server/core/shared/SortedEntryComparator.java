@@ -20,9 +20,8 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.Comparator;
-import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -40,17 +39,14 @@ import org.apache.directory.api.ldap.model.schema.comparators.ParsedDnComparator
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-class SortedEntryComparator implements Comparator<Entry>, Serializable
+class SortedEntryComparator implements Comparator<Entry>
 {
 
     /** the attribute's type */
-    private transient AttributeType type;
+    private AttributeType type;
 
     /** comparator used for comparing the values of the given attribute type */
-    private transient LdapComparator comparator;
-
-    /** flag to indicate if the attribute type is multivalued */
-    private boolean multivalued;
+    private LdapComparator comparator;
 
     /** flag for indicating the order of sorting */
     private boolean reverse;
@@ -72,11 +68,6 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
         this.type = at;
         this.reverse = reverse;
 
-        if ( !at.isSingleValued() )
-        {
-            multivalued = true;
-        }
-        
         // Special case : entryDn
         if ( SchemaConstants.ENTRY_DN_AT_OID.equals( at.getOid() ) )
         {
@@ -110,100 +101,125 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     }
 
 
+    /**
+     * Compares the sort values of two entries.
+     *
+     * @param entry1 The first entry
+     * @param entry2 The second entry
+     * @return A negative number, zero, or a positive number if the first entry is sorted before,
+     * with, or after the second entry
+     */
     @Override
     public int compare( Entry entry1, Entry entry2 )
     {
-        Attribute at1 = entry1.get( type );
-
-        Attribute at2 = entry2.get( type );
+        return compareKeys( getCollationKey( entry1 ), getCollationKey( entry2 ) );
+    }
 
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
-        {
-            return reverse ? -1 : 1;
-        }
-        else if ( at2 == null )
-        {
-            return reverse ? 1 : -1;
-        }
 
-        Object o1;
-        Object o2;
+    /**
+     * Computes the key an entry is sorted by : its least value, normalized by the matching
+     * rule. The binary values are stored one char per byte. Comparing two keys with
+     * {@link #compareKeys(String, String)} gives the same result as comparing the entries.
+     *
+     * @param entry The entry
+     * @return The collation key, or null if the entry has no value
+     */
+    String getCollationKey( Entry entry )
+    {
+        Attribute attribute = entry.get( type );
 
-        if ( multivalued )
+        if ( ( attribute == null ) || ( attribute.size() == 0 ) )
         {
-            TreeSet ts = new TreeSet( comparator );
+            return null;
+        }
 
-            o1 = sortAndGetFirst( at1, ts );
+        String least = null;
 
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
-        }
-        else
+        for ( Value value : attribute )
         {
-            Value v1 = at1.get();
-            Value v2 = at2.get();
+            String key;
 
             if ( hr )
             {
-                o1 = v1.getString();
-                o2 = v2.getString();
+                key = normalize( value.getString() );
             }
             else
             {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                key = new String( value.getBytes(), StandardCharsets.ISO_8859_1 );
+            }
+
+            if ( ( least == null ) || ( compareKeys( key, least, false ) < 0 ) )
+            {
+                least = key;
             }
         }
 
-        int c;
+        return least;
+    }
 
-        try
+
+    /**
+     * Compares two collation keys, in the sort order.
+     *
+     * @param key1 The first key, or null if the entry has no value
+     * @param key2 The second key, or null if the entry has no value
+     * @return A negative number, zero, or a positive number if the first key is sorted before,
+     * with, or after the second key
+     */
+    int compareKeys( String key1, String key2 )
+    {
+        // as per section 2.2 of the spec null values are considered larger
+        if ( key1 == null )
         {
-            if ( reverse )
+            if ( key2 == null )
             {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o2 ), o1 );
-            }
-            else
-            {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
-            }
-    
-            if ( c == 0 )
-            {
-                return 1;
+                return 0;
             }
 
-            return c;
+            return reverse ? -1 : 1;
         }
-        catch ( LdapException le )
+        else if ( key2 == null )
         {
-            return 0;
+            return reverse ? 1 : -1;
         }
+
+        return compareKeys( key1, key2, reverse );
     }
 
 
-    /**
-     * sorts the values of an attribute and picks the least value
-     * 
-     * @param at the attribute
-     * @param ts the TreeSet for sorting 
-     * @return the least value among the values of the attribute
-     */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    @SuppressWarnings("unchecked")
+    private int compareKeys( String key1, String key2, boolean reverseOrder )
     {
-        for ( Value v : at )
+        int c;
+
+        if ( hr )
         {
-            if ( hr )
-            {
-                ts.add( v.getNormalized() );
-            }
-            else
-            {
-                ts.add( v.getBytes() );
-            }
+            c = comparator.compare( key1, key2 );
+        }
+        else
+        {
+            c = comparator.compare( key1.getBytes( StandardCharsets.ISO_8859_1 ),
+                key2.getBytes( StandardCharsets.ISO_8859_1 ) );
         }
 
-        return ts.first();
+        return reverseOrder ? -c : c;
+    }
+
+
+    private String normalize( String value )
+    {
+        if ( comparator.getNormalizer() == null )
+        {
+            return value;
+        }
+
+        try
+        {
+            return comparator.getNormalizer().normalize( value );
+        }
+        catch ( LdapException le )
+        {
+            return value;
+        }
     }
-}
\ No newline at end of file
+}
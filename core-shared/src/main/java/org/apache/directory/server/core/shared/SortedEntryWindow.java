@@ -0,0 +1,203 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Extracts the window requested by a VLV control from the sorted entries, when the partition
+ * has not been able to read it from an index. The entries sorted by an {@link EntrySorter} are
+ * counted, and the target is found, reading only their keys : only the entries of the window
+ * are read. Any other cursor is read twice, once to count the entries and find the target,
+ * and once to get the window.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class SortedEntryWindow
+{
+    private SortedEntryWindow()
+    {
+    }
+
+
+    /**
+     * Extracts the window from the sorted entries, and fills the VLV response control.
+     *
+     * @param sortedEntries The sorted entries, which are closed
+     * @param vlvRequest The VLV request control
+     * @param vlvResponse The VLV response control to fill
+     * @param sortRequest The sort request control
+     * @param schemaManager The SchemaManager
+     * @return The entries of the window
+     * @throws LdapException If the entries can't be read
+     * @throws CursorException If the entries can't be read
+     * @throws IOException If the sorted entries can't be closed
+     */
+    static Cursor<Entry> extract( Cursor<Entry> sortedEntries, VirtualListViewRequest vlvRequest,
+        VirtualListViewResponse vlvResponse, SortRequest sortRequest, SchemaManager schemaManager )
+        throws LdapException, CursorException, IOException
+    {
+        vlvResponse.setContextId( vlvRequest.getContextId() );
+
+        if ( !vlvRequest.hasAssertionValue() && ( vlvRequest.getOffset() <= 0 ) )
+        {
+            sortedEntries.close();
+            vlvResponse.setViewListResult( VirtualListViewResultCode.OFFSETRANGEERROR );
+
+            return new EmptyCursor<>();
+        }
+
+        SortedEntryComparator comparator = null;
+        Entry assertion = null;
+
+        if ( vlvRequest.hasAssertionValue() )
+        {
+            SortKey sortKey = sortRequest.getSortKeys().get( 0 );
+            AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+            comparator = new SortedEntryComparator( attributeType, sortKey.getMatchingRuleId(),
+                sortKey.isReverseOrder(), schemaManager );
+            assertion = new DefaultEntry( schemaManager );
+            assertion.add( attributeType, Strings.utf8ToString( vlvRequest.getAssertionValue() ) );
+        }
+
+        int contentCount;
+        int targetPosition;
+
+        if ( sortedEntries instanceof EntrySorter.SortedCursor )
+        {
+            EntrySorter.SortedCursor sortedCursor = ( EntrySorter.SortedCursor ) sortedEntries;
+            contentCount = sortedCursor.count();
+
+            if ( assertion == null )
+            {
+                targetPosition = 0;
+            }
+            else
+            {
+                targetPosition = sortedCursor.countBefore( comparator.getCollationKey( assertion ) ) + 1;
+            }
+        }
+        else
+        {
+            // First pass : count the entries, and find the first one after the assertion value
+            contentCount = 0;
+            targetPosition = 0;
+            sortedEntries.beforeFirst();
+
+            while ( sortedEntries.next() )
+            {
+                contentCount++;
+
+                if ( ( assertion != null ) && ( targetPosition == 0 )
+                    && ( comparator.compare( sortedEntries.get(), assertion ) >= 0 ) )
+                {
+                    targetPosition = contentCount;
+                }
+            }
+
+            if ( ( assertion != null ) && ( targetPosition == 0 ) )
+            {
+                targetPosition = contentCount + 1;
+            }
+        }
+
+        if ( assertion == null )
+        {
+            targetPosition = getOffsetPosition( vlvRequest.getOffset(), vlvRequest.getContentCount(), contentCount );
+        }
+
+        // Second pass : get the window
+        int first = Math.max( 1, targetPosition - vlvRequest.getBeforeCount() );
+        int last = Math.min( contentCount, targetPosition + vlvRequest.getAfterCount() );
+        List<Entry> window = new ArrayList<>();
+        int position = 0;
+        sortedEntries.beforeFirst();
+
+        if ( sortedEntries instanceof EntrySorter.SortedCursor )
+        {
+            // Only the entries of the window are read
+            ( ( EntrySorter.SortedCursor ) sortedEntries ).skip( first - 1 );
+            position = first - 1;
+        }
+
+        while ( ( position < last ) && sortedEntries.next() )
+        {
+            position++;
+
+            if ( position >= first )
+            {
+                window.add( sortedEntries.get() );
+            }
+        }
+
+        sortedEntries.close();
+
+        vlvResponse.setTargetPosition( targetPosition );
+        vlvResponse.setContentCount( contentCount );
+        vlvResponse.setViewListResult( VirtualListViewResultCode.SUCCESS );
+
+        return new ListCursor<>( window );
+    }
+
+
+    /**
+     * Computes the position of the target from the requested offset, scaling it when the
+     * client estimate of the content count is not the actual one.
+     */
+    private static int getOffsetPosition( int offset, int clientCount, int contentCount )
+    {
+        int position;
+
+        if ( ( clientCount == 0 ) || ( offset == 1 ) )
+        {
+            position = offset;
+        }
+        else if ( offset >= clientCount )
+        {
+            position = contentCount;
+        }
+        else
+        {
+            position = ( int ) Math.round( ( double ) offset * contentCount / clientCount );
+        }
+
+        return Math.max( 1, Math.min( position, contentCount ) );
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the EntrySorter class, in memory and with runs written on disk.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorterTest
+{
+    private static SchemaManager schemaManager;
+
+    /** The entries which can be read again, per ID */
+    private Map<String, Entry> entries;
+
+    /** The IDs read again by the sorted cursor */
+    private List<String> fetched;
+
+
+    @BeforeClass
+    public static void loadSchemaManager() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void clearEntries()
+    {
+        entries = new HashMap<>();
+        fetched = new ArrayList<>();
+    }
+
+
+    private SortedEntryComparator comparator( boolean reverse ) throws Exception
+    {
+        return new SortedEntryComparator( schemaManager.getAttributeType( "cn" ), null, reverse, schemaManager );
+    }
+
+
+    /**
+     * Creates an entry, with a cn if the value is not null
+     */
+    private Entry entry( int id, String cn ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "uid=" + id + ",ou=system",
+            "objectClass: top",
+            "objectClass: uidObject",
+            "uid: " + id,
+            "entryUUID: " + Strings.getUUID( id ) );
+
+        if ( cn != null )
+        {
+            entry.add( "cn", cn );
+        }
+
+        entries.put( Strings.getUUID( id ), entry );
+
+        return entry;
+    }
+
+
+    /**
+     * Reads the sorted entries, and returns their uid
+     */
+    private List<Integer> sort( EntrySorter sorter ) throws Exception
+    {
+        List<Integer> uids = new ArrayList<>();
+
+        try ( AbstractCursor<Entry> cursor = sorter.sort( ( id, dn ) ->
+            {
+                fetched.add( id );
+
+                return entries.get( id );
+            } ) )
+        {
+            while ( cursor.next() )
+            {
+                uids.add( Integer.valueOf( cursor.get().get( "uid" ).getString() ) );
+            }
+        }
+
+        return uids;
+    }
+
+
+    /**
+     * Adds the entries 0 to nbEntries - 1, in a random order, with the cn "name" + id
+     */
+    private void addShuffled( EntrySorter sorter, int nbEntries ) throws Exception
+    {
+        List<Integer> ids = new ArrayList<>();
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            ids.add( i );
+        }
+
+        Collections.shuffle( ids, new Random( 42L ) );
+
+        for ( int id : ids )
+        {
+            sorter.add( entry( id, String.format( "name%04d", id ) ) );
+        }
+    }
+
+
+    private List<Integer> range( int from, int to )
+    {
+        List<Integer> range = new ArrayList<>();
+
+        for ( int i = from; i < to; i++ )
+        {
+            range.add( i );
+        }
+
+        return range;
+    }
+
+
+    @Test
+    public void testInMemory() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( false ), 0L, 1000 );
+        addShuffled( sorter, 100 );
+
+        assertEquals( range( 0, 100 ), sort( sorter ) );
+    }
+
+
+    @Test
+    public void testSpill() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( false ), 0L, 7 );
+        addShuffled( sorter, 100 );
+
+        assertEquals( range( 0, 100 ), sort( sorter ) );
+    }
+
+
+    @Test
+    public void testMultiPassMerge() throws Exception
+    {
+        // 50 runs of 2 keys, merged 3 by 3
+        EntrySorter sorter = new EntrySorter( comparator( false ), 0L, 2, 3 );
+        addShuffled( sorter, 100 );
+
+        assertEquals( range( 0, 100 ), sort( sorter ) );
+    }
+
+
+    @Test
+    public void testReverse() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( true ), 0L, 5, 2 );
+        addShuffled( sorter, 30 );
+
+        List<Integer> expected = range( 0, 30 );
+        Collections.reverse( expected );
+
+        assertEquals( expected, sort( sorter ) );
+    }
+
+
+    @Test
+    public void testMissingKeys() throws Exception
+    {
+        for ( boolean reverse : new boolean[] { false, true } )
+        {
+            for ( int memoryLimit : new int[] { 100, 2 } )
+            {
+                clearEntries();
+                EntrySorter sorter = new EntrySorter( comparator( reverse ), 0L, memoryLimit );
+                sorter.add( entry( 1, "b" ) );
+                sorter.add( entry( 2, null ) );
+                sorter.add( entry( 3, "a" ) );
+                sorter.add( entry( 4, null ) );
+                sorter.add( entry( 5, "c" ) );
+
+                // The entries without a value are the greatest ones, and keep their order
+                if ( reverse )
+                {
+                    assertEquals( Arrays.asList( 2, 4, 5, 1, 3 ), sort( sorter ) );
+                }
+                else
+                {
+                    assertEquals( Arrays.asList( 3, 1, 5, 2, 4 ), sort( sorter ) );
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testStable() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( false ), 0L, 3, 2 );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            sorter.add( entry( i, ( i % 2 == 0 ) ? "even" : "ODD" ) );
+        }
+
+        List<Integer> expected = new ArrayList<>();
+
+        for ( int i = 0; i < 20; i += 2 )
+        {
+            expected.add( i );
+        }
+
+        for ( int i = 1; i < 20; i += 2 )
+        {
+            expected.add( i );
+        }
+
+        assertEquals( expected, sort( sorter ) );
+    }
+
+
+    @Test
+    public void testSizeLimit() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( false ), 5L, 1000 );
+        addShuffled( sorter, 100 );
+
+        assertEquals( range( 0, 5 ), sort( sorter ) );
+
+        // Only the returned entries are read again
+        assertEquals( 5, fetched.size() );
+    }
+
+
+    @Test
+    public void testFetchById() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( false ), 0L, 2 );
+
+        // The search did not return the entryUUID : it's read from the original entry
+        Entry entry = entry( 1, "b" );
+        ClonedServerEntry filtered = new ClonedServerEntry( entry );
+        filtered.removeAttributes( "entryUUID" );
+        sorter.add( filtered );
+        sorter.add( entry( 2, "a" ) );
+        sorter.add( entry( 3, "c" ) );
+
+        assertEquals( Arrays.asList( 2, 1, 3 ), sort( sorter ) );
+        assertEquals( Arrays.asList( Strings.getUUID( 2 ), Strings.getUUID( 1 ), Strings.getUUID( 3 ) ), fetched );
+    }
+
+
+    @Test
+    public void testDeletedEntriesAreSkipped() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( false ), 0L, 3 );
+        addShuffled( sorter, 10 );
+
+        Set<Integer> deleted = new HashSet<>( Arrays.asList( 0, 4, 9 ) );
+
+        for ( int id : deleted )
+        {
+            entries.remove( Strings.getUUID( id ) );
+        }
+
+        List<Integer> expected = range( 0, 10 );
+        expected.removeAll( deleted );
+
+        assertEquals( expected, sort( sorter ) );
+    }
+
+
+    @Test
+    public void testReadTwice() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( comparator( false ), 0L, 4, 2 );
+        addShuffled( sorter, 20 );
+
+        try ( AbstractCursor<Entry> cursor = sorter.sort( ( id, dn ) -> entries.get( id ) ) )
+        {
+            for ( int pass = 0; pass < 2; pass++ )
+            {
+                cursor.beforeFirst();
+                int count = 0;
+
+                while ( cursor.next() )
+                {
+                    assertEquals( Integer.toString( count++ ), cursor.get().get( "uid" ).getString() );
+                }
+
+                assertEquals( 20, count );
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequestImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the SortedEntryWindow class, which extracts the VLV window from the sorted entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedEntryWindowTest
+{
+    private static SchemaManager schemaManager;
+
+    /** The sorted entries, cn=name0000 to cn=name0019 */
+    private Map<String, Entry> entries;
+
+    /** The number of entries read again by the sorted cursor */
+    private int nbFetched;
+
+    private SortRequest sortRequest;
+
+    private VirtualListViewResponse vlvResponse;
+
+
+    @BeforeClass
+    public static void loadSchemaManager() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void createEntries() throws Exception
+    {
+        entries = new HashMap<>();
+        nbFetched = 0;
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            entries.put( Strings.getUUID( i ), new DefaultEntry( schemaManager, "uid=" + i + ",ou=system",
+                "objectClass: top",
+                "objectClass: uidObject",
+                "uid: " + i,
+                "cn: " + String.format( "name%04d", i ),
+                "entryUUID: " + Strings.getUUID( i ) ) );
+        }
+
+        sortRequest = new SortRequestImpl();
+        sortRequest.addSortKey( new SortKey( "cn" ) );
+    }
+
+
+    /**
+     * Sorts the entries, with runs written on disk
+     */
+    private Cursor<Entry> sort() throws Exception
+    {
+        EntrySorter sorter = new EntrySorter( new SortedEntryComparator( schemaManager.getAttributeType( "cn" ),
+            null, false, schemaManager ), 0L, 3 );
+
+        for ( int i = 19; i >= 0; i-- )
+        {
+            sorter.add( entries.get( Strings.getUUID( i ) ) );
+        }
+
+        return sorter.sort( ( id, dn ) ->
+            {
+                nbFetched++;
+
+                return entries.get( id );
+            } );
+    }
+
+
+    /**
+     * The entries already sorted, in a plain cursor
+     */
+    private Cursor<Entry> list()
+    {
+        List<Entry> list = new ArrayList<>();
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            list.add( entries.get( Strings.getUUID( i ) ) );
+        }
+
+        return new ListCursor<>( list );
+    }
+
+
+    private List<Integer> extract( Cursor<Entry> sortedEntries, VirtualListViewRequest vlvRequest ) throws Exception
+    {
+        vlvResponse = new VirtualListViewResponseImpl();
+        List<Integer> uids = new ArrayList<>();
+
+        try ( Cursor<Entry> window = SortedEntryWindow.extract( sortedEntries, vlvRequest, vlvResponse, sortRequest,
+            schemaManager ) )
+        {
+            while ( window.next() )
+            {
+                uids.add( Integer.valueOf( window.get().get( "uid" ).getString() ) );
+            }
+        }
+
+        return uids;
+    }
+
+
+    private static VirtualListViewRequest offset( int offset, int beforeCount, int afterCount )
+    {
+        VirtualListViewRequest vlvRequest = new VirtualListViewRequestImpl();
+        vlvRequest.setOffset( offset );
+        vlvRequest.setContentCount( 0 );
+        vlvRequest.setBeforeCount( beforeCount );
+        vlvRequest.setAfterCount( afterCount );
+
+        return vlvRequest;
+    }
+
+
+    private static VirtualListViewRequest assertion( String value, int beforeCount, int afterCount )
+    {
+        VirtualListViewRequest vlvRequest = new VirtualListViewRequestImpl();
+        vlvRequest.setAssertionValue( Strings.getBytesUtf8( value ) );
+        vlvRequest.setBeforeCount( beforeCount );
+        vlvRequest.setAfterCount( afterCount );
+
+        return vlvRequest;
+    }
+
+
+    private static List<Integer> range( int from, int to )
+    {
+        List<Integer> range = new ArrayList<>();
+
+        for ( int i = from; i <= to; i++ )
+        {
+            range.add( i );
+        }
+
+        return range;
+    }
+
+
+    private void assertResponse( int targetPosition, int contentCount )
+    {
+        assertEquals( VirtualListViewResultCode.SUCCESS, vlvResponse.getViewListResult() );
+        assertEquals( targetPosition, vlvResponse.getTargetPosition() );
+        assertEquals( contentCount, vlvResponse.getContentCount() );
+    }
+
+
+    @Test
+    public void testOffset() throws Exception
+    {
+        assertEquals( range( 3, 6 ), extract( sort(), offset( 5, 1, 2 ) ) );
+        assertResponse( 5, 20 );
+
+        // Only the entries of the window are read
+        assertEquals( 4, nbFetched );
+
+        assertEquals( range( 3, 6 ), extract( list(), offset( 5, 1, 2 ) ) );
+        assertResponse( 5, 20 );
+
+        nbFetched = 0;
+        assertEquals( range( 15, 19 ), extract( sort(), offset( 30, 4, 4 ) ) );
+        assertResponse( 20, 20 );
+        assertEquals( 5, nbFetched );
+    }
+
+
+    @Test
+    public void testAssertion() throws Exception
+    {
+        assertEquals( range( 10, 11 ), extract( sort(), assertion( "name0010", 0, 1 ) ) );
+        assertResponse( 11, 20 );
+        assertEquals( 2, nbFetched );
+
+        assertEquals( range( 10, 11 ), extract( list(), assertion( "name0010", 0, 1 ) ) );
+        assertResponse( 11, 20 );
+
+        // After all the entries
+        nbFetched = 0;
+        assertEquals( range( 18, 19 ), extract( sort(), assertion( "zzz", 2, 2 ) ) );
+        assertResponse( 21, 20 );
+        assertEquals( 2, nbFetched );
+
+        assertEquals( range( 18, 19 ), extract( list(), assertion( "zzz", 2, 2 ) ) );
+        assertResponse( 21, 20 );
+    }
+
+
+    @Test
+    public void testOffsetRangeError() throws Exception
+    {
+        assertEquals( range( 0, -1 ), extract( sort(), offset( 0, 1, 1 ) ) );
+        assertEquals( VirtualListViewResultCode.OFFSETRANGEERROR, vlvResponse.getViewListResult() );
+        assertEquals( 0, nbFetched );
+    }
+}
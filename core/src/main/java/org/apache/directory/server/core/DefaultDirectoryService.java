@@ -201,6 +201,12 @@ public class DefaultDirectoryService implements DirectoryService
     /** The default delay to wait between sync on disk : 15 seconds */
     private static final long DEFAULT_SYNC_PERIOD = 15000;
 
+    /** The maximum number of sort keys kept in memory when sorting search results */
+    private int sortMemoryLimit;
+
+    /** The default maximum number of sort keys kept in memory : 10 000 */
+    private static final int DEFAULT_SORT_MEMORY_LIMIT = 10000;
+
     /** The default timeLimit : 100 entries */
     public static final int MAX_SIZE_LIMIT_DEFAULT = 100;
 
@@ -310,6 +316,7 @@ public class DefaultDirectoryService implements DirectoryService
         changeLog = new DefaultChangeLog();
         journal = new DefaultJournal();
         syncPeriodMillis = DEFAULT_SYNC_PERIOD;
+        sortMemoryLimit = DEFAULT_SORT_MEMORY_LIMIT;
         csnFactory = new CsnFactory( replicaId );
         evaluator = new SubtreeEvaluator( schemaManager );
         setDefaultInterceptorConfigurations();
@@ -880,6 +887,9 @@ public class DefaultDirectoryService implements DirectoryService
 
         // And update the set of managed partitions
         partitions.remove( partition );
+
+        // The partition lock is not needed anymore
+        operationManager.removeRWLock( partition );
     }
 
 
@@ -2321,6 +2331,24 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public int getSortMemoryLimit()
+    {
+        return sortMemoryLimit;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setSortMemoryLimit( int sortMemoryLimit )
+    {
+        this.sortMemoryLimit = sortMemoryLimit;
+    }
+
+
     /**
      * checks if the working directory is already in use by some other directory service, if yes
      * then throws a runtime exception else will obtain the lock on the working directory
@@ -22,7 +22,11 @@ package org.apache.directory.server.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -72,6 +76,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -98,11 +103,25 @@ public class DefaultOperationManager implements OperationManager
     private static final boolean IS_TIME = OPERATION_TIME.isDebugEnabled();
     private static final boolean IS_STAT = OPERATION_STAT.isDebugEnabled();
 
+    /** The default time we retry to get a partition lock which is not taken in the partitions order, in ms */
+    private static final long DEFAULT_OUT_OF_ORDER_LOCK_TIMEOUT = 50L;
+
+    /** The longest pause between two attempts to get a partition lock out of order, in ms */
+    private static final long MAX_OUT_OF_ORDER_LOCK_BACKOFF = 8L;
+
     /** The directory service instance */
     private final DirectoryService directoryService;
 
-    /** A lock used to protect against concurrent operations */
-    private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+    /** A lock used to protect against concurrent operations. Every operation holds
+     * its read lock, the write lock is only taken to stop the whole server, or to
+     * update the schema */
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+
+    /** The locks protecting each partition against concurrent modifications */
+    private final Map<Partition, ReentrantReadWriteLock> partitionLocks = new ConcurrentHashMap<>();
+
+    /** The time we retry to get a partition lock which is not taken in the partitions order, in ms */
+    private long outOfOrderLockTimeout = DEFAULT_OUT_OF_ORDER_LOCK_TIMEOUT;
 
     /** A reference to the ObjectClass AT */
     protected AttributeType objectClassAT;
@@ -125,6 +144,46 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return getPartitionLock( partition );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeRWLock( Partition partition )
+    {
+        partitionLocks.remove( partition );
+    }
+
+
+    /**
+     * Sets the time a nested operation retries to get a partition lock which is not taken
+     * in the partitions order, before failing. With 0, such an operation fails as soon as
+     * the lock is held by another thread.
+     *
+     * @param outOfOrderLockTimeout The timeout, in milliseconds
+     */
+    public void setOutOfOrderLockTimeout( long outOfOrderLockTimeout )
+    {
+        this.outOfOrderLockTimeout = outOfOrderLockTimeout;
+    }
+
+
+    /**
+     * @return The lock of a partition, created the first time it's needed
+     */
+    private ReentrantReadWriteLock getPartitionLock( Partition partition )
+    {
+        return partitionLocks.computeIfAbsent( partition, p -> new ReentrantReadWriteLock( true ) );
+    }
+
+
     /**
      * Acquires a ReadLock
      */
@@ -161,6 +220,357 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Tells if a partition is the schema partition. A modification in this partition
+     * impacts all the other partitions, so it has to be exclusive.
+     */
+    private boolean isSchemaPartition( Partition partition )
+    {
+        return partition == directoryService.getSchemaPartition();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void lockRead( Partition partition ) throws LdapException
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            lockPartition( partition, false );
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            rwLock.readLock().unlock();
+            throw e;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unlockRead( Partition partition )
+    {
+        try
+        {
+            getPartitionLock( partition ).readLock().unlock();
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void lockWrite( Partition partition ) throws LdapException
+    {
+        lockWrite( partition, partition );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void lockWrite( Partition partition, Partition otherPartition ) throws LdapException
+    {
+        // A schema update blocks the whole server, but the server lock can't be upgraded :
+        // a schema update nested in another operation only locks the partitions. A thread
+        // already holding the server WriteLock takes it again, so that unlockServer() knows
+        // which lock to release
+        boolean schemaUpdate = isSchemaPartition( partition ) || isSchemaPartition( otherPartition );
+
+        if ( rwLock.isWriteLockedByCurrentThread() || ( schemaUpdate && ( rwLock.getReadHoldCount() == 0 ) ) )
+        {
+            rwLock.writeLock().lock();
+        }
+        else
+        {
+            rwLock.readLock().lock();
+        }
+
+        try
+        {
+            lockPartitions( true, partition, otherPartition );
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            unlockServer();
+            throw e;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unlockWrite( Partition partition )
+    {
+        unlockWrite( partition, partition );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unlockWrite( Partition partition, Partition otherPartition )
+    {
+        try
+        {
+            getPartitionLock( partition ).writeLock().unlock();
+
+            if ( otherPartition != partition )
+            {
+                getPartitionLock( otherPartition ).writeLock().unlock();
+            }
+        }
+        finally
+        {
+            unlockServer();
+        }
+    }
+
+
+    /**
+     * Releases the server lock taken by lockWrite. The server WriteLock is never taken
+     * by a thread holding the ReadLock, so if the current thread holds the WriteLock,
+     * this is the lock the matching lockWrite has taken.
+     */
+    private void unlockServer()
+    {
+        if ( rwLock.isWriteLockedByCurrentThread() )
+        {
+            rwLock.writeLock().unlock();
+        }
+        else
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Locks all the partitions an operation needs before it starts, in the order defined by
+     * comparePartitions, whatever the order of the parameters. If one of the locks can't be
+     * taken, the locks already taken are released.
+     *
+     * @param write If we need the WriteLocks
+     * @param partitions The partitions to lock. The same partition may be given more than once
+     * @throws LdapException If the locks can't be taken without risking a deadlock
+     */
+    private void lockPartitions( boolean write, Partition... partitions ) throws LdapException
+    {
+        Partition[] sorted = partitions.clone();
+        Arrays.sort( sorted, this::comparePartitions );
+        List<Partition> locked = new ArrayList<>( sorted.length );
+
+        try
+        {
+            for ( Partition partition : sorted )
+            {
+                if ( locked.isEmpty() || ( locked.get( locked.size() - 1 ) != partition ) )
+                {
+                    lockPartition( partition, write );
+                    locked.add( partition );
+                }
+            }
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            for ( Partition partition : locked )
+            {
+                if ( write )
+                {
+                    getPartitionLock( partition ).writeLock().unlock();
+                }
+                else
+                {
+                    getPartitionLock( partition ).readLock().unlock();
+                }
+            }
+
+            throw e;
+        }
+    }
+
+
+    /**
+     * Locks a partition. The partitions are locked in the order defined by comparePartitions,
+     * so that two operations can't wait for each other. A nested operation may have to lock
+     * a partition before one the current thread already holds : such a lock is never waited
+     * for in the lock queue, where it would stall the operations waiting for the partitions
+     * the current thread holds. We retry to get it for a short time instead, and fail if it's
+     * still held by another thread. A ReadLock can't be upgraded, so writing in a partition
+     * the current thread is reading fails right away.
+     *
+     * @param partition The partition to lock
+     * @param write If we need the WriteLock
+     * @throws LdapException If the lock can't be taken without risking a deadlock
+     */
+    private void lockPartition( Partition partition, boolean write ) throws LdapException
+    {
+        ReentrantReadWriteLock partitionLock = getPartitionLock( partition );
+        Lock lock;
+
+        if ( write )
+        {
+            lock = partitionLock.writeLock();
+        }
+        else
+        {
+            lock = partitionLock.readLock();
+        }
+
+        if ( partitionLock.isWriteLockedByCurrentThread() || ( !write && ( partitionLock.getReadHoldCount() > 0 ) ) )
+        {
+            // Reentrant
+            lock.lock();
+
+            return;
+        }
+
+        if ( partitionLock.getReadHoldCount() > 0 )
+        {
+            // A ReadLock can't be upgraded
+            String message = "Cannot write in the partition " + partition.getId() + " while reading it";
+            OPERATION_LOG.error( message );
+            throw new LdapOtherException( message );
+        }
+
+        if ( !holdsLockAfter( partition ) )
+        {
+            // Taken in order
+            lock.lock();
+
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + outOfOrderLockTimeout;
+        long backoff = 1L;
+
+        try
+        {
+            // tryLock() doesn't queue behind the other waiters, even on a fair lock
+            boolean locked = lock.tryLock();
+
+            while ( !locked && ( System.currentTimeMillis() < deadline ) )
+            {
+                Thread.sleep( backoff );
+                backoff = Math.min( backoff * 2, MAX_OUT_OF_ORDER_LOCK_BACKOFF );
+                locked = lock.tryLock();
+            }
+
+            if ( locked )
+            {
+                return;
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        String message = "Cannot lock the partition " + partition.getId()
+            + " out of the partitions order without risking a deadlock";
+        OPERATION_LOG.error( message );
+        throw new LdapOtherException( message );
+    }
+
+
+    /**
+     * Tells if the current thread holds the lock of a partition which comes after the
+     * given partition in the locking order.
+     */
+    private boolean holdsLockAfter( Partition partition )
+    {
+        for ( Map.Entry<Partition, ReentrantReadWriteLock> entry : partitionLocks.entrySet() )
+        {
+            ReentrantReadWriteLock partitionLock = entry.getValue();
+
+            if ( ( partitionLock.isWriteLockedByCurrentThread() || ( partitionLock.getReadHoldCount() > 0 ) )
+                && ( comparePartitions( entry.getKey(), partition ) > 0 ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Defines a total order on the partitions, used to acquire their locks. The
+     * partitions are compared using their suffix, and their identity if they
+     * share the same suffix.
+     */
+    private int comparePartitions( Partition partition, Partition otherPartition )
+    {
+        if ( partition == otherPartition )
+        {
+            return 0;
+        }
+
+        Dn suffix = partition.getSuffixDn();
+        Dn otherSuffix = otherPartition.getSuffixDn();
+
+        if ( ( suffix != null ) && ( otherSuffix != null ) )
+        {
+            int comp = suffix.getNormName().compareTo( otherSuffix.getNormName() );
+
+            if ( comp != 0 )
+            {
+                return comp;
+            }
+        }
+
+        return Integer.compare( System.identityHashCode( partition ), System.identityHashCode( otherPartition ) );
+    }
+
+
+    /**
+     * Commits a write transaction, without waiting for the changes to be durable, so
+     * that the partition can be unlocked before the disk is synced.
+     */
+    private void commitAsync( PartitionTxn transaction ) throws IOException
+    {
+        if ( transaction instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) transaction ).commitAsync();
+        }
+        else
+        {
+            transaction.commit();
+        }
+    }
+
+
+    /**
+     * Waits until the changes committed by an operation are durable. The operations
+     * done in a session transaction are made durable when the session commits.
+     */
+    private void awaitCommit( OperationContext opContext, PartitionTxn transaction ) throws LdapException
+    {
+        if ( opContext.getSession().hasSessionTransaction() || !( transaction instanceof PartitionWriteTxn ) )
+        {
+            return;
+        }
+
+        try
+        {
+            ( ( PartitionWriteTxn ) transaction ).awaitCommit();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -409,7 +819,7 @@ public class DefaultOperationManager implements OperationManager
         // Call the Add method
         Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
 
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
@@ -432,7 +842,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !addContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitAsync( transaction );
             }
         }
         catch ( LdapException le )
@@ -466,9 +876,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        // Now that the partition is unlocked, wait for the changes to be durable
+        awaitCommit( addContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< AddOperation successful" );
@@ -512,12 +925,12 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 bindContext.setPartition( partition );
@@ -532,7 +945,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -627,12 +1040,12 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 compareContext.setPartition( partition );
@@ -647,7 +1060,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -795,7 +1208,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = deleteContext.getSession().getTransaction( partition ); 
@@ -823,7 +1236,7 @@ public class DefaultOperationManager implements OperationManager
 
                     if ( !deleteContext.getSession().hasSessionTransaction() )
                     {
-                        transaction.commit();
+                        commitAsync( transaction );
                     }
                 }
                 catch ( CursorException ce )
@@ -854,7 +1267,7 @@ public class DefaultOperationManager implements OperationManager
     
                 if ( !deleteContext.getSession().hasSessionTransaction() )
                 {
-                    transaction.commit();
+                    commitAsync( transaction );
                 }
             }
         }
@@ -889,9 +1302,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        // Now that the partition is unlocked, wait for the changes to be durable
+        awaitCommit( deleteContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
@@ -926,12 +1342,12 @@ public class DefaultOperationManager implements OperationManager
         Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
         Entry root;
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
+
+        lockRead( partition );
+
         try
         {
-            lockRead();
-            
-            Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 getRootDseContext.setPartition( partition );
@@ -946,7 +1362,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -986,8 +1402,6 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -997,10 +1411,12 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
+
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 hasEntryContext.setPartition( partition );
@@ -1015,7 +1431,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -1072,7 +1488,7 @@ public class DefaultOperationManager implements OperationManager
         {
             lookupContext.setTransaction( transaction );
 
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -1080,7 +1496,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1187,7 +1603,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         modifyContext.setPartition( partition );
         
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
@@ -1216,7 +1632,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !modifyContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitAsync( transaction );
             }
         }
         catch ( LdapException le )
@@ -1250,9 +1666,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        // Now that the partition is unlocked, wait for the changes to be durable
+        awaitCommit( modifyContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
@@ -1358,12 +1777,13 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-        
-        // Find the working partition
+        // Find the working partition, and the one the entry is moved to. Both are locked
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        Partition newPartition = directoryService.getPartitionNexus().getPartition( newSuperiorDn );
         moveContext.setPartition( partition );
 
+        lockWrite( partition, newPartition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = moveContext.getSession().getTransaction( partition ); 
         
@@ -1391,7 +1811,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !moveContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitAsync( transaction );
             }
         }
         catch ( LdapException le )
@@ -1428,9 +1848,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition, newPartition );
         }
 
+        // Now that the partition is unlocked, wait for the changes to be durable
+        awaitCommit( moveContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveOperation successful" );
@@ -1537,11 +1960,13 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        // Find the working partition
+        // Find the working partition, and the one the entry is moved to. Both are locked
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        Partition newPartition = directoryService.getPartitionNexus().getPartition(
+            moveAndRenameContext.getNewSuperiorDn() );
         moveAndRenameContext.setPartition( partition );
 
-        lockWrite();
+        lockWrite( partition, newPartition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = moveAndRenameContext.getSession().getTransaction( partition ); 
@@ -1569,7 +1994,7 @@ public class DefaultOperationManager implements OperationManager
 
             if ( !moveAndRenameContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitAsync( transaction );
             }
         }
         catch ( LdapException le )
@@ -1603,9 +2028,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition, newPartition );
         }
 
+        // Now that the partition is unlocked, wait for the changes to be durable
+        awaitCommit( moveAndRenameContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
@@ -1709,10 +2137,10 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = renameContext.getSession().getTransaction( partition ); 
         
@@ -1785,7 +2213,7 @@ public class DefaultOperationManager implements OperationManager
                 
                 if ( !renameContext.getSession().hasSessionTransaction() )
                 {
-                    transaction.commit();
+                    commitAsync( transaction );
                 }
             }
             catch ( LdapException le )
@@ -1823,9 +2251,12 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        // Now that the partition is unlocked, wait for the changes to be durable
+        awaitCommit( renameContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< RenameOperation successful" );
@@ -1922,7 +2353,7 @@ public class DefaultOperationManager implements OperationManager
         {
             searchContext.setPartition( partition );
             searchContext.setTransaction( partitionTxn );
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -1930,7 +2361,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
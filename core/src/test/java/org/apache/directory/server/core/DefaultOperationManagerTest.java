@@ -0,0 +1,487 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the partition locks of the DefaultOperationManager.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DefaultOperationManagerTest
+{
+    private static SchemaManager schemaManager;
+
+    private DefaultOperationManager operationManager;
+    private SchemaPartition schemaPartition;
+    private Partition partitionA;
+    private Partition partitionB;
+    private ExecutorService executor;
+
+
+    @BeforeClass
+    public static void loadSchemaManager() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void createOperationManager() throws Exception
+    {
+        DefaultDirectoryService directoryService = new DefaultDirectoryService();
+        schemaPartition = new SchemaPartition( schemaManager );
+        directoryService.setSchemaPartition( schemaPartition );
+
+        operationManager = new DefaultOperationManager( directoryService );
+        operationManager.setOutOfOrderLockTimeout( 200L );
+
+        partitionA = partition( "dc=a" );
+        partitionB = partition( "dc=b" );
+        executor = Executors.newCachedThreadPool();
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Creates a Partition which only knows its suffix : the locks don't need anything else
+     */
+    private static Partition partition( String suffix ) throws Exception
+    {
+        Dn suffixDn = new Dn( schemaManager, suffix );
+
+        return ( Partition ) Proxy.newProxyInstance( Partition.class.getClassLoader(),
+            new Class<?>[] { Partition.class }, ( proxy, method, args ) ->
+            {
+                switch ( method.getName() )
+                {
+                    case "getSuffixDn":
+                        return suffixDn;
+
+                    case "getId":
+                    case "toString":
+                        return suffix;
+
+                    case "hashCode":
+                        return System.identityHashCode( proxy );
+
+                    case "equals":
+                        return proxy == args[0];
+
+                    default:
+                        throw new UnsupportedOperationException( method.getName() );
+                }
+            } );
+    }
+
+
+    @Test
+    public void testWriteDoesNotBlockTheOtherPartitions() throws Exception
+    {
+        CountDownLatch locked = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        Future<?> writer = executor.submit( () ->
+        {
+            operationManager.lockWrite( partitionB );
+
+            try
+            {
+                locked.countDown();
+                release.await();
+            }
+            finally
+            {
+                operationManager.unlockWrite( partitionB );
+            }
+
+            return null;
+        } );
+
+        assertTrue( locked.await( 10, TimeUnit.SECONDS ) );
+
+        // The partition A can be read and written while B is being written
+        Future<?> readerA = executor.submit( () ->
+        {
+            for ( int i = 0; i < 1000; i++ )
+            {
+                operationManager.lockRead( partitionA );
+                operationManager.unlockRead( partitionA );
+            }
+
+            operationManager.lockWrite( partitionA );
+            operationManager.unlockWrite( partitionA );
+
+            return null;
+        } );
+
+        readerA.get( 10, TimeUnit.SECONDS );
+
+        // The partition B can't be read
+        Future<?> readerB = executor.submit( () ->
+        {
+            operationManager.lockRead( partitionB );
+            operationManager.unlockRead( partitionB );
+
+            return null;
+        } );
+
+        try
+        {
+            readerB.get( 100, TimeUnit.MILLISECONDS );
+            fail();
+        }
+        catch ( TimeoutException te )
+        {
+            // Expected
+        }
+
+        release.countDown();
+        writer.get( 10, TimeUnit.SECONDS );
+        readerB.get( 10, TimeUnit.SECONDS );
+    }
+
+
+    @Test
+    public void testReadThroughputUnderWriteLoad() throws Exception
+    {
+        CountDownLatch done = new CountDownLatch( 1 );
+
+        // A writer keeps on locking the partition B
+        Future<?> writer = executor.submit( () ->
+        {
+            while ( done.getCount() > 0 )
+            {
+                operationManager.lockWrite( partitionB );
+
+                try
+                {
+                    Thread.sleep( 1L );
+                }
+                finally
+                {
+                    operationManager.unlockWrite( partitionB );
+                }
+            }
+
+            return null;
+        } );
+
+        AtomicInteger nbReads = new AtomicInteger();
+        Future<?> reader = executor.submit( () ->
+        {
+            long end = System.currentTimeMillis() + 500L;
+
+            while ( System.currentTimeMillis() < end )
+            {
+                operationManager.lockRead( partitionA );
+                operationManager.unlockRead( partitionA );
+                nbReads.incrementAndGet();
+            }
+
+            return null;
+        } );
+
+        reader.get( 10, TimeUnit.SECONDS );
+        done.countDown();
+        writer.get( 10, TimeUnit.SECONDS );
+
+        // Each write holds B for at least 1ms : had the reads waited for them, there
+        // would have been at most a few hundreds of them
+        assertTrue( nbReads.get() > 5000 );
+    }
+
+
+    @Test
+    public void testCrossPartitionNestedWritesDontDeadlock() throws Exception
+    {
+        CountDownLatch bothLocked = new CountDownLatch( 2 );
+        AtomicInteger nbFailures = new AtomicInteger();
+
+        Future<?> aThenB = executor.submit( () -> nestedWrite( partitionA, partitionB, bothLocked, nbFailures ) );
+        Future<?> bThenA = executor.submit( () -> nestedWrite( partitionB, partitionA, bothLocked, nbFailures ) );
+
+        aThenB.get( 10, TimeUnit.SECONDS );
+        bThenA.get( 10, TimeUnit.SECONDS );
+
+        // The nested write locking A after B has given up, the other one has succeeded
+        assertEquals( 1, nbFailures.get() );
+        assertFalse( ( ( ReentrantReadWriteLock ) operationManager.getRWLock( partitionA ) ).isWriteLocked() );
+        assertFalse( ( ( ReentrantReadWriteLock ) operationManager.getRWLock( partitionB ) ).isWriteLocked() );
+        assertEquals( 0, ( ( ReentrantReadWriteLock ) operationManager.getRWLock() ).getReadLockCount() );
+    }
+
+
+    private Void nestedWrite( Partition outer, Partition inner, CountDownLatch bothLocked,
+        AtomicInteger nbFailures ) throws Exception
+    {
+        operationManager.lockWrite( outer );
+
+        try
+        {
+            bothLocked.countDown();
+            bothLocked.await();
+
+            operationManager.lockWrite( inner );
+            operationManager.unlockWrite( inner );
+        }
+        catch ( LdapOtherException loe )
+        {
+            nbFailures.incrementAndGet();
+        }
+        finally
+        {
+            operationManager.unlockWrite( outer );
+        }
+
+        return null;
+    }
+
+
+    @Test
+    public void testOutOfOrderLockFailsFast() throws Exception
+    {
+        operationManager.setOutOfOrderLockTimeout( 0L );
+        CountDownLatch locked = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        Future<?> holder = executor.submit( () -> holdWrite( partitionA, locked, release ) );
+        assertTrue( locked.await( 10, TimeUnit.SECONDS ) );
+
+        operationManager.lockWrite( partitionB );
+
+        try
+        {
+            long start = System.currentTimeMillis();
+
+            try
+            {
+                operationManager.lockWrite( partitionA );
+                fail();
+            }
+            catch ( LdapOtherException loe )
+            {
+                // Expected
+            }
+
+            // The lock has not been waited for
+            assertTrue( System.currentTimeMillis() - start < 1000L );
+        }
+        finally
+        {
+            operationManager.unlockWrite( partitionB );
+            release.countDown();
+        }
+
+        holder.get( 10, TimeUnit.SECONDS );
+        assertEquals( 0, ( ( ReentrantReadWriteLock ) operationManager.getRWLock() ).getReadLockCount() );
+    }
+
+
+    @Test
+    public void testOutOfOrderLockIsRetried() throws Exception
+    {
+        operationManager.setOutOfOrderLockTimeout( 5000L );
+        CountDownLatch locked = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        Future<?> holder = executor.submit( () -> holdWrite( partitionA, locked, release ) );
+        assertTrue( locked.await( 10, TimeUnit.SECONDS ) );
+
+        operationManager.lockWrite( partitionB );
+
+        try
+        {
+            // The partition A is released while the nested lock is retried
+            executor.submit( () ->
+            {
+                Thread.sleep( 50L );
+                release.countDown();
+
+                return null;
+            } );
+
+            operationManager.lockWrite( partitionA );
+            operationManager.unlockWrite( partitionA );
+        }
+        finally
+        {
+            operationManager.unlockWrite( partitionB );
+        }
+
+        holder.get( 10, TimeUnit.SECONDS );
+    }
+
+
+    private Void holdWrite( Partition partition, CountDownLatch locked, CountDownLatch release ) throws Exception
+    {
+        operationManager.lockWrite( partition );
+
+        try
+        {
+            locked.countDown();
+            release.await();
+        }
+        finally
+        {
+            operationManager.unlockWrite( partition );
+        }
+
+        return null;
+    }
+
+
+    @Test
+    public void testSchemaWriteIsExclusive() throws Exception
+    {
+        ReentrantReadWriteLock serverLock = ( ReentrantReadWriteLock ) operationManager.getRWLock();
+
+        operationManager.lockWrite( schemaPartition );
+
+        try
+        {
+            assertTrue( serverLock.isWriteLockedByCurrentThread() );
+
+            // The operations nested in the schema update can still lock the other partitions
+            operationManager.lockWrite( partitionA );
+            operationManager.unlockWrite( partitionA );
+            assertTrue( serverLock.isWriteLockedByCurrentThread() );
+        }
+        finally
+        {
+            operationManager.unlockWrite( schemaPartition );
+        }
+
+        assertFalse( serverLock.isWriteLocked() );
+        assertEquals( 0, serverLock.getReadLockCount() );
+    }
+
+
+    @Test
+    public void testNestedSchemaWrite() throws Exception
+    {
+        ReentrantReadWriteLock serverLock = ( ReentrantReadWriteLock ) operationManager.getRWLock();
+
+        // A schema update nested in a write on another partition doesn't upgrade the server lock
+        Future<?> nested = executor.submit( () ->
+        {
+            operationManager.lockWrite( partitionA );
+
+            try
+            {
+                operationManager.lockWrite( schemaPartition );
+
+                try
+                {
+                    assertFalse( serverLock.isWriteLocked() );
+                    assertTrue( ( ( ReentrantReadWriteLock ) operationManager.getRWLock( schemaPartition ) )
+                        .isWriteLockedByCurrentThread() );
+                }
+                finally
+                {
+                    operationManager.unlockWrite( schemaPartition );
+                }
+            }
+            finally
+            {
+                operationManager.unlockWrite( partitionA );
+            }
+
+            return null;
+        } );
+
+        nested.get( 10, TimeUnit.SECONDS );
+
+        assertFalse( serverLock.isWriteLocked() );
+        assertEquals( 0, serverLock.getReadLockCount() );
+    }
+
+
+    @Test
+    public void testReadLockIsNotUpgraded() throws Exception
+    {
+        operationManager.lockRead( partitionA );
+
+        try
+        {
+            operationManager.lockWrite( partitionA );
+            fail();
+        }
+        catch ( LdapException le )
+        {
+            // Expected
+        }
+        finally
+        {
+            operationManager.unlockRead( partitionA );
+        }
+
+        assertEquals( 0, ( ( ReentrantReadWriteLock ) operationManager.getRWLock() ).getReadLockCount() );
+        assertEquals( 0, ( ( ReentrantReadWriteLock ) operationManager.getRWLock( partitionA ) ).getReadLockCount() );
+    }
+
+
+    @Test
+    public void testRemoveRWLock() throws Exception
+    {
+        ReentrantReadWriteLock lock = ( ReentrantReadWriteLock ) operationManager.getRWLock( partitionA );
+        assertSame( lock, operationManager.getRWLock( partitionA ) );
+
+        operationManager.removeRWLock( partitionA );
+
+        assertNotSame( lock, operationManager.getRWLock( partitionA ) );
+    }
+}
@@ -1244,6 +1244,11 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     {
         LdapPrincipal user = searchContext.getSession().getEffectivePrincipal();
         Dn principalDn = user.getDn();
+
+        // The ACIs are read in the entries
+        searchContext.addRequiredAttributes( directoryService.getAtProvider().getEntryACI(),
+            directoryService.getAtProvider().getAccessControlSubentries() );
+
         EntryFilteringCursor cursor = next( searchContext );
 
         boolean isSubschemaSubentryLookup = subschemaSubentryDn.equals( searchContext.getDn() );
@@ -178,6 +178,10 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     @Override
     public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
     {
+        // The collective attributes are computed from these attributes
+        searchContext.addRequiredAttributes( directoryService.getAtProvider().getCollectiveAttributeSubentries(),
+            directoryService.getAtProvider().getCollectiveExclusions() );
+
         EntryFilteringCursor cursor = next( searchContext );
 
         // only add collective attributes for non-syncrepl search
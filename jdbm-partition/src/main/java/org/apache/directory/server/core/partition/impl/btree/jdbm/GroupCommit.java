@@ -0,0 +1,404 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdbm.recman.BaseRecordManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Shares the synchronization of the JDBM transaction log between the write transactions
+ * committed concurrently.
+ * <p>
+ * Each committed transaction gets a ticket, and waits until a log synchronization
+ * started after its commit has completed. The first waiting transaction becomes the
+ * leader : while other write transactions are still open, it waits for at most the
+ * configured delay so that they can join the batch. It is woken up as soon as they
+ * are all committed or aborted, and doesn't wait at all if there are none. It then
+ * syncs the log once for all the committed transactions, and wakes them up. The
+ * transactions committed during a synchronization are synced by the next leader.
+ * <p>
+ * The changes of a committed transaction are visible to the readers as soon as the
+ * record manager commit is done, before the log is synced : a reader may see changes
+ * which will be lost if the server crashes before the synchronization. Only the
+ * client of the writer waits for the changes to be durable.
+ * <p>
+ * The batch sizes and the commit latencies are recorded in histograms whose bucket
+ * <em>i</em> counts the values in [2<sup>i</sup>, 2<sup>i+1</sup>[ (in microseconds
+ * for the latencies).
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupCommit
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( GroupCommit.class );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG.isDebugEnabled();
+
+    /** The number of buckets in the histograms */
+    public static final int NB_BUCKETS = 32;
+
+    /** The record manager which log we sync */
+    private final BaseRecordManager recordManager;
+
+    /** The maximum time a leader waits for other transactions, in nanoseconds */
+    private volatile long maxDelay;
+
+    /** The lock protecting the tickets */
+    private final Lock lock = new ReentrantLock();
+
+    /** Signaled when a synchronization is completed */
+    private final Condition synced = lock.newCondition();
+
+    /** Used by the leader to wait for the other transactions, signaled when they are all committed */
+    private final Condition batching = lock.newCondition();
+
+    /** The number of write transactions started and not yet committed or aborted */
+    private int nbActive;
+
+    /** The last ticket given to a committed transaction */
+    private long lastTicket;
+
+    /** The last ticket which changes are durable */
+    private long lastSynced;
+
+    /** Tells if a leader is currently syncing */
+    private boolean syncing;
+
+    /** The last ticket whose synchronization has failed, and the failure */
+    private long lastFailed;
+    private IOException failure;
+
+    /** The number of transactions synced together */
+    private final AtomicLongArray batchSizes = new AtomicLongArray( NB_BUCKETS );
+
+    /** The time the transactions waited for their changes to be durable */
+    private final AtomicLongArray latencies = new AtomicLongArray( NB_BUCKETS );
+
+
+    /**
+     * Creates a new GroupCommit instance
+     *
+     * @param recordManager The record manager which log has to be synced
+     * @param maxDelay The maximum time a transaction waits for other transactions, in milliseconds
+     */
+    public GroupCommit( BaseRecordManager recordManager, long maxDelay )
+    {
+        this.recordManager = recordManager;
+        setMaxDelay( maxDelay );
+    }
+
+
+    /**
+     * @return The maximum time a transaction waits for other transactions, in milliseconds
+     */
+    public long getMaxDelay()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( maxDelay );
+    }
+
+
+    /**
+     * @param maxDelay The maximum time a transaction waits for other transactions, in milliseconds
+     */
+    public void setMaxDelay( long maxDelay )
+    {
+        this.maxDelay = TimeUnit.MILLISECONDS.toNanos( Math.max( 0L, maxDelay ) );
+    }
+
+
+    /**
+     * Declares a new write transaction, which may join the next batch. It must then be either
+     * registered once committed, or cancelled if aborted.
+     */
+    public void begin()
+    {
+        lock.lock();
+
+        try
+        {
+            nbActive++;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Registers a committed transaction. It must be called right after the record manager commit.
+     *
+     * @return The ticket to wait for
+     */
+    public long register()
+    {
+        lock.lock();
+
+        try
+        {
+            end();
+
+            return ++lastTicket;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Forgets an aborted transaction, so that the leader doesn't wait for it
+     */
+    public void cancel()
+    {
+        lock.lock();
+
+        try
+        {
+            end();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Called with the lock held when a transaction is committed or aborted : wakes up the
+     * leader once no more transaction may join the batch.
+     */
+    private void end()
+    {
+        if ( nbActive > 0 )
+        {
+            nbActive--;
+        }
+
+        if ( nbActive == 0 )
+        {
+            batching.signal();
+        }
+    }
+
+
+    /**
+     * Waits until the changes of a committed transaction are durable.
+     *
+     * @param ticket The ticket returned by {@link #register()}
+     * @throws IOException If the log could not be synced
+     */
+    public void await( long ticket ) throws IOException
+    {
+        long start = System.nanoTime();
+
+        lock.lock();
+
+        try
+        {
+            while ( lastSynced < ticket )
+            {
+                if ( ticket <= lastFailed )
+                {
+                    throw new IOException( failure.getMessage(), failure );
+                }
+
+                if ( syncing )
+                {
+                    synced.awaitUninterruptibly();
+                }
+                else
+                {
+                    lead();
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        record( latencies, TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - start ) );
+    }
+
+
+    /**
+     * Syncs the log for all the registered transactions. Called with the lock held.
+     */
+    private void lead()
+    {
+        syncing = true;
+
+        // Give the open transactions a chance to join the batch
+        long deadline = System.nanoTime() + maxDelay;
+        long remaining = maxDelay;
+
+        while ( ( remaining > 0 ) && ( nbActive > 0 ) )
+        {
+            try
+            {
+                batching.awaitNanos( remaining );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            remaining = deadline - System.nanoTime();
+        }
+
+        long target = lastTicket;
+        IOException error = null;
+
+        lock.unlock();
+
+        try
+        {
+            // Don't sync while a transaction is being committed
+            synchronized ( recordManager )
+            {
+                recordManager.getTransactionManager().synchronizeLog();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            error = ioe;
+        }
+        finally
+        {
+            lock.lock();
+        }
+
+        if ( error == null )
+        {
+            long batchSize = target - lastSynced;
+            record( batchSizes, batchSize );
+            lastSynced = target;
+
+            if ( IS_DEBUG )
+            {
+                LOG.debug( "Synced the log for {} transactions", batchSize );
+            }
+        }
+        else
+        {
+            LOG.error( "Failed to sync the log for the transactions up to {}", target, error );
+            failure = error;
+            lastFailed = target;
+        }
+
+        syncing = false;
+        synced.signalAll();
+    }
+
+
+    /**
+     * Adds a value in a histogram
+     */
+    private static void record( AtomicLongArray histogram, long value )
+    {
+        int bucket = 63 - Long.numberOfLeadingZeros( Math.max( 1L, value ) );
+
+        histogram.incrementAndGet( Math.min( bucket, NB_BUCKETS - 1 ) );
+    }
+
+
+    /**
+     * Copies a histogram
+     */
+    private static long[] copy( AtomicLongArray histogram )
+    {
+        long[] values = new long[NB_BUCKETS];
+
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            values[i] = histogram.get( i );
+        }
+
+        return values;
+    }
+
+
+    /**
+     * @return The number of log synchronizations done so far
+     */
+    public long getNbSyncs()
+    {
+        long nbSyncs = 0L;
+
+        for ( int i = 0; i < NB_BUCKETS; i++ )
+        {
+            nbSyncs += batchSizes.get( i );
+        }
+
+        return nbSyncs;
+    }
+
+
+    /**
+     * @return The number of transactions synced so far
+     */
+    public long getNbCommits()
+    {
+        lock.lock();
+
+        try
+        {
+            return lastSynced;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return The distribution of the number of transactions synced together
+     */
+    public long[] getBatchSizeDistribution()
+    {
+        return copy( batchSizes );
+    }
+
+
+    /**
+     * @return The distribution of the time, in microseconds, the transactions waited for their changes to be durable
+     */
+    public long[] getLatencyDistribution()
+    {
+        return copy( latencies );
+    }
+}
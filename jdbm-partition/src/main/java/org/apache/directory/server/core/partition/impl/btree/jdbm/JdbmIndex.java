@@ -66,6 +66,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     /**  the key used for the reverse btree name */
     public static final String REVERSE_BTREE = "_reverse";
 
+    /**  the key used for the n-gram btree name */
+    public static final String NGRAM_BTREE = "_ngram";
+
     /**
      * the forward btree where the btree key is the value of the indexed attribute and
      * the value of the btree is the entry id of the entry containing an attribute with
@@ -164,6 +167,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         try
         {
             initTables( schemaManager );
+
+            if ( ngrams != null )
+            {
+                buildNgrams( null );
+            }
         }
         catch ( IOException e )
         {
@@ -177,12 +185,13 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
 
 
     /**
-     * Initializes the forward and reverse tables used by this Index.
+     * Initializes the forward, reverse and n-gram tables used by this Index.
      * 
      * @param schemaManager The server schemaManager
      * @throws IOException if we cannot initialize the forward and reverse
      * tables
      */
+    @SuppressWarnings("unchecked")
     private void initTables( SchemaManager schemaManager ) throws IOException
     {
         SerializableComparator<K> comp;
@@ -237,6 +246,17 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                     UuidComparator.INSTANCE, comp, UuidSerializer.INSTANCE, null );
             }
         }
+
+        /*
+         * The n-gram map stores the n-grams of the attribute values as the key, and
+         * the attribute values containing them as the values.
+         */
+        if ( useNgrams() )
+        {
+            ngrams = new JdbmTable<>( schemaManager, attributeType.getOid() + NGRAM_BTREE, numDupLimit,
+                recMan, ( SerializableComparator<String> ) comp, comp, StringSerializer.INSTANCE,
+                StringSerializer.INSTANCE );
+        }
     }
 
 
@@ -372,6 +392,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( PartitionTxn partitionTxn,  K attrVal, String id ) throws LdapException
     {
+        if ( ( ngrams != null ) && !forward.has( partitionTxn, attrVal ) )
+        {
+            addNgrams( partitionTxn, attrVal );
+        }
+
         // The pair to be added must exists
         forward.put( partitionTxn, attrVal, id );
 
@@ -396,6 +421,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             {
                 reverse.remove( partitionTxn, id, attrVal );
             }
+
+            if ( ngrams != null )
+            {
+                dropNgrams( partitionTxn, attrVal );
+            }
         }
     }
 
@@ -418,7 +448,13 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                     while ( values.next() )
                     {
                         // Remove the Key -> entryId from the index
-                        forward.remove( partitionTxn, values.get().getValue(), entryId );
+                        K key = values.get().getValue();
+                        forward.remove( partitionTxn, key, entryId );
+
+                        if ( ngrams != null )
+                        {
+                            dropNgrams( partitionTxn, key );
+                        }
                     }
     
                     values.close();
@@ -433,6 +469,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( partitionTxn, entryId );
 
                 forward.remove( partitionTxn, key );
+
+                if ( ngrams != null )
+                {
+                    dropNgrams( partitionTxn, key );
+                }
             }
 
             // Remove the id -> key from the reverse index
@@ -544,6 +585,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         {
             reverse.close( partitionTxn );
         }
+
+        if ( ngrams != null )
+        {
+            ngrams.close( partitionTxn );
+        }
     }
 
     
@@ -27,8 +27,11 @@ import jdbm.RecordManager;
 import jdbm.helper.Serializer;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.EntryCodec;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
@@ -39,6 +42,10 @@ import org.apache.directory.server.xdbm.MasterTable;
  */
 public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterTable
 {
+    /** The codec used to serialize the entries, null if a specific serializer is used */
+    private final EntryCodec codec;
+
+
     /**
      * Creates the master table using JDBM B+Trees for the backing store.
      *
@@ -47,10 +54,26 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
      * @throws IOException if there is an error opening the Db file.
      */
     public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager ) throws IOException
+    {
+        this( recMan, schemaManager, new EntryCodec( schemaManager ) );
+    }
+
+
+    /**
+     * Creates the master table using JDBM B+Trees for the backing store, the entries being
+     * serialized with the given codec.
+     *
+     * @param recMan the JDBM record manager
+     * @param schemaManager the schema manager
+     * @param codec the codec used to serialize the entries
+     * @throws IOException if there is an error opening the Db file.
+     */
+    public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, EntryCodec codec ) throws IOException
     {
         super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE,
-            new EntrySerializer( schemaManager ) );
+            new EntrySerializer( codec ) );
 
+        this.codec = codec;
         UuidComparator.INSTANCE.setSchemaManager( schemaManager );
     }
 
@@ -59,6 +82,25 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
         throws Exception
     {
         super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE, serializer );
+
+        codec = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * The entry is counted by the codec once here : it's serialized again each time the
+     * page containing it is written, and those serializations must not be counted.
+     */
+    @Override
+    public synchronized void put( PartitionTxn transaction, String key, Entry value ) throws LdapException
+    {
+        if ( codec != null )
+        {
+            codec.countWrite( value );
+        }
+
+        super.put( transaction, key, value );
     }
 
 
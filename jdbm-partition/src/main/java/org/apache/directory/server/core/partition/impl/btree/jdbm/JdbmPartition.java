@@ -45,6 +45,7 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
@@ -62,9 +63,15 @@ import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCache;
+import org.apache.directory.server.core.partition.impl.btree.EntryCodec;
+import org.apache.directory.server.core.partition.impl.btree.OutOfLineValueComparator;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.Table;
+import org.apache.directory.server.xdbm.ValueDictionary;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -73,11 +80,8 @@ import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
 
 import jdbm.RecordManager;
-import jdbm.helper.MRU;
 import jdbm.recman.BaseRecordManager;
 import jdbm.recman.CacheRecordManager;
 import jdbm.recman.TransactionManager;
@@ -96,6 +100,9 @@ public class JdbmPartition extends AbstractBTreePartition
 
     private static final String JDBM_DB_FILE_EXTN = ".db";
 
+    /** The name of the file containing the value dictionary */
+    private static final String DICTIONARY_FILE = "dictionary.db";
+
     private static final FilenameFilter DB_FILTER = new FilenameFilter()
     {
         @Override
@@ -109,8 +116,39 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the JDBM record manager used by this database */
     private RecordManager recMan;
 
+    /** The group commit sharing the log synchronizations between the concurrent writes */
+    private GroupCommit groupCommit;
+
+    /** The maximum time a write waits for other writes to share the log synchronization, in ms */
+    private long groupCommitDelay = 0L;
+
     /** the entry cache */
-    private Cache< String, Entry > entryCache;
+    private EntryCache entryCache;
+
+    /** The maximum size of the on-heap entry cache, in bytes. A negative value bounds it by cacheSize entries */
+    private long entryCacheMaxSize = -1L;
+
+    /** The maximum size of the off-heap entry cache, in bytes. 0 disables it */
+    private long entryCacheOffHeapSize = 0L;
+
+    /** The maximum size of the JDBM record cache, in bytes. A negative value means the default size */
+    private long recordCacheSize = -1L;
+
+    /** The JDBM record cache, holding the CacheRecordManager private entries */
+    @SuppressWarnings("rawtypes")
+    private RecordCache recordCache;
+
+    /** The maximum number of values in the dictionary of the master table. 0 disables it */
+    private int dictionarySize = 0;
+
+    /** The minimum size of the compressed master table records, in bytes. 0 disables the compression */
+    private int compressionThreshold = 0;
+
+    /** The dictionary of the values repeated in the entries, or null */
+    private ValueDictionary dictionary;
+
+    /** The codec used to serialize the master table records */
+    private EntryCodec entryCodec;
 
 
     /**
@@ -159,6 +197,7 @@ public class JdbmPartition extends AbstractBTreePartition
                 String id = tuple.getKey();
 
                 Entry entry = tuple.getValue();
+                readOutOfLineValues( partitionTxn, id, entry );
                 
                 // Start with the RdnIndex
                 String parentId = entry.get( ApacheSchemaConstants.ENTRY_PARENT_ID_OID ).getString();
@@ -399,7 +438,7 @@ public class JdbmPartition extends AbstractBTreePartition
     {
         if ( !initialized )
         {
-            BaseRecordManager base;
+            SizedRecordManager base;
 
             // setup optimizer and registries for parent
             if ( !optimizerEnabled )
@@ -429,19 +468,16 @@ public class JdbmPartition extends AbstractBTreePartition
 
             try
             {
-                base = new BaseRecordManager( path );
+                base = new SizedRecordManager( path );
                 TransactionManager transactionManager = base.getTransactionManager();
                 transactionManager.setMaximumTransactionsInLog( 2000 );
                 
-                // prevent the OOM when more than 50k users are loaded at a stretch
-                // adding this system property to make it configurable till JDBM gets replaced by Mavibot
-                String cacheSizeVal = System.getProperty( "jdbm.recman.cache.size", "100" );
-                
-                int recCacheSize = Integer.parseInt( cacheSizeVal );
-                
-                LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
-                
-                recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
+                recordCache = new RecordCache( getEffectiveRecordCacheSize() );
+                base.setRecordCache( recordCache );
+                LOG.info( "Setting the {} partition record cache size to {} bytes", id, recordCache.getMaxSize() );
+
+                recMan = new CacheRecordManager( base, recordCache );
+                groupCommit = new GroupCommit( base, groupCommitDelay );
             }
             catch ( IOException ioe )
             {
@@ -520,10 +556,20 @@ public class JdbmPartition extends AbstractBTreePartition
                 LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
             }
 
-            // Create the master table (the table containing all the entries)
+            // Create the master table (the table containing all the entries). The dictionary
+            // is still read when it's disabled, as the existing entries may use it
             try
             {
-                master = new JdbmMasterTable( recMan, schemaManager );
+                File dictionaryFile = new File( partitionDir, DICTIONARY_FILE );
+
+                if ( ( dictionarySize > 0 ) || dictionaryFile.exists() )
+                {
+                    dictionary = new ValueDictionary( dictionaryFile, dictionarySize );
+                    dictionary.open();
+                }
+
+                entryCodec = new EntryCodec( schemaManager, dictionary, compressionThreshold );
+                master = new JdbmMasterTable( recMan, schemaManager, entryCodec );
             }
             catch ( IOException ioe )
             {
@@ -535,7 +581,7 @@ public class JdbmPartition extends AbstractBTreePartition
                 buildUserIndex( beginReadTransaction(), indexToBuild );
             }
 
-            entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).build();
+            entryCache = new EntryCache( schemaManager, cacheSize, entryCacheMaxSize, entryCacheOffHeapSize );
 
             // Initialization of the context entry
             if ( ( suffixDn != null ) && ( contextEntry != null ) )
@@ -641,6 +687,212 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * @return The maximum time a write waits for other writes to share the log synchronization, in ms
+     */
+    public long getGroupCommitDelay()
+    {
+        return groupCommitDelay;
+    }
+
+
+    /**
+     * Sets the maximum time a write waits for other concurrent writes, so that they
+     * share the same log synchronization. This is only used when the partition syncs
+     * on each write.
+     * 
+     * @param groupCommitDelay The delay, in ms. 0 means the log is synced immediately.
+     */
+    public void setGroupCommitDelay( long groupCommitDelay )
+    {
+        this.groupCommitDelay = groupCommitDelay;
+
+        if ( groupCommit != null )
+        {
+            groupCommit.setMaxDelay( groupCommitDelay );
+        }
+    }
+
+
+    /**
+     * @return The GroupCommit instance, which exposes the commit statistics, or null
+     * if the partition has not been initialized
+     */
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
+    }
+
+
+    /**
+     * @return The configured maximum size of the JDBM record cache, in bytes. A negative
+     * value means the default size is used
+     */
+    public long getRecordCacheSize()
+    {
+        return recordCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the JDBM record cache, in bytes. It must be set before the
+     * partition is initialized.
+     * 
+     * @param recordCacheSize The maximum size, in bytes. A negative value means the default size
+     */
+    public void setRecordCacheSize( long recordCacheSize )
+    {
+        checkInitialized( "recordCacheSize" );
+        this.recordCacheSize = recordCacheSize;
+    }
+
+
+    /**
+     * Computes the size of the record cache. When it has not been configured, the deprecated
+     * <code>jdbm.recman.cache.size</code> system property, which is a number of records, is
+     * still used if it's set.
+     */
+    private long getEffectiveRecordCacheSize()
+    {
+        if ( recordCacheSize >= 0L )
+        {
+            return recordCacheSize;
+        }
+
+        String cacheSizeVal = System.getProperty( "jdbm.recman.cache.size" );
+
+        if ( cacheSizeVal != null )
+        {
+            return Long.parseLong( cacheSizeVal ) * RecordCache.DEFAULT_RECORD_SIZE;
+        }
+
+        return RecordCache.DEFAULT_CACHE_SIZE;
+    }
+
+
+    /**
+     * @return The JDBM record cache, which exposes the hit, miss and eviction counters, or
+     * null if the partition has not been initialized
+     */
+    public RecordCache<?, ?> getRecordCache()
+    {
+        return recordCache;
+    }
+
+
+    /**
+     * @return The maximum number of values in the dictionary of the master table. 0 means
+     * no value is added to the dictionary
+     */
+    public int getDictionarySize()
+    {
+        return dictionarySize;
+    }
+
+
+    /**
+     * Sets the maximum number of values in the dictionary of the master table : the values
+     * repeated in many entries, like the objectClass values, are only stored once in the
+     * dictionary. It must be set before the partition is initialized.
+     * 
+     * @param dictionarySize The maximum number of values. 0 disables the dictionary, the
+     * values already in it are still used
+     */
+    public void setDictionarySize( int dictionarySize )
+    {
+        checkInitialized( "dictionarySize" );
+        this.dictionarySize = dictionarySize;
+    }
+
+
+    /**
+     * @return The minimum size of the compressed master table records, in bytes. 0 means the
+     * records are not compressed
+     */
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+
+    /**
+     * Sets the minimum size of the compressed master table records. It must be set before
+     * the partition is initialized.
+     * 
+     * @param compressionThreshold The minimum size, in bytes. 0 disables the compression
+     */
+    public void setCompressionThreshold( int compressionThreshold )
+    {
+        checkInitialized( "compressionThreshold" );
+        this.compressionThreshold = compressionThreshold;
+    }
+
+
+    /**
+     * @return The codec of the master table records, which exposes the compression ratio
+     * and the dictionary hit rate, or null if the partition has not been initialized
+     */
+    public EntryCodec getEntryCodec()
+    {
+        return entryCodec;
+    }
+
+
+    /**
+     * @return The maximum size of the on-heap entry cache, in bytes. A negative value means
+     * the cache is bounded by the number of entries
+     */
+    public long getEntryCacheMaxSize()
+    {
+        return entryCacheMaxSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the on-heap entry cache, computed using the serialized size of
+     * the entries. It must be set before the partition is initialized.
+     * 
+     * @param entryCacheMaxSize The maximum size, in bytes. A negative value bounds the cache by
+     * the number of entries (see {@link #setCacheSize(int)})
+     */
+    public void setEntryCacheMaxSize( long entryCacheMaxSize )
+    {
+        checkInitialized( "entryCacheMaxSize" );
+        this.entryCacheMaxSize = entryCacheMaxSize;
+    }
+
+
+    /**
+     * @return The maximum size of the off-heap entry cache, in bytes. 0 means it's disabled
+     */
+    public long getEntryCacheOffHeapSize()
+    {
+        return entryCacheOffHeapSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the off-heap entry cache, which keeps the serialized entries
+     * evicted from the on-heap cache. It must be set before the partition is initialized.
+     * 
+     * @param entryCacheOffHeapSize The maximum size, in bytes. 0 disables the off-heap cache
+     */
+    public void setEntryCacheOffHeapSize( long entryCacheOffHeapSize )
+    {
+        checkInitialized( "entryCacheOffHeapSize" );
+        this.entryCacheOffHeapSize = entryCacheOffHeapSize;
+    }
+
+
+    /**
+     * @return The entry cache, or null if the partition has not been initialized
+     */
+    public EntryCache getEntryCache()
+    {
+        return entryCache;
+    }
+
+
     /**
      * {@inheritDoc}}
      */
@@ -736,6 +988,7 @@ public class JdbmPartition extends AbstractBTreePartition
     
                     String id = tuple.getKey();
                     Entry entry = tuple.getValue();
+                    readOutOfLineValues( partitionTxn, id, entry );
     
                     Attribute entryAttr = entry.get( atType );
     
@@ -839,6 +1092,37 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isBlobStoreSupported()
+    {
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, String> createOutOfLineTable( AttributeType attributeType ) throws LdapException
+    {
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        try
+        {
+            return new JdbmTable<>( schemaManager, attributeType.getOid() + "_values",
+                JdbmIndex.DEFAULT_DUPLICATE_LIMIT, recMan, UuidComparator.INSTANCE, OutOfLineValueComparator.INSTANCE,
+                UuidSerializer.INSTANCE, StringSerializer.INSTANCE );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -880,6 +1164,18 @@ public class JdbmPartition extends AbstractBTreePartition
             }
         }
 
+        if ( dictionary != null )
+        {
+            try
+            {
+                dictionary.close();
+            }
+            catch ( IOException ioe )
+            {
+                errors.addThrowable( ioe );
+            }
+        }
+
         if ( errors.size() > 0 )
         {
             throw new LdapOtherException( errors.getMessage(), errors );
@@ -949,8 +1245,19 @@ public class JdbmPartition extends AbstractBTreePartition
                 || ( opCtx instanceof MoveAndRenameOperationContext )
                 || ( opCtx instanceof RenameOperationContext ) )
             {
-                // clear the cache it is not worth updating all the children
-                entryCache.invalidateAll();
+                // Only the renamed entry has changed : the cached entries don't contain their Dn,
+                // which is set when they are fetched, so the descendants can stay in the cache
+                Entry entry = opCtx.getEntry();
+                Attribute entryUuid = ( entry != null ) ? entry.get( SchemaConstants.ENTRY_UUID_AT ) : null;
+
+                if ( entryUuid != null )
+                {
+                    entryCache.invalidate( entryUuid.getString() );
+                }
+                else
+                {
+                    entryCache.invalidateAll();
+                }
             }
             else if ( opCtx instanceof DeleteOperationContext )
             {
@@ -969,7 +1276,7 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public Entry lookupCache( String id )
     {
-        return ( entryCache != null ) ? entryCache.getIfPresent( id ) : null;
+        return ( entryCache != null ) ? entryCache.get( id ) : null;
     }
 
 
@@ -995,13 +1302,13 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
-        return new PartitionReadTxn();
+        return new SnapshotReadTxn( entryVersions );
     }
 
 
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
-        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
+        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() ? groupCommit : null, this );
     }
 }
@@ -21,35 +21,49 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 import java.io.IOException;
 
-import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotWriteTxn;
 
 import jdbm.RecordManager;
-import jdbm.recman.BaseRecordManager;
-import jdbm.recman.CacheRecordManager;
 
 /**
  * The JDBM partition write transaction
  *  
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class JdbmPartitionWriteTxn extends PartitionWriteTxn
+public class JdbmPartitionWriteTxn extends SnapshotWriteTxn
 {
     /** The associated record manager */
     private RecordManager recordManager;
     
-    /** A flag used to flush data immediately or not */
-    private boolean syncOnWrite = false;
+    /** The group commit used to flush data on each write, or null if the data aren't flushed immediately */
+    private GroupCommit groupCommit;
+    
+    /** The ticket to wait for, once committed */
+    private long ticket;
+    
+    /** Tells if the group commit may still wait for this transaction */
+    private boolean joining;
     
     /**
      * Create an instance of JdbmPartitionWriteTxn
      * 
      * @param recordManager The RecordManager instance
-     * @param syncOnWrite If we want to data to be flushed on each write
+     * @param groupCommit The GroupCommit instance syncing the log, or null if we don't want the data
+     * to be flushed on each write
+     * @param partition The partition this transaction writes into
      */
-    public JdbmPartitionWriteTxn( RecordManager recordManager, boolean syncOnWrite )
+    public JdbmPartitionWriteTxn( RecordManager recordManager, GroupCommit groupCommit, AbstractBTreePartition partition )
     {
+        super( partition );
         this.recordManager = recordManager;
-        this.syncOnWrite = syncOnWrite;
+        this.groupCommit = groupCommit;
+
+        if ( groupCommit != null )
+        {
+            groupCommit.begin();
+            joining = true;
+        }
     }
     
     
@@ -59,24 +73,53 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     @Override
     public void commit() throws IOException
     {
-        recordManager.commit();
-        
-        // And flush the journal
-        BaseRecordManager baseRecordManager = null;
+        commitAsync();
+        awaitCommit();
+    }
+
 
-        if ( recordManager instanceof CacheRecordManager )
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commitAsync() throws IOException
+    {
+        try
+        {
+            prepareCommit();
+            recordManager.commit();
+        }
+        catch ( IOException | RuntimeException e )
         {
-            baseRecordManager = ( ( BaseRecordManager ) ( ( CacheRecordManager ) recordManager ).getRecordManager() );
+            leaveBatch();
+
+            throw e;
         }
-        else
+        
+        // The journal will be flushed by the group commit
+        if ( joining )
         {
-            baseRecordManager = ( ( BaseRecordManager ) recordManager );
+            joining = false;
+            ticket = groupCommit.register();
         }
 
+        // The changes are now visible to the new readers, even if they are not durable yet :
+        // they are already in the BTrees, only the client of this transaction waits for the sync
+        publish();
+    }
+
 
-        if ( syncOnWrite )
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitCommit() throws IOException
+    {
+        if ( ticket != 0L )
         {
-            baseRecordManager.getTransactionManager().synchronizeLog();
+            long waitFor = ticket;
+            ticket = 0L;
+            groupCommit.await( waitFor );
         }
     }
 
@@ -88,6 +131,22 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     public void abort() throws IOException
     {
         recordManager.rollback();
+        discardDeferred();
+        publish();
+        leaveBatch();
+    }
+
+
+    /**
+     * Tells the group commit not to wait for this transaction anymore
+     */
+    private void leaveBatch()
+    {
+        if ( joining )
+        {
+            joining = false;
+            groupCommit.cancel();
+        }
     }
 
 
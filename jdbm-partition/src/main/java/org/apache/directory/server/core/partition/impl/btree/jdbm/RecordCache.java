@@ -0,0 +1,384 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import jdbm.helper.CacheEvictionException;
+import jdbm.helper.CachePolicy;
+import jdbm.helper.CachePolicyListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+
+/**
+ * The JDBM record cache of a partition. It replaces the record count bounded MRU cache :
+ * <ul>
+ *   <li>it's bounded by the size of the cached records, in bytes</li>
+ *   <li>it uses a W-TinyLFU eviction policy, so that a large scan does not evict the
+ *   frequently used records (the BTree roots and upper pages, typically)</li>
+ *   <li>it counts the hits, the misses and the evictions</li>
+ * </ul>
+ * The size of a record is the length of its stored form, given by the {@link SizedRecordManager}
+ * when the record is read or written : the records are never serialized to be weighed. A record
+ * put in the cache before being written, or which length is unknown, is counted as
+ * {@link #DEFAULT_RECORD_SIZE} bytes. When a cached record is written with a new length, it is
+ * weighed again the next time it's read from the cache.
+ * <br>
+ * The evicted records are passed to the listeners synchronously, so that the
+ * <code>CacheRecordManager</code> can write back the dirty records before they are lost.
+ *
+ * @param <K> The record key type
+ * @param <V> The cached record type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RecordCache<K, V> implements CachePolicy<K, V>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( RecordCache.class );
+
+    /** The default cache size : 16 MB */
+    public static final long DEFAULT_CACHE_SIZE = 16L * 1024L * 1024L;
+
+    /** The size used for the records which length is unknown */
+    public static final int DEFAULT_RECORD_SIZE = 1024;
+
+    /** The memory used by a cache entry, on top of the record */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /** The underlying cache */
+    private final Cache<K, V> cache;
+
+    /** The maximum size of the cached records, in bytes */
+    private final long maxSize;
+
+    /** The listeners notified of the evictions */
+    private final List<CachePolicyListener<V>> listeners = new CopyOnWriteArrayList<>();
+
+    /** The last failure of a listener, rethrown by the next put */
+    private CacheEvictionException evictionFailure;
+
+    /** The length of the records read or written, used when they are put in the cache */
+    private final Map<K, Integer> pendingSizes = new ConcurrentHashMap<>();
+
+    /** The cached records which have been written with a new length since they were weighed */
+    private final Set<K> staleKeys = ConcurrentHashMap.newKeySet();
+
+
+    /**
+     * Creates a new RecordCache instance
+     *
+     * @param maxSize The maximum size of the cached records, in bytes
+     */
+    public RecordCache( long maxSize )
+    {
+        this.maxSize = maxSize;
+
+        cache = Caffeine.newBuilder()
+            .maximumWeight( maxSize )
+            .weigher( ( K key, V value ) -> weigh( key ) )
+            .executor( Runnable::run )
+            .writer( new CacheWriter<K, V>()
+            {
+                @Override
+                public void write( K key, V value )
+                {
+                    // Nothing to do
+                }
+
+
+                @Override
+                public void delete( K key, V value, RemovalCause cause )
+                {
+                    staleKeys.remove( key );
+
+                    if ( cause.wasEvicted() )
+                    {
+                        evicted( value );
+                    }
+                }
+            } )
+            .recordStats()
+            .build();
+    }
+
+
+    /**
+     * Notifies the listeners of an eviction. A failure is kept, and will be reported
+     * by the next put.
+     */
+    private void evicted( V value )
+    {
+        for ( CachePolicyListener<V> listener : listeners )
+        {
+            try
+            {
+                listener.cacheObjectEvicted( value );
+            }
+            catch ( CacheEvictionException cee )
+            {
+                LOG.error( "Failed to process an evicted record", cee );
+
+                synchronized ( this )
+                {
+                    evictionFailure = cee;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Computes the size of a cached record, from the length given when it has been read or
+     * written.
+     */
+    private int weigh( K key )
+    {
+        Integer size = pendingSizes.remove( key );
+
+        return ( ( size == null ) ? DEFAULT_RECORD_SIZE : size ) + ENTRY_OVERHEAD;
+    }
+
+
+    /**
+     * Gives the length of a record which has just been read or inserted, and which is about
+     * to be put in the cache.
+     *
+     * @param key The record key
+     * @param size The length of the stored record, in bytes
+     */
+    public void recordSize( K key, int size )
+    {
+        pendingSizes.put( key, size );
+    }
+
+
+    /**
+     * Gives the new length of a record which has been written. If it's cached, it will be
+     * weighed again the next time it's read.
+     *
+     * @param key The record key
+     * @param size The length of the stored record, in bytes
+     */
+    public void updateSize( K key, int size )
+    {
+        if ( cache.asMap().containsKey( key ) )
+        {
+            pendingSizes.put( key, size );
+            staleKeys.add( key );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( K key, V value ) throws CacheEvictionException
+    {
+        cache.put( key, value );
+
+        CacheEvictionException failure;
+
+        synchronized ( this )
+        {
+            failure = evictionFailure;
+            evictionFailure = null;
+        }
+
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( K key )
+    {
+        V value = cache.getIfPresent( key );
+
+        if ( ( value != null ) && staleKeys.remove( key ) )
+        {
+            // Weigh the record again, with its new length
+            cache.asMap().replace( key, value );
+        }
+
+        return value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( K key )
+    {
+        cache.invalidate( key );
+        pendingSizes.remove( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAll()
+    {
+        cache.invalidateAll();
+        pendingSizes.clear();
+        staleKeys.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<V> elements()
+    {
+        // Iterate on a copy, as the listeners may update the cache
+        return Collections.enumeration( new ArrayList<>( cache.asMap().values() ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addListener( CachePolicyListener<V> listener )
+    {
+        if ( listener == null )
+        {
+            throw new IllegalArgumentException( "Cannot add null listener." );
+        }
+
+        if ( !listeners.contains( listener ) )
+        {
+            listeners.add( listener );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeListener( CachePolicyListener<V> listener )
+    {
+        listeners.remove( listener );
+    }
+
+
+    /**
+     * @return The maximum size of the cached records, in bytes
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * @return The current size of the cached records, in bytes
+     */
+    public long getSize()
+    {
+        cache.cleanUp();
+
+        return cache.policy().eviction().map( eviction -> eviction.weightedSize().orElse( 0L ) ).orElse( 0L );
+    }
+
+
+    /**
+     * @return The number of records in the cache
+     */
+    public long getNbRecords()
+    {
+        return cache.estimatedSize();
+    }
+
+
+    /**
+     * @return The number of times a record was found in the cache
+     */
+    public long getHitCount()
+    {
+        return cache.stats().hitCount();
+    }
+
+
+    /**
+     * @return The number of times a record was not found in the cache
+     */
+    public long getMissCount()
+    {
+        return cache.stats().missCount();
+    }
+
+
+    /**
+     * @return The number of records evicted from the cache
+     */
+    public long getEvictionCount()
+    {
+        return cache.stats().evictionCount();
+    }
+
+
+    /**
+     * @return The statistics of this cache
+     */
+    public CacheStats getStats()
+    {
+        return cache.stats();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        CacheStats stats = cache.stats();
+
+        return "RecordCache[" + getSize() + "/" + maxSize + " bytes, " + getNbRecords() + " records, hits : "
+            + stats.hitCount() + ", misses : " + stats.missCount() + ", evictions : " + stats.evictionCount() + "]";
+    }
+}
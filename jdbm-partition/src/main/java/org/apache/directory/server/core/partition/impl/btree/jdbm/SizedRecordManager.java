@@ -0,0 +1,162 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+
+import jdbm.helper.Serializer;
+import jdbm.recman.BaseRecordManager;
+
+
+/**
+ * A BaseRecordManager which gives the length of the records it reads and writes to the
+ * {@link RecordCache}, which uses it as the weight of the cached records. The length is
+ * known when the record is serialized or deserialized, so the records don't have to be
+ * serialized again to be weighed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SizedRecordManager extends BaseRecordManager
+{
+    /** The cache weighing the records, set once it's created */
+    private volatile RecordCache<Long, ?> recordCache;
+
+
+    /**
+     * Creates a new SizedRecordManager instance.
+     *
+     * @param filename The name of the file, without its extension
+     * @throws IOException If the file can't be opened
+     */
+    public SizedRecordManager( String filename ) throws IOException
+    {
+        super( filename );
+    }
+
+
+    /**
+     * @param recordCache The cache the record lengths are given to
+     */
+    public void setRecordCache( RecordCache<Long, ?> recordCache )
+    {
+        this.recordCache = recordCache;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long insert( Object obj, Serializer serializer ) throws IOException
+    {
+        MeasuringSerializer measuring = new MeasuringSerializer( serializer );
+        long recid = super.insert( obj, measuring );
+        recordLength( recid, measuring.length, false );
+
+        return recid;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update( long recid, Object obj, Serializer serializer ) throws IOException
+    {
+        MeasuringSerializer measuring = new MeasuringSerializer( serializer );
+        super.update( recid, obj, measuring );
+
+        // The record may be cached with the length it had when it has been read
+        recordLength( recid, measuring.length, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object fetch( long recid, Serializer serializer ) throws IOException
+    {
+        MeasuringSerializer measuring = new MeasuringSerializer( serializer );
+        Object obj = super.fetch( recid, measuring );
+        recordLength( recid, measuring.length, false );
+
+        return obj;
+    }
+
+
+    private void recordLength( long recid, int length, boolean cached )
+    {
+        RecordCache<Long, ?> cache = recordCache;
+
+        if ( ( cache != null ) && ( length >= 0 ) )
+        {
+            if ( cached )
+            {
+                cache.updateSize( recid, length );
+            }
+            else
+            {
+                cache.recordSize( recid, length );
+            }
+        }
+    }
+
+
+    /**
+     * A Serializer keeping the length of the last serialized or deserialized record
+     */
+    private static final class MeasuringSerializer implements Serializer
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The wrapped serializer */
+        private final Serializer serializer;
+
+        /** The length of the record, -1 if it's unknown */
+        private int length = -1;
+
+
+        private MeasuringSerializer( Serializer serializer )
+        {
+            this.serializer = serializer;
+        }
+
+
+        @Override
+        public byte[] serialize( Object obj ) throws IOException
+        {
+            byte[] serialized = serializer.serialize( obj );
+            length = serialized.length;
+
+            return serialized;
+        }
+
+
+        @Override
+        public Object deserialize( byte[] serialized ) throws IOException
+        {
+            length = serialized.length;
+
+            return serializer.deserialize( serialized );
+        }
+    }
+}
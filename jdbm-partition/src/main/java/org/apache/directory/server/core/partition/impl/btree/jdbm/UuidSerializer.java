@@ -26,7 +26,11 @@ import jdbm.helper.Serializer;
 
 
 /**
- * A {@link Serializer} for UUIDs
+ * A {@link Serializer} for UUIDs. A lower case canonical UUID is stored as its 16
+ * bytes, prefixed by a marker byte, instead of the 72 bytes of its UTF-16 form. Any
+ * other ID is stored by the {@link StringSerializer}, which always produces an even
+ * number of bytes, so the two forms can't be confused and the IDs written by the
+ * previous versions of this serializer are still read back.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -35,6 +39,123 @@ public class UuidSerializer implements Serializer
     private static final long serialVersionUID = 237756689544852128L;
     public static final UuidSerializer INSTANCE = new UuidSerializer();
 
+    /** The length of a canonical UUID */
+    private static final int UUID_LENGTH = 36;
+
+    /** The length of a packed UUID : the marker and the 16 bytes */
+    private static final int PACKED_LENGTH = 17;
+
+    /** The marker of a packed UUID */
+    private static final byte PACKED_MARKER = 0x01;
+
+    /** The hexadecimal digits */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    /**
+     * Tells if a char is a dash in a canonical UUID
+     */
+    private static boolean isDash( int pos )
+    {
+        return ( pos == 8 ) || ( pos == 13 ) || ( pos == 18 ) || ( pos == 23 );
+    }
+
+
+    /**
+     * Gets the value of a lower case hexadecimal digit, or -1
+     */
+    private static int hexValue( char c )
+    {
+        if ( ( c >= '0' ) && ( c <= '9' ) )
+        {
+            return c - '0';
+        }
+        else if ( ( c >= 'a' ) && ( c <= 'f' ) )
+        {
+            return c - 'a' + 10;
+        }
+        else
+        {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Packs a lower case canonical UUID.
+     *
+     * @return The packed UUID, or null if the ID is not a lower case canonical UUID
+     */
+    private static byte[] pack( String uuid )
+    {
+        if ( uuid.length() != UUID_LENGTH )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[PACKED_LENGTH];
+        bytes[0] = PACKED_MARKER;
+        int pos = 1;
+        int high = -1;
+
+        for ( int i = 0; i < UUID_LENGTH; i++ )
+        {
+            char c = uuid.charAt( i );
+
+            if ( isDash( i ) )
+            {
+                if ( c != '-' )
+                {
+                    return null;
+                }
+
+                continue;
+            }
+
+            int digit = hexValue( c );
+
+            if ( digit < 0 )
+            {
+                return null;
+            }
+
+            if ( high < 0 )
+            {
+                high = digit;
+            }
+            else
+            {
+                bytes[pos++] = ( byte ) ( ( high << 4 ) | digit );
+                high = -1;
+            }
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * Builds back the canonical form of a packed UUID
+     */
+    private static String unpack( byte[] bytes )
+    {
+        char[] chars = new char[UUID_LENGTH];
+        int pos = 0;
+
+        for ( int i = 1; i < PACKED_LENGTH; i++ )
+        {
+            if ( isDash( pos ) )
+            {
+                chars[pos++] = '-';
+            }
+
+            chars[pos++] = HEX_DIGITS[( bytes[i] >> 4 ) & 0x0F];
+            chars[pos++] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+
+        return new String( chars );
+    }
+
 
     /**
      * {@inheritDoc}
@@ -42,6 +163,12 @@ public class UuidSerializer implements Serializer
     public byte[] serialize( Object o ) throws IOException
     {
         String uuid = ( String ) o;
+        byte[] packed = pack( uuid );
+
+        if ( packed != null )
+        {
+            return packed;
+        }
 
         return StringSerializer.INSTANCE.serialize( uuid );
     }
@@ -52,6 +179,11 @@ public class UuidSerializer implements Serializer
      */
     public Object deserialize( byte[] bytes ) throws IOException
     {
+        if ( ( bytes.length == PACKED_LENGTH ) && ( bytes[0] == PACKED_MARKER ) )
+        {
+            return unpack( bytes );
+        }
+
         return StringSerializer.INSTANCE.deserialize( bytes );
     }
 }
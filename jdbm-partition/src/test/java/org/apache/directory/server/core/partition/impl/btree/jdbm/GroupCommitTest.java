@@ -0,0 +1,251 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jdbm.recman.BaseRecordManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Test cases for GroupCommit.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupCommitTest
+{
+    private static final String TEST_OUTPUT_PATH = "test.output.path";
+
+    private static final int NB_THREADS = 8;
+    private static final int NB_COMMITS = 10;
+
+    private File dbFile;
+    private BaseRecordManager recman;
+
+
+    @Before
+    public void createRecordManager() throws Exception
+    {
+        File tmpDir = null;
+
+        if ( System.getProperty( TEST_OUTPUT_PATH, null ) != null )
+        {
+            tmpDir = new File( System.getProperty( TEST_OUTPUT_PATH ) );
+        }
+
+        dbFile = File.createTempFile( getClass().getSimpleName(), "db", tmpDir );
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+    }
+
+
+    @After
+    public void destroyRecordManager() throws Exception
+    {
+        if ( recman != null )
+        {
+            recman.close();
+        }
+
+        recman = null;
+
+        if ( dbFile != null )
+        {
+            String fileToDelete = dbFile.getAbsolutePath();
+            new File( fileToDelete + ".db" ).delete();
+            new File( fileToDelete + ".lg" ).delete();
+
+            dbFile.delete();
+        }
+
+        dbFile = null;
+    }
+
+
+    private static long sum( long[] values )
+    {
+        long sum = 0L;
+
+        for ( long value : values )
+        {
+            sum += value;
+        }
+
+        return sum;
+    }
+
+
+    @Test
+    public void testSingleCommit() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( recman, 0L );
+
+        recman.insert( "value" );
+        recman.commit();
+        groupCommit.await( groupCommit.register() );
+
+        assertEquals( 1L, groupCommit.getNbCommits() );
+        assertEquals( 1L, groupCommit.getNbSyncs() );
+        assertEquals( 1L, groupCommit.getBatchSizeDistribution()[0] );
+        assertEquals( 1L, sum( groupCommit.getLatencyDistribution() ) );
+    }
+
+
+    @Test
+    public void testConcurrentCommits() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( recman, 5L );
+        ExecutorService executor = Executors.newFixedThreadPool( NB_THREADS );
+        List<Future<?>> futures = new ArrayList<>();
+
+        for ( int i = 0; i < NB_THREADS; i++ )
+        {
+            futures.add( executor.submit( () ->
+            {
+                for ( int j = 0; j < NB_COMMITS; j++ )
+                {
+                    long ticket;
+                    groupCommit.begin();
+
+                    synchronized ( recman )
+                    {
+                        recman.insert( "value" );
+                        recman.commit();
+                        ticket = groupCommit.register();
+                    }
+
+                    groupCommit.await( ticket );
+                }
+
+                return null;
+            } ) );
+        }
+
+        for ( Future<?> future : futures )
+        {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        long nbCommits = NB_THREADS * NB_COMMITS;
+        assertEquals( nbCommits, groupCommit.getNbCommits() );
+        assertEquals( nbCommits, sum( groupCommit.getLatencyDistribution() ) );
+        assertEquals( groupCommit.getNbSyncs(), sum( groupCommit.getBatchSizeDistribution() ) );
+
+        // The concurrent commits have shared some syncs
+        assertTrue( groupCommit.getNbSyncs() < nbCommits );
+    }
+
+
+    @Test
+    public void testLeaderDoesNotWaitWithoutOpenTransactions() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( recman, 10000L );
+        long start = System.currentTimeMillis();
+
+        groupCommit.begin();
+        recman.insert( "value" );
+        recman.commit();
+        groupCommit.await( groupCommit.register() );
+
+        assertTrue( System.currentTimeMillis() - start < 5000L );
+        assertEquals( 1L, groupCommit.getNbSyncs() );
+    }
+
+
+    @Test
+    public void testLeaderIsWokenUpWhenTheBatchIsComplete() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( recman, 10000L );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        long start = System.currentTimeMillis();
+
+        // Two open transactions : the leader waits for the second one
+        groupCommit.begin();
+        groupCommit.begin();
+        recman.insert( "value" );
+        recman.commit();
+        long ticket = groupCommit.register();
+
+        Future<?> future = executor.submit( () ->
+        {
+            Thread.sleep( 100L );
+
+            synchronized ( recman )
+            {
+                recman.insert( "value" );
+                recman.commit();
+                return groupCommit.register();
+            }
+        } );
+
+        groupCommit.await( ticket );
+        groupCommit.await( ( Long ) future.get() );
+        executor.shutdown();
+
+        assertTrue( System.currentTimeMillis() - start < 5000L );
+        assertEquals( 2L, groupCommit.getNbCommits() );
+        assertEquals( 1L, groupCommit.getNbSyncs() );
+        assertEquals( 1L, groupCommit.getBatchSizeDistribution()[1] );
+    }
+
+
+    @Test
+    public void testLeaderIsWokenUpWhenATransactionIsAborted() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( recman, 10000L );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        long start = System.currentTimeMillis();
+
+        groupCommit.begin();
+        groupCommit.begin();
+        recman.insert( "value" );
+        recman.commit();
+        long ticket = groupCommit.register();
+
+        Future<?> future = executor.submit( () ->
+        {
+            Thread.sleep( 100L );
+            groupCommit.cancel();
+
+            return null;
+        } );
+
+        groupCommit.await( ticket );
+        future.get();
+        executor.shutdown();
+
+        assertTrue( System.currentTimeMillis() - start < 5000L );
+        assertEquals( 1L, groupCommit.getNbSyncs() );
+    }
+}
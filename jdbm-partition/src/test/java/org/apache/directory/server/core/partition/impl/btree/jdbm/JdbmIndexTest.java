@@ -30,6 +30,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
@@ -482,6 +483,47 @@ public class JdbmIndexTest
     }
 
 
+    @Test
+    public void testNgrams() throws Exception
+    {
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.OU_AT );
+        JdbmIndex<String> index = new JdbmIndex<String>( attributeType.getName(), false );
+        index.setNgramLength( 3 );
+        initIndex( index );
+        assertTrue( idx.hasNgrams() );
+
+        idx.add( partitionTxn, "smithson", Strings.getUUID( 0L ) );
+        idx.add( partitionTxn, "goldsmith", Strings.getUUID( 1L ) );
+        idx.add( partitionTxn, "goldsmith", Strings.getUUID( 2L ) );
+        idx.add( partitionTxn, "jones", Strings.getUUID( 3L ) );
+
+        assertEquals( 2, idx.ngramCount( partitionTxn, "mit" ) );
+        assertEquals( 1, idx.ngramCount( partitionTxn, "son" ) );
+        assertEquals( 0, idx.ngramCount( partitionTxn, "xyz" ) );
+
+        // The rarest n-gram is selected
+        assertEquals( "son", idx.selectNgram( partitionTxn, Arrays.asList( "smi", "son" ) ) );
+        assertNull( idx.selectNgram( partitionTxn, Arrays.asList( "sm", "s n" ) ) );
+
+        Cursor<String> cursor = idx.ngramValueCursor( partitionTxn, "mit" );
+        cursor.beforeFirst();
+        assertTrue( cursor.next() );
+        assertEquals( "goldsmith", cursor.get() );
+        assertTrue( cursor.next() );
+        assertEquals( "smithson", cursor.get() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        // The n-grams are kept as long as an entry has the value
+        idx.drop( partitionTxn, "goldsmith", Strings.getUUID( 1L ) );
+        assertEquals( 2, idx.ngramCount( partitionTxn, "mit" ) );
+
+        idx.drop( partitionTxn, "goldsmith", Strings.getUUID( 2L ) );
+        assertEquals( 1, idx.ngramCount( partitionTxn, "mit" ) );
+        assertEquals( 0, idx.ngramCount( partitionTxn, "old" ) );
+    }
+
+
     // -----------------------------------------------------------------------
     // Miscellaneous Test Methods
     // -----------------------------------------------------------------------
@@ -35,6 +35,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 
 import org.apache.directory.api.util.FileUtils;
@@ -70,6 +71,7 @@ import org.apache.directory.server.core.api.interceptor.context.AddOperationCont
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.BlobAttribute;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
@@ -738,6 +740,30 @@ public class JdbmStoreTest
     }
 
 
+    @Test
+    public void testRenameWithChildren() throws Exception
+    {
+        // Fill the Dn cache
+        assertEquals( new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." ),
+            partition.getEntryDn( partitionTxn, Strings.getUUID( 5L ) ) );
+        assertEquals( new Dn( schemaManager, "cn=Jack Daniels,ou=Engineering,o=Good Times Co." ),
+            partition.getEntryDn( partitionTxn, Strings.getUUID( 8L ) ) );
+
+        Dn dn = new Dn( schemaManager, "ou=Sales,o=Good Times Co." );
+        Rdn rdn = new Rdn( schemaManager, "ou=Marketing" );
+
+        partition.rename( partitionTxn, dn, rdn, true, null );
+
+        // The children of the renamed entry get their new Dn, the other entries are not impacted
+        assertEquals( new Dn( schemaManager, "ou=Marketing,o=Good Times Co." ),
+            partition.getEntryDn( partitionTxn, Strings.getUUID( 2L ) ) );
+        assertEquals( new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Marketing,o=Good Times Co." ),
+            partition.getEntryDn( partitionTxn, Strings.getUUID( 5L ) ) );
+        assertEquals( new Dn( schemaManager, "cn=Jack Daniels,ou=Engineering,o=Good Times Co." ),
+            partition.getEntryDn( partitionTxn, Strings.getUUID( 8L ) ) );
+    }
+
+
     @Test
     public void testMove() throws Exception
     {
@@ -914,4 +940,92 @@ public class JdbmStoreTest
         lookedup = partition.modify( partitionTxn, dn, add );
         assertEquals( attribVal, lookedup.get( "ou" ).get().getString() );
     }
+
+
+    /**
+     * The values stored in the blob store are only read when they are modified, evaluated
+     * or returned.
+     */
+    @Test
+    public void testLazyBlobs() throws Exception
+    {
+        Path wkdir2 = Files.createTempDirectory( JdbmIndexTest.class.getSimpleName() + "_blobs" );
+
+        JdbmPartition store2 = new JdbmPartition( schemaManager, dnFactory );
+        store2.setId( "blobs" );
+        store2.setCacheSize( 10 );
+        store2.setPartitionPath( wkdir2.toFile().toURI() );
+        store2.setSyncOnWrite( false );
+        store2.setBlobThreshold( 64 );
+        store2.setSuffixDn( EXAMPLE_COM );
+        store2.initialize();
+
+        AttributeType jpegPhotoAT = schemaManager.getAttributeType( "jpegPhoto" );
+        AttributeType descriptionAT = schemaManager.getAttributeType( "description" );
+        Random random = new Random( 0 );
+        byte[] photo = new byte[1024];
+        byte[] otherPhoto = new byte[1024];
+        random.nextBytes( photo );
+        random.nextBytes( otherPhoto );
+
+        Entry entry = new DefaultEntry( schemaManager, EXAMPLE_COM,
+            "objectClass: top",
+            "objectClass: domain",
+            "objectClass: extensibleObject",
+            "dc: example",
+            "description: a photo",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString(),
+            "jpegPhoto", photo );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( store2 );
+        addContext.setTransaction( store2.beginWriteTransaction() );
+
+        store2.add( addContext );
+
+        try
+        {
+            String id = store2.getEntryId( partitionTxn, EXAMPLE_COM );
+
+            // The master table only keeps the reference of the photo
+            assertTrue( store2.getMasterTable().get( partitionTxn, id ).get( jpegPhotoAT ) instanceof BlobAttribute );
+
+            // A search candidate is read without its blobs, they are read when a filter uses them
+            Entry candidate = store2.fetchCandidate( partitionTxn, id );
+            assertTrue( candidate.get( jpegPhotoAT ) instanceof BlobAttribute );
+
+            store2.resolveBlobs( candidate, descriptionAT );
+            assertTrue( candidate.get( jpegPhotoAT ) instanceof BlobAttribute );
+
+            store2.resolveBlobs( candidate, jpegPhotoAT );
+            assertFalse( candidate.get( jpegPhotoAT ) instanceof BlobAttribute );
+            assertTrue( candidate.contains( jpegPhotoAT, photo ) );
+
+            // Modifying another attribute does not read the photo
+            Modification replace = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, descriptionAT,
+                "the same photo" );
+            Entry modified = store2.modify( partitionTxn, EXAMPLE_COM, replace );
+            assertTrue( modified.get( jpegPhotoAT ) instanceof BlobAttribute );
+
+            // Adding a photo reads the existing one, and writes both references back
+            Modification add = new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, jpegPhotoAT, otherPhoto );
+            modified = store2.modify( partitionTxn, EXAMPLE_COM, add );
+            assertTrue( modified.get( jpegPhotoAT ) instanceof BlobAttribute );
+
+            Entry stored = store2.getMasterTable().get( partitionTxn, id );
+            assertEquals( 2, ( ( BlobAttribute ) stored.get( jpegPhotoAT ) ).getReferences().size() );
+
+            // The fetched entry has all the values
+            Entry fetched = store2.fetch( partitionTxn, id, EXAMPLE_COM );
+            assertTrue( fetched.contains( jpegPhotoAT, photo, otherPhoto ) );
+            assertTrue( fetched.contains( descriptionAT, "the same photo" ) );
+        }
+        finally
+        {
+            // make sure all files are closed so that they can be deleted on Windows.
+            store2.destroy( partitionTxn );
+            FileUtils.deleteDirectory( wkdir2.toFile() );
+        }
+    }
 }
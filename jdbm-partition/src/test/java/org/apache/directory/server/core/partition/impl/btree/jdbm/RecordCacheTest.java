@@ -0,0 +1,232 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jdbm.helper.CachePolicyListener;
+
+import org.junit.Test;
+
+
+/**
+ * Test cases for RecordCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RecordCacheTest
+{
+    /**
+     * A cached record, like the CacheRecordManager ones
+     */
+    private static class Holder
+    {
+        Object _obj;
+
+
+        Holder( Object obj )
+        {
+            _obj = obj;
+        }
+    }
+
+
+    /**
+     * Reads a record, and puts it in the cache if it's missing, like the CacheRecordManager
+     */
+    private static Holder fetch( RecordCache<Long, Holder> cache, long key, int size ) throws Exception
+    {
+        Holder holder = cache.get( key );
+
+        if ( holder == null )
+        {
+            holder = new Holder( new byte[size] );
+            cache.recordSize( key, size );
+            cache.put( key, holder );
+        }
+
+        return holder;
+    }
+
+
+    @Test
+    public void testGetPut() throws Exception
+    {
+        RecordCache<Long, Holder> cache = new RecordCache<>( 1024L * 1024L );
+        Holder holder = new Holder( new byte[100] );
+
+        assertNull( cache.get( 1L ) );
+        cache.recordSize( 1L, 100 );
+        cache.put( 1L, holder );
+        assertEquals( holder, cache.get( 1L ) );
+
+        assertEquals( 1L, cache.getHitCount() );
+        assertEquals( 1L, cache.getMissCount() );
+        assertEquals( 1L, cache.getNbRecords() );
+        assertTrue( cache.getSize() >= 100L );
+        assertTrue( cache.getSize() < RecordCache.DEFAULT_RECORD_SIZE );
+
+        cache.remove( 1L );
+        assertNull( cache.get( 1L ) );
+        assertEquals( 0L, cache.getEvictionCount() );
+    }
+
+
+    @Test
+    public void testBoundedBySize() throws Exception
+    {
+        RecordCache<Long, Holder> cache = new RecordCache<>( 10L * 1024L );
+        final List<Holder> evicted = new ArrayList<>();
+
+        cache.addListener( new CachePolicyListener<Holder>()
+        {
+            @Override
+            public void cacheObjectEvicted( Holder holder )
+            {
+                evicted.add( holder );
+            }
+        } );
+
+        for ( long i = 0L; i < 100L; i++ )
+        {
+            fetch( cache, i, 1000 );
+        }
+
+        assertTrue( cache.getSize() <= 10L * 1024L );
+        assertTrue( cache.getNbRecords() < 100L );
+
+        // All the evicted records have been passed to the listener
+        assertEquals( 100L - cache.getNbRecords(), evicted.size() );
+        assertEquals( evicted.size(), cache.getEvictionCount() );
+
+        for ( Holder holder : evicted )
+        {
+            assertNotNull( holder._obj );
+        }
+    }
+
+
+    /**
+     * A record which length is not known is weighed with the default size.
+     */
+    @Test
+    public void testUnknownSize() throws Exception
+    {
+        RecordCache<Long, Holder> cache = new RecordCache<>( 1024L * 1024L );
+
+        cache.put( 1L, new Holder( new byte[10] ) );
+        assertTrue( cache.getSize() >= RecordCache.DEFAULT_RECORD_SIZE );
+
+        // The length of a record which is not cached is not kept
+        cache.updateSize( 2L, 10 );
+        cache.put( 2L, new Holder( new byte[10] ) );
+        assertTrue( cache.getSize() >= 2L * RecordCache.DEFAULT_RECORD_SIZE );
+    }
+
+
+    /**
+     * A cached record written with a new length is weighed again when it's read.
+     */
+    @Test
+    public void testUpdatedSize() throws Exception
+    {
+        RecordCache<Long, Holder> cache = new RecordCache<>( 1024L * 1024L );
+        Holder holder = fetch( cache, 1L, 100 );
+        long size = cache.getSize();
+        assertTrue( size < 1000L );
+
+        cache.updateSize( 1L, 10000 );
+        assertEquals( size, cache.getSize() );
+
+        assertEquals( holder, cache.get( 1L ) );
+        assertTrue( cache.getSize() >= 10000L );
+
+        // Only once
+        assertEquals( holder, cache.get( 1L ) );
+        assertEquals( 1L, cache.getNbRecords() );
+    }
+
+
+    /**
+     * A scan reading many records once must not evict the records used frequently, like the
+     * BTree roots and upper pages, even if they are read less recently than the cache size.
+     */
+    @Test
+    public void testScanResistance() throws Exception
+    {
+        // About 96 records
+        RecordCache<Long, Holder> cache = new RecordCache<>( 100L * 1024L );
+
+        // 20 hot records, read often
+        for ( int i = 0; i < 20; i++ )
+        {
+            for ( long key = 0L; key < 20L; key++ )
+            {
+                fetch( cache, key, 1000 );
+            }
+        }
+
+        assertEquals( 20L, cache.getMissCount() );
+
+        // A scan of 100 times the cache size. One hot record is read after every 20 scanned
+        // records, so each of them is read once every 400 records : a LRU cache would always
+        // miss them
+        long hotMisses = 0L;
+        long hotKey = 0L;
+
+        for ( long key = 1000L; key < 11000L; key++ )
+        {
+            fetch( cache, key, 1000 );
+
+            if ( key % 20L == 0L )
+            {
+                long misses = cache.getMissCount();
+                fetch( cache, hotKey, 1000 );
+                hotMisses += cache.getMissCount() - misses;
+                hotKey = ( hotKey + 1L ) % 20L;
+            }
+        }
+
+        assertTrue( cache.getSize() <= 100L * 1024L );
+        assertTrue( cache.getEvictionCount() > 9000L );
+
+        // Almost all the hot records reads are hits
+        assertTrue( "Hot records misses : " + hotMisses, hotMisses < 50L );
+
+        int nbHot = 0;
+
+        for ( long key = 0L; key < 20L; key++ )
+        {
+            if ( cache.get( key ) != null )
+            {
+                nbHot++;
+            }
+        }
+
+        assertTrue( "Hot records left : " + nbHot, nbHot >= 18 );
+    }
+}
@@ -20,10 +20,17 @@
 package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +40,8 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.DeepTrimToLowerNormalizer;
 import org.apache.directory.api.ldap.model.schema.normalizers.OidNormalizer;
@@ -42,6 +51,9 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.partition.impl.btree.BlobAttribute;
+import org.apache.directory.server.core.partition.impl.btree.EntryCodec;
+import org.apache.directory.server.xdbm.ValueDictionary;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +299,439 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testSerializeServerEntryWithRdn() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=Test+sn=Other,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: Test",
+            "sn: Other",
+            "seeAlso: cn=other,ou=system" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        byte[] data = ses.serialize( entry );
+
+        assertEquals( EntryCodec.VERSION_3, data[0] );
+
+        Entry result = ( Entry ) ses.deserialize( data );
+
+        assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+        assertEquals( "cn=Test+sn=Other", result.getDn().getName() );
+        assertEquals( 5, result.size() );
+        assertEquals( "cn=other,ou=system", result.get( "seeAlso" ).getString() );
+    }
+
+
+    /**
+     * Serializes an entry using the format of the previous versions of the server
+     */
+    private static byte[] legacySerialize( Entry entry ) throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream( baos );
+        out.writeByte( 1 );
+        entry.getDn().getRdn().writeExternal( out );
+        out.writeInt( entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            out.writeUTF( attribute.getAttributeType().getOid() );
+            attribute.writeExternal( out );
+        }
+
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    @Test
+    public void testDeserializeObjectStreamServerEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        byte[] data = legacySerialize( entry );
+        assertTrue( EntryCodec.isLegacy( data, 0 ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( data );
+
+        assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+        assertEquals( entry.size(), result.size() );
+        assertTrue( result.contains( "objectClass", "top", "person" ) );
+        assertTrue( result.contains( "userPassword", Strings.getBytesUtf8( "password" ) ) );
+
+        // Once written back, the entry uses the new format
+        byte[] converted = ses.serialize( result );
+
+        assertFalse( EntryCodec.isLegacy( converted, 0 ) );
+        assertTrue( converted.length < data.length );
+        assertEquals( result, ses.deserialize( converted ) );
+    }
+
+
+    /**
+     * The entries are read back with the normalized forms of their Rdn and values, which
+     * are stored, like with the previous serializer.
+     */
+    @Test
+    public void testNormalizedFormsAgainstLegacy() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=Test  User+sn=Other,ou=system",
+            "objectClass: top",
+            "objectClass: Person",
+            "cn:   Test  User",
+            "sn: Other",
+            "description: A   Description",
+            "seeAlso: CN=Other, OU=System",
+            "telephoneNumber: +1 234 567",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+        Entry legacy = ( Entry ) ses.deserialize( legacySerialize( entry ) );
+
+        byte[] data = ses.serialize( entry );
+        assertEquals( EntryCodec.VERSION_3, data[0] );
+        Entry result = ( Entry ) ses.deserialize( data );
+
+        assertEquals( legacy.getDn().getRdn(), result.getDn().getRdn() );
+        assertEquals( legacy.getDn().getName(), result.getDn().getName() );
+        assertEquals( legacy.getDn().getNormName(), result.getDn().getNormName() );
+        assertEquals( legacy, result );
+
+        for ( Attribute attribute : legacy )
+        {
+            Attribute decoded = result.get( attribute.getAttributeType() );
+
+            assertEquals( attribute.getUpId(), decoded.getUpId() );
+            assertEquals( attribute.size(), decoded.size() );
+
+            if ( !attribute.isHumanReadable() )
+            {
+                continue;
+            }
+
+            for ( Value value : attribute )
+            {
+                Value found = null;
+
+                for ( Value candidate : decoded )
+                {
+                    if ( candidate.getString().equals( value.getString() ) )
+                    {
+                        found = candidate;
+                    }
+                }
+
+                assertEquals( value.getNormalized(), found.getNormalized() );
+            }
+        }
+    }
+
+
+    /**
+     * Writes a length prefixed String, shorter than 128 bytes
+     */
+    private static void writeShortString( ByteArrayOutputStream out, String value )
+    {
+        byte[] bytes = Strings.getBytesUtf8( value );
+        out.write( bytes.length );
+        out.write( bytes, 0, bytes.length );
+    }
+
+
+    /**
+     * The entries written in the version 1 of the format, which normalizes the values and
+     * parses the Rdn when they are read, are still read.
+     */
+    @Test
+    public void testDeserializeVersion1() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write( EntryCodec.VERSION_1 );
+        writeShortString( out, "cn=Test" );
+
+        // Two attributes, stored with their OID, as human readable values
+        out.write( 2 );
+        out.write( 0 );
+        writeShortString( out, SchemaConstants.OBJECT_CLASS_AT_OID );
+        out.write( 1 );
+        out.write( 2 );
+        writeShortString( out, "top" );
+        writeShortString( out, "person" );
+        out.write( 0 );
+        writeShortString( out, SchemaConstants.CN_AT_OID );
+        out.write( 1 );
+        out.write( 1 );
+        writeShortString( out, "Test" );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+        Entry result = ( Entry ) ses.deserialize( out.toByteArray() );
+
+        assertEquals( new Dn( schemaManager, "cn=Test" ).getRdn(), result.getDn().getRdn() );
+        assertTrue( result.contains( "objectClass", "top", "person" ) );
+        assertEquals( "test", result.get( "cn" ).get().getNormalized() );
+
+        // Written back in the version 3
+        byte[] data = ses.serialize( result );
+
+        assertEquals( EntryCodec.VERSION_3, data[0] );
+        assertEquals( result, ses.deserialize( data ) );
+    }
+
+
+    @Test
+    public void testSerializeBlobReferences() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test" );
+
+        // One value is kept in the entry, the other one is stored in the blob store
+        BlobAttribute password = new BlobAttribute( "UserPassword",
+            schemaManager.lookupAttributeTypeRegistry( "userPassword" ) );
+        password.add( Strings.getBytesUtf8( "password" ) );
+        byte[] reference = new byte[32];
+        reference[0] = 0x01;
+        password.addReference( reference );
+        entry.put( password );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( ses.serialize( entry ) );
+        Attribute attribute = result.get( "userPassword" );
+
+        assertTrue( attribute instanceof BlobAttribute );
+        assertEquals( "UserPassword", attribute.getUpId() );
+        assertEquals( 1, attribute.size() );
+        assertTrue( attribute.contains( Strings.getBytesUtf8( "password" ) ) );
+        assertEquals( 1, ( ( BlobAttribute ) attribute ).getReferences().size() );
+        assertArrayEquals( reference, ( ( BlobAttribute ) attribute ).getReferences().get( 0 ) );
+
+        // The other attributes are not affected
+        assertFalse( result.get( "cn" ) instanceof BlobAttribute );
+    }
+
+
+    @Test
+    public void testSerializeWithDictionaryAndCompression() throws Exception
+    {
+        File file = File.createTempFile( "dictionary", ".db" );
+        file.deleteOnExit();
+
+        ValueDictionary dictionary = new ValueDictionary( file, 100 );
+        dictionary.open();
+
+        try
+        {
+            EntryCodec codec = new EntryCodec( schemaManager, dictionary, 64 );
+            EntrySerializer ses = new EntrySerializer( codec );
+            byte[] data = null;
+
+            // The repeated values are added to the dictionary after a few entries
+            for ( int i = 0; i < ValueDictionary.MIN_OCCURRENCES + 1; i++ )
+            {
+                Entry entry = new DefaultEntry( schemaManager,
+                    "",
+                    "objectClass: top",
+                    "objectClass: person",
+                    "objectClass: inetOrgPerson",
+                    "objectClass: organizationalPerson",
+                    "cn: test" + i,
+                    "SN: Test",
+                    "description: a description repeated, repeated, repeated and repeated again",
+                    "userPassword", Strings.getBytesUtf8( "password" ) );
+
+                codec.countWrite( entry );
+                data = ses.serialize( entry );
+                Entry result = ( Entry ) ses.deserialize( data );
+
+                assertEquals( entry, result );
+            }
+
+            assertEquals( EntryCodec.VERSION_3, data[0] );
+            assertTrue( dictionary.size() > 0 );
+            assertTrue( dictionary.getHitRate() > 0d );
+            assertTrue( codec.getCompressionRatio() < 1d );
+
+            // The values of the dictionary are only created once
+            Entry first = ( Entry ) ses.deserialize( data );
+            Entry second = ( Entry ) ses.deserialize( data );
+
+            assertSame( first.get( "description" ).get(), second.get( "description" ).get() );
+
+            // The entries written without dictionary are still read
+            Entry entry = new DefaultEntry( schemaManager,
+                "",
+                "objectClass: top",
+                "objectClass: person",
+                "cn: test",
+                "SN: Test" );
+
+            Entry result = ( Entry ) ses.deserialize( new EntrySerializer( schemaManager ).serialize( entry ) );
+
+            assertEquals( entry, result );
+        }
+        finally
+        {
+            dictionary.close();
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Serializing an entry again, when the page containing it is written, neither counts its
+     * values nor changes the statistics : only the written entries do.
+     */
+    @Test
+    public void testSerializeWithoutWrite() throws Exception
+    {
+        File file = File.createTempFile( "dictionary", ".db" );
+        file.deleteOnExit();
+
+        ValueDictionary dictionary = new ValueDictionary( file, 100 );
+        dictionary.open();
+
+        try
+        {
+            EntryCodec codec = new EntryCodec( schemaManager, dictionary, 64 );
+            EntrySerializer ses = new EntrySerializer( codec );
+
+            Entry entry = new DefaultEntry( schemaManager,
+                "",
+                "objectClass: top",
+                "objectClass: person",
+                "cn: test",
+                "SN: Test",
+                "description: a description repeated, repeated, repeated and repeated again" );
+
+            for ( int i = 0; i < 2 * ValueDictionary.MIN_OCCURRENCES; i++ )
+            {
+                assertEquals( entry, ses.deserialize( ses.serialize( entry ) ) );
+            }
+
+            assertEquals( 0, dictionary.size() );
+            assertEquals( 0L, dictionary.getNbLookups() );
+            assertEquals( 1d, codec.getCompressionRatio(), 0d );
+
+            // Once written often enough, the values are used by all the serializations
+            for ( int i = 0; i < ValueDictionary.MIN_OCCURRENCES; i++ )
+            {
+                codec.countWrite( entry );
+            }
+
+            int size = dictionary.size();
+            long nbLookups = dictionary.getNbLookups();
+            double ratio = codec.getCompressionRatio();
+            byte[] data = ses.serialize( entry );
+
+            assertTrue( size > 0 );
+            assertTrue( data.length < new EntrySerializer( schemaManager ).serialize( entry ).length );
+            assertEquals( entry, ses.deserialize( data ) );
+            assertEquals( size, dictionary.size() );
+            assertEquals( nbLookups, dictionary.getNbLookups() );
+            assertEquals( ratio, codec.getCompressionRatio(), 0d );
+        }
+        finally
+        {
+            dictionary.close();
+            file.delete();
+        }
+    }
+
+
+    /**
+     * The entries written before the dictionary and the compression are enabled are still
+     * read, and the entries using the dictionary are read once it's opened again.
+     */
+    @Test
+    public void testDeserializeOldFormatsWithDictionary() throws Exception
+    {
+        File file = File.createTempFile( "dictionary", ".db" );
+        file.deleteOnExit();
+
+        ValueDictionary dictionary = new ValueDictionary( file, 100 );
+        dictionary.open();
+
+        try
+        {
+            EntryCodec codec = new EntryCodec( schemaManager, dictionary, 64 );
+            EntrySerializer ses = new EntrySerializer( codec );
+
+            Entry entry = new DefaultEntry( schemaManager,
+                "cn=test,ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "cn: test",
+                "SN: Test",
+                "description: a description repeated, repeated, repeated and repeated again",
+                "userPassword", Strings.getBytesUtf8( "password" ) );
+
+            // The legacy format
+            Entry result = ( Entry ) ses.deserialize( legacySerialize( entry ) );
+
+            assertEquals( entry.getDn().getRdn(), result.getDn().getRdn() );
+            assertEquals( entry.size(), result.size() );
+            assertTrue( result.contains( "objectClass", "top", "person", "organizationalPerson" ) );
+            assertTrue( result.contains( "userPassword", Strings.getBytesUtf8( "password" ) ) );
+
+            // Without the dictionary
+            byte[] data = new EntrySerializer( schemaManager ).serialize( entry );
+
+            assertEquals( EntryCodec.VERSION_3, data[0] );
+            assertEquals( entry, ses.deserialize( data ) );
+
+            // Using the dictionary once the values are frequent enough
+            for ( int i = 0; i < ValueDictionary.MIN_OCCURRENCES; i++ )
+            {
+                codec.countWrite( entry );
+                data = ses.serialize( entry );
+            }
+
+            assertEquals( EntryCodec.VERSION_3, data[0] );
+            assertTrue( dictionary.size() > 0 );
+
+            // Read again after a restart, without adding values any more
+            dictionary.close();
+            dictionary = new ValueDictionary( file, 0 );
+            dictionary.open();
+            ses = new EntrySerializer( new EntryCodec( schemaManager, dictionary, 64 ) );
+
+            assertEquals( entry, ses.deserialize( data ) );
+
+            // A record using the dictionary can't be read without it
+            try
+            {
+                new EntrySerializer( schemaManager ).deserialize( data );
+                fail();
+            }
+            catch ( IOException ioe )
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            dictionary.close();
+            file.delete();
+        }
+    }
 }
@@ -0,0 +1,87 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Tests the UuidSerializer class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class UuidSerializerTest
+{
+    @Test
+    public void testCanonicalUuids() throws IOException
+    {
+        UuidSerializer serializer = UuidSerializer.INSTANCE;
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            String uuid = UUID.randomUUID().toString();
+            byte[] serialized = serializer.serialize( uuid );
+            assertEquals( 17, serialized.length );
+            assertEquals( uuid, serializer.deserialize( serialized ) );
+        }
+
+        String zero = "00000000-0000-0000-0000-000000000000";
+        assertEquals( zero, serializer.deserialize( serializer.serialize( zero ) ) );
+    }
+
+
+    @Test
+    public void testOtherIds() throws IOException
+    {
+        UuidSerializer serializer = UuidSerializer.INSTANCE;
+        String[] ids = new String[]
+            { "", "1", "ABCDEF01-0000-0000-0000-000000000000", "abcdef01-0000-0000-0000-00000000000g" };
+
+        for ( String id : ids )
+        {
+            byte[] serialized = serializer.serialize( id );
+            assertEquals( id.length() * 2, serialized.length );
+            assertEquals( id, serializer.deserialize( serialized ) );
+        }
+    }
+
+
+    @Test
+    public void testReadStringSerializedUuids() throws IOException
+    {
+        // UUIDs written before they were packed must still be read
+        String uuid = UUID.randomUUID().toString();
+        byte[] serialized = StringSerializer.INSTANCE.serialize( uuid );
+
+        assertEquals( uuid, UuidSerializer.INSTANCE.deserialize( serialized ) );
+    }
+}
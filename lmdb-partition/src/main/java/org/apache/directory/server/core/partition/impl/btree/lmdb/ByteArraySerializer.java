@@ -17,39 +17,36 @@
  *   under the License.
  *
  */
-
-package org.apache.directory.server.core.shared;
-
-
-import java.io.IOException;
-
-import org.apache.directory.api.util.Strings;
-
-import jdbm.helper.Serializer;
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
 
 
 /**
- * A JDBM Serializer that serializes null or empty strings and always deserializes them as empty string values.
+ * Stores the byte[] as is.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-public class NullStringSerializer implements Serializer
+public class ByteArraySerializer implements LmdbSerializer<byte[]>
 {
-
-    public static final NullStringSerializer INSTANCE = new NullStringSerializer();
+    /** A static instance of a ByteArraySerializer */
+    public static final ByteArraySerializer INSTANCE = new ByteArraySerializer();
 
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
-    public Object deserialize( byte[] data ) throws IOException
+    public byte[] serialize( byte[] element )
     {
-        return "";
+        return element;
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
     @Override
-    public byte[] serialize( Object nullStr ) throws IOException
+    public byte[] deserialize( byte[] bytes )
     {
-        return Strings.EMPTY_BYTES;
+        return bytes;
     }
-
 }
@@ -0,0 +1,80 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * Serialize and deserialize a Dn.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DnSerializer implements LmdbSerializer<Dn>
+{
+    /** A static instance of a DnSerializer */
+    public static final DnSerializer INSTANCE = new DnSerializer();
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( Dn dn ) throws IOException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( baos ) )
+        {
+            dn.writeExternal( out );
+            out.flush();
+
+            return baos.toByteArray();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Dn deserialize( byte[] bytes ) throws IOException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            Dn dn = new Dn();
+            dn.readExternal( in );
+
+            return dn;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, cnfe.getLocalizedMessage() ), cnfe );
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.partition.impl.btree.EntryCodec;
+
+
+/**
+ * Serializes the entries stored in the master table, using the {@link EntryCodec} format.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySerializer implements LmdbSerializer<Entry>
+{
+    /** The codec used to serialize the entries */
+    private final EntryCodec codec;
+
+
+    /**
+     * Creates a new instance of EntrySerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public EntrySerializer( SchemaManager schemaManager )
+    {
+        codec = new EntryCodec( schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( Entry entry )
+    {
+        return codec.encode( entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry deserialize( byte[] bytes ) throws IOException
+    {
+        return codec.decode( bytes, 0, bytes.length );
+    }
+}
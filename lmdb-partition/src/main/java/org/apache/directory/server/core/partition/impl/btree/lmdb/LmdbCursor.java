@@ -0,0 +1,634 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Cursor over the Tuples of a LMDB table, or over the Tuples of one key of this table.
+ * If the table allows duplicate values, we will browse each value and return a Tuple
+ * for each one of them.
+ * <br>
+ * The cursor reads in the LMDB transaction of the partition transaction it has been
+ * created with, if any, otherwise in its own LMDB read transaction, which is closed
+ * with the cursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LmdbCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( "CURSOR" );
+
+    /** The cursor positions */
+    private enum Position
+    {
+        /** Before the first tuple */
+        BEFORE_FIRST,
+
+        /** On the current tuple */
+        ON,
+
+        /** Just before the current tuple : next() returns it */
+        BEFORE_CURRENT,
+
+        /** Just after the current tuple : previous() returns it */
+        AFTER_CURRENT,
+
+        /** After the last tuple */
+        AFTER_LAST
+    }
+
+    /** The table we are building a cursor over */
+    private final LmdbTable<K, V> table;
+
+    /** The partition transaction, may be null */
+    private final PartitionTxn partitionTxn;
+
+    /** The only key we browse, or null if we browse the whole table */
+    private final K key;
+
+    /** The transaction we read in */
+    private Txn<ByteBuffer> txn;
+
+    /** Tells if the transaction has been opened by this cursor */
+    private boolean ownTxn;
+
+    /** The underlying LMDB cursor */
+    private org.lmdbjava.Cursor<ByteBuffer> browser;
+
+    /** The key of the current LMDB record */
+    private K currentKey;
+
+    /** The values of the current LMDB record */
+    private List<V> currentValues;
+
+    /** The position of the current value in the current LMDB record */
+    private int valuePos;
+
+    /** The cursor position */
+    private Position position = Position.BEFORE_FIRST;
+
+    /** The tuple which will be returned */
+    private Tuple<K, V> returnedTuple = new Tuple<>();
+
+    /** A flag set when there is a Tuple available */
+    private boolean valueAvailable = false;
+
+
+    /**
+     * Creates a Cursor over the tuples of a LMDB table.
+     *
+     * @param table the LMDB Table to build a Cursor over
+     * @param partitionTxn The partition transaction, may be null
+     * @param key The only key to browse, or null to browse the whole table
+     */
+    LmdbCursor( LmdbTable<K, V> table, PartitionTxn partitionTxn, K key )
+    {
+        LOG_CURSOR.debug( "Creating LmdbCursor {}", this );
+        this.table = table;
+        this.partitionTxn = partitionTxn;
+        this.key = key;
+    }
+
+
+    /**
+     * Opens the LMDB cursor, if not already done
+     */
+    private org.lmdbjava.Cursor<ByteBuffer> getBrowser()
+    {
+        if ( browser == null )
+        {
+            txn = LmdbTable.getReadTxn( partitionTxn );
+
+            if ( txn == null )
+            {
+                txn = table.getEnv().txnRead();
+                ownTxn = true;
+            }
+
+            browser = table.getDb().openCursor( txn );
+        }
+
+        return browser;
+    }
+
+
+    /**
+     * Reads the LMDB record the LMDB cursor is on, if found.
+     *
+     * @param found Tells if the LMDB cursor has been moved on a record
+     * @param first true to select the first value of the record, false for the last one
+     * @return true if the record has been read
+     */
+    private boolean load( boolean found, boolean first ) throws IOException
+    {
+        if ( found )
+        {
+            currentKey = table.decodeKey( txn, browser.key() );
+
+            if ( ( key != null ) && ( table.getKeyComparator().compare( currentKey, key ) != 0 ) )
+            {
+                found = false;
+            }
+        }
+
+        if ( !found )
+        {
+            currentKey = null;
+            currentValues = null;
+
+            return false;
+        }
+
+        currentValues = table.decodeValues( browser.val() );
+        valuePos = first ? 0 : currentValues.size() - 1;
+
+        return true;
+    }
+
+
+    /**
+     * Moves the LMDB cursor to the first record
+     */
+    private boolean moveFirst() throws IOException
+    {
+        if ( key == null )
+        {
+            return getBrowser().first();
+        }
+
+        return getBrowser().get( table.encodeKey( key ), GetOp.MDB_SET_KEY );
+    }
+
+
+    /**
+     * Moves the LMDB cursor to the last record
+     */
+    private boolean moveLast() throws IOException
+    {
+        if ( key == null )
+        {
+            return getBrowser().last();
+        }
+
+        if ( !getBrowser().get( table.encodeKey( key ), GetOp.MDB_SET_KEY ) )
+        {
+            return false;
+        }
+
+        return !table.isSortedDups() || browser.seek( SeekOp.MDB_LAST_DUP );
+    }
+
+
+    /**
+     * Moves the LMDB cursor to the next record
+     */
+    private boolean moveNext()
+    {
+        if ( key == null )
+        {
+            return browser.next();
+        }
+
+        return table.isSortedDups() && browser.seek( SeekOp.MDB_NEXT_DUP );
+    }
+
+
+    /**
+     * Moves the LMDB cursor to the previous record
+     */
+    private boolean movePrevious()
+    {
+        if ( key == null )
+        {
+            return browser.prev();
+        }
+
+        return table.isSortedDups() && browser.seek( SeekOp.MDB_PREV_DUP );
+    }
+
+
+    /**
+     * Moves the LMDB cursor to the first record of the next key
+     */
+    private boolean moveNextKey()
+    {
+        if ( table.isSortedDups() )
+        {
+            return browser.seek( SeekOp.MDB_NEXT_NODUP );
+        }
+
+        return browser.next();
+    }
+
+
+    /**
+     * Cleanup the returned tuple before reusing it.
+     */
+    private void clearValue()
+    {
+        returnedTuple.setKey( null );
+        returnedTuple.setValue( null );
+        valueAvailable = false;
+    }
+
+
+    /**
+     * Sets the returned tuple to the current value
+     */
+    private boolean setValue()
+    {
+        position = Position.ON;
+        returnedTuple.setKey( currentKey );
+        returnedTuple.setValue( currentValues.get( valuePos ) );
+        valueAvailable = true;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return valueAvailable;
+    }
+
+
+    /**
+     * Sets the position before a given key, or before a given value of this key
+     *
+     * @param element The key and the value to start with, the value may be null
+     * @param after If we want to position the cursor after the given key and value
+     */
+    private void position( Tuple<K, V> element, boolean after ) throws CursorException
+    {
+        checkNotClosed();
+        clearValue();
+
+        K searchedKey = element.getKey();
+        V value = element.getValue();
+
+        try
+        {
+            boolean found = getBrowser().get( table.encodeKey( searchedKey ), GetOp.MDB_SET_RANGE );
+
+            if ( !load( found, true ) )
+            {
+                position = Position.AFTER_LAST;
+
+                if ( ( key != null ) && ( table.getKeyComparator().compare( searchedKey, key ) < 0 ) )
+                {
+                    // The browsed key is after the searched key
+                    position = Position.BEFORE_FIRST;
+                }
+
+                return;
+            }
+
+            if ( table.getKeyComparator().compare( currentKey, searchedKey ) == 0 )
+            {
+                if ( value == null )
+                {
+                    if ( after && !load( moveNextKey(), true ) )
+                    {
+                        position = Position.AFTER_LAST;
+
+                        return;
+                    }
+                }
+                else if ( table.isSortedDups() )
+                {
+                    ByteBuffer encodedKey = table.encodeKey( searchedKey );
+
+                    if ( browser.get( encodedKey, table.encodeValue( value ), SeekOp.MDB_GET_BOTH_RANGE ) )
+                    {
+                        load( true, true );
+
+                        if ( after && ( table.compareValues( currentValues.get( 0 ), value ) == 0 ) )
+                        {
+                            position = Position.AFTER_CURRENT;
+
+                            return;
+                        }
+                    }
+                    else if ( !browser.get( encodedKey, GetOp.MDB_SET_KEY ) || !load( moveNextKey(), true ) )
+                    {
+                        // All the values of the key are lower
+                        position = Position.AFTER_LAST;
+
+                        return;
+                    }
+                }
+                else
+                {
+                    // Find the first value greater or equal to the searched one
+                    while ( ( valuePos < currentValues.size() )
+                        && ( table.compareValues( currentValues.get( valuePos ), value ) < 0 ) )
+                    {
+                        valuePos++;
+                    }
+
+                    if ( valuePos == currentValues.size() )
+                    {
+                        if ( !load( moveNextKey(), true ) )
+                        {
+                            position = Position.AFTER_LAST;
+
+                            return;
+                        }
+                    }
+                    else if ( after && ( table.compareValues( currentValues.get( valuePos ), value ) == 0 ) )
+                    {
+                        position = Position.AFTER_CURRENT;
+
+                        return;
+                    }
+                }
+            }
+
+            position = Position.BEFORE_CURRENT;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new CursorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        position( element, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        position( element, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        clearValue();
+        position = Position.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        clearValue();
+        position = Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        try
+        {
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    clearValue();
+
+                    return false;
+
+                case AFTER_LAST:
+                    if ( load( moveLast(), false ) )
+                    {
+                        return setValue();
+                    }
+
+                    break;
+
+                case AFTER_CURRENT:
+                    return setValue();
+
+                default:
+                    if ( valuePos > 0 )
+                    {
+                        valuePos--;
+
+                        return setValue();
+                    }
+
+                    if ( load( movePrevious(), false ) )
+                    {
+                        return setValue();
+                    }
+
+                    break;
+            }
+
+            clearValue();
+            position = Position.BEFORE_FIRST;
+
+            return false;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new CursorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        try
+        {
+            switch ( position )
+            {
+                case AFTER_LAST:
+                    clearValue();
+
+                    return false;
+
+                case BEFORE_FIRST:
+                    if ( load( moveFirst(), true ) )
+                    {
+                        return setValue();
+                    }
+
+                    break;
+
+                case BEFORE_CURRENT:
+                    return setValue();
+
+                default:
+                    if ( valuePos < currentValues.size() - 1 )
+                    {
+                        valuePos++;
+
+                        return setValue();
+                    }
+
+                    if ( load( moveNext(), true ) )
+                    {
+                        return setValue();
+                    }
+
+                    break;
+            }
+
+            clearValue();
+            position = Position.AFTER_LAST;
+
+            return false;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new CursorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( valueAvailable )
+        {
+            return returnedTuple;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close();
+        closeBrowser();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close( cause );
+        closeBrowser();
+    }
+
+
+    /**
+     * Closes the LMDB cursor, and the LMDB transaction if it's ours
+     */
+    private void closeBrowser()
+    {
+        if ( browser != null )
+        {
+            browser.close();
+            browser = null;
+        }
+
+        if ( ownTxn )
+        {
+            txn.close();
+            ownTxn = false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.DnComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * A special index which stores DN objects.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbDnIndex extends LmdbIndex<Dn>
+{
+    /** The DN comparator */
+    private static final DnComparator DN_COMPARATOR = new DnComparator( null );
+
+
+    public LmdbDnIndex( String oid )
+    {
+        super( oid, true );
+        initialized = false;
+    }
+
+
+    /**
+     * Initializes the forward and reverse tables used by this Index.
+     *
+     * @param schemaManager The server schemaManager
+     * @throws IOException if we cannot initialize the forward and reverse
+     * tables
+     */
+    @Override
+    protected void initTables( SchemaManager schemaManager ) throws IOException
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            throw new IOException( I18n.err( I18n.ERR_574, attributeType.getName() ) );
+        }
+
+        Comparator<Dn> comp = DN_COMPARATOR::compare;
+
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        forward = new LmdbTable<>( env, schemaManager, attributeType.getOid() + FORWARD_BTREE,
+            comp, UuidComparator.INSTANCE, DnSerializer.INSTANCE, UuidSerializer.INSTANCE, true );
+        reverse = new LmdbTable<>( env, schemaManager, attributeType.getOid() + REVERSE_BTREE,
+            UuidComparator.INSTANCE, comp, UuidSerializer.INSTANCE, DnSerializer.INSTANCE, false );
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.xdbm.MasterTable;
+import org.lmdbjava.Env;
+
+
+/**
+ * The master table used to store the Attributes of entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbMasterTable extends LmdbTable<String, Entry> implements MasterTable
+{
+    /**
+     * Creates the master table using a LMDB database for the backing store.
+     *
+     * @param env The LMDB environment
+     * @param schemaManager the schema manager
+     */
+    public LmdbMasterTable( Env<ByteBuffer> env, SchemaManager schemaManager )
+    {
+        super( env, schemaManager, DBF, UuidComparator.INSTANCE, null, UuidSerializer.INSTANCE,
+            new EntrySerializer( schemaManager ), false );
+
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+    }
+
+
+    /**
+     * Get's the next value from this SequenceBDb.  This has the side-effect of
+     * changing the current sequence values permanently in memory and on disk.
+     *
+     * @return the current value incremented by one.
+     */
+    public String getNextId( Entry entry )
+    {
+        return UUID.randomUUID().toString();
+    }
+}
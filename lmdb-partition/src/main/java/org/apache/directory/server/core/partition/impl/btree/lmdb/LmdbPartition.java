@@ -0,0 +1,814 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.exception.MultiException;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCache;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.LmdbException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+
+/**
+ * A {@link Partition} that stores entries in a
+ * <a href="https://symas.com/lmdb/">LMDB</a> environment. The master table and all
+ * the indexes are named databases of a single environment, so a partition write
+ * transaction is mapped to a single LMDB write transaction, and a partition read
+ * transaction to a LMDB read transaction which sees a consistent snapshot of all
+ * the tables.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartition extends AbstractBTreePartition
+{
+    /** static logger */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbPartition.class );
+
+    /** The default maximum size of the environment : 10 GB */
+    public static final long DEFAULT_MAP_SIZE = 10L * 1024L * 1024L * 1024L;
+
+    /** The default maximum number of concurrent read transactions */
+    public static final int DEFAULT_MAX_READERS = 512;
+
+    /** The default maximum number of named databases (tables) */
+    public static final int DEFAULT_MAX_DBS = 512;
+
+    /** the LMDB environment used by this database */
+    private Env<ByteBuffer> env;
+
+    /** The maximum size of the environment, in bytes */
+    private long mapSize = DEFAULT_MAP_SIZE;
+
+    /** The maximum number of concurrent read transactions */
+    private int maxReaders = DEFAULT_MAX_READERS;
+
+    /** The maximum number of named databases */
+    private int maxDbs = DEFAULT_MAX_DBS;
+
+    /** Tells if the environment was opened without a synchronous flush on commit */
+    private boolean noSync;
+
+    /** the entry cache */
+    private EntryCache entryCache;
+
+    /** The maximum size of the on-heap entry cache, in bytes. A negative value bounds it by cacheSize entries */
+    private long entryCacheMaxSize = -1L;
+
+    /** The maximum size of the off-heap entry cache, in bytes. 0 disables it */
+    private long entryCacheOffHeapSize = 0L;
+
+
+    /**
+     * Creates a store based on LMDB B+Trees.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param dnFactory The DN factory instance
+     */
+    public LmdbPartition( SchemaManager schemaManager, DnFactory dnFactory )
+    {
+        super( schemaManager, dnFactory );
+
+        // Initialize the cache size
+        if ( cacheSize < 0 )
+        {
+            cacheSize = DEFAULT_CACHE_SIZE;
+            LOG.debug( "Using the default entry cache size of {} for {} partition", cacheSize, id );
+        }
+        else
+        {
+            LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws LdapException
+    {
+        // Nothing to do : LMDB is never left in an inconsistent state, the
+        // changes are either fully committed, or not visible at all
+    }
+
+
+    @Override
+    protected void doInit() throws LdapException
+    {
+        if ( !initialized )
+        {
+            // setup optimizer and registries for parent
+            if ( !optimizerEnabled )
+            {
+                setOptimizer( new NoOpOptimizer() );
+            }
+            else
+            {
+                setOptimizer( new DefaultOptimizer( this ) );
+            }
+
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+
+            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+
+            // Create the underlying directories (only if needed)
+            File partitionDir = new File( getPartitionPath() );
+
+            if ( !partitionDir.exists() && !partitionDir.mkdirs() )
+            {
+                throw new LdapOtherException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, partitionDir ) );
+            }
+
+            // Open the environment. The read transactions are not bound to a thread, as
+            // a search may be processed by more than one thread
+            noSync = !isSyncOnWrite();
+
+            EnvFlags[] flags = noSync
+                ? new EnvFlags[] { EnvFlags.MDB_NOTLS, EnvFlags.MDB_NOSYNC }
+                : new EnvFlags[] { EnvFlags.MDB_NOTLS };
+
+            try
+            {
+                env = Env.create()
+                    .setMapSize( mapSize )
+                    .setMaxReaders( maxReaders )
+                    .setMaxDbs( maxDbs )
+                    .open( partitionDir, flags );
+            }
+            catch ( LmdbException le )
+            {
+                throw new LdapOtherException( le.getMessage(), le );
+            }
+
+            // The names of the existing tables
+            Set<String> dbiNames = new HashSet<>();
+
+            for ( byte[] dbiName : env.getDbiNames() )
+            {
+                dbiNames.add( new String( dbiName, StandardCharsets.UTF_8 ) );
+            }
+
+            // Iterate on the declared indexes
+            List<Index<?, String>> indexToBuild = new ArrayList<>();
+
+            for ( Index<?, String> index : getIndexedAttributes() )
+            {
+                String oid = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ).getOid();
+
+                // Check the forward index only (we suppose we never will add a reverse index later on)
+                if ( !dbiNames.contains( oid + LmdbIndex.FORWARD_BTREE ) )
+                {
+                    // The index does not exist in the database, we need to build it
+                    indexToBuild.add( index );
+                }
+            }
+
+            // Initialize the indexes
+            super.doInit();
+
+            if ( cacheSize < 0 )
+            {
+                cacheSize = DEFAULT_CACHE_SIZE;
+                LOG.debug( "Using the default entry cache size of {} for {} partition", cacheSize, id );
+            }
+            else
+            {
+                LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
+            }
+
+            // Create the master table (the table containing all the entries)
+            try
+            {
+                master = new LmdbMasterTable( env, schemaManager );
+            }
+            catch ( LmdbException le )
+            {
+                throw new LdapOtherException( le.getMessage(), le );
+            }
+
+            if ( !indexToBuild.isEmpty() )
+            {
+                buildUserIndex( indexToBuild );
+            }
+
+            entryCache = new EntryCache( schemaManager, cacheSize, entryCacheMaxSize, entryCacheOffHeapSize );
+
+            // Initialization of the context entry
+            if ( ( suffixDn != null ) && ( contextEntry != null ) )
+            {
+                Dn contextEntryDn = contextEntry.getDn();
+
+                // Checking if the context entry DN is schema aware
+                if ( !contextEntryDn.isSchemaAware() )
+                {
+                    contextEntryDn = new Dn( schemaManager, contextEntryDn );
+                }
+
+                // We're only adding the entry if the two DNs are equal
+                if ( suffixDn.equals( contextEntryDn ) )
+                {
+                    // Looking for the current context entry
+                    Entry suffixEntry;
+                    LookupOperationContext lookupContext = new LookupOperationContext( null, suffixDn );
+                    lookupContext.setPartition( this );
+
+                    try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                    {
+                        lookupContext.setTransaction( partitionTxn );
+                        suffixEntry = lookup( lookupContext );
+                    }
+                    catch ( IOException ioe )
+                    {
+                        throw new LdapOtherException( ioe.getMessage(), ioe );
+                    }
+
+                    // We're only adding the context entry if it doesn't already exist
+                    if ( suffixEntry == null )
+                    {
+                        // Checking of the context entry is schema aware
+                        if ( !contextEntry.isSchemaAware() )
+                        {
+                            // Making the context entry schema aware
+                            contextEntry = new DefaultEntry( schemaManager, contextEntry );
+                        }
+
+                        // Adding the 'entryCsn' attribute
+                        if ( contextEntry.get( SchemaConstants.ENTRY_CSN_AT ) == null )
+                        {
+                            contextEntry.add( SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance()
+                                .toString() );
+                        }
+
+                        // Adding the 'entryUuid' attribute
+                        if ( contextEntry.get( SchemaConstants.ENTRY_UUID_AT ) == null )
+                        {
+                            String uuid = UUID.randomUUID().toString();
+                            contextEntry.add( SchemaConstants.ENTRY_UUID_AT, uuid );
+                        }
+
+                        // And add this entry to the underlying partition
+                        PartitionTxn partitionTxn = null;
+                        AddOperationContext addContext = new AddOperationContext( null, contextEntry );
+
+                        try
+                        {
+                            partitionTxn = beginWriteTransaction();
+                            addContext.setTransaction( partitionTxn );
+
+                            add( addContext );
+                            partitionTxn.commit();
+                        }
+                        catch ( LdapException le )
+                        {
+                            if ( partitionTxn != null )
+                            {
+                                try
+                                {
+                                    partitionTxn.abort();
+                                }
+                                catch ( IOException ioe )
+                                {
+                                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                                }
+                            }
+
+                            throw le;
+                        }
+                        catch ( IOException ioe )
+                        {
+                            try
+                            {
+                                partitionTxn.abort();
+                            }
+                            catch ( IOException ioe2 )
+                            {
+                                throw new LdapOtherException( ioe2.getMessage(), ioe2 );
+                            }
+
+                            throw new LdapOtherException( ioe.getMessage(), ioe );
+                        }
+                    }
+                }
+            }
+
+            // We are done !
+            initialized = true;
+        }
+    }
+
+
+    /**
+     * @return The maximum size of the LMDB environment, in bytes
+     */
+    public long getMapSize()
+    {
+        return mapSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the LMDB environment. It must be set before the
+     * partition is initialized.
+     *
+     * @param mapSize The maximum size, in bytes
+     */
+    public void setMapSize( long mapSize )
+    {
+        checkInitialized( "mapSize" );
+        this.mapSize = mapSize;
+    }
+
+
+    /**
+     * @return The maximum number of concurrent read transactions
+     */
+    public int getMaxReaders()
+    {
+        return maxReaders;
+    }
+
+
+    /**
+     * Sets the maximum number of concurrent read transactions. It must be set before
+     * the partition is initialized.
+     *
+     * @param maxReaders The maximum number of concurrent read transactions
+     */
+    public void setMaxReaders( int maxReaders )
+    {
+        checkInitialized( "maxReaders" );
+        this.maxReaders = maxReaders;
+    }
+
+
+    /**
+     * @return The maximum number of tables
+     */
+    public int getMaxDbs()
+    {
+        return maxDbs;
+    }
+
+
+    /**
+     * Sets the maximum number of tables, including the index tables. It must be set
+     * before the partition is initialized.
+     *
+     * @param maxDbs The maximum number of tables
+     */
+    public void setMaxDbs( int maxDbs )
+    {
+        checkInitialized( "maxDbs" );
+        this.maxDbs = maxDbs;
+    }
+
+
+    /**
+     * @return The maximum size of the on-heap entry cache, in bytes. A negative value means
+     * the cache is bounded by the number of entries
+     */
+    public long getEntryCacheMaxSize()
+    {
+        return entryCacheMaxSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the on-heap entry cache, computed using the serialized size of
+     * the entries. It must be set before the partition is initialized.
+     * 
+     * @param entryCacheMaxSize The maximum size, in bytes. A negative value bounds the cache by
+     * the number of entries (see {@link #setCacheSize(int)})
+     */
+    public void setEntryCacheMaxSize( long entryCacheMaxSize )
+    {
+        checkInitialized( "entryCacheMaxSize" );
+        this.entryCacheMaxSize = entryCacheMaxSize;
+    }
+
+
+    /**
+     * @return The maximum size of the off-heap entry cache, in bytes. 0 means it's disabled
+     */
+    public long getEntryCacheOffHeapSize()
+    {
+        return entryCacheOffHeapSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the off-heap entry cache, which keeps the serialized entries
+     * evicted from the on-heap cache. It must be set before the partition is initialized.
+     * 
+     * @param entryCacheOffHeapSize The maximum size, in bytes. 0 disables the off-heap cache
+     */
+    public void setEntryCacheOffHeapSize( long entryCacheOffHeapSize )
+    {
+        checkInitialized( "entryCacheOffHeapSize" );
+        this.entryCacheOffHeapSize = entryCacheOffHeapSize;
+    }
+
+
+    /**
+     * @return The entry cache, or null if the partition has not been initialized
+     */
+    public EntryCache getEntryCache()
+    {
+        return entryCache;
+    }
+
+
+    /**
+     * {@inheritDoc}}
+     */
+    public String getDefaultId()
+    {
+        return Partition.DEFAULT_ID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRootId()
+    {
+        return Partition.ROOT_ID;
+    }
+
+
+    /**
+     * This method is called when the synch thread is waking up, to flush
+     * the committed data. When the partition syncs on write, the LMDB commits
+     * are already durable and there is nothing to do.
+     *
+     * @throws LdapException on failures to sync database files to disk
+     */
+    @Override
+    public synchronized void sync() throws LdapException
+    {
+        if ( !initialized || !noSync )
+        {
+            return;
+        }
+
+        try
+        {
+            env.sync( true );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Builds user defined indexes on a attributes by browsing all the entries present in master db
+     *
+     * Note: if the given list of indices contains any system index that will be skipped.
+     *
+     * WARN: MUST be called after calling super.doInit()
+     *
+     * @param indices then selected indexes that need to be built
+     * @throws Exception in case of any problems while building the index
+     */
+    private void buildUserIndex( List<Index<?, String>> indices ) throws LdapException
+    {
+        PartitionTxn partitionTxn = beginWriteTransaction();
+
+        try
+        {
+            // Browse the whole master table within the write transaction
+            Cursor<Tuple<String, Entry>> cursor = new LmdbCursor<>( ( LmdbMasterTable ) master, partitionTxn, null );
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                for ( Index index : indices )
+                {
+                    AttributeType atType = index.getAttribute();
+
+                    String attributeOid = index.getAttribute().getOid();
+
+                    if ( systemIndices.get( attributeOid ) != null )
+                    {
+                        // skipping building of the system index
+                        continue;
+                    }
+
+                    LOG.info( "building the index for attribute type {}", atType );
+
+                    Tuple<String, Entry> tuple = cursor.get();
+
+                    String id = tuple.getKey();
+                    Entry entry = tuple.getValue();
+
+                    Attribute entryAttr = entry.get( atType );
+
+                    if ( entryAttr != null )
+                    {
+                        for ( Value value : entryAttr )
+                        {
+                            index.add( partitionTxn, value.getString(), id );
+                        }
+
+                        // Adds only those attributes that are indexed
+                        presenceIdx.add( partitionTxn, attributeOid, id );
+                    }
+                }
+            }
+
+            cursor.close();
+            partitionTxn.commit();
+        }
+        catch ( CursorException | IOException e )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( ioe.getMessage(), ioe );
+            }
+
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Index<?, String> convertAndInit( Index<?, String> index ) throws LdapException
+    {
+        LmdbIndex<?> lmdbIndex;
+
+        if ( index instanceof LmdbIndex<?> )
+        {
+            lmdbIndex = ( LmdbIndex<?> ) index;
+        }
+        else
+        {
+            LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+                + "Will create new LmdbIndex using copied configuration parameters.", index );
+            lmdbIndex = new LmdbIndex( index.getAttributeId(), true );
+            lmdbIndex.setCacheSize( index.getCacheSize() );
+        }
+
+        try
+        {
+            lmdbIndex.init( env, schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return lmdbIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void doDestroy( PartitionTxn partitionTxn ) throws LdapException
+    {
+        MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
+
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            super.doDestroy( partitionTxn );
+        }
+        catch ( Exception e )
+        {
+            errors.addThrowable( e );
+        }
+
+        // This is specific to the LMDB store : close the environment
+        try
+        {
+            env.close();
+            LOG.debug( "Closed the LMDB environment for {} partition.", suffixDn );
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_127 ), le );
+            errors.addThrowable( le );
+        }
+        finally
+        {
+            if ( entryCache != null )
+            {
+                entryCache.invalidateAll();
+            }
+        }
+
+        if ( errors.size() > 0 )
+        {
+            throw new LdapOtherException( errors.getMessage(), errors );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected final Index createSystemIndex( String oid, URI path, boolean withReverse ) throws LdapException
+    {
+        LmdbIndex<?> lmdbIndex;
+
+        if ( oid.equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+        {
+            lmdbIndex = new LmdbRdnIndex();
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_RDN_AT_OID );
+        }
+        else if ( oid.equals( ApacheSchemaConstants.APACHE_ALIAS_AT_OID ) )
+        {
+            lmdbIndex = new LmdbDnIndex( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+        }
+        else
+        {
+            lmdbIndex = new LmdbIndex( oid, withReverse );
+        }
+
+        lmdbIndex.setWkDirPath( path );
+
+        return lmdbIndex;
+    }
+
+
+    @Override
+    public void updateCache( OperationContext opCtx )
+    {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                entryCache.put( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext )
+                || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // Only the renamed entry has changed : the cached entries don't contain their Dn,
+                // which is set when they are fetched, so the descendants can stay in the cache
+                Entry entry = opCtx.getEntry();
+                Attribute entryUuid = ( entry != null ) ? entry.get( SchemaConstants.ENTRY_UUID_AT ) : null;
+
+                if ( entryUuid != null )
+                {
+                    entryCache.invalidate( entryUuid.getString() );
+                }
+                else
+                {
+                    entryCache.invalidateAll();
+                }
+            }
+            else if ( opCtx instanceof DeleteOperationContext )
+            {
+                // delete the entry
+                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
+                entryCache.invalidate( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
+    }
+
+
+    @Override
+    public Entry lookupCache( String id )
+    {
+        return ( entryCache != null ) ? entryCache.get( id ) : null;
+    }
+
+
+    @Override
+    public void addToCache( String id, Entry entry )
+    {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        Entry addedEntry = entry;
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            addedEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        entryCache.put( id, addedEntry );
+    }
+
+
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        return new LmdbPartitionReadTxn( env, entryVersions );
+    }
+
+
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        return new LmdbPartitionWriteTxn( env, this );
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.server.core.partition.impl.btree.EntryVersions;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
+import org.lmdbjava.Env;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB partition read transaction. It's mapped to a LMDB read transaction, which
+ * sees the database as it was when it started, without blocking the writers nor the
+ * other readers. The LMDB transaction is kept until the cursors which have retained
+ * this transaction are closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionReadTxn extends SnapshotReadTxn
+{
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The current LMDB read transaction, null if it must be renewed */
+    private Txn<ByteBuffer> txn;
+
+    /** The LMDB read transactions replaced after a write, still used by some cursors */
+    private final List<Txn<ByteBuffer>> previousTxns = new ArrayList<>();
+
+
+    /**
+     * Creates a new LmdbPartitionReadTxn instance
+     *
+     * @param env The LMDB environment
+     * @param entryVersions The versions of the partition entries
+     */
+    public LmdbPartitionReadTxn( Env<ByteBuffer> env, EntryVersions entryVersions )
+    {
+        super( entryVersions );
+        this.env = env;
+        txn = env.txnRead();
+    }
+
+
+    /**
+     * @return The LMDB read transaction
+     */
+    public synchronized Txn<ByteBuffer> getTxn()
+    {
+        if ( txn == null )
+        {
+            txn = env.txnRead();
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * Called when a change has been committed on behalf of this transaction : the next
+     * reads will use a new LMDB read transaction, to see it. The cursors already opened
+     * keep on using the previous one.
+     */
+    public synchronized void refresh()
+    {
+        if ( txn != null )
+        {
+            previousTxns.add( txn );
+            txn = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void released()
+    {
+        if ( txn != null )
+        {
+            txn.close();
+            txn = null;
+        }
+
+        for ( Txn<ByteBuffer> previousTxn : previousTxns )
+        {
+            previousTxn.close();
+        }
+
+        previousTxns.clear();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotWriteTxn;
+import org.lmdbjava.Env;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB partition write transaction. It's mapped to a LMDB write transaction, which
+ * is started on the first write, and which must be committed or aborted by the thread
+ * which has started it. Until then, the reads done through this transaction use a plain
+ * LMDB read transaction.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionWriteTxn extends SnapshotWriteTxn
+{
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The LMDB write transaction, null until the first write */
+    private Txn<ByteBuffer> txn;
+
+
+    /**
+     * Creates a new LmdbPartitionWriteTxn instance
+     *
+     * @param env The LMDB environment
+     * @param partition The partition this transaction writes into
+     */
+    public LmdbPartitionWriteTxn( Env<ByteBuffer> env, AbstractBTreePartition partition )
+    {
+        super( partition );
+        this.env = env;
+    }
+
+
+    /**
+     * @return The LMDB write transaction, started if needed
+     */
+    public Txn<ByteBuffer> getTxn()
+    {
+        if ( txn == null )
+        {
+            txn = env.txnWrite();
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * @return The LMDB write transaction, or null if nothing has been written yet
+     */
+    public Txn<ByteBuffer> getStartedTxn()
+    {
+        return txn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() throws IOException
+    {
+        prepareCommit();
+
+        if ( txn != null )
+        {
+            try
+            {
+                txn.commit();
+            }
+            catch ( LmdbException le )
+            {
+                throw new IOException( le.getMessage(), le );
+            }
+            finally
+            {
+                txn.close();
+                txn = null;
+            }
+        }
+
+        // The changes are now visible to the new readers
+        publish();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() throws IOException
+    {
+        if ( txn != null )
+        {
+            try
+            {
+                txn.abort();
+            }
+            catch ( LmdbException le )
+            {
+                throw new IOException( le.getMessage(), le );
+            }
+            finally
+            {
+                txn.close();
+                txn = null;
+            }
+        }
+
+        discardDeferred();
+        publish();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        commit();
+    }
+}
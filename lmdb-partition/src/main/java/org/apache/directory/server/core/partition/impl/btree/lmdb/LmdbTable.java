@@ -0,0 +1,1092 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractTable;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.Env;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.PutFlags;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A LMDB database backed Table. All the tables of a partition are stored in the
+ * same LMDB environment.
+ * <br>
+ * The keys are ordered using the table key comparator, except when they are entry
+ * IDs, which are compared as bytes. LMDB does not accept keys larger than 511 bytes :
+ * such a key is stored as its first bytes followed by a digest of the whole key, and
+ * the whole key is kept in a companion database.
+ * <br>
+ * When the duplicate values are entry IDs, they are stored as LMDB sorted duplicates.
+ * Otherwise, they may be too large for LMDB, and all the values of a key are packed in
+ * a single record.
+ * <br>
+ * The operations done with a {@link LmdbPartitionReadTxn} or a {@link LmdbPartitionWriteTxn}
+ * use the associated LMDB transaction. Any other transaction is ignored : the reads use
+ * a short LMDB read transaction, and the writes are committed immediately.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTable<K, V> extends AbstractTable<K, V>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbTable.class );
+
+    /** The suffix of the database storing the large keys */
+    public static final String LONG_KEYS = "_keys";
+
+    /** The first byte of a key stored as is */
+    private static final byte INLINE_KEY = 0x00;
+
+    /** The first byte of a key stored as a prefix and a digest */
+    private static final byte LONG_KEY = 0x01;
+
+    /** The number of bytes of a large key kept in front of its digest */
+    private static final int KEY_PREFIX_LENGTH = 256;
+
+    /** The length of the digest of a large key */
+    private static final int DIGEST_LENGTH = 32;
+
+    /** The LMDB environment */
+    protected final Env<ByteBuffer> env;
+
+    /** The LMDB database storing the tuples */
+    protected final Dbi<ByteBuffer> db;
+
+    /** The LMDB database storing the large keys, null if the keys are entry IDs */
+    private final Dbi<ByteBuffer> longKeys;
+
+    /** The key serializer */
+    private final LmdbSerializer<K> keySerializer;
+
+    /** The value serializer */
+    private final LmdbSerializer<V> valueSerializer;
+
+    /** Tells if the keys are entry IDs */
+    private final boolean idKeys;
+
+    /** Tells if the duplicate values are stored as LMDB sorted duplicates */
+    private final boolean sortedDups;
+
+    /** The largest key stored as is */
+    private final int maxInlineKeySize;
+
+
+    /**
+     * An operation done in a LMDB transaction
+     *
+     * @param <R> The result type
+     */
+    @FunctionalInterface
+    protected interface TxnOperation<R>
+    {
+        R apply( Txn<ByteBuffer> txn ) throws IOException, LdapException;
+    }
+
+
+    /**
+     * Creates a new instance of LmdbTable, opening its LMDB databases if they already exist
+     *
+     * @param env The LMDB environment
+     * @param schemaManager The SchemaManager instance
+     * @param name The table name
+     * @param keyComparator The key comparator
+     * @param valueComparator The value comparator
+     * @param keySerializer The key serializer
+     * @param valueSerializer The value serializer
+     * @param allowsDuplicates If the table allows more than one value for a key
+     */
+    public LmdbTable( Env<ByteBuffer> env, SchemaManager schemaManager, String name, Comparator<K> keyComparator,
+        Comparator<V> valueComparator, LmdbSerializer<K> keySerializer, LmdbSerializer<V> valueSerializer,
+        boolean allowsDuplicates )
+    {
+        super( schemaManager, name, keyComparator, valueComparator );
+
+        if ( allowsDuplicates && ( valueComparator == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_592 ) );
+        }
+
+        this.env = env;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.allowsDuplicates = allowsDuplicates;
+        idKeys = keySerializer instanceof UuidSerializer;
+        sortedDups = allowsDuplicates && ( valueSerializer instanceof UuidSerializer );
+        maxInlineKeySize = env.getMaxKeySize() - 1;
+
+        DbiFlags[] flags = sortedDups
+            ? new DbiFlags[] { DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT }
+            : new DbiFlags[] { DbiFlags.MDB_CREATE };
+
+        if ( idKeys )
+        {
+            db = env.openDbi( name, flags );
+            longKeys = null;
+        }
+        else
+        {
+            db = env.openDbi( name, this::compareKeys, true, flags );
+            longKeys = env.openDbi( name + LONG_KEYS, DbiFlags.MDB_CREATE );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Transactions
+    // ------------------------------------------------------------------------
+
+    /**
+     * Gets the LMDB transaction to read with
+     *
+     * @param partitionTxn The partition transaction
+     * @return The LMDB transaction, or null if the read must use its own transaction
+     */
+    static Txn<ByteBuffer> getReadTxn( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn instanceof LmdbPartitionReadTxn )
+        {
+            return ( ( LmdbPartitionReadTxn ) partitionTxn ).getTxn();
+        }
+        else if ( partitionTxn instanceof LmdbPartitionWriteTxn )
+        {
+            return ( ( LmdbPartitionWriteTxn ) partitionTxn ).getStartedTxn();
+        }
+        else
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Applies an operation in a LMDB transaction
+     */
+    private <R> R apply( Txn<ByteBuffer> txn, TxnOperation<R> operation ) throws LdapException
+    {
+        try
+        {
+            return operation.apply( txn );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Reads from the table
+     *
+     * @param partitionTxn The partition transaction
+     * @param operation The read operation
+     * @return The operation result
+     * @throws LdapException If the read failed
+     */
+    protected <R> R read( PartitionTxn partitionTxn, TxnOperation<R> operation ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = getReadTxn( partitionTxn );
+
+        if ( txn != null )
+        {
+            return apply( txn, operation );
+        }
+
+        try ( Txn<ByteBuffer> readTxn = env.txnRead() )
+        {
+            return apply( readTxn, operation );
+        }
+    }
+
+
+    /**
+     * Writes into the table. If the partition transaction is not a write transaction,
+     * the change is committed immediately.
+     *
+     * @param partitionTxn The partition transaction
+     * @param operation The write operation
+     * @return The operation result
+     * @throws LdapException If the write failed
+     */
+    protected <R> R write( PartitionTxn partitionTxn, TxnOperation<R> operation ) throws LdapException
+    {
+        if ( partitionTxn instanceof LmdbPartitionWriteTxn )
+        {
+            return apply( ( ( LmdbPartitionWriteTxn ) partitionTxn ).getTxn(), operation );
+        }
+
+        R result;
+
+        try ( Txn<ByteBuffer> writeTxn = env.txnWrite() )
+        {
+            result = apply( writeTxn, operation );
+            writeTxn.commit();
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+
+        if ( partitionTxn instanceof LmdbPartitionReadTxn )
+        {
+            // The next reads must see the change
+            ( ( LmdbPartitionReadTxn ) partitionTxn ).refresh();
+        }
+
+        return result;
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Keys and values encoding
+    // ------------------------------------------------------------------------
+
+    /**
+     * Copies the content of a LMDB buffer, without changing its position.
+     */
+    static byte[] toBytes( ByteBuffer buffer )
+    {
+        ByteBuffer duplicate = buffer.duplicate();
+        byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get( bytes );
+
+        return bytes;
+    }
+
+
+    /**
+     * Wraps some bytes in a direct buffer, as expected by LMDB.
+     */
+    static ByteBuffer toBuffer( byte[] bytes )
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect( Math.max( bytes.length, 1 ) );
+        buffer.put( bytes ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Compares two LMDB keys. The key comparator is used, the large keys being compared
+     * on their prefix when it can be deserialized. Equal keys are then ordered by their
+     * bytes, so that two distinct large keys sharing the same prefix are never equal.
+     */
+    private int compareKeys( ByteBuffer buffer1, ByteBuffer buffer2 )
+    {
+        byte[] key1 = toBytes( buffer1 );
+        byte[] key2 = toBytes( buffer2 );
+
+        try
+        {
+            int result = keyComparator.compare( keySerializer.deserialize( keyContent( key1 ) ),
+                keySerializer.deserialize( keyContent( key2 ) ) );
+
+            if ( ( result != 0 ) || ( ( key1[0] == INLINE_KEY ) && ( key2[0] == INLINE_KEY ) ) )
+            {
+                return result;
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            // The prefix of a large key can't always be deserialized : compare the bytes
+        }
+
+        return compareBytes( key1, key2 );
+    }
+
+
+    /**
+     * Gets the serialized key, or its prefix for a large key
+     */
+    private static byte[] keyContent( byte[] key )
+    {
+        int length = key[0] == INLINE_KEY ? key.length - 1 : KEY_PREFIX_LENGTH;
+        byte[] content = new byte[length];
+        System.arraycopy( key, 1, content, 0, length );
+
+        return content;
+    }
+
+
+    private static int compareBytes( byte[] bytes1, byte[] bytes2 )
+    {
+        int length = Math.min( bytes1.length, bytes2.length );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            int result = ( bytes1[i] & 0xFF ) - ( bytes2[i] & 0xFF );
+
+            if ( result != 0 )
+            {
+                return result;
+            }
+        }
+
+        return bytes1.length - bytes2.length;
+    }
+
+
+    /**
+     * Encodes a key
+     *
+     * @param key The key
+     * @return The LMDB key
+     * @throws IOException If the key can't be serialized
+     */
+    ByteBuffer encodeKey( K key ) throws IOException
+    {
+        byte[] bytes = keySerializer.serialize( key );
+
+        if ( idKeys )
+        {
+            return toBuffer( bytes );
+        }
+
+        byte[] encoded;
+
+        if ( bytes.length <= maxInlineKeySize )
+        {
+            encoded = new byte[bytes.length + 1];
+            encoded[0] = INLINE_KEY;
+            System.arraycopy( bytes, 0, encoded, 1, bytes.length );
+        }
+        else
+        {
+            encoded = new byte[1 + KEY_PREFIX_LENGTH + DIGEST_LENGTH];
+            encoded[0] = LONG_KEY;
+            System.arraycopy( bytes, 0, encoded, 1, KEY_PREFIX_LENGTH );
+            System.arraycopy( digest( bytes ), 0, encoded, 1 + KEY_PREFIX_LENGTH, DIGEST_LENGTH );
+        }
+
+        return toBuffer( encoded );
+    }
+
+
+    private static byte[] digest( byte[] bytes ) throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" ).digest( bytes );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            throw new IOException( nsae.getMessage(), nsae );
+        }
+    }
+
+
+    /**
+     * Tells if a LMDB key is a large key
+     */
+    private boolean isLongKey( ByteBuffer key )
+    {
+        return !idKeys && ( key.get( key.position() ) == LONG_KEY );
+    }
+
+
+    /**
+     * Decodes a key read in the given transaction
+     *
+     * @param txn The LMDB transaction
+     * @param key The LMDB key
+     * @return The key
+     * @throws IOException If the key can't be deserialized
+     */
+    K decodeKey( Txn<ByteBuffer> txn, ByteBuffer key ) throws IOException
+    {
+        byte[] bytes = toBytes( key );
+
+        if ( idKeys )
+        {
+            return keySerializer.deserialize( bytes );
+        }
+
+        if ( bytes[0] == LONG_KEY )
+        {
+            ByteBuffer wholeKey = longKeys.get( txn, toBuffer( bytes ) );
+
+            if ( wholeKey == null )
+            {
+                throw new IOException( I18n.err( I18n.ERR_134, "missing large key in " + name ) );
+            }
+
+            return keySerializer.deserialize( toBytes( wholeKey ) );
+        }
+
+        return keySerializer.deserialize( keyContent( bytes ) );
+    }
+
+
+    /**
+     * Encodes a single value
+     */
+    ByteBuffer encodeValue( V value ) throws IOException
+    {
+        return toBuffer( valueSerializer.serialize( value ) );
+    }
+
+
+    /**
+     * Decodes the values stored in a LMDB record : one value, unless the values are
+     * packed.
+     *
+     * @param data The LMDB data
+     * @return The values
+     * @throws IOException If the values can't be deserialized
+     */
+    List<V> decodeValues( ByteBuffer data ) throws IOException
+    {
+        byte[] bytes = toBytes( data );
+
+        if ( !allowsDuplicates || sortedDups )
+        {
+            return Collections.singletonList( valueSerializer.deserialize( bytes ) );
+        }
+
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            int nbValues = in.readInt();
+            List<V> values = new ArrayList<>( nbValues );
+
+            for ( int i = 0; i < nbValues; i++ )
+            {
+                byte[] value = new byte[in.readInt()];
+                in.readFully( value );
+                values.add( valueSerializer.deserialize( value ) );
+            }
+
+            return values;
+        }
+    }
+
+
+    /**
+     * Packs some values in a single LMDB record
+     */
+    private ByteBuffer packValues( List<V> values ) throws IOException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            out.writeInt( values.size() );
+
+            for ( V value : values )
+            {
+                byte[] bytes = valueSerializer.serialize( value );
+                out.writeInt( bytes.length );
+                out.write( bytes );
+            }
+
+            out.flush();
+
+            return toBuffer( baos.toByteArray() );
+        }
+    }
+
+
+    /**
+     * Compares two values. A table allowing duplicates always has a value comparator,
+     * otherwise the values are only checked for equality.
+     */
+    int compareValues( V value1, V value2 )
+    {
+        if ( valueComparator != null )
+        {
+            return valueComparator.compare( value1, value2 );
+        }
+
+        return Objects.deepEquals( value1, value2 ) ? 0 : 1;
+    }
+
+
+    /**
+     * Gets the position of a value in a sorted list of values
+     *
+     * @return The position of the value if found, or (-(insertion point) - 1)
+     */
+    private int search( List<V> values, V value )
+    {
+        int low = 0;
+        int high = values.size() - 1;
+
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+            int result = compareValues( values.get( middle ), value );
+
+            if ( result < 0 )
+            {
+                low = middle + 1;
+            }
+            else if ( result > 0 )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+
+        return -( low + 1 );
+    }
+
+
+    /**
+     * Reads the values of a key
+     */
+    private List<V> getValues( Txn<ByteBuffer> txn, ByteBuffer key ) throws IOException
+    {
+        ByteBuffer data = db.get( txn, key );
+
+        if ( data == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return decodeValues( data );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Accessors
+    // ------------------------------------------------------------------------
+
+    /**
+     * @return The LMDB environment
+     */
+    Env<ByteBuffer> getEnv()
+    {
+        return env;
+    }
+
+
+    /**
+     * @return The LMDB database storing the tuples
+     */
+    Dbi<ByteBuffer> getDb()
+    {
+        return db;
+    }
+
+
+    /**
+     * @return true if the duplicate values are stored as LMDB sorted duplicates
+     */
+    boolean isSortedDups()
+    {
+        return sortedDups;
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Count Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction ) throws LdapException
+    {
+        return read( transaction, txn -> db.stat( txn ).entries );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        return read( transaction, txn ->
+        {
+            ByteBuffer encodedKey = encodeKey( key );
+
+            if ( sortedDups )
+            {
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+                {
+                    return cursor.get( encodedKey, GetOp.MDB_SET_KEY ) ? cursor.count() : 0L;
+                }
+            }
+
+            return ( long ) getValues( txn, encodedKey ).size();
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // take a best guess
+        return Math.min( count( transaction ), 10L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // take a best guess
+        return Math.min( count( transaction ), 10L );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // get/has/put/remove Methods
+    // ------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        return read( transaction, txn ->
+        {
+            List<V> values = getValues( txn, encodeKey( key ) );
+
+            return values.isEmpty() ? null : values.get( 0 );
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return read( transaction, txn -> db.get( txn, encodeKey( key ) ) != null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return read( transaction, txn ->
+        {
+            ByteBuffer encodedKey = encodeKey( key );
+
+            if ( sortedDups )
+            {
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+                {
+                    return cursor.get( encodedKey, encodeValue( value ), SeekOp.MDB_GET_BOTH );
+                }
+            }
+
+            List<V> values = getValues( txn, encodedKey );
+
+            if ( allowsDuplicates )
+            {
+                return search( values, value ) >= 0;
+            }
+
+            return !values.isEmpty() && ( compareValues( values.get( 0 ), value ) == 0 );
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return read( transaction, txn ->
+        {
+            try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+            {
+                return cursor.get( encodeKey( key ), GetOp.MDB_SET_RANGE );
+            }
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return read( transaction, txn ->
+        {
+            try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+            {
+                if ( !cursor.get( encodeKey( key ), GetOp.MDB_SET_RANGE ) )
+                {
+                    // All the keys are lower
+                    return cursor.last();
+                }
+
+                if ( keyComparator.compare( decodeKey( txn, cursor.key() ), key ) == 0 )
+                {
+                    return true;
+                }
+
+                return cursor.prev();
+            }
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        return read( transaction, txn ->
+        {
+            ByteBuffer encodedKey = encodeKey( key );
+
+            if ( sortedDups )
+            {
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+                {
+                    return cursor.get( encodedKey, encodeValue( val ), SeekOp.MDB_GET_BOTH_RANGE );
+                }
+            }
+
+            List<V> values = getValues( txn, encodedKey );
+
+            return !values.isEmpty() && ( compareValues( values.get( values.size() - 1 ), val ) >= 0 );
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        return read( transaction, txn ->
+        {
+            ByteBuffer encodedKey = encodeKey( key );
+
+            if ( sortedDups )
+            {
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+                {
+                    if ( !cursor.get( encodedKey, GetOp.MDB_SET_KEY ) )
+                    {
+                        return false;
+                    }
+
+                    // The first value is the lowest one
+                    return compareValues( valueSerializer.deserialize( toBytes( cursor.val() ) ), val ) <= 0;
+                }
+            }
+
+            List<V> values = getValues( txn, encodedKey );
+
+            return !values.isEmpty() && ( compareValues( values.get( 0 ), val ) <= 0 );
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "---> Add {} = {}", name, key );
+        }
+
+        if ( ( value == null ) || ( key == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_594 ) );
+        }
+
+        write( transaction, txn ->
+        {
+            ByteBuffer encodedKey = encodeKey( key );
+
+            if ( isLongKey( encodedKey ) )
+            {
+                longKeys.put( txn, encodedKey, toBuffer( keySerializer.serialize( key ) ) );
+            }
+
+            if ( sortedDups )
+            {
+                db.put( txn, encodedKey, encodeValue( value ), PutFlags.MDB_NODUPDATA );
+            }
+            else if ( allowsDuplicates )
+            {
+                List<V> values = new ArrayList<>( getValues( txn, encodedKey ) );
+                int pos = search( values, value );
+
+                if ( pos < 0 )
+                {
+                    values.add( -( pos + 1 ), value );
+                    db.put( txn, encodedKey, packValues( values ) );
+                }
+            }
+            else
+            {
+                if ( !idKeys )
+                {
+                    // The stored key must be replaced too, it may hold some data
+                    // the key comparator ignores
+                    db.delete( txn, encodedKey );
+                }
+
+                db.put( txn, encodedKey, encodeValue( value ) );
+            }
+
+            return null;
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "---> Remove {} = {}", name, key );
+        }
+
+        if ( key == null )
+        {
+            return;
+        }
+
+        write( transaction, txn ->
+        {
+            ByteBuffer encodedKey = encodeKey( key );
+
+            if ( db.delete( txn, encodedKey ) && isLongKey( encodedKey ) )
+            {
+                longKeys.delete( txn, encodedKey );
+            }
+
+            return null;
+        } );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "---> Remove {} = {}, {}", name, key, value );
+        }
+
+        if ( key == null )
+        {
+            return;
+        }
+
+        write( transaction, txn ->
+        {
+            ByteBuffer encodedKey = encodeKey( key );
+
+            if ( sortedDups )
+            {
+                db.delete( txn, encodedKey, encodeValue( value ) );
+            }
+            else
+            {
+                List<V> values = new ArrayList<>( getValues( txn, encodedKey ) );
+                int pos = allowsDuplicates ? search( values, value )
+                    : ( !values.isEmpty() && ( compareValues( values.get( 0 ), value ) == 0 ) ? 0 : -1 );
+
+                if ( pos < 0 )
+                {
+                    return null;
+                }
+
+                values.remove( pos );
+
+                if ( values.isEmpty() )
+                {
+                    db.delete( txn, encodedKey );
+                }
+                else
+                {
+                    db.put( txn, encodedKey, packValues( values ) );
+                }
+            }
+
+            if ( isLongKey( encodedKey ) && ( db.get( txn, encodedKey ) == null ) )
+            {
+                longKeys.delete( txn, encodedKey );
+            }
+
+            return null;
+        } );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Cursors
+    // ------------------------------------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return new LmdbCursor<>( this, null, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new LmdbCursor<>( this, partitionTxn, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new LmdbValueCursor<>( new LmdbCursor<>( this, transaction, key ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn transaction ) throws LdapException
+    {
+        // The databases are closed with the environment
+    }
+}
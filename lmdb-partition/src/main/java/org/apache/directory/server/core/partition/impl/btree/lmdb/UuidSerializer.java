@@ -0,0 +1,149 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+/**
+ * Serializes the entry IDs. A UUID is packed in 17 bytes, a marker followed by its
+ * 16 bytes value, so that the IDs are ordered by their value when the bytes are
+ * compared. Any other ID is stored as an UTF-8 String.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class UuidSerializer implements LmdbSerializer<String>
+{
+    /** A static instance of a UuidSerializer */
+    public static final UuidSerializer INSTANCE = new UuidSerializer();
+
+    /** The length of a UUID String */
+    private static final int UUID_LENGTH = 36;
+
+    /** The length of a packed UUID */
+    private static final int PACKED_LENGTH = 17;
+
+    /** The first byte of a packed UUID */
+    private static final byte PACKED_MARKER = 0x01;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    private static boolean isDash( int pos )
+    {
+        return ( pos == 8 ) || ( pos == 13 ) || ( pos == 18 ) || ( pos == 23 );
+    }
+
+
+    private static int hexValue( char c )
+    {
+        if ( ( c >= '0' ) && ( c <= '9' ) )
+        {
+            return c - '0';
+        }
+        else if ( ( c >= 'a' ) && ( c <= 'f' ) )
+        {
+            return c - 'a' + 10;
+        }
+        else
+        {
+            return -1;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( String uuid )
+    {
+        if ( uuid.length() != UUID_LENGTH )
+        {
+            return StringSerializer.INSTANCE.serialize( uuid );
+        }
+
+        byte[] bytes = new byte[PACKED_LENGTH];
+        bytes[0] = PACKED_MARKER;
+        int pos = 1;
+        int high = -1;
+
+        for ( int i = 0; i < UUID_LENGTH; i++ )
+        {
+            char c = uuid.charAt( i );
+
+            if ( isDash( i ) )
+            {
+                if ( c != '-' )
+                {
+                    return StringSerializer.INSTANCE.serialize( uuid );
+                }
+
+                continue;
+            }
+
+            int digit = hexValue( c );
+
+            if ( digit < 0 )
+            {
+                return StringSerializer.INSTANCE.serialize( uuid );
+            }
+
+            if ( high < 0 )
+            {
+                high = digit;
+            }
+            else
+            {
+                bytes[pos++] = ( byte ) ( ( high << 4 ) | digit );
+                high = -1;
+            }
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String deserialize( byte[] bytes )
+    {
+        if ( ( bytes.length != PACKED_LENGTH ) || ( bytes[0] != PACKED_MARKER ) )
+        {
+            return StringSerializer.INSTANCE.deserialize( bytes );
+        }
+
+        char[] chars = new char[UUID_LENGTH];
+        int pos = 0;
+
+        for ( int i = 1; i < PACKED_LENGTH; i++ )
+        {
+            if ( isDash( pos ) )
+            {
+                chars[pos++] = '-';
+            }
+
+            chars[pos++] = HEX_DIGITS[( bytes[i] >> 4 ) & 0x0F];
+            chars[pos++] = HEX_DIGITS[bytes[i] & 0x0F];
+        }
+
+        return new String( chars );
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Runs the xdbm search scenarios against a LmdbPartition. The same example data are
+ * loaded in an AvlPartition with the same indexes, and both partitions must select
+ * the same entries for every base, scope and filter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbSearchTest
+{
+    private static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+
+    /** The temporary directory the files will be created in */
+    private static Path tempDir;
+
+    /** The tested partition */
+    private LmdbPartition lmdbPartition;
+
+    /** The reference partition */
+    private AvlPartition avlPartition;
+
+    /** A session to use in the operation contexts */
+    private CoreSession session;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        tempDir = Files.createTempDirectory( LmdbSearchTest.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        dnFactory = new DefaultDnFactory( schemaManager, 100 );
+    }
+
+
+    @Before
+    public void createPartitions() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        lmdbPartition = new LmdbPartition( schemaManager, dnFactory );
+        lmdbPartition.setId( "example" );
+        lmdbPartition.setCacheSize( 10 );
+        lmdbPartition.setPartitionPath( Files.createTempDirectory( tempDir, "example" ).toUri() );
+        lmdbPartition.setSyncOnWrite( false );
+        lmdbPartition.setMapSize( 64L * 1024L * 1024L );
+        lmdbPartition.addIndex( new LmdbIndex<String>( SchemaConstants.OU_AT_OID, false ) );
+        lmdbPartition.addIndex( new LmdbIndex<String>( SchemaConstants.CN_AT_OID, false ) );
+        lmdbPartition.addIndex( new LmdbIndex<String>( SchemaConstants.POSTALCODE_AT_OID, false ) );
+        lmdbPartition.addIndex( new LmdbIndex<String>( StoreUtils.TEST_INT_OID, false ) );
+        lmdbPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        lmdbPartition.initialize();
+        StoreUtils.loadExampleData( lmdbPartition, schemaManager );
+
+        avlPartition = new AvlPartition( schemaManager, dnFactory );
+        avlPartition.setId( "example" );
+        avlPartition.setCacheSize( 10 );
+        avlPartition.setSyncOnWrite( false );
+        avlPartition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        avlPartition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        avlPartition.addIndex( new AvlIndex<String>( SchemaConstants.POSTALCODE_AT_OID ) );
+        avlPartition.addIndex( new AvlIndex<String>( StoreUtils.TEST_INT_OID ) );
+        avlPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        avlPartition.initialize();
+        StoreUtils.loadExampleData( avlPartition, schemaManager );
+
+        MockDirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+    }
+
+
+    @After
+    public void destroyPartitions() throws Exception
+    {
+        if ( lmdbPartition != null )
+        {
+            lmdbPartition.destroy( null );
+        }
+
+        if ( avlPartition != null )
+        {
+            avlPartition.destroy( null );
+        }
+
+        lmdbPartition = null;
+        avlPartition = null;
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    /**
+     * Runs the search through the partition search engine and returns the entryUUIDs
+     * of the selected entries
+     */
+    private Set<String> search( AbstractBTreePartition partition, String base, SearchScope scope, String filter )
+        throws Exception
+    {
+        Set<String> uuids = new HashSet<>();
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            SearchOperationContext searchContext = new SearchOperationContext( session, new Dn( schemaManager, base ),
+                scope, FilterParser.parse( schemaManager, filter ), SchemaConstants.ALL_USER_ATTRIBUTES,
+                SchemaConstants.ENTRY_UUID_AT );
+            searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+            PartitionSearchResult searchResult = partition.getSearchEngine().computeResult( txn, schemaManager,
+                searchContext );
+
+            Cursor<Entry> cursor = new EntryCursorAdaptor( txn, partition, searchResult );
+
+            while ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+
+                if ( entry != null )
+                {
+                    // Each entry must be returned only once
+                    assertTrue( uuids.add( entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() ) );
+                }
+            }
+
+            cursor.close();
+        }
+
+        return uuids;
+    }
+
+
+    private void assertSameResults( String base, SearchScope scope, String filter ) throws Exception
+    {
+        Set<String> expected = search( avlPartition, base, scope, filter );
+        Set<String> found = search( lmdbPartition, base, scope, filter );
+
+        assertEquals( filter, expected, found );
+    }
+
+
+    /**
+     * Applies the same modification on both partitions, and commits it
+     */
+    private void modify( String dn, Modification modification ) throws Exception
+    {
+        for ( AbstractBTreePartition partition : new AbstractBTreePartition[] { avlPartition, lmdbPartition } )
+        {
+            PartitionTxn writeTxn = partition.beginWriteTransaction();
+            partition.modify( writeTxn, new Dn( schemaManager, dn ), modification );
+            writeTxn.commit();
+        }
+    }
+
+
+    @Test
+    public void testIndexedFilters() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(cn=J*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(cn=JOhnny WAlkeR)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(testInt>=3)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(testInt<=3)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(ou=sales)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(ou=*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(postalCode~=1)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(&(postalCode=1)(!(ou=sales)))" );
+    }
+
+
+    @Test
+    public void testNestedFilters() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(|(cn=J*)(ou=apache))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(|(ou=sales)(ou=engineering)(cn=J*))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(|(&(cn=J*)(sn=w*))(ou=apache))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(&(&(cn=Jo*)(sn=w*))(!(ou=apache)))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(&(|(postalCode=5)(postalCode=6))(!(ou=sales)))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(!(|(|(cn=Jo*)(sn=w*))(!(ou=apache))))" );
+    }
+
+
+    @Test
+    public void testScopes() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.OBJECT, "(objectClass=*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.ONELEVEL, "(objectClass=*)" );
+        assertSameResults( "ou=Sales,o=Good Times Co.", SearchScope.SUBTREE, "(objectClass=*)" );
+        assertSameResults( "ou=Board of Directors,o=Good Times Co.", SearchScope.SUBTREE, "(ou=*)" );
+        assertSameResults( "ou=Sales,o=Good Times Co.", SearchScope.ONELEVEL, "(cn=J*)" );
+    }
+
+
+    @Test
+    public void testFullScan() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(sn=w*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(!(ou=sales))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(objectClass=*)" );
+
+        try ( PartitionTxn txn = lmdbPartition.beginReadTransaction() )
+        {
+            assertEquals( lmdbPartition.count( txn ),
+                search( lmdbPartition, "o=Good Times Co.", SearchScope.SUBTREE, "(objectClass=*)" ).size() );
+        }
+
+        assertFalse( search( lmdbPartition, "o=Good Times Co.", SearchScope.SUBTREE, "(cn=nobody)" )
+            .iterator().hasNext() );
+    }
+
+
+    @Test
+    public void testSearchAfterModify() throws Exception
+    {
+        String dn = "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co.";
+        AttributeType ouAt = schemaManager.getAttributeType( SchemaConstants.OU_AT );
+        AttributeType cnAt = schemaManager.getAttributeType( SchemaConstants.CN_AT );
+
+        modify( dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, ouAt, "Apache" ) );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(ou=apache)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(|(ou=sales)(ou=apache))" );
+
+        modify( dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, ouAt, "Sales" ) );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(ou=sales)" );
+        assertSameResults( "ou=Sales,o=Good Times Co.", SearchScope.ONELEVEL, "(ou=*)" );
+
+        modify( dn, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, cnAt, "Johnny Walker" ) );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(cn=J*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(cn=johnny walker)" );
+    }
+}
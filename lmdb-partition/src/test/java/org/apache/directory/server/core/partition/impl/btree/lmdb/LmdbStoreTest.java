@@ -0,0 +1,276 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Unit test cases for LmdbPartition
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbStoreTest
+{
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbStoreTest.class );
+
+    LmdbPartition partition;
+
+    private static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+
+    /** The SN AttributeType instance */
+    private static AttributeType SN_AT;
+
+    private PartitionTxn partitionTxn;
+
+    /** The temporary directory the files will be created in */
+    private static Path tempDir;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        tempDir = Files.createTempDirectory( LmdbStoreTest.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        SN_AT = schemaManager.getAttributeType( SchemaConstants.SN_AT );
+
+        dnFactory = new DefaultDnFactory( schemaManager, 100 );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // setup the working directory for the store
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        partition = new LmdbPartition( schemaManager, dnFactory );
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setPartitionPath( Files.createTempDirectory( tempDir, "example" ).toUri() );
+        partition.setSyncOnWrite( false );
+        partition.setMapSize( 64L * 1024L * 1024L );
+
+        partition.addIndex( new LmdbIndex<String>( SchemaConstants.OU_AT_OID, false ) );
+        partition.addIndex( new LmdbIndex<String>( SchemaConstants.UID_AT_OID, false ) );
+
+        Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+        partition.setSuffixDn( suffixDn );
+
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        partitionTxn = partition.beginReadTransaction();
+
+        LOG.debug( "Created new store" );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( partitionTxn != null )
+        {
+            partitionTxn.close();
+        }
+
+        if ( partition != null )
+        {
+            partition.destroy( null );
+        }
+
+        partition = null;
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    @Test
+    public void testFreshStore() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "o=Good Times Co." );
+        assertEquals( Strings.getUUID( 1L ), partition.getEntryId( partitionTxn, dn ) );
+        assertEquals( 11, partition.count( partitionTxn ) );
+        assertEquals( "o=Good Times Co.", partition.getEntryDn( partitionTxn, Strings.getUUID( 1L ) ).getName() );
+
+        // note that the suffix entry returns 0 for it's parent which does not exist
+        assertEquals( Strings.getUUID( 0L ), partition.getParentId( partitionTxn, partition.getEntryId( partitionTxn, dn ) ) );
+        assertNull( partition.getParentId( partitionTxn, Strings.getUUID( 0L ) ) );
+    }
+
+
+    @Test
+    public void testModifyReplace() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+
+        Attribute attrib = new DefaultAttribute( SchemaConstants.SN_AT, SN_AT );
+
+        String attribVal = "Johnny";
+        attrib.add( attribVal );
+
+        Modification add = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, attrib );
+
+        Entry lookedup = partition.fetch( partitionTxn, partition.getEntryId( partitionTxn, dn ), dn );
+
+        assertEquals( "WAlkeR", lookedup.get( "sn" ).get().getString() ); // before replacing
+
+        lookedup = partition.modify( partitionTxn, dn, add );
+        assertEquals( attribVal, lookedup.get( "sn" ).get().getString() );
+
+        // The change is visible from a new read transaction
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            Entry entry = partition.fetch( readTxn, partition.getEntryId( readTxn, dn ), dn );
+            assertEquals( attribVal, entry.get( "sn" ).get().getString() );
+        }
+    }
+
+
+    @Test
+    public void testAbortedAdd() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=Private Ryan,ou=Engineering,o=Good Times Co." );
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "ou", "Engineering",
+            "cn", "Private Ryan",
+            "sn", "Ryan",
+            "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        PartitionTxn writeTxn = partition.beginWriteTransaction();
+        addContext.setTransaction( writeTxn );
+
+        partition.add( addContext );
+
+        // The added entry is visible from the write transaction only
+        assertTrue( partition.getEntryId( writeTxn, dn ) != null );
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            assertNull( partition.getEntryId( readTxn, dn ) );
+        }
+
+        writeTxn.abort();
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            assertNull( partition.getEntryId( readTxn, dn ) );
+            assertEquals( 11, partition.count( readTxn ) );
+        }
+    }
+
+
+    @Test
+    public void testCommittedAdd() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=Private Ryan,ou=Engineering,o=Good Times Co." );
+        Entry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "ou", "Engineering",
+            "cn", "Private Ryan",
+            "sn", "Ryan",
+            "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        PartitionTxn writeTxn = partition.beginWriteTransaction();
+        addContext.setTransaction( writeTxn );
+
+        partition.add( addContext );
+        writeTxn.commit();
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            assertTrue( partition.getEntryId( readTxn, dn ) != null );
+            assertEquals( 12, partition.count( readTxn ) );
+        }
+    }
+}
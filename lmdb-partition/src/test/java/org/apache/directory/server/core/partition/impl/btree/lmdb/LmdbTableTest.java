@@ -0,0 +1,278 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lmdbjava.Env;
+
+
+/**
+ * Tests the LmdbTable, with and without duplicate values.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTableTest
+{
+    private static SchemaManager schemaManager;
+
+    /** The temporary directory the environments will be created in */
+    private static Path tempDir;
+
+    private Path envDir;
+    private Env<ByteBuffer> env;
+    private SerializableComparator<String> comparator;
+    private PartitionTxn partitionTxn;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        tempDir = Files.createTempDirectory( LmdbTableTest.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createEnv() throws Exception
+    {
+        envDir = Files.createTempDirectory( tempDir, "env" );
+        env = Env.create().setMapSize( 16L * 1024L * 1024L ).setMaxDbs( 8 ).open( envDir.toFile() );
+
+        comparator = new SerializableComparator<>( SchemaConstants.INTEGER_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+
+        partitionTxn = new MockPartitionReadTxn();
+    }
+
+
+    @After
+    public void destroyEnv() throws Exception
+    {
+        if ( env != null )
+        {
+            env.close();
+        }
+
+        env = null;
+        FileUtils.deleteDirectory( envDir.toFile() );
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    @Test
+    public void testNoDuplicates() throws Exception
+    {
+        LmdbTable<String, String> table = new LmdbTable<>( env, schemaManager, "test", comparator, null,
+            StringSerializer.INSTANCE, StringSerializer.INSTANCE, false );
+
+        assertFalse( table.isDupsEnabled() );
+        assertEquals( 0, table.count( partitionTxn ) );
+        assertNull( table.get( partitionTxn, "1" ) );
+
+        table.put( partitionTxn, "1", "a" );
+        table.put( partitionTxn, "1", "b" );
+        table.put( partitionTxn, "10", "c" );
+        table.put( partitionTxn, "2", "d" );
+
+        assertEquals( 3, table.count( partitionTxn ) );
+        assertEquals( "b", table.get( partitionTxn, "1" ) );
+        assertTrue( table.has( partitionTxn, "10" ) );
+        assertTrue( table.hasGreaterOrEqual( partitionTxn, "3" ) );
+        assertFalse( table.hasGreaterOrEqual( partitionTxn, "11" ) );
+        assertTrue( table.hasLessOrEqual( partitionTxn, "1" ) );
+        assertFalse( table.hasLessOrEqual( partitionTxn, "0" ) );
+
+        // The keys are ordered using the integer ordering, not the bytes
+        Cursor<Tuple<String, String>> cursor = table.cursor();
+        cursor.beforeFirst();
+        assertTrue( cursor.next() );
+        assertEquals( "1", cursor.get().getKey() );
+        assertTrue( cursor.next() );
+        assertEquals( "2", cursor.get().getKey() );
+        assertTrue( cursor.next() );
+        assertEquals( "10", cursor.get().getKey() );
+        assertFalse( cursor.next() );
+        cursor.close();
+
+        table.remove( partitionTxn, "1" );
+        assertFalse( table.has( partitionTxn, "1" ) );
+        assertEquals( 2, table.count( partitionTxn ) );
+    }
+
+
+    @Test
+    public void testPackedDuplicates() throws Exception
+    {
+        LmdbTable<String, String> table = new LmdbTable<>( env, schemaManager, "test", comparator, comparator,
+            StringSerializer.INSTANCE, StringSerializer.INSTANCE, true );
+
+        assertTrue( table.isDupsEnabled() );
+
+        table.put( partitionTxn, "1", "3" );
+        table.put( partitionTxn, "1", "1" );
+        table.put( partitionTxn, "1", "2" );
+        table.put( partitionTxn, "1", "2" );
+
+        assertEquals( 3, table.count( partitionTxn, "1" ) );
+        assertTrue( table.has( partitionTxn, "1", "2" ) );
+        assertFalse( table.has( partitionTxn, "1", "4" ) );
+        assertTrue( table.hasGreaterOrEqual( partitionTxn, "1", "3" ) );
+        assertFalse( table.hasGreaterOrEqual( partitionTxn, "1", "4" ) );
+        assertTrue( table.hasLessOrEqual( partitionTxn, "1", "1" ) );
+        assertFalse( table.hasLessOrEqual( partitionTxn, "1", "0" ) );
+
+        Cursor<String> values = table.valueCursor( partitionTxn, "1" );
+        values.beforeFirst();
+        assertTrue( values.next() );
+        assertEquals( "1", values.get() );
+        assertTrue( values.next() );
+        assertEquals( "2", values.get() );
+        assertTrue( values.next() );
+        assertEquals( "3", values.get() );
+        assertFalse( values.next() );
+        values.close();
+
+        table.remove( partitionTxn, "1", "2" );
+        assertEquals( 2, table.count( partitionTxn, "1" ) );
+        assertFalse( table.has( partitionTxn, "1", "2" ) );
+
+        table.remove( partitionTxn, "1" );
+        assertFalse( table.has( partitionTxn, "1" ) );
+    }
+
+
+    @Test
+    public void testSortedDuplicates() throws Exception
+    {
+        SerializableComparator<String> keyComparator = new SerializableComparator<>(
+            SchemaConstants.CASE_IGNORE_MATCH_MR_OID );
+        keyComparator.setSchemaManager( schemaManager );
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        LmdbTable<String, String> table = new LmdbTable<>( env, schemaManager, "test", keyComparator,
+            UuidComparator.INSTANCE,
+            StringSerializer.INSTANCE, UuidSerializer.INSTANCE, true );
+
+        table.put( partitionTxn, "a", Strings.getUUID( 2L ) );
+        table.put( partitionTxn, "a", Strings.getUUID( 1L ) );
+        table.put( partitionTxn, "b", Strings.getUUID( 3L ) );
+
+        assertEquals( 3, table.count( partitionTxn ) );
+        assertEquals( 2, table.count( partitionTxn, "a" ) );
+        assertEquals( Strings.getUUID( 1L ), table.get( partitionTxn, "a" ) );
+        assertTrue( table.has( partitionTxn, "a", Strings.getUUID( 2L ) ) );
+
+        Cursor<Tuple<String, String>> cursor = table.cursor( partitionTxn, "a" );
+        cursor.afterLast();
+        assertTrue( cursor.previous() );
+        assertEquals( Strings.getUUID( 2L ), cursor.get().getValue() );
+        assertTrue( cursor.previous() );
+        assertEquals( Strings.getUUID( 1L ), cursor.get().getValue() );
+        assertFalse( cursor.previous() );
+        cursor.close();
+
+        table.remove( partitionTxn, "a", Strings.getUUID( 1L ) );
+        assertEquals( 1, table.count( partitionTxn, "a" ) );
+    }
+
+
+    @Test
+    public void testLongKeys() throws Exception
+    {
+        SerializableComparator<String> keyComparator = new SerializableComparator<>(
+            SchemaConstants.CASE_IGNORE_MATCH_MR_OID );
+        keyComparator.setSchemaManager( schemaManager );
+
+        LmdbTable<String, String> table = new LmdbTable<>( env, schemaManager, "test", keyComparator, null,
+            StringSerializer.INSTANCE, StringSerializer.INSTANCE, false );
+
+        // Two keys longer than the LMDB maximum key size, sharing the same prefix
+        String prefix = StringUtils.repeat( 'x', env.getMaxKeySize() * 2 );
+        String key1 = prefix + "1";
+        String key2 = prefix + "2";
+
+        table.put( partitionTxn, key1, "a" );
+        table.put( partitionTxn, key2, "b" );
+
+        assertEquals( 2, table.count( partitionTxn ) );
+        assertEquals( "a", table.get( partitionTxn, key1 ) );
+        assertEquals( "b", table.get( partitionTxn, key2 ) );
+
+        Cursor<Tuple<String, String>> cursor = table.cursor();
+        cursor.beforeFirst();
+        assertTrue( cursor.next() );
+        assertTrue( cursor.get().getKey().startsWith( prefix ) );
+        cursor.close();
+
+        table.remove( partitionTxn, key1 );
+        assertNull( table.get( partitionTxn, key1 ) );
+        assertEquals( "b", table.get( partitionTxn, key2 ) );
+    }
+}
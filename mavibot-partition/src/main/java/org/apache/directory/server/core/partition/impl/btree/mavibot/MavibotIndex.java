@@ -66,6 +66,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
     /**  the key used for the reverse btree name */
     public static final String REVERSE_BTREE = "_reverse";
 
+    /**  the key used for the n-gram btree name */
+    public static final String NGRAM_BTREE = "_ngram";
+
     /**
      * the forward btree where the btree key is the value of the indexed attribute and
      * the value of the btree is the entry id of the entry containing an attribute with
@@ -136,6 +139,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         try
         {
             initTables( schemaManager );
+
+            if ( ngrams != null )
+            {
+                buildNgrams( null );
+            }
         }
         catch ( IOException e )
         {
@@ -149,7 +157,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
 
 
     /**
-     * Initializes the forward and reverse tables used by this Index.
+     * Initializes the forward, reverse and n-gram tables used by this Index.
      *
      * @param schemaManager The server schemaManager
      * @throws IOException if we cannot initialize the forward and reverse
@@ -209,6 +217,17 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             reverse = new MavibotTable<>( recordMan, schemaManager, reverseTableName, StringSerializer.INSTANCE,
                 forwardKeySerializer, !attributeType.isSingleValued() );
         }
+
+        /*
+         * The n-gram map stores the n-grams of the attribute values as the key, and
+         * the attribute values containing them as the values.
+         */
+        if ( useNgrams() )
+        {
+            String ngramTableName = attributeType.getOid() + NGRAM_BTREE;
+            ngrams = new MavibotTable<>( recordMan, schemaManager, ngramTableName,
+                new StringSerializer( ( Comparator<String> ) comp ), forwardKeySerializer, true );
+        }
     }
 
 
@@ -337,6 +356,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
+        if ( ( ngrams != null ) && !forward.has( partitionTxn, attrVal ) )
+        {
+            addNgrams( partitionTxn, attrVal );
+        }
+
         // The pair to be removed must exists
         forward.put( partitionTxn, attrVal, id );
 
@@ -362,6 +386,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             {
                 reverse.remove( partitionTxn, id, attrVal );
             }
+
+            if ( ngrams != null )
+            {
+                dropNgrams( partitionTxn, attrVal );
+            }
         }
     }
 
@@ -384,7 +413,13 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                     while ( values.next() )
                     {
                         // Remove the Key -> entryId from the index
-                        forward.remove( partitionTxn, values.get().getValue(), entryId );
+                        K key = values.get().getValue();
+                        forward.remove( partitionTxn, key, entryId );
+
+                        if ( ngrams != null )
+                        {
+                            dropNgrams( partitionTxn, key );
+                        }
                     }
     
                     values.close();
@@ -399,6 +434,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( partitionTxn, entryId );
 
                 forward.remove( partitionTxn, key );
+
+                if ( ngrams != null )
+                {
+                    dropNgrams( partitionTxn, key );
+                }
             }
 
             // Remove the id -> key from the reverse index
@@ -514,6 +554,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
             {
                 reverse.close( partitionTxn );
             }
+
+            if ( ngrams != null )
+            {
+                ngrams.close( partitionTxn );
+            }
         }
         catch ( Exception e )
         {
@@ -527,6 +572,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
      * 
      * @throws IOException If the flush failed
      */
+    @SuppressWarnings("unchecked")
     public synchronized void sync() throws IOException
     {
         forward.getBTree().flush();
@@ -535,6 +581,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         {
             reverse.getBTree().flush();
         }
+
+        if ( ngrams != null )
+        {
+            ( ( MavibotTable<String, K> ) ngrams ).getBTree().flush();
+        }
     }
 
 
@@ -56,6 +56,8 @@ import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
@@ -237,6 +239,16 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isBlobStoreSupported()
+    {
+        return true;
+    }
+
+
     @Override
     protected Index<?, String> convertAndInit( Index<?, String> index ) throws LdapException
     {
@@ -524,13 +536,13 @@ public class MavibotPartition extends AbstractBTreePartition
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
-        return new PartitionReadTxn();
+        return new SnapshotReadTxn( entryVersions );
     }
 
 
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
-        return new PartitionWriteTxn();
+        return new SnapshotWriteTxn( this );
     }
 }
\ No newline at end of file
@@ -25,7 +25,6 @@ import static org.junit.Assert.assertSame;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
-import org.apache.directory.server.core.shared.NullStringSerializer;
 import org.apache.directory.server.core.shared.partition.DefaultPartitionNexus;
 
 
@@ -47,8 +46,6 @@ public class ServerCoreSharedOsgiTest extends ServerOsgiTestBase
         Dn dn2 = dnFactory.create( "cn=foo" );
         assertSame( dn1, dn2 );
 
-        NullStringSerializer.INSTANCE.serialize( null );
-        NullStringSerializer.INSTANCE.deserialize( null );
         new DefaultPartitionNexus( new DefaultEntry() );
     }
 
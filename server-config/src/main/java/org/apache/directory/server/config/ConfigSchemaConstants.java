@@ -155,6 +155,8 @@ public enum ConfigSchemaConstants
 
     ADS_DS_SYNCPERIOD_MILLIS("ads-dsSyncPeriodMillis", ""),
 
+    ADS_DS_SORT_MEMORY_LIMIT("ads-dsSortMemoryLimit", ""),
+
     ADS_DS_TEST_ENTRIES("ads-dsTestEntries", ""),
 
     ADS_INTERCEPTOR_ID("ads-interceptorId", ""),
@@ -173,6 +175,26 @@ public enum ConfigSchemaConstants
 
     ADS_JDBM_PARTITION_OPTIMIZER_ENABLED("ads-jdbmPartitionOptimizerEnabled", ""),
 
+    ADS_JDBM_PARTITION_GROUP_COMMIT_DELAY("ads-jdbmPartitionGroupCommitDelay", ""),
+
+    ADS_JDBM_PARTITION_RECORD_CACHE_SIZE("ads-jdbmPartitionRecordCacheSize", ""),
+
+    ADS_JDBM_PARTITION_ENTRY_CACHE_MAX_SIZE("ads-jdbmPartitionEntryCacheMaxSize", ""),
+
+    ADS_JDBM_PARTITION_ENTRY_CACHE_OFF_HEAP_SIZE("ads-jdbmPartitionEntryCacheOffHeapSize", ""),
+
+    ADS_JDBM_PARTITION_SUBTREE_LABELS_ENABLED("ads-jdbmPartitionSubtreeLabelsEnabled", ""),
+
+    ADS_JDBM_PARTITION_STATISTICS_ENABLED("ads-jdbmPartitionStatisticsEnabled", ""),
+
+    ADS_JDBM_PARTITION_PLAN_CACHE_SIZE("ads-jdbmPartitionPlanCacheSize", ""),
+    ADS_JDBM_PARTITION_LARGE_VALUE_THRESHOLD("ads-jdbmPartitionLargeValueThreshold", ""),
+    ADS_JDBM_PARTITION_LARGE_VALUE_ATTRIBUTES("ads-jdbmPartitionLargeValueAttributes", ""),
+    ADS_JDBM_PARTITION_BLOB_THRESHOLD("ads-jdbmPartitionBlobThreshold", ""),
+    ADS_JDBM_PARTITION_DICTIONARY_SIZE("ads-jdbmPartitionDictionarySize", ""),
+    ADS_JDBM_PARTITION_COMPRESSION_THRESHOLD("ads-jdbmPartitionCompressionThreshold", ""),
+    ADS_JDBM_PARTITION_STREAMING_SEARCH("ads-jdbmPartitionStreamingSearch", ""),
+
     ADS_PARTITION_SYNCONWRITE("ads-partitionSyncOnWrite", ""),
 
     ADS_PARTITION_INDEXED_ATTRIBUTES("ads-partitionIndexedAttributes", ""),
@@ -187,6 +209,8 @@ public enum ConfigSchemaConstants
 
     ADS_INDEX_NUM_DUP_LIMIT("ads-indexNumDupLimit", ""),
 
+    ADS_INDEX_NGRAM_LENGTH("ads-indexNgramLength", ""),
+
     ADS_TRANSPORT_ID("ads-transportId", ""),
 
     ADS_TCP_TRANSPORT("ads-tcpTransport", ""),
@@ -62,6 +62,10 @@ public class DirectoryServiceBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-dsSyncPeriodMillis")
     private long dsSyncPeriodMillis = 15000L;
 
+    /** The maximum number of sort keys kept in memory when sorting search results */
+    @ConfigurationElement(attributeType = "ads-dsSortMemoryLimit", isOptional = true, defaultValue = "10000")
+    private int dsSortMemoryLimit = 10000;
+
     /** The ldif entries to inject into the server at startup */
     @ConfigurationElement(attributeType = "ads-dsTestEntries", isOptional = true)
     private String dsTestEntries;
@@ -265,6 +269,25 @@ public class DirectoryServiceBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return the maximum number of sort keys kept in memory when sorting search results
+     */
+    public int getDsSortMemoryLimit()
+    {
+        return dsSortMemoryLimit;
+    }
+
+
+    /**
+     * @param dsSortMemoryLimit the maximum number of sort keys kept in memory when sorting
+     * search results
+     */
+    public void setDsSortMemoryLimit( int dsSortMemoryLimit )
+    {
+        this.dsSortMemoryLimit = dsSortMemoryLimit;
+    }
+
+
     /**
      * @return the dsTestEntries
      */
@@ -526,6 +549,7 @@ public class DirectoryServiceBean extends AdsBaseBean
         sb.append( toString( "  ", "denormalized attributes enabled", dsDenormalizeOpAttrsEnabled ) );
         sb.append( toString( "  ", "password hidden", dsPasswordHidden ) );
         sb.append( "  sync period millisecond : " ).append( dsSyncPeriodMillis ).append( '\n' );
+        sb.append( "  sort memory limit : " ).append( dsSortMemoryLimit ).append( '\n' );
         sb.append( toString( "  ", "test entries", dsTestEntries ) );
 
         sb.append( "  interceptors : \n" );
@@ -37,6 +37,10 @@ public abstract class IndexBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-indexHasReverse")
     private boolean indexHasReverse;
 
+    /** The length of the n-grams used for the substring filters, 0 if the index has no n-gram table */
+    @ConfigurationElement(attributeType = "ads-indexNgramLength", isOptional = true, defaultValue = "0")
+    private int indexNgramLength;
+
 
     /**
      * Create a new IndexBean instance
@@ -82,6 +86,24 @@ public abstract class IndexBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return the length of the n-grams stored in the n-gram table, 0 if there is no n-gram table
+     */
+    public int getIndexNgramLength()
+    {
+        return indexNgramLength;
+    }
+
+
+    /**
+     * @param indexNgramLength the length of the n-grams stored in the n-gram table, or 0 for no n-gram table
+     */
+    public void setIndexNgramLength( int indexNgramLength )
+    {
+        this.indexNgramLength = indexNgramLength;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -93,6 +115,7 @@ public abstract class IndexBean extends AdsBaseBean
         sb.append( super.toString( tabs + "  " ) );
         sb.append( tabs ).append( "  indexed attribute ID : " ).append( indexAttributeId ).append( '\n' );
         sb.append( tabs ).append( "  indexed has reverse : " ).append( indexHasReverse ).append( '\n' );
+        sb.append( tabs ).append( "  index n-gram length : " ).append( indexNgramLength ).append( '\n' );
 
         return sb.toString();
     }
@@ -20,6 +20,10 @@
 package org.apache.directory.server.config.beans;
 
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.apache.directory.server.config.ConfigurationElement;
 
 
@@ -38,6 +42,58 @@ public class JdbmPartitionBean extends PartitionBean
     @ConfigurationElement(attributeType = "ads-jdbmPartitionOptimizerEnabled", isOptional = true, defaultValue = "true")
     private boolean jdbmPartitionOptimizerEnabled = true;
 
+    /** The maximum time, in ms, a write waits for other writes to share the log synchronization */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionGroupCommitDelay", isOptional = true, defaultValue = "0")
+    private long jdbmPartitionGroupCommitDelay = 0L;
+
+    /** The maximum size, in bytes, of the JDBM record cache. -1 means the default size */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionRecordCacheSize", isOptional = true, defaultValue = "-1")
+    private long jdbmPartitionRecordCacheSize = -1L;
+
+    /** The maximum size, in bytes, of the on-heap entry cache. -1 means the cache is bounded by the number of entries */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionEntryCacheMaxSize", isOptional = true, defaultValue = "-1")
+    private long jdbmPartitionEntryCacheMaxSize = -1L;
+
+    /** The maximum size, in bytes, of the off-heap entry cache. 0 means there is no off-heap cache */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionEntryCacheOffHeapSize", isOptional = true, defaultValue = "0")
+    private long jdbmPartitionEntryCacheOffHeapSize = 0L;
+
+    /** Tells if the entries are labeled with nested intervals to speed up the subtree scope checks */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionSubtreeLabelsEnabled", isOptional = true, defaultValue = "false")
+    private boolean jdbmPartitionSubtreeLabelsEnabled = false;
+
+    /** Tells if the statistics of the indexes are gathered for the search optimizer */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionStatisticsEnabled", isOptional = true, defaultValue = "false")
+    private boolean jdbmPartitionStatisticsEnabled = false;
+
+    /** The number of filter shapes for which the search optimizer keeps the scan counts. 0 disables the cache */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionPlanCacheSize", isOptional = true, defaultValue = "0")
+    private int jdbmPartitionPlanCacheSize = 0;
+
+    /** The number of values above which the values of the large attributes are stored out of the entries. 0 disables it */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionLargeValueThreshold", isOptional = true, defaultValue = "0")
+    private int jdbmPartitionLargeValueThreshold = 0;
+
+    /** The attributes whose values can be stored out of the entries */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionLargeValueAttributes", isOptional = true)
+    private Set<String> jdbmPartitionLargeValueAttributes = new HashSet<>();
+
+    /** The size in bytes above which a binary value is stored in the blob store. 0 disables it */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionBlobThreshold", isOptional = true, defaultValue = "0")
+    private int jdbmPartitionBlobThreshold = 0;
+
+    /** The maximum number of values in the dictionary of the master table. 0 disables it */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionDictionarySize", isOptional = true, defaultValue = "0")
+    private int jdbmPartitionDictionarySize = 0;
+
+    /** The size in bytes above which a master table record is compressed. 0 disables the compression */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionCompressionThreshold", isOptional = true, defaultValue = "0")
+    private int jdbmPartitionCompressionThreshold = 0;
+
+    /** Tells if the search candidates are read lazily from the index cursors */
+    @ConfigurationElement(attributeType = "ads-jdbmPartitionStreamingSearch", isOptional = true, defaultValue = "false")
+    private boolean jdbmPartitionStreamingSearch = false;
+
 
     /**
      * Create a new JdbmPartitionBean instance
@@ -91,6 +147,260 @@ public class JdbmPartitionBean extends PartitionBean
     }
 
 
+    /**
+     * @return The maximum time, in ms, a write waits for other writes to share the log synchronization
+     */
+    public long getJdbmPartitionGroupCommitDelay()
+    {
+        return jdbmPartitionGroupCommitDelay;
+    }
+
+
+    /**
+     * Sets the maximum time a write waits for other writes to share the log synchronization,
+     * when the partition syncs on each write
+     * 
+     * @param jdbmPartitionGroupCommitDelay The delay, in ms
+     */
+    public void setJdbmPartitionGroupCommitDelay( long jdbmPartitionGroupCommitDelay )
+    {
+        this.jdbmPartitionGroupCommitDelay = jdbmPartitionGroupCommitDelay;
+    }
+
+
+    /**
+     * @return The maximum size, in bytes, of the JDBM record cache. -1 means the default size
+     */
+    public long getJdbmPartitionRecordCacheSize()
+    {
+        return jdbmPartitionRecordCacheSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the JDBM record cache
+     * 
+     * @param jdbmPartitionRecordCacheSize The size, in bytes. -1 means the default size
+     */
+    public void setJdbmPartitionRecordCacheSize( long jdbmPartitionRecordCacheSize )
+    {
+        this.jdbmPartitionRecordCacheSize = jdbmPartitionRecordCacheSize;
+    }
+
+
+    /**
+     * @return The maximum size, in bytes, of the on-heap entry cache. -1 means the cache is
+     * bounded by the number of entries
+     */
+    public long getJdbmPartitionEntryCacheMaxSize()
+    {
+        return jdbmPartitionEntryCacheMaxSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the on-heap entry cache
+     * 
+     * @param jdbmPartitionEntryCacheMaxSize The size, in bytes. -1 bounds the cache by the number of entries
+     */
+    public void setJdbmPartitionEntryCacheMaxSize( long jdbmPartitionEntryCacheMaxSize )
+    {
+        this.jdbmPartitionEntryCacheMaxSize = jdbmPartitionEntryCacheMaxSize;
+    }
+
+
+    /**
+     * @return The maximum size, in bytes, of the off-heap entry cache. 0 means there is no off-heap cache
+     */
+    public long getJdbmPartitionEntryCacheOffHeapSize()
+    {
+        return jdbmPartitionEntryCacheOffHeapSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the off-heap entry cache
+     * 
+     * @param jdbmPartitionEntryCacheOffHeapSize The size, in bytes. 0 disables the off-heap cache
+     */
+    public void setJdbmPartitionEntryCacheOffHeapSize( long jdbmPartitionEntryCacheOffHeapSize )
+    {
+        this.jdbmPartitionEntryCacheOffHeapSize = jdbmPartitionEntryCacheOffHeapSize;
+    }
+
+
+    /**
+     * @return <code>true</code> if the entries are labeled with nested intervals
+     */
+    public boolean isJdbmPartitionSubtreeLabelsEnabled()
+    {
+        return jdbmPartitionSubtreeLabelsEnabled;
+    }
+
+
+    /**
+     * Enable or disable the subtree labels
+     * 
+     * @param jdbmPartitionSubtreeLabelsEnabled True or false
+     */
+    public void setJdbmPartitionSubtreeLabelsEnabled( boolean jdbmPartitionSubtreeLabelsEnabled )
+    {
+        this.jdbmPartitionSubtreeLabelsEnabled = jdbmPartitionSubtreeLabelsEnabled;
+    }
+
+
+    /**
+     * @return <code>true</code> if the statistics of the indexes are gathered
+     */
+    public boolean isJdbmPartitionStatisticsEnabled()
+    {
+        return jdbmPartitionStatisticsEnabled;
+    }
+
+
+    /**
+     * Enable or disable the statistics of the indexes
+     * 
+     * @param jdbmPartitionStatisticsEnabled True or false
+     */
+    public void setJdbmPartitionStatisticsEnabled( boolean jdbmPartitionStatisticsEnabled )
+    {
+        this.jdbmPartitionStatisticsEnabled = jdbmPartitionStatisticsEnabled;
+    }
+
+
+    /**
+     * @return the number of filter shapes for which the search optimizer keeps the scan counts
+     */
+    public int getJdbmPartitionPlanCacheSize()
+    {
+        return jdbmPartitionPlanCacheSize;
+    }
+
+
+    /**
+     * @param jdbmPartitionPlanCacheSize The number of filter shapes for which the search
+     * optimizer keeps the scan counts. 0 disables the cache
+     */
+    public void setJdbmPartitionPlanCacheSize( int jdbmPartitionPlanCacheSize )
+    {
+        this.jdbmPartitionPlanCacheSize = jdbmPartitionPlanCacheSize;
+    }
+
+
+    /**
+     * @return the number of values above which the values of the large attributes are stored out of the entries
+     */
+    public int getJdbmPartitionLargeValueThreshold()
+    {
+        return jdbmPartitionLargeValueThreshold;
+    }
+
+
+    /**
+     * @param jdbmPartitionLargeValueThreshold The number of values above which the values of the
+     * large attributes are stored out of the entries. 0 disables it
+     */
+    public void setJdbmPartitionLargeValueThreshold( int jdbmPartitionLargeValueThreshold )
+    {
+        this.jdbmPartitionLargeValueThreshold = jdbmPartitionLargeValueThreshold;
+    }
+
+
+    /**
+     * @return the attributes whose values can be stored out of the entries
+     */
+    public Set<String> getJdbmPartitionLargeValueAttributes()
+    {
+        return jdbmPartitionLargeValueAttributes;
+    }
+
+
+    /**
+     * @param jdbmPartitionLargeValueAttributes The attributes whose values can be stored out of the entries
+     */
+    public void addJdbmPartitionLargeValueAttributes( String[] jdbmPartitionLargeValueAttributes )
+    {
+        this.jdbmPartitionLargeValueAttributes.addAll( Arrays.asList( jdbmPartitionLargeValueAttributes ) );
+    }
+
+
+    /**
+     * @return the size in bytes above which a binary value is stored in the blob store
+     */
+    public int getJdbmPartitionBlobThreshold()
+    {
+        return jdbmPartitionBlobThreshold;
+    }
+
+
+    /**
+     * @param jdbmPartitionBlobThreshold The size in bytes above which a binary value is stored
+     * in the blob store. 0 disables it
+     */
+    public void setJdbmPartitionBlobThreshold( int jdbmPartitionBlobThreshold )
+    {
+        this.jdbmPartitionBlobThreshold = jdbmPartitionBlobThreshold;
+    }
+
+
+    /**
+     * @return the maximum number of values in the dictionary of the master table
+     */
+    public int getJdbmPartitionDictionarySize()
+    {
+        return jdbmPartitionDictionarySize;
+    }
+
+
+    /**
+     * @param jdbmPartitionDictionarySize The maximum number of values in the dictionary of
+     * the master table. 0 disables it
+     */
+    public void setJdbmPartitionDictionarySize( int jdbmPartitionDictionarySize )
+    {
+        this.jdbmPartitionDictionarySize = jdbmPartitionDictionarySize;
+    }
+
+
+    /**
+     * @return the size in bytes above which a master table record is compressed
+     */
+    public int getJdbmPartitionCompressionThreshold()
+    {
+        return jdbmPartitionCompressionThreshold;
+    }
+
+
+    /**
+     * @param jdbmPartitionCompressionThreshold The size in bytes above which a master table
+     * record is compressed. 0 disables the compression
+     */
+    public void setJdbmPartitionCompressionThreshold( int jdbmPartitionCompressionThreshold )
+    {
+        this.jdbmPartitionCompressionThreshold = jdbmPartitionCompressionThreshold;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the search candidates are read lazily from the index cursors
+     */
+    public boolean isJdbmPartitionStreamingSearch()
+    {
+        return jdbmPartitionStreamingSearch;
+    }
+
+
+    /**
+     * @param jdbmPartitionStreamingSearch Tells if the search candidates are read lazily from
+     * the index cursors, instead of being gathered in memory before the first entry is returned
+     */
+    public void setJdbmPartitionStreamingSearch( boolean jdbmPartitionStreamingSearch )
+    {
+        this.jdbmPartitionStreamingSearch = jdbmPartitionStreamingSearch;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -103,6 +413,39 @@ public class JdbmPartitionBean extends PartitionBean
         sb.append( super.toString( tabs ) );
         sb.append( tabs ).append( "  partition cache size : " ).append( partitionCacheSize ).append( '\n' );
         sb.append( toString( tabs, "  jdbm partition optimizer enabled", jdbmPartitionOptimizerEnabled ) );
+        sb.append( tabs ).append( "  jdbm partition group commit delay : " ).append( jdbmPartitionGroupCommitDelay )
+            .append( '\n' );
+        sb.append( tabs ).append( "  jdbm partition record cache size : " ).append( jdbmPartitionRecordCacheSize )
+            .append( '\n' );
+        sb.append( tabs ).append( "  jdbm partition entry cache max size : " ).append( jdbmPartitionEntryCacheMaxSize )
+            .append( '\n' );
+        sb.append( tabs ).append( "  jdbm partition entry cache off-heap size : " )
+            .append( jdbmPartitionEntryCacheOffHeapSize ).append( '\n' );
+        sb.append( toString( tabs, "  jdbm partition subtree labels enabled", jdbmPartitionSubtreeLabelsEnabled ) );
+        sb.append( toString( tabs, "  jdbm partition statistics enabled", jdbmPartitionStatisticsEnabled ) );
+        sb.append( tabs ).append( "  jdbm partition plan cache size : " ).append( jdbmPartitionPlanCacheSize )
+            .append( '\n' );
+        sb.append( tabs ).append( "  jdbm partition large value threshold : " )
+            .append( jdbmPartitionLargeValueThreshold ).append( '\n' );
+
+        if ( !jdbmPartitionLargeValueAttributes.isEmpty() )
+        {
+            sb.append( tabs ).append( "  jdbm partition large value attributes :\n" );
+
+            for ( String attribute : jdbmPartitionLargeValueAttributes )
+            {
+                sb.append( tabs ).append( "    " ).append( attribute ).append( '\n' );
+            }
+        }
+
+        sb.append( tabs ).append( "  jdbm partition blob threshold : " ).append( jdbmPartitionBlobThreshold )
+            .append( '\n' );
+        sb.append( tabs ).append( "  jdbm partition dictionary size : " ).append( jdbmPartitionDictionarySize )
+            .append( '\n' );
+        sb.append( tabs ).append( "  jdbm partition compression threshold : " )
+            .append( jdbmPartitionCompressionThreshold ).append( '\n' );
+        sb.append( tabs ).append( "  jdbm partition streaming search : " )
+            .append( jdbmPartitionStreamingSearch ).append( '\n' );
 
         return sb.toString();
     }
@@ -1259,6 +1259,7 @@ public final class ServiceBuilder
 
         index.setCacheSize( jdbmIndexBean.getIndexCacheSize() );
         index.setNumDupLimit( jdbmIndexBean.getIndexNumDupLimit() );
+        index.setNgramLength( jdbmIndexBean.getIndexNgramLength() );
 
         // Find the OID for this index
         if ( jdbmIndexBean.getIndexWorkingDir() != null )
@@ -1334,6 +1335,19 @@ public final class ServiceBuilder
         }
 
         jdbmPartition.setSyncOnWrite( jdbmPartitionBean.isPartitionSyncOnWrite() );
+        jdbmPartition.setGroupCommitDelay( jdbmPartitionBean.getJdbmPartitionGroupCommitDelay() );
+        jdbmPartition.setRecordCacheSize( jdbmPartitionBean.getJdbmPartitionRecordCacheSize() );
+        jdbmPartition.setEntryCacheMaxSize( jdbmPartitionBean.getJdbmPartitionEntryCacheMaxSize() );
+        jdbmPartition.setEntryCacheOffHeapSize( jdbmPartitionBean.getJdbmPartitionEntryCacheOffHeapSize() );
+        jdbmPartition.setSubtreeLabelsEnabled( jdbmPartitionBean.isJdbmPartitionSubtreeLabelsEnabled() );
+        jdbmPartition.setStatisticsEnabled( jdbmPartitionBean.isJdbmPartitionStatisticsEnabled() );
+        jdbmPartition.setPlanCacheSize( jdbmPartitionBean.getJdbmPartitionPlanCacheSize() );
+        jdbmPartition.setLargeValueThreshold( jdbmPartitionBean.getJdbmPartitionLargeValueThreshold() );
+        jdbmPartition.setLargeValueAttributes( jdbmPartitionBean.getJdbmPartitionLargeValueAttributes() );
+        jdbmPartition.setBlobThreshold( jdbmPartitionBean.getJdbmPartitionBlobThreshold() );
+        jdbmPartition.setDictionarySize( jdbmPartitionBean.getJdbmPartitionDictionarySize() );
+        jdbmPartition.setCompressionThreshold( jdbmPartitionBean.getJdbmPartitionCompressionThreshold() );
+        jdbmPartition.setStreamingSearch( jdbmPartitionBean.isJdbmPartitionStreamingSearch() );
         jdbmPartition.setIndexedAttributes( createJdbmIndexes( jdbmPartition, jdbmPartitionBean.getIndexes(),
             directoryService ) );
 
@@ -1482,6 +1496,9 @@ public final class ServiceBuilder
         // SyncPeriodMillis
         directoryService.setSyncPeriodMillis( directoryServiceBean.getDsSyncPeriodMillis() );
 
+        // SortMemoryLimit
+        directoryService.setSortMemoryLimit( directoryServiceBean.getDsSortMemoryLimit() );
+
         // testEntries
         String entryFilePath = directoryServiceBean.getDsTestEntries();
 
@@ -1592,6 +1609,7 @@ public final class ServiceBuilder
             index = new MavibotIndex<>( mavibotIndexBean.getIndexAttributeId(), hasReverse );
         }
 
+        index.setNgramLength( mavibotIndexBean.getIndexNgramLength() );
         index.setWkDirPath( partition.getPartitionPath() );
 
         return index;
@@ -23,6 +23,7 @@ package org.apache.directory.server.core.partition.impl.avl;
 import java.net.URI;
 
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
@@ -31,10 +32,14 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.OutOfLineValueComparator;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotWriteTxn;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.Table;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.impl.avl.AvlMasterTable;
 import org.apache.directory.server.xdbm.impl.avl.AvlRdnIndex;
+import org.apache.directory.server.xdbm.impl.avl.AvlTable;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -188,6 +193,17 @@ public class AvlPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, String> createOutOfLineTable( AttributeType attributeType ) throws LdapException
+    {
+        return new AvlTable<>( attributeType.getOid() + "_values", UuidComparator.INSTANCE,
+            OutOfLineValueComparator.INSTANCE, true );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -234,6 +250,6 @@ public class AvlPartition extends AbstractBTreePartition
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
-        return new PartitionWriteTxn();
+        return new SnapshotWriteTxn( this );
     }
 }
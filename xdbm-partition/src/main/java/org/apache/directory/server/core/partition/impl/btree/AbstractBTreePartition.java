@@ -20,18 +20,27 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -39,9 +48,12 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapAliasDereferencingException;
 import org.apache.directory.api.ldap.model.exception.LdapAliasException;
@@ -67,6 +79,7 @@ import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
@@ -88,12 +101,18 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.BlobStore;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
+import org.apache.directory.server.xdbm.OutOfLineValues;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.StatisticsCatalog;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.SubtreeLabels;
+import org.apache.directory.server.xdbm.Table;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -123,12 +142,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Tells if the Optimizer is enabled */
     protected boolean optimizerEnabled = true;
 
+    /** Tells if the search candidates are streamed instead of being gathered in a set */
+    protected boolean streamingSearch = false;
+
     /** The default cache size is set to 10 000 objects */
     public static final int DEFAULT_CACHE_SIZE = 10000;
 
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The number of filter shapes for which the optimizer keeps the scan counts */
+    protected int planCacheSize = 0;
+
     /** The alias cache */
     protected Cache<String, Dn> aliasCache;
 
@@ -207,8 +232,68 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** A lock to protect the backend from concurrent reads/writes */
     private ReadWriteLock rwLock;
 
+    /** The OperationManager sharing the lock, which takes it in the partitions order */
+    private OperationManager operationManager;
+
+    /** The older versions of the entries, read by the snapshot transactions */
+    protected EntryVersions entryVersions = new EntryVersions();
+
+    /** The changes of the number of descendants not yet written in the Rdn index, per write transaction */
+    private final Map<PartitionTxn, Map<String, Integer>> pendingDescendants = new ConcurrentHashMap<>();
+
     /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
     private Cache<String, Dn> entryDnCache;
+
+    /** Tells if the entries are labeled with nested intervals, for the subtree scope checks */
+    protected boolean subtreeLabelsEnabled = false;
+
+    /** The nested interval labels of the entries */
+    private final SubtreeLabels subtreeLabels = new SubtreeLabels();
+
+    /** Tells if the statistics of the indexes are gathered for the optimizer */
+    protected boolean statisticsEnabled = false;
+
+    /** The statistics of the indexes */
+    private final StatisticsCatalog statistics = new StatisticsCatalog();
+
+    /** The thread refreshing the statistics in the background */
+    private ExecutorService statisticsExecutor;
+
+    /** The number of index keys read at once while refreshing the statistics */
+    private static final int STATISTICS_CHUNK_SIZE = 1000;
+
+    /** The file where the statistics are kept while the partition is stopped */
+    private static final String STATISTICS_FILE = "statistics.db";
+
+    /** The attributes whose values can be stored out of line, when they have too many values */
+    protected Set<String> largeValueAttributes = new HashSet<>();
+
+    /** The number of values above which they are stored out of line. 0 keeps them in the entries */
+    protected int largeValueThreshold = 0;
+
+    /** The values stored out of line */
+    private OutOfLineValues outOfLineValues;
+
+    /** The size in bytes above which a binary value is stored in the blob store. 0 keeps them in the entries */
+    protected int blobThreshold = 0;
+
+    /** The store of the large binary values, or null if there is none */
+    private BlobStore blobStore;
+
+    /** The thread compacting the blob store in the background */
+    private ExecutorService blobExecutor;
+
+    /** Tells if a compaction of the blob store is running */
+    private final AtomicBoolean blobCompactionRunning = new AtomicBoolean( false );
+
+    /** The size of the blob store above which it's compacted */
+    private volatile long blobCompactionSize;
+
+    /** The minimal size of the blob store before it's compacted */
+    private static final long MIN_BLOB_COMPACTION_SIZE = 16L * 1024L * 1024L;
+
+    /** The file where the large binary values are stored */
+    private static final String BLOB_FILE = "blobs.db";
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
@@ -251,6 +336,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     private void initInstance()
     {
         indexedAttributes = new HashSet<>();
+        outOfLineValues = new OutOfLineValues( schemaManager, 0 );
 
         // Initialize Attribute types used all over this method
         objectClassAT = schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT );
@@ -308,6 +394,29 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getPlanCacheSize()
+    {
+        return planCacheSize;
+    }
+
+
+    /**
+     * Sets the number of filter shapes for which the optimizer keeps the scan counts, so
+     * that the searches using the same filter shape don't read the indexes to annotate it.
+     *
+     * @param planCacheSize The size of the plan cache, 0 to disable it
+     */
+    public void setPlanCacheSize( int planCacheSize )
+    {
+        checkInitialized( "planCacheSize" );
+        this.planCacheSize = planCacheSize;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -328,6 +437,138 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if the entries are labeled with nested intervals
+     * @return true if the subtree labels are enabled
+     */
+    public boolean isSubtreeLabelsEnabled()
+    {
+        return subtreeLabelsEnabled;
+    }
+
+
+    /**
+     * Enables or disables the subtree labels. When enabled, the labels are kept in memory,
+     * and the subtree scope checks don't have to read the ancestors of the candidates.
+     * @param subtreeLabelsEnabled The flag
+     */
+    public void setSubtreeLabelsEnabled( boolean subtreeLabelsEnabled )
+    {
+        checkInitialized( "subtreeLabelsEnabled" );
+        this.subtreeLabelsEnabled = subtreeLabelsEnabled;
+    }
+
+
+    /**
+     * Tells if the statistics of the indexes are gathered
+     * @return true if the statistics are enabled
+     */
+    public boolean isStatisticsEnabled()
+    {
+        return statisticsEnabled;
+    }
+
+
+    /**
+     * Enables or disables the statistics of the indexes. When enabled, they are gathered
+     * in the background, and the optimizer uses them instead of reading the indexes.
+     * @param statisticsEnabled The flag
+     */
+    public void setStatisticsEnabled( boolean statisticsEnabled )
+    {
+        checkInitialized( "statisticsEnabled" );
+        this.statisticsEnabled = statisticsEnabled;
+    }
+
+
+    /**
+     * @return The attributes whose values can be stored out of line
+     */
+    public Set<String> getLargeValueAttributes()
+    {
+        return largeValueAttributes;
+    }
+
+
+    /**
+     * Sets the attributes whose values can be stored out of line, in a table keyed by the
+     * entry ID, when an entry has too many of them. It's typically used for the member
+     * and uniqueMember attributes of the big groups. An attribute must not be removed
+     * from this set while some of its values are stored out of line.
+     * @param largeValueAttributes The attribute IDs
+     */
+    public void setLargeValueAttributes( Set<String> largeValueAttributes )
+    {
+        checkInitialized( "largeValueAttributes" );
+        this.largeValueAttributes = largeValueAttributes;
+    }
+
+
+    /**
+     * @return The number of values above which they are stored out of line
+     */
+    public int getLargeValueThreshold()
+    {
+        return largeValueThreshold;
+    }
+
+
+    /**
+     * Sets the number of values above which the values of the large value attributes are
+     * stored out of line. With 0, the values already stored out of line are moved back in
+     * the entries when they are modified.
+     * @param largeValueThreshold The number of values, 0 to keep the values in the entries
+     */
+    public void setLargeValueThreshold( int largeValueThreshold )
+    {
+        checkInitialized( "largeValueThreshold" );
+        this.largeValueThreshold = largeValueThreshold;
+    }
+
+
+    /**
+     * @return The size in bytes above which a binary value is stored in the blob store
+     */
+    public int getBlobThreshold()
+    {
+        return blobThreshold;
+    }
+
+
+    /**
+     * Sets the size in bytes above which a binary value, like a jpegPhoto, is stored in the
+     * blob store of the partition, the entry only keeping its reference. With 0, no value is
+     * added in the blob store, and the values already there are moved back in the entries
+     * when they are modified.
+     * @param blobThreshold The size in bytes, 0 to keep the values in the entries
+     */
+    public void setBlobThreshold( int blobThreshold )
+    {
+        checkInitialized( "blobThreshold" );
+        this.blobThreshold = blobThreshold;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isStreamingSearch()
+    {
+        return streamingSearch;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setStreamingSearch( boolean streamingSearch )
+    {
+        this.streamingSearch = streamingSearch;
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -512,6 +753,35 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     protected abstract Index<?, String> convertAndInit( Index<?, String> index ) throws LdapException;
 
 
+    /**
+     * Creates the table storing the values of a large attribute out of line. It's keyed
+     * by entry ID, and its duplicate values are sorted as Strings, with the
+     * {@link OutOfLineValueComparator}. The default implementation returns null, for the
+     * partitions which can't store the values out of line.
+     *
+     * @param attributeType The attribute type
+     * @return The table, or null if it's not supported
+     * @throws LdapException If the table can't be created
+     */
+    protected Table<String, String> createOutOfLineTable( AttributeType attributeType ) throws LdapException
+    {
+        return null;
+    }
+
+
+    /**
+     * Tells if the large binary values can be stored in a blob store. It's only possible
+     * if the partition has a directory, and if its master table serializes the entries
+     * with the {@link EntryCodec}, which keeps the {@link BlobAttribute} references.
+     *
+     * @return <tt>true</tt> if the partition supports a blob store. The default is false
+     */
+    protected boolean isBlobStoreSupported()
+    {
+        return false;
+    }
+
+
     /**
      * Gets the path in which this Partition stores data.
      *
@@ -543,12 +813,53 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // don't reset initialized flag
         initialized = false;
 
+        if ( statisticsExecutor != null )
+        {
+            statisticsExecutor.shutdownNow();
+            statisticsExecutor = null;
+            saveStatistics();
+        }
+
         aliasCache.invalidateAll();
         piarCache.invalidateAll();
         entryDnCache.invalidateAll();
 
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
+        try
+        {
+            outOfLineValues.close( partitionTxn );
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( I18n.err( I18n.ERR_124 ), t );
+            errors.addThrowable( t );
+        }
+
+        if ( blobStore != null )
+        {
+            try
+            {
+                // Don't interrupt a running compaction, it would close the blob store file
+                blobExecutor.shutdown();
+                blobExecutor.awaitTermination( 1L, TimeUnit.MINUTES );
+                blobStore.close();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                errors.addThrowable( ie );
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( I18n.err( I18n.ERR_124 ), t );
+                errors.addThrowable( t );
+            }
+
+            blobStore = null;
+            blobExecutor = null;
+        }
+
         for ( Index<?, String> index : userIndices.values() )
         {
             try
@@ -629,6 +940,61 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setupSystemIndices();
         setupUserIndices();
 
+        // The tables of the values stored out of line
+        outOfLineValues = new OutOfLineValues( schemaManager, largeValueThreshold );
+
+        for ( String attributeId : largeValueAttributes )
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( attributeId );
+
+            if ( !attributeType.getSyntax().isHumanReadable() )
+            {
+                LOG.warn( "The values of the binary attribute {} can't be stored out of line", attributeId );
+                continue;
+            }
+
+            Table<String, String> table = createOutOfLineTable( attributeType );
+
+            if ( table == null )
+            {
+                LOG.warn( "The {} partition can't store the attribute values out of line", getId() );
+                break;
+            }
+
+            outOfLineValues.addTable( attributeType, table );
+        }
+
+        // The store of the large binary values, which is kept open as long as it contains values
+        File blobFile = isBlobStoreSupported() ? getPartitionFile( BLOB_FILE ) : null;
+
+        if ( ( blobFile != null ) && ( ( blobThreshold > 0 ) || blobFile.exists() ) )
+        {
+            blobStore = new BlobStore( blobFile );
+
+            try
+            {
+                blobStore.open();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            blobCompactionSize = Math.max( 2L * blobStore.size(), MIN_BLOB_COMPACTION_SIZE );
+
+            blobExecutor = Executors.newSingleThreadExecutor( runnable ->
+            {
+                Thread thread = new Thread( runnable, "blobs-" + getId() );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+        }
+        else if ( blobThreshold > 0 )
+        {
+            LOG.warn( "The {} partition can't store the binary values in a blob store", getId() );
+        }
+
         aliasCache = Caffeine.newBuilder().maximumSize( cacheSize ).expireAfterAccess( Duration.ofMinutes( 20 ) )
             .build();
 
@@ -637,6 +1003,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         entryDnCache = Caffeine.newBuilder().maximumSize( cacheSize ).expireAfterAccess( Duration.ofMinutes( 20 ) )
             .build();
+
+        if ( statisticsEnabled )
+        {
+            loadStatistics();
+
+            statisticsExecutor = Executors.newSingleThreadExecutor( runnable ->
+            {
+                Thread thread = new Thread( runnable, "statistics-" + getId() );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+        }
     }
 
 
@@ -816,6 +1195,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 id = entryUUID.getString();
             }
+
+            // The entry does not exist for the readers started before this addition
+            if ( entryVersions.isRead() )
+            {
+                entryVersions.save( id, null );
+            }
             
             if ( entryDn.getNormName().equals( suffixDn.getNormName() ) )
             {
@@ -915,6 +1300,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 // Update the PIAR cache at the same time
                 updatePiarCache( parentIdAndRdn, id, ADD_CACHE );
 
+                subtreeLabels.add( parentId, id );
+                statistics.changed();
+
                 // Update the parent's nbChildren and nbDescendants values
                 if ( parentId != Partition.ROOT_ID )
                 {
@@ -928,7 +1316,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 setContextCsn( at.getString() );
 
                 // And finally add the entry into the master table
-                master.put( partitionTxn, id, entry );
+                writeEntry( partitionTxn, id, entry );
             }
             finally
             {
@@ -997,10 +1385,23 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Updates the number of children and descendants of the ancestors of an added or removed
+     * entry. The parent is updated immediately, so its number of children is always exact. The
+     * number of descendants of the other ancestors is only updated when the transaction is
+     * committed (see {@link #flushDescendants(PartitionTxn)}), so that many changes below the
+     * same ancestors don't rewrite their elements in the Rdn index again and again. This is only
+     * possible with the {@link SnapshotWriteTxn} created by this partition : the other transactions
+     * don't know about the deferred changes, so the ancestors are updated right away.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param parentId The parent ID
+     * @param addRemove {@link #ADD_CHILD} or {@link #REMOVE_CHILD}
+     * @param nbDescendant The number of descendants of the added or removed entry
+     * @throws LdapException If the Rdn index can't be updated
+     */
     protected void updateRdnIdx( PartitionTxn partitionTxn, String parentId, boolean addRemove, int nbDescendant ) throws LdapException
     {
-        boolean isFirst = true;
-
         if ( parentId.equals( Partition.ROOT_ID ) )
         {
             return;
@@ -1008,75 +1409,199 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         ParentIdAndRdn parent = rdnIdx.reverseLookup( partitionTxn, parentId );
 
-        while ( parent != null )
+        if ( parent == null )
         {
-            rdnIdx.drop( partitionTxn, parentId );
-            
-            if ( isFirst )
-            {
-                if ( addRemove == ADD_CHILD )
-                {
-                    parent.setNbChildren( parent.getNbChildren() + 1 );
-                }
-                else
-                {
-                    parent.setNbChildren( parent.getNbChildren() - 1 );
-                }
+            return;
+        }
 
-                isFirst = false;
-            }
+        int delta = nbDescendant + 1;
+
+        if ( addRemove == REMOVE_CHILD )
+        {
+            delta = -delta;
+        }
+
+        rdnIdx.drop( partitionTxn, parentId );
+
+        if ( addRemove == ADD_CHILD )
+        {
+            parent.setNbChildren( parent.getNbChildren() + 1 );
+        }
+        else
+        {
+            parent.setNbChildren( parent.getNbChildren() - 1 );
+        }
 
-            if ( addRemove == ADD_CHILD )
+        parent.setNbDescendants( parent.getNbDescendants() + delta );
+
+        // Inject the modified element into the index
+        rdnIdx.add( partitionTxn, parent, parentId );
+
+        // Now, record the change for the other ancestors, or apply it if nobody
+        // will flush it when the transaction is committed
+        boolean deferred = defersDescendants( partitionTxn );
+        String ancestorId = parent.getParentId();
+        ParentIdAndRdn ancestor = rdnIdx.reverseLookup( partitionTxn, ancestorId );
+
+        while ( ancestor != null )
+        {
+            if ( deferred )
             {
-                parent.setNbDescendants( parent.getNbDescendants() + ( nbDescendant + 1 ) );
+                pendingDescendants.computeIfAbsent( partitionTxn, txn -> new HashMap<>() ).merge( ancestorId, delta,
+                    ( previous, added ) -> ( previous + added == 0 ) ? null : previous + added );
             }
             else
             {
-                parent.setNbDescendants( parent.getNbDescendants() - ( nbDescendant + 1 ) );
+                rdnIdx.drop( partitionTxn, ancestorId );
+                ancestor.setNbDescendants( ancestor.getNbDescendants() + delta );
+                rdnIdx.add( partitionTxn, ancestor, ancestorId );
             }
 
-            // Inject the modified element into the index
-            rdnIdx.add( partitionTxn, parent, parentId );
+            ancestorId = ancestor.getParentId();
+            ancestor = rdnIdx.reverseLookup( partitionTxn, ancestorId );
+        }
+    }
 
-            ////dumpRdnIdx();
 
-            parentId = parent.getParentId();
-            parent = rdnIdx.reverseLookup( partitionTxn, parentId );
-        }
+    /**
+     * Tells if the changes of the number of descendants done in a transaction can be
+     * deferred until the commit : only the transactions created by this partition flush
+     * them.
+     * 
+     * @param partitionTxn The transaction to check
+     * @return <tt>true</tt> if the transaction flushes the deferred changes when committed
+     */
+    private boolean defersDescendants( PartitionTxn partitionTxn )
+    {
+        return ( partitionTxn instanceof SnapshotWriteTxn ) && ( ( ( SnapshotWriteTxn ) partitionTxn ).getPartition() == this );
     }
 
 
     /**
-     * Delete the entry associated with a given Id
+     * Writes the pending changes of the number of descendants done in a transaction into
+     * the Rdn index. This is done when the write transaction is committed.
      * 
      * @param partitionTxn The transaction to use
-     * @param id The id of the entry to delete
-     * @return the deleted entry if found
-     * @throws LdapException If the deletion failed
+     * @throws LdapException If the Rdn index can't be updated
      */
-    @Override
-    public Entry delete( PartitionTxn partitionTxn, String id ) throws LdapException
+    public void flushDescendants( PartitionTxn partitionTxn ) throws LdapException
     {
-        try
+        if ( partitionTxn == null )
         {
-            // First get the entry
-            Entry entry = null;
+            return;
+        }
 
-            lockRead();
+        Map<String, Integer> deltas = pendingDescendants.remove( partitionTxn );
 
-            try
-            {
-                 entry = master.get( partitionTxn, id );
-            }
-            finally
-            {
-                unlockRead();
-            }
+        if ( deltas == null )
+        {
+            return;
+        }
 
-            if ( entry == null )
+        for ( Map.Entry<String, Integer> pending : deltas.entrySet() )
+        {
+            String id = pending.getKey();
+            int delta = pending.getValue();
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, id );
+
+            // The entry may have been deleted since
+            if ( parentIdAndRdn == null )
             {
-                // Not allowed
-                throw new LdapNoSuchObjectException( "Cannot find an entry for UUID " + id );
+                continue;
+            }
+
+            rdnIdx.drop( partitionTxn, id );
+            parentIdAndRdn.setNbDescendants( parentIdAndRdn.getNbDescendants() + delta );
+            rdnIdx.add( partitionTxn, parentIdAndRdn, id );
+        }
+    }
+
+
+    /**
+     * Drops the pending changes of the number of descendants, when a transaction
+     * has been rolled back.
+     * 
+     * @param partitionTxn The rolled back transaction
+     */
+    public void discardDescendants( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn != null )
+        {
+            pendingDescendants.remove( partitionTxn );
+        }
+    }
+
+
+    /**
+     * Drops the subtree labels when a transaction has been rolled back, as they may
+     * contain some changes which have been reverted. They will be built again on the
+     * next use.
+     */
+    public void discardSubtreeLabels()
+    {
+        subtreeLabels.invalidate();
+    }
+
+
+    /**
+     * Gets the number of descendants of an entry, including the changes the given
+     * transaction has not yet written in the Rdn index. The changes pending in the
+     * other transactions are not visible.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param parentIdAndRdn The entry element in the Rdn index
+     * @return The number of descendants
+     */
+    protected int getNbDescendants( PartitionTxn partitionTxn, String id, ParentIdAndRdn parentIdAndRdn )
+    {
+        Map<String, Integer> deltas = ( partitionTxn == null ) ? null : pendingDescendants.get( partitionTxn );
+
+        if ( deltas == null )
+        {
+            return parentIdAndRdn.getNbDescendants();
+        }
+
+        return parentIdAndRdn.getNbDescendants() + deltas.getOrDefault( id, 0 );
+    }
+
+
+    /**
+     * Delete the entry associated with a given Id
+     * 
+     * @param partitionTxn The transaction to use
+     * @param id The id of the entry to delete
+     * @return the deleted entry if found
+     * @throws LdapException If the deletion failed
+     */
+    @Override
+    public Entry delete( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        try
+        {
+            // First get the entry
+            Entry entry = null;
+
+            lockRead();
+
+            try
+            {
+                 entry = readEntry( partitionTxn, id );
+            }
+            finally
+            {
+                unlockRead();
+            }
+
+            if ( entry != null )
+            {
+                saveVersion( partitionTxn, id, entry );
+            }
+
+            if ( entry == null )
+            {
+                // Not allowed
+                throw new LdapNoSuchObjectException( "Cannot find an entry for UUID " + id );
             }
 
             Attribute objectClass = entry.get( objectClassAT );
@@ -1131,6 +1656,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 {
                     Index<?, String> userIndex = getUserIndex( attributeType );
 
+                    // The indexed values may be stored in the blob store
+                    if ( attribute instanceof BlobAttribute )
+                    {
+                        attribute = readBlobs( attribute );
+                    }
+
                     // here lookup by attributeId is ok since we got attributeId from
                     // the entry via the enumeration - it's in there as is for sure
                     for ( Value value : attribute )
@@ -1151,6 +1682,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
                 updatePiarCache( parent, id, DEL_CACHE );
 
+                subtreeLabels.remove( id );
+                statistics.changed();
+
                 entryDnCache.invalidate( id );
                 
                 Attribute csn = entry.get( entryCsnAT );
@@ -1160,6 +1694,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     setContextCsn( csn.getString() );
                 }
 
+                outOfLineValues.remove( partitionTxn, id );
                 master.remove( partitionTxn, id );
             }
             finally
@@ -1218,7 +1753,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             PartitionSearchResult searchResult = searchEngine.computeResult( partitionTxn, schemaManager, searchContext );
 
-            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult );
+            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult,
+                searchContext.getFetchedAttributes() );
 
             return new EntryFilteringCursorImpl( result, searchContext, schemaManager );
         }
@@ -1294,18 +1830,60 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @Override
     public Entry fetch( PartitionTxn partitionTxn, String id ) throws LdapException
     {
-        try
+        return fetch( partitionTxn, id, ( Set<AttributeType> ) null );
+    }
+
+
+    /**
+     * Get back an entry knowing its UUID, with only some of its attributes
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @param attributeTypes The attributeTypes to read, or null to read them all
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    public Entry fetch( PartitionTxn partitionTxn, String id, Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        return fetch( partitionTxn, id, attributeTypes, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry fetchCandidate( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return fetch( partitionTxn, id, null, false );
+    }
+
+
+    /**
+     * Get back an entry knowing its UUID, with only some of its attributes
+     */
+    private Entry fetch( PartitionTxn partitionTxn, String id, Set<AttributeType> attributeTypes, boolean withBlobs )
+        throws LdapException
+    {
+        if ( id == null )
         {
-            rwLock.readLock().lock();
+            id = "";
+        }
 
-            if ( id == null )
-            {
-                id = "";
-            }
-            
+        // The snapshot transactions don't take the partition lock, the entry version
+        // is checked once the entry has been read
+        boolean locked = !isSnapshot( partitionTxn );
+
+        if ( locked )
+        {
+            lockRead();
+        }
+
+        try
+        {
             Dn dn = buildEntryDn( partitionTxn, id );
 
-            return fetch( partitionTxn, id, dn );
+            return fetch( partitionTxn, id, dn, attributeTypes, withBlobs );
         }
         catch ( Exception e )
         {
@@ -1313,7 +1891,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
         finally
         {
-            rwLock.readLock().unlock();
+            if ( locked )
+            {
+                unlockRead();
+            }
         }
     }
 
@@ -1328,17 +1909,100 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     @Override
     public Entry fetch( PartitionTxn partitionTxn, String id, Dn dn ) throws LdapException
+    {
+        return fetch( partitionTxn, id, dn, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry fetch( PartitionTxn partitionTxn, String id, Dn dn, Set<AttributeType> attributeTypes )
+        throws LdapException
+    {
+        return fetch( partitionTxn, id, dn, attributeTypes, true );
+    }
+
+
+    /**
+     * Get back an entry knowing its UUID, with only some of its attributes. The values
+     * stored in the blob store are only read if required, otherwise the returned entry
+     * contains the {@link BlobAttribute}s read from the master table.
+     */
+    private Entry fetch( PartitionTxn partitionTxn, String id, Dn dn, Set<AttributeType> attributeTypes,
+        boolean withBlobs ) throws LdapException
     {
         try
         {
             Entry entry = lookupCache( id );
+            boolean cached = entry != null;
+            boolean complete = true;
 
-            if ( entry != null )
+            if ( !cached )
+            {
+                // The snapshot transactions read the master table without the partition lock,
+                // unless the values stored out of line have to be browsed
+                boolean locked = !isSnapshot( partitionTxn ) || !outOfLineValues.isEmpty();
+
+                if ( locked )
+                {
+                    lockRead();
+                }
+
+                try
+                {
+                    entry = master.get( partitionTxn, id );
+
+                    // Only read the values stored out of line if they are requested
+                    if ( entry != null )
+                    {
+                        complete = outOfLineValues.load( partitionTxn, id, entry, attributeTypes );
+                    }
+                }
+                finally
+                {
+                    if ( locked )
+                    {
+                        unlockRead();
+                    }
+                }
+            }
+
+            // A writer saves the version of an entry before modifying it : if there is
+            // no version once the entry has been read, it has been read unchanged
+            EntryVersions.Version version = getVersion( partitionTxn, id );
+
+            if ( version != null )
+            {
+                return fetchVersion( version, withBlobs );
+            }
+
+            if ( entry == null )
+            {
+                return null;
+            }
+
+            // We have to store the DN in this entry
+            entry.setDn( dn );
+
+            // always store original entry in the cache, unless some values are missing
+            if ( !cached && complete )
             {
-                entry.setDn( dn );
+                addToCache( id, entry );
+            }
 
-                entry = new ClonedServerEntry( entry );
+            // The blobs are only read in the returned copy
+            Entry stored = entry;
+            entry = cloneEntry( stored, attributeTypes );
+
+            if ( withBlobs )
+            {
+                readBlobs( stored, entry, null );
+            }
 
+            if ( cached )
+            {
                 // Replace the entry's DN with the provided one
                 Attribute entryDnAt = entry.get( entryDnAT );
                 Value dnValue = new Value( entryDnAT, dn.getName(), dn.getNormName() );
@@ -1352,43 +2016,66 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     entryDnAt.clear();
                     entryDnAt.add( dnValue );
                 }
-
-                return entry;
-            }
-
-            try
-            {
-                rwLock.readLock().lock();
-                entry = master.get( partitionTxn, id );
             }
-            finally
+            else if ( !entry.containsAttribute( entryDnAT ) )
             {
-                rwLock.readLock().unlock();
+                entry.add( entryDnAT, dn.getName() );
             }
 
-            if ( entry != null )
-            {
-                // We have to store the DN in this entry
-                entry.setDn( dn );
+            return entry;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
 
-                // always store original entry in the cache
-                addToCache( id, entry );
 
-                entry = new ClonedServerEntry( entry );
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isIndexCurrent( PartitionTxn partitionTxn, String id )
+    {
+        return getVersion( partitionTxn, id ) == null;
+    }
 
-                if ( !entry.containsAttribute( entryDnAT ) )
-                {
-                    entry.add( entryDnAT, dn.getName() );
-                }
 
-                return entry;
-            }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isStoredOutOfLine( PartitionTxn partitionTxn, String id, AttributeType attributeType )
+        throws LdapException
+    {
+        return outOfLineValues.isStored( partitionTxn, id, attributeType );
+    }
 
-            return null;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasOutOfLineValue( PartitionTxn partitionTxn, String id, AttributeType attributeType,
+        String normalized ) throws LdapException
+    {
+        return outOfLineValues.contains( partitionTxn, id, attributeType, normalized );
+    }
+
+
+    /**
+     * Copies an entry before returning it, so that the stored one is never modified. Only
+     * the requested attributes are copied.
+     */
+    private Entry cloneEntry( Entry entry, Set<AttributeType> attributeTypes ) throws LdapException
+    {
+        if ( attributeTypes == null )
+        {
+            return new ClonedServerEntry( entry );
         }
-        catch ( Exception e )
+        else
         {
-            throw new LdapOperationErrorException( e.getMessage(), e );
+            return new ClonedServerEntry( entry, attributeTypes );
         }
     }
 
@@ -1415,9 +2102,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 modifyContext.getModItems().toArray( new Modification[]
                     {} ) );
 
+            // The values stored out of line which have been modified in place are not in the entry
+            modifiedEntry = withOutOfLineValues( partitionTxn, modifiedEntry, modifyContext.getEntry(),
+                modifyContext.getModItems() );
+
             modifyContext.setAlteredEntry( modifiedEntry );
+            statistics.changed();
 
+            // The cache keeps the entry as it's stored, its blobs are read when it's fetched
             updateCache( modifyContext );
+
+            // The rest of the server gets all the values
+            modifyContext.setAlteredEntry( withBlobs( modifiedEntry, modifyContext.getEntry() ) );
         }
         catch ( Exception e )
         {
@@ -1433,14 +2129,42 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public final synchronized Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
     {
         String id = getEntryId( partitionTxn, dn );
-        Entry entry = master.get( partitionTxn, id );
+        Entry entry;
+
+        if ( entryVersions.isRead() && !entryVersions.contains( id ) )
+        {
+            // The saved version needs all the values
+            entry = readEntry( partitionTxn, id );
+            saveVersion( partitionTxn, id, entry );
+        }
+        else
+        {
+            // The values stored out of line are only read if a modification needs them
+            entry = master.get( partitionTxn, id );
+        }
 
         for ( Modification mod : mods )
         {
             Attribute attrMods = mod.getAttribute();
+            AttributeType attributeType = attrMods.getAttributeType();
+
+            // Only the values stored in the blob store of the modified attributes are read
+            readBlobs( entry, entry, attributeType );
 
             try
             { 
+                if ( modifyOutOfLine( partitionTxn, id, entry, mod ) )
+                {
+                    continue;
+                }
+
+                // Removing a non indexed attribute does not need its values
+                if ( ( mod.getOperation() != ModificationOperation.REMOVE_ATTRIBUTE ) || ( attrMods.size() > 0 )
+                    || isIndexed( attributeType ) )
+                {
+                    outOfLineValues.load( partitionTxn, id, entry, Collections.singleton( attributeType ) );
+                }
+
                 switch ( mod.getOperation() )
                 {
                     case ADD_ATTRIBUTE:
@@ -1476,38 +2200,124 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         setContextCsn( entry.get( entryCsnAT ).getString() );
         
-        master.put( partitionTxn, id, entry );
+        Entry stored = writeEntry( partitionTxn, id, entry );
+
+        // Keep the references of the values written in the blob store rather than the values
+        if ( stored != entry )
+        {
+            for ( Attribute attribute : stored )
+            {
+                if ( attribute instanceof BlobAttribute )
+                {
+                    entry.put( attribute );
+                }
+            }
+        }
 
         return entry;
     }
 
 
     /**
-     * Adds a set of attribute values while affecting the appropriate userIndices.
-     * The entry is not persisted: it is only changed in anticipation for a put
-     * into the master table.
+     * Adds or removes some values of an attribute stored out of line, without reading its
+     * other values. Only the tuples of the added and removed values are written, in the
+     * attribute table and in its index.
      *
      * @param partitionTxn The transaction to use
      * @param id the primary key of the entry
-     * @param entry the entry to alter
-     * @param mods the attribute and values to add
-     * @throws Exception if index alteration or attribute addition fails
+     * @param entry the entry read from the master table
+     * @param mod the modification to apply
+     * @return <tt>true</tt> if the modification has been applied, <tt>false</tt> if it has to
+     * be applied on all the values of the attribute
+     * @throws LdapException If the table or the index can't be updated
+     * @throws IndexNotFoundException If the user index can't be found
      */
     @SuppressWarnings("unchecked")
-    private void modifyAdd( PartitionTxn partitionTxn, String id, Entry entry, Attribute mods ) 
+    private boolean modifyOutOfLine( PartitionTxn partitionTxn, String id, Entry entry, Modification mod )
         throws LdapException, IndexNotFoundException
     {
-        if ( entry instanceof ClonedServerEntry )
+        Attribute mods = mod.getAttribute();
+        AttributeType attributeType = mods.getAttributeType();
+
+        if ( ( mods.size() == 0 ) || attributeType.equals( objectClassAT )
+            || attributeType.equals( administrativeRoleAT ) || attributeType.equals( aliasedObjectNameAT ) )
         {
-            throw new LdapOtherException( I18n.err( I18n.ERR_215_CANNOT_STORE_CLONED_SERVER_ENTRY ) );
+            return false;
         }
 
-        String modsOid = schemaManager.getAttributeTypeRegistry().getOidByName( mods.getId() );
-        String normalizedModsOid = presenceNormalizer.normalize( modsOid );
+        List<Value> changed;
 
-        AttributeType attributeType = mods.getAttributeType();
+        switch ( mod.getOperation() )
+        {
+            case ADD_ATTRIBUTE:
+                changed = outOfLineValues.add( partitionTxn, id, entry, mods );
+                break;
 
-        // Special case for the ObjectClass index
+            case REMOVE_ATTRIBUTE:
+                changed = outOfLineValues.remove( partitionTxn, id, entry, mods );
+                break;
+
+            default:
+                return false;
+        }
+
+        if ( changed == null )
+        {
+            return false;
+        }
+
+        if ( hasUserIndexOn( attributeType ) )
+        {
+            Index<String, String> index = ( Index<String, String> ) getUserIndex( attributeType );
+
+            for ( Value value : changed )
+            {
+                if ( mod.getOperation() == ModificationOperation.ADD_ATTRIBUTE )
+                {
+                    index.add( partitionTxn, value.getNormalized(), id );
+                }
+                else
+                {
+                    index.drop( partitionTxn, value.getNormalized(), id );
+                }
+            }
+
+            if ( !entry.containsAttribute( attributeType ) )
+            {
+                presenceIdx.drop( partitionTxn, attributeType.getOid(), id );
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Adds a set of attribute values while affecting the appropriate userIndices.
+     * The entry is not persisted: it is only changed in anticipation for a put
+     * into the master table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id the primary key of the entry
+     * @param entry the entry to alter
+     * @param mods the attribute and values to add
+     * @throws Exception if index alteration or attribute addition fails
+     */
+    @SuppressWarnings("unchecked")
+    private void modifyAdd( PartitionTxn partitionTxn, String id, Entry entry, Attribute mods ) 
+        throws LdapException, IndexNotFoundException
+    {
+        if ( entry instanceof ClonedServerEntry )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_215_CANNOT_STORE_CLONED_SERVER_ENTRY ) );
+        }
+
+        String modsOid = schemaManager.getAttributeTypeRegistry().getOidByName( mods.getId() );
+        String normalizedModsOid = presenceNormalizer.normalize( modsOid );
+
+        AttributeType attributeType = mods.getAttributeType();
+
+        // Special case for the ObjectClass index
         if ( modsOid.equals( SchemaConstants.OBJECT_CLASS_AT_OID ) )
         {
             for ( Value value : mods )
@@ -1604,7 +2414,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @throws Exception if index alteration or attribute modification
      * fails.
      */
-    @SuppressWarnings("unchecked")
     private void modifyReplace( PartitionTxn partitionTxn, String id, Entry entry, Attribute mods ) 
         throws LdapException, IndexNotFoundException
     {
@@ -1616,95 +2425,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         String modsOid = schemaManager.getAttributeTypeRegistry().getOidByName( mods.getId() );
         AttributeType attributeType = mods.getAttributeType();
 
-        // Special case for the ObjectClass index
-        if ( attributeType.equals( objectClassAT ) )
-        {
-            // if the id exists in the index drop all existing attribute
-            // value index entries and add new ones
-            for ( Value value : entry.get( objectClassAT ) )
-            {
-                if ( value.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
-
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
-            }
-
-            for ( Value value : mods )
-            {
-                if ( value.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
-
-                objectClassIdx.add( partitionTxn, normalizedOc, id );
-            }
-        }
-        else if ( hasUserIndexOn( attributeType ) )
-        {
-            Index<?, String> userIndex = getUserIndex( attributeType );
-
-            // Drop all the previous values
-            Attribute oldAttribute = entry.get( mods.getAttributeType() );
-
-            if ( oldAttribute != null )
-            {
-                for ( Value value : oldAttribute )
-                {
-                    String normalized = value.getNormalized();
-                    ( ( Index<Object, String> ) userIndex ).drop( partitionTxn, normalized, id );
-                }
-            }
-
-            // And add the new ones
-            for ( Value value : mods )
-            {
-                String normalized = value.getNormalized();
-                ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
-            }
-
-            /*
-             * If we have no new value, we have to drop the AT fro the presence index
-             */
-            if ( mods.size() == 0 )
-            {
-                presenceIdx.drop( partitionTxn, modsOid, id );
-            }
-        }
-        // Special case for the AdministrativeRole index
-        else if ( attributeType.equals( administrativeRoleAT ) )
-        {
-            // Remove the previous values
-            for ( Value value : entry.get( administrativeRoleAT ) )
-            {
-                if ( value.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
-
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
-            }
-
-            // And add the new ones 
-            for ( Value value : mods )
-            {
-                String valueStr = value.getString();
-
-                if ( valueStr.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                adminRoleIdx.add( partitionTxn, valueStr, id );
-            }
-        }
+        // The entry attribute is replaced, not modified, so there is no need to copy it
+        Attribute oldAttribute = entry.get( attributeType );
 
         String aliasAttributeOid = schemaManager.getAttributeTypeRegistry().getOidByName(
             SchemaConstants.ALIASED_OBJECT_NAME_AT );
@@ -1725,6 +2447,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             entry.remove( mods );
         }
 
+        updateModifiedIndices( partitionTxn, id, attributeType, oldAttribute, entry.get( attributeType ) );
+
         if ( modsOid.equals( aliasAttributeOid ) && mods.size() > 0 )
         {
             Dn entryDn = getEntryDn( partitionTxn, id );
@@ -1734,19 +2458,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
 
     /**
-     * Completely replaces the existing set of values for an attribute with the
-     * modified values supplied affecting the appropriate userIndices.  The entry
-     * is not persisted: it is only changed in anticipation for a put into the
-     * master table.
+     * Increments all the values of an attribute, affecting the appropriate
+     * userIndices.  The entry is not persisted: it is only changed in anticipation
+     * for a put into the master table.
      *
      * @param partitionTxn The transaction to use
      * @param id the primary key of the entry
      * @param entry the entry to alter
-     * @param mods the replacement attribute and values
+     * @param mods the attribute and the increment, if any
      * @throws Exception if index alteration or attribute modification
      * fails.
      */
-    @SuppressWarnings("unchecked")
     private void modifyIncrement( PartitionTxn partitionTxn, String id, Entry entry, Attribute mods ) 
         throws LdapException, IndexNotFoundException
     {
@@ -1758,96 +2480,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         String modsOid = schemaManager.getAttributeTypeRegistry().getOidByName( mods.getId() );
         AttributeType attributeType = mods.getAttributeType();
 
-        // Special case for the ObjectClass index
-        if ( attributeType.equals( objectClassAT ) )
-        {
-            // if the id exists in the index drop all existing attribute
-            // value index entries and add new ones
-            for ( Value value : entry.get( objectClassAT ) )
-            {
-                if ( value.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
-
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
-            }
-
-            for ( Value value : mods )
-            {
-                if ( value.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
-
-                objectClassIdx.add( partitionTxn, normalizedOc, id );
-            }
-        }
-        else if ( hasUserIndexOn( attributeType ) )
-        {
-            Index<?, String> userIndex = getUserIndex( attributeType );
-
-            // Drop all the previous values
-            Attribute oldAttribute = entry.get( mods.getAttributeType() );
-
-            if ( oldAttribute != null )
-            {
-                for ( Value value : oldAttribute )
-                {
-                    String normalized = value.getNormalized();
-                    ( ( Index<Object, String> ) userIndex ).drop( partitionTxn, normalized, id );
-                }
-            }
-
-            // And add the new ones
-            for ( Value value : mods )
-            {
-                String normalized = value.getNormalized();
-                ( ( Index ) userIndex ).add( partitionTxn, normalized, id );
-            }
-
-            /*
-             * If we have no new value, we have to drop the AT fro the presence index
-             */
-            if ( mods.size() == 0 )
-            {
-                presenceIdx.drop( partitionTxn, modsOid, id );
-            }
-        }
-        // Special case for the AdministrativeRole index
-        else if ( attributeType.equals( administrativeRoleAT ) )
-        {
-            // Remove the previous values
-            for ( Value value : entry.get( administrativeRoleAT ) )
-            {
-                if ( value.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
-
-                objectClassIdx.drop( partitionTxn, normalizedOc, id );
-            }
-
-            // And add the new ones 
-            for ( Value value : mods )
-            {
-                String valueStr = value.getString();
-
-                if ( valueStr.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                adminRoleIdx.add( partitionTxn, valueStr, id );
-            }
-        }
-
         String aliasAttributeOid = schemaManager.getAttributeTypeRegistry().getOidByName(
             SchemaConstants.ALIASED_OBJECT_NAME_AT );
 
@@ -1856,7 +2488,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             dropAliasIndices( partitionTxn, id );
         }
 
-        // replaces old attributes with new modified ones if they exist
+        // replaces old attributes with new modified ones if they exist. The entry
+        // attribute is replaced, not modified, so there is no need to copy it
         Attribute attribute = entry.get( mods.getAttributeType() );
         Value[] newValues = new Value[ attribute.size() ];
         int increment = 1;
@@ -1877,11 +2510,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     + attributeType );
             }
             
-            newValues[i++] = new Value( Integer.toString( intValue + increment ) );
-            attribute.remove( value );
+            newValues[i++] = new Value( attributeType, Integer.toString( intValue + increment ) );
         }
         
-        attribute.add( newValues );
+        entry.put( attributeType, newValues );
+
+        updateModifiedIndices( partitionTxn, id, attributeType, attribute, entry.get( attributeType ) );
 
         if ( modsOid.equals( aliasAttributeOid ) && mods.size() > 0 )
         {
@@ -1905,7 +2539,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * @param mods the attribute and its values to delete
      * @throws Exception if index alteration or attribute modification fails.
      */
-    @SuppressWarnings("unchecked")
     private void modifyRemove( PartitionTxn partitionTxn, String id, Entry entry, Attribute mods ) 
         throws LdapException, IndexNotFoundException
     {
@@ -1914,146 +2547,178 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             throw new LdapOtherException( I18n.err( I18n.ERR_215_CANNOT_STORE_CLONED_SERVER_ENTRY ) );
         }
 
-        String modsOid = schemaManager.getAttributeTypeRegistry().getOidByName( mods.getId() );
         AttributeType attributeType = mods.getAttributeType();
+        Attribute entryAttr = entry.get( attributeType );
 
-        // Special case for the ObjectClass index
-        if ( attributeType.equals( objectClassAT ) )
+        // The values are removed from the entry attribute, so keep a copy of them
+        Attribute oldAttribute = null;
+
+        if ( ( entryAttr != null ) && isIndexed( attributeType ) )
         {
-            /*
-             * If there are no attribute values in the modifications then this
-             * implies the complete removal of the attribute from the index. Else
-             * we remove individual tuples from the index.
-             */
-            if ( mods.size() == 0 )
-            {
-                for ( Value value : entry.get( objectClassAT ) )
-                {
-                    if ( value.equals( topOCValue ) )
-                    {
-                        continue;
-                    }
-                    
-                    String normalizedOc = objectClassNormalizer.normalize( value.getString() );
+            oldAttribute = entryAttr.clone();
+        }
 
-                    objectClassIdx.drop( partitionTxn, normalizedOc, id );
-                }
-            }
-            else
+        /*
+         * If there are no attribute values in the modifications then this
+         * implies the complete removal of the attribute from the entry. Else
+         * we remove individual attribute values from the entry in mods one
+         * at a time.
+         */
+        if ( mods.size() == 0 )
+        {
+            entry.removeAttributes( mods.getAttributeType() );
+        }
+        else
+        {
+            // Allow for null to fix DIRSERVER-2135
+            if ( entryAttr != null )
             {
                 for ( Value value : mods )
                 {
-                    if ( value.equals( topOCValue ) )
-                    {
-                        continue;
-                    }
-                    
-                    String normalizedOc = objectClassNormalizer.normalize( value.getString() );
-
-                    objectClassIdx.drop( partitionTxn, normalizedOc, id );
+                    entryAttr.remove( value );
+                }
+    
+                // if nothing is left just remove empty attribute
+                if ( entryAttr.size() == 0 )
+                {
+                    entry.removeAttributes( entryAttr.getId() );
                 }
             }
         }
-        else if ( hasUserIndexOn( attributeType ) )
-        {
-            Index<?, String> userIndex = getUserIndex( attributeType );
 
-            Attribute attribute = entry.get( attributeType ).clone();
-            int nbValues = 0;
+        updateModifiedIndices( partitionTxn, id, attributeType, oldAttribute, entry.get( attributeType ) );
 
-            if ( attribute != null )
-            {
-                nbValues = attribute.size();
-            }
+        // Aliases->single valued comp/partial attr removal is not relevant here
+        if ( mods.getAttributeType().equals( aliasedObjectNameAT ) )
+        {
+            dropAliasIndices( partitionTxn, id );
+        }
+    }
 
-            /*
-             * If there are no attribute values in the modifications then this
-             * implies the complete removal of the attribute from the index. Else
-             * we remove individual tuples from the index.
-             */
-            if ( mods.size() == 0 )
-            {
-                ( ( Index ) userIndex ).drop( partitionTxn, id );
-                nbValues = 0;
-            }
-            else if ( nbValues > 0 )
-            {
-                for ( Value value : mods )
-                {
-                    if ( attribute.contains( value ) )
-                    {
-                        nbValues--;
-                        attribute.remove( value );
-                    }
 
-                    String normalized = value.getNormalized();
-                    ( ( Index ) userIndex ).drop( partitionTxn, normalized, id );
-                }
-            }
+    /**
+     * Tells if the values of an attribute are stored in the ObjectClass index, the
+     * AdministrativeRole index or in a user index.
+     *
+     * @param attributeType The attribute type
+     * @return <tt>true</tt> if the attribute values are indexed
+     * @throws LdapException If the user indices can't be checked
+     */
+    private boolean isIndexed( AttributeType attributeType ) throws LdapException
+    {
+        return attributeType.equals( objectClassAT ) || attributeType.equals( administrativeRoleAT )
+            || hasUserIndexOn( attributeType );
+    }
 
-            /*
-             * If no attribute values exist for this entryId in the index then
-             * we remove the presence index entry for the removed attribute.
-             */
-            if ( nbValues == 0 )
+
+    /**
+     * Updates the indices of a modified attribute. Only the tuples of the values which
+     * have been removed or added are changed : replacing a value of a large attribute
+     * costs two index writes, whatever its number of values. The presence index is only
+     * changed when the attribute appears or disappears.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id the primary key of the entry
+     * @param attributeType the modified attribute type
+     * @param oldAttribute the attribute before the modification, or null if it was absent
+     * @param newAttribute the attribute after the modification, or null if it has been removed
+     * @throws LdapException If the indices can't be updated
+     * @throws IndexNotFoundException If the user index can't be found
+     */
+    @SuppressWarnings("unchecked")
+    private void updateModifiedIndices( PartitionTxn partitionTxn, String id, AttributeType attributeType,
+        Attribute oldAttribute, Attribute newAttribute ) throws LdapException, IndexNotFoundException
+    {
+        Index<String, String> index;
+        boolean hasPresence = true;
+
+        if ( attributeType.equals( objectClassAT ) )
+        {
+            index = objectClassIdx;
+            hasPresence = false;
+        }
+        else if ( attributeType.equals( administrativeRoleAT ) )
+        {
+            index = adminRoleIdx;
+        }
+        else if ( hasUserIndexOn( attributeType ) )
+        {
+            index = ( Index<String, String> ) getUserIndex( attributeType );
+        }
+        else
+        {
+            return;
+        }
+
+        Set<String> oldKeys = getIndexKeys( attributeType, oldAttribute );
+        Set<String> newKeys = getIndexKeys( attributeType, newAttribute );
+
+        for ( String key : oldKeys )
+        {
+            if ( !newKeys.contains( key ) )
             {
-                presenceIdx.drop( partitionTxn, modsOid, id );
+                index.drop( partitionTxn, key, id );
             }
         }
-        // Special case for the AdministrativeRole index
-        else if ( modsOid.equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
+
+        for ( String key : newKeys )
         {
-            // We may have more than one role 
-            for ( Value value : mods )
+            if ( !oldKeys.contains( key ) )
             {
-                adminRoleIdx.drop( partitionTxn, value.getString(), id );
+                index.add( partitionTxn, key, id );
             }
+        }
 
-            /*
-             * If no attribute values exist for this entryId in the index then
-             * we remove the presence index entry for the removed attribute.
-             */
-            if ( null == adminRoleIdx.reverseLookup( partitionTxn, id ) )
+        if ( hasPresence )
+        {
+            boolean wasPresent = ( oldAttribute != null ) && ( oldAttribute.size() > 0 );
+            boolean isPresent = ( newAttribute != null ) && ( newAttribute.size() > 0 );
+
+            if ( wasPresent && !isPresent )
             {
-                presenceIdx.drop( partitionTxn, modsOid, id );
+                presenceIdx.drop( partitionTxn, attributeType.getOid(), id );
+            }
+            else if ( !wasPresent && isPresent )
+            {
+                presenceIdx.add( partitionTxn, attributeType.getOid(), id );
             }
         }
+    }
 
-        /*
-         * If there are no attribute values in the modifications then this
-         * implies the complete removal of the attribute from the entry. Else
-         * we remove individual attribute values from the entry in mods one
-         * at a time.
-         */
-        if ( mods.size() == 0 )
+
+    /**
+     * Gets the keys under which the values of an attribute are stored in its index. The
+     * top ObjectClass is never indexed.
+     */
+    private Set<String> getIndexKeys( AttributeType attributeType, Attribute attribute ) throws LdapException
+    {
+        Set<String> keys = new HashSet<>();
+
+        if ( attribute == null )
         {
-            entry.removeAttributes( mods.getAttributeType() );
+            return keys;
         }
-        else
-        {
-            Attribute entryAttr = entry.get( mods.getAttributeType() );
 
-            // Allow for null to fix DIRSERVER-2135
-            if ( entryAttr != null )
+        for ( Value value : attribute )
+        {
+            if ( attributeType.equals( objectClassAT ) )
             {
-                for ( Value value : mods )
+                if ( !value.equals( topOCValue ) )
                 {
-                    entryAttr.remove( value );
-                }
-    
-                // if nothing is left just remove empty attribute
-                if ( entryAttr.size() == 0 )
-                {
-                    entry.removeAttributes( entryAttr.getId() );
+                    keys.add( objectClassNormalizer.normalize( value.getString() ) );
                 }
             }
+            else if ( attributeType.equals( administrativeRoleAT ) )
+            {
+                keys.add( value.getString() );
+            }
+            else
+            {
+                keys.add( value.getNormalized() );
+            }
         }
 
-        // Aliases->single valued comp/partial attr removal is not relevant here
-        if ( mods.getAttributeType().equals( aliasedObjectNameAT ) )
-        {
-            dropAliasIndices( partitionTxn, id );
-        }
+        return keys;
     }
 
 
@@ -2127,6 +2792,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         String entryId = getEntryId( partitionTxn, oldDn );
         String oldParentId = getParentId( partitionTxn, entryId );
 
+        saveVersion( partitionTxn, entryId );
+
         /*
          * All aliases including and below oldChildDn, will be affected by
          * the move operation with respect to one and subtree userIndices since
@@ -2137,7 +2804,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
          */
         dropMovedAliasIndices( partitionTxn, oldDn );
 
-        // Update the Rdn index
+        // Update the Rdn index. The number of descendants of the moved entry must be exact
+        flushDescendants( partitionTxn );
+
         // First drop the old entry
         ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
 
@@ -2150,6 +2819,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         movedEntry.setParentId( newParentId );
         rdnIdx.add( partitionTxn, movedEntry, entryId );
         updatePiarCache( movedEntry, entryId, ADD_CACHE );
+        subtreeLabels.move( entryId, newParentId );
+        statistics.changed();
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
@@ -2190,11 +2861,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Remove the EntryDN
         modifiedEntry.removeAttributes( entryDnAT );
 
-        entryDnCache.invalidateAll();
+        invalidateEntryDnCache( entryId, oldDn, movedEntry.getNbDescendants() > 0 );
         
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
-        master.put( partitionTxn, entryId, modifiedEntry );
+        writeEntry( partitionTxn, entryId, modifiedEntry );
 
         if ( isSyncOnWrite.get() )
         {
@@ -2295,6 +2966,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         String newParentId = getEntryId( partitionTxn, newSuperiorDn );
 
+        saveVersion( partitionTxn, entryId );
+
+        // The number of descendants of the moved entry must be exact
+        flushDescendants( partitionTxn );
+
         //Get the info about the moved entry
         ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
         
@@ -2327,6 +3003,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             { newRdn } );
         rdnIdx.add( partitionTxn, movedEntry, entryId );
         updatePiarCache( movedEntry, entryId, ADD_CACHE );
+        subtreeLabels.move( entryId, newParentId );
+        statistics.changed();
 
         updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
@@ -2369,13 +3047,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         modifiedEntry.removeAttributes( ApacheSchemaConstants.ENTRY_PARENT_ID_OID );
         modifiedEntry.add( ApacheSchemaConstants.ENTRY_PARENT_ID_OID, newParentId );
         
-        // Doom the DN cache now
-        entryDnCache.invalidateAll();
+        // Doom the cached DNs of the moved subtree now
+        invalidateEntryDnCache( entryId, oldDn, movedEntry.getNbDescendants() > 0 );
 
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
         // save the modified entry at the new place
-        master.put( partitionTxn, entryId, modifiedEntry );
+        writeEntry( partitionTxn, entryId, modifiedEntry );
     }
     
     
@@ -2476,6 +3154,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 rename( partitionTxn, oldDn, newRdn, deleteOldRdn, null );
             }
 
+            statistics.changed();
             updateCache( renameContext );
         }
         catch ( Exception e )
@@ -2494,9 +3173,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     private void rename( PartitionTxn partitionTxn, String oldId, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
         throws LdapException, IndexNotFoundException
     {
+        saveVersion( partitionTxn, oldId );
+
         if ( entry == null )
         {
-            entry = master.get( partitionTxn, oldId );
+            entry = readEntry( partitionTxn, oldId );
         }
 
         Dn updn = entry.getDn();
@@ -2506,6 +3187,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             newRdn = new Rdn( schemaManager, newRdn );
         }
 
+        // The values of the Rdn attributes stored in the blob store are read, as they are modified
+        for ( Ava ava : newRdn )
+        {
+            readBlobs( entry, entry, ava.getAttributeType() );
+        }
+
         /*
          * H A N D L E   N E W   R D N
          * ====================================================================
@@ -2617,6 +3304,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     String oldNormType = oldAtav.getNormType();
                     String oldNormValue = oldAtav.getValue().getString();
                     AttributeType oldRdnAttrType = schemaManager.lookupAttributeTypeRegistry( oldNormType );
+                    readBlobs( entry, entry, oldRdnAttrType );
                     entry.remove( oldRdnAttrType, oldNormValue );
 
                     if ( hasUserIndexOn( oldRdnAttrType ) )
@@ -2646,7 +3334,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setContextCsn( entry.get( entryCsnAT ).getString() );
 
         // And save the modified entry
-        master.put( partitionTxn, oldId, entry );
+        writeEntry( partitionTxn, oldId, entry );
     }
 
 
@@ -2693,7 +3381,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         updatePiarCache( parentIdAndRdn, oldId, ADD_CACHE );
 
-        entryDnCache.invalidateAll();
+        // The number of children is always exact, unlike the number of descendants
+        invalidateEntryDnCache( oldId, dn, parentIdAndRdn.getNbChildren() > 0 );
         
         if ( isSyncOnWrite.get() )
         {
@@ -2779,6 +3468,28 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Removes from the Dn cache the Dn of a renamed or moved entry, and the Dn of its
+     * descendants. The ParentIdAndRdn of the descendants don't change, so the rest of
+     * the cache is kept.
+     *
+     * @param id The renamed or moved entry ID
+     * @param oldDn The entry Dn before the operation
+     * @param hasDescendants Tells if the entry has some descendants
+     */
+    private void invalidateEntryDnCache( String id, Dn oldDn, boolean hasDescendants )
+    {
+        entryDnCache.invalidate( id );
+
+        if ( hasDescendants )
+        {
+            // The cache is bounded, and checking a Dn is cheap compared to walking the
+            // subtree in the Rdn index
+            entryDnCache.asMap().values().removeIf( cachedDn -> cachedDn.isDescendantOf( oldDn ) );
+        }
+    }
+
+
     // ------------------------------------------------------------------------
     // Index and master table Operations
     // ------------------------------------------------------------------------
@@ -2800,11 +3511,18 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         int pos = 0;
 
         Dn dn = null;
+
+        // The snapshot transactions only do point reads in the Rdn index, which
+        // don't need the partition lock
+        boolean locked = !isSnapshot( partitionTxn );
+
+        if ( locked )
+        {
+            lockRead();
+        }
         
         try
         {
-            rwLock.readLock().lock();
-
             if ( entryDnCache != null )
             {
                 Dn cachedDn = entryDnCache.getIfPresent( id );
@@ -2871,7 +3589,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
         finally
         {
-            rwLock.readLock().unlock();
+            if ( locked )
+            {
+                unlockRead();
+            }
         }
     }
 
@@ -2905,6 +3626,25 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final long getDescendantCount( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        try
+        {
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, id );
+
+            return getNbDescendants( partitionTxn, id, parentIdAndRdn );
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationErrorException( e.getMessage(), e );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -2931,9 +3671,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             ParentIdAndRdn suffixKey = new ParentIdAndRdn( Partition.ROOT_ID, suffixDn.getRdns() );
 
             // Check into the Rdn index, starting with the partition Suffix
+            lockRead();
+
             try
             {
-                rwLock.readLock().lock();
                 String currentId = rdnIdx.forwardLookup( partitionTxn, suffixKey );
 
                 for ( int i = dn.size() - suffixDn.size(); i > 0; i-- )
@@ -2953,7 +3694,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
             finally
             {
-                rwLock.readLock().unlock();
+                unlockRead();
             }
         }
         catch ( Exception e )
@@ -2969,9 +3710,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     @Override
     public String getParentId( PartitionTxn partitionTxn, String childId ) throws LdapException
     {
+        lockRead();
+
         try
         {
-            rwLock.readLock().lock();
             ParentIdAndRdn key = rdnIdx.reverseLookup( partitionTxn, childId );
 
             if ( key == null )
@@ -2983,7 +3725,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         }
         finally
         {
-            rwLock.readLock().unlock();
+            unlockRead();
         }
     }
 
@@ -3001,14 +3743,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             ParentIdAndRdn key = new ParentIdAndRdn( Partition.ROOT_ID, suffixDn.getRdns() );
 
+            lockRead();
+
             try
             {
-                rwLock.readLock().lock();
                 suffixId = rdnIdx.forwardLookup( partitionTxn, key );
             }
             finally
             {
-                rwLock.readLock().unlock();
+                unlockRead();
             }
         }
 
@@ -3550,114 +4293,722 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             Cursor<IndexEntry<?, String>> cursor = ( Cursor ) index.forwardCursor( partitionTxn );
 
-            while ( cursor.next() )
+            while ( cursor.next() )
+            {
+                IndexEntry<?, String> entry = cursor.get();
+
+                System.out.println( entry );
+            }
+        }
+        catch ( Exception e )
+        {
+            // TODO : fixme
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void dumpIndex( PartitionTxn partitionTxn, OutputStream stream, String name ) throws IOException
+    {
+        try
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( name );
+
+            if ( attributeType == null )
+            {
+                stream.write( Strings.getBytesUtf8( "Cannot find an index for AttributeType names " + name ) );
+
+                return;
+            }
+
+            if ( attributeType.getOid().equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+            {
+                dumpIndex( partitionTxn, stream, rdnIdx );
+            }
+        }
+        catch ( LdapException le )
+        {
+            stream.write( Strings.getBytesUtf8( "Cannot find an index for AttributeType names " + name ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "Partition<" + id + ">";
+    }
+
+
+    /**
+     * Create a new Index for a given OID
+     * 
+     * @param indexOid The Attribute OID
+     * @param path The working directory where this index will be stored
+     * @param withReverse If the Reverse index must be created or not
+     * @return The created index
+     * @throws LdapException If the index can't be created
+     */
+    protected abstract Index createSystemIndex( String indexOid, URI path, boolean withReverse ) throws LdapException;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MasterTable getMasterTable()
+    {
+        return master;
+    }
+
+
+    /**
+     * Acquire a Read lock. When the lock is shared with the OperationManager, it's taken
+     * through it, so that it's taken in the partitions order like the operations locks
+     * 
+     * @throws LdapException If the lock can't be taken without risking a deadlock
+     */
+    private void lockRead() throws LdapException
+    {
+        if ( operationManager != null )
+        {
+            operationManager.lockRead( this );
+        }
+        else
+        {
+            rwLock.readLock().lock();
+        }
+    }
+
+
+    /**
+     * Release a Read lock
+     */
+    private void unlockRead()
+    {
+        if ( operationManager != null )
+        {
+            operationManager.unlockRead( this );
+        }
+        else
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Acquire a Write lock. When the lock is shared with the OperationManager, it's taken
+     * through it, so that it's taken in the partitions order like the operations locks
+     * 
+     * @throws LdapException If the lock can't be taken without risking a deadlock
+     */
+    private void lockWrite() throws LdapException
+    {
+        if ( operationManager != null )
+        {
+            operationManager.lockWrite( this );
+        }
+        else
+        {
+            rwLock.writeLock().lock();
+        }
+    }
+
+
+    /**
+     * Release a Write lock
+     */
+    private void unlockWrite()
+    {
+        if ( operationManager != null )
+        {
+            operationManager.unlockWrite( this );
+        }
+        else
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tells if a transaction reads a snapshot of this partition
+     */
+    private boolean isSnapshot( PartitionTxn partitionTxn )
+    {
+        return ( partitionTxn instanceof SnapshotReadTxn )
+            && ( ( ( SnapshotReadTxn ) partitionTxn ).getEntryVersions() == entryVersions );
+    }
+
+
+    /**
+     * Gets the version of an entry a snapshot transaction has to see, if it has been
+     * modified since the transaction started.
+     * 
+     * @param partitionTxn The transaction in use
+     * @param id The entry ID
+     * @return The entry version, or null if the master table has to be read
+     */
+    private EntryVersions.Version getVersion( PartitionTxn partitionTxn, String id )
+    {
+        if ( isSnapshot( partitionTxn ) )
+        {
+            return ( ( SnapshotReadTxn ) partitionTxn ).getVersion( id );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Builds the entry returned to a snapshot transaction from a saved version
+     * 
+     * @param version The entry version
+     * @param withBlobs Tells if the values stored in the blob store are read
+     * @return A copy of the entry, or null if it did not exist
+     * @throws LdapException If the values stored in the blob store can't be read
+     */
+    private Entry fetchVersion( EntryVersions.Version version, boolean withBlobs ) throws LdapException
+    {
+        Entry entry = version.getEntry();
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        Entry saved = entry;
+        entry = new ClonedServerEntry( saved );
+
+        if ( withBlobs )
+        {
+            readBlobs( saved, entry, null );
+        }
+
+        if ( !entry.containsAttribute( entryDnAT ) )
+        {
+            entry.add( entryDnAT, entry.getDn().getName() );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Saves the current state of an entry before it gets modified, for the snapshot
+     * transactions which have been started before. Nothing is read if there are none.
+     * 
+     * @param partitionTxn The transaction in use
+     * @param id The entry ID
+     * @throws LdapException If the entry can't be read
+     */
+    private void saveVersion( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( entryVersions.isRead() && !entryVersions.contains( id ) )
+        {
+            saveVersion( partitionTxn, id, readEntry( partitionTxn, id ) );
+        }
+    }
+
+
+    /**
+     * Saves the current state of an entry before it gets modified, for the snapshot
+     * transactions which have been started before.
+     * 
+     * @param partitionTxn The transaction in use
+     * @param id The entry ID
+     * @param entry The entry, as stored in the master table
+     * @throws LdapException If the entry Dn can't be built
+     */
+    private void saveVersion( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        if ( ( entry == null ) || !entryVersions.isRead() || entryVersions.contains( id ) )
+        {
+            return;
+        }
+
+        Entry version = entry.clone();
+        version.setDn( buildEntryDn( partitionTxn, id ) );
+
+        // The blob store may be compacted before the version is read : its values are read now
+        readBlobs( version, version, null );
+        entryVersions.save( id, version );
+    }
+
+
+    /**
+     * Reads an entry from the master table, with all its values, including the ones
+     * stored out of line. The values stored in the blob store are not read : the entry
+     * keeps their {@link BlobAttribute}s, which are written back as they are.
+     * 
+     * @param partitionTxn The transaction in use
+     * @param id The entry ID
+     * @return The entry, or null if it does not exist
+     * @throws LdapException If the entry can't be read
+     */
+    private Entry readEntry( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        Entry entry = master.get( partitionTxn, id );
+
+        if ( entry != null )
+        {
+            outOfLineValues.load( partitionTxn, id, entry, null );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Reads back the values stored out of line of an entry read from the master table,
+     * including the ones stored in the blob store.
+     * 
+     * @param partitionTxn The transaction in use
+     * @param id The entry ID
+     * @param entry The entry read from the master table
+     * @throws LdapException If the values can't be read
+     */
+    protected void readOutOfLineValues( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        outOfLineValues.load( partitionTxn, id, entry, null );
+        readBlobs( entry, entry, null );
+    }
+
+
+    /**
+     * Writes an entry in the master table. The values of its large attributes are
+     * written in their own table.
+     * 
+     * @param partitionTxn The transaction in use
+     * @param id The entry ID
+     * @param entry The entry to write
+     * @return The entry written in the master table
+     * @throws LdapException If the entry can't be written
+     */
+    private Entry writeEntry( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        Entry stored = writeBlobs( outOfLineValues.store( partitionTxn, id, entry ) );
+        master.put( partitionTxn, id, stored );
+
+        if ( ( blobStore != null ) && ( blobStore.size() > blobCompactionSize ) )
+        {
+            scheduleBlobCompaction();
+        }
+
+        return stored;
+    }
+
+
+    /**
+     * Writes the large binary values of an entry in the blob store. Their attributes are
+     * replaced by {@link BlobAttribute}s containing the references of the stored values.
+     *
+     * @param entry The entry to write
+     * @return The entry to store in the master table. It's the given entry if it has no
+     * large binary value
+     * @throws LdapException If a value can't be stored
+     */
+    private Entry writeBlobs( Entry entry ) throws LdapException
+    {
+        if ( ( blobStore == null ) || ( blobThreshold <= 0 ) )
+        {
+            return entry;
+        }
+
+        Entry stored = entry;
+
+        for ( Attribute attribute : entry )
+        {
+            // The attributes read from the master table keep their references
+            if ( attribute.isHumanReadable() || ( attribute instanceof BlobAttribute ) || !hasBlob( attribute ) )
+            {
+                continue;
+            }
+
+            BlobAttribute blobAttribute = new BlobAttribute( attribute.getUpId(), attribute.getAttributeType() );
+
+            try
+            {
+                for ( Value value : attribute )
+                {
+                    byte[] bytes = value.getBytes();
+
+                    if ( bytes.length > blobThreshold )
+                    {
+                        blobAttribute.addReference( blobStore.put( bytes ) );
+                    }
+                    else
+                    {
+                        blobAttribute.add( value );
+                    }
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            // Don't modify the given entry, its attributes are shared with the copy
+            if ( stored == entry )
+            {
+                stored = entry.shallowClone();
+            }
+
+            stored.put( blobAttribute );
+        }
+
+        return stored;
+    }
+
+
+    /**
+     * Tells if an attribute has a value which has to be stored in the blob store
+     */
+    private boolean hasBlob( Attribute attribute )
+    {
+        for ( Value value : attribute )
+        {
+            if ( value.getBytes().length > blobThreshold )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resolveBlobs( Entry entry, AttributeType attributeType ) throws LdapException
+    {
+        readBlobs( entry, entry, attributeType );
+    }
+
+
+    /**
+     * Reads the values stored in the blob store of the attributes of an entry read from
+     * the master table. Only the attributes present in the target entry are read.
+     *
+     * @param entry The entry read from the master table
+     * @param target The entry in which the values are added, which can be the read entry
+     * @param attributeType The attribute type to read, with its descendants, or null to read
+     * all the attributes
+     * @throws LdapException If the values can't be read
+     */
+    private void readBlobs( Entry entry, Entry target, AttributeType attributeType ) throws LdapException
+    {
+        List<Attribute> resolved = null;
+
+        for ( Attribute attribute : entry )
+        {
+            if ( !( attribute instanceof BlobAttribute ) || !target.containsAttribute( attribute.getAttributeType() ) )
+            {
+                continue;
+            }
+
+            if ( ( attributeType != null ) && !attribute.getAttributeType().equals( attributeType )
+                && !attribute.getAttributeType().isDescendantOf( attributeType ) )
+            {
+                continue;
+            }
+
+            if ( resolved == null )
+            {
+                resolved = new ArrayList<>();
+            }
+
+            resolved.add( readBlobs( attribute ) );
+        }
+
+        if ( resolved != null )
+        {
+            for ( Attribute attribute : resolved )
+            {
+                target.put( attribute );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the values stored in the blob store of an attribute read from the master table
+     *
+     * @param attribute The {@link BlobAttribute}
+     * @return An attribute containing all the values
+     * @throws LdapException If the values can't be read
+     */
+    private Attribute readBlobs( Attribute attribute ) throws LdapException
+    {
+        if ( blobStore == null )
+        {
+            throw new LdapOtherException( "The " + getId() + " partition has no blob store to read the "
+                + attribute.getUpId() + " values from" );
+        }
+
+        Attribute values = new DefaultAttribute( attribute.getUpId(), attribute.getAttributeType() );
+
+        for ( Value value : attribute )
+        {
+            values.add( value );
+        }
+
+        try
+        {
+            for ( byte[] reference : ( ( BlobAttribute ) attribute ).getReferences() )
+            {
+                values.add( new Value( attribute.getAttributeType(), blobStore.get( reference ) ) );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        return values;
+    }
+
+
+    /**
+     * Completes an entry once it has been modified, when some values stored out of line
+     * have been added or removed without being read. They are taken from the entry read
+     * before the modification, to which the modifications are applied, and are only read
+     * from their table if this entry does not have them all.
+     *
+     * @param partitionTxn The transaction to use
+     * @param entry The modified entry
+     * @param original The entry read before the modification, or null
+     * @param mods The applied modifications
+     * @return The entry with all its values. It's the modified entry if all its values have
+     * been read
+     * @throws LdapException If the values can't be read
+     */
+    private Entry withOutOfLineValues( PartitionTxn partitionTxn, Entry entry, Entry original,
+        List<Modification> mods ) throws LdapException
+    {
+        Entry resolved = entry;
+
+        for ( Attribute attribute : entry )
+        {
+            if ( ( attribute.size() > 0 ) || ( attribute instanceof BlobAttribute ) )
+            {
+                continue;
+            }
+
+            AttributeType attributeType = attribute.getAttributeType();
+            String id = entry.get( entryUuidAT ).getString();
+            Attribute values = ( original != null ) ? original.get( attributeType ) : null;
+
+            if ( ( values != null ) && !( values instanceof BlobAttribute ) )
+            {
+                values = values.clone();
+
+                for ( Modification mod : mods )
+                {
+                    if ( !attributeType.equals( mod.getAttribute().getAttributeType() ) )
+                    {
+                        continue;
+                    }
+
+                    for ( Value value : mod.getAttribute() )
+                    {
+                        if ( mod.getOperation() == ModificationOperation.ADD_ATTRIBUTE )
+                        {
+                            values.add( value );
+                        }
+                        else
+                        {
+                            values.remove( value );
+                        }
+                    }
+                }
+
+                if ( values.size() != outOfLineValues.count( partitionTxn, id, attributeType ) )
+                {
+                    values = null;
+                }
+            }
+            else
+            {
+                values = null;
+            }
+
+            // Don't modify the given entry, it's the one which is written back
+            if ( resolved == entry )
             {
-                IndexEntry<?, String> entry = cursor.get();
+                resolved = entry.shallowClone();
+            }
 
-                System.out.println( entry );
+            if ( values == null )
+            {
+                resolved.put( new DefaultAttribute( attribute.getUpId(), attributeType ) );
+                outOfLineValues.load( partitionTxn, id, resolved, Collections.singleton( attributeType ) );
+            }
+            else
+            {
+                resolved.put( values );
             }
         }
-        catch ( Exception e )
-        {
-            // TODO : fixme
-        }
+
+        return resolved;
     }
 
 
     /**
-     * {@inheritDoc}
+     * Builds the entry given to the rest of the server once it has been modified. The
+     * values stored in the blob store are taken from the entry read before the
+     * modification, as the attributes which have been modified are not
+     * {@link BlobAttribute}s anymore. They are only read if this entry does not have them.
+     *
+     * @param entry The modified entry
+     * @param original The entry read before the modification, or null
+     * @return The entry with all its values. It's the modified entry if it has no value
+     * in the blob store
+     * @throws LdapException If the values can't be read
      */
-    @Override
-    public void dumpIndex( PartitionTxn partitionTxn, OutputStream stream, String name ) throws IOException
+    private Entry withBlobs( Entry entry, Entry original ) throws LdapException
     {
-        try
-        {
-            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( name );
+        Entry resolved = entry;
 
-            if ( attributeType == null )
+        for ( Attribute attribute : entry )
+        {
+            if ( !( attribute instanceof BlobAttribute ) )
             {
-                stream.write( Strings.getBytesUtf8( "Cannot find an index for AttributeType names " + name ) );
+                continue;
+            }
 
-                return;
+            Attribute values = ( original != null ) ? original.get( attribute.getAttributeType() ) : null;
+            int expected = attribute.size() + ( ( BlobAttribute ) attribute ).getReferences().size();
+
+            if ( ( values == null ) || ( values instanceof BlobAttribute ) || ( values.size() != expected ) )
+            {
+                values = readBlobs( attribute );
             }
 
-            if ( attributeType.getOid().equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+            // Don't modify the given entry, it's the one which is cached
+            if ( resolved == entry )
             {
-                dumpIndex( partitionTxn, stream, rdnIdx );
+                resolved = entry.shallowClone();
             }
+
+            resolved.put( values );
         }
-        catch ( LdapException le )
-        {
-            stream.write( Strings.getBytesUtf8( "Cannot find an index for AttributeType names " + name ) );
-        }
+
+        return resolved;
     }
 
 
     /**
-     * {@inheritDoc}
+     * Starts a compaction of the blob store in the background, unless one is running.
      */
-    @Override
-    public String toString()
+    private void scheduleBlobCompaction()
     {
-        return "Partition<" + id + ">";
-    }
-
+        if ( !blobCompactionRunning.compareAndSet( false, true ) )
+        {
+            return;
+        }
 
-    /**
-     * Create a new Index for a given OID
-     * 
-     * @param indexOid The Attribute OID
-     * @param path The working directory where this index will be stored
-     * @param withReverse If the Reverse index must be created or not
-     * @return The created index
-     * @throws LdapException If the index can't be created
-     */
-    protected abstract Index createSystemIndex( String indexOid, URI path, boolean withReverse ) throws LdapException;
+        try
+        {
+            blobExecutor.execute( this::compactBlobs );
+        }
+        catch ( RejectedExecutionException ree )
+        {
+            // The partition is being destroyed
+            blobCompactionRunning.set( false );
+        }
+    }
 
 
     /**
-     * {@inheritDoc}
+     * Removes the values which are not referenced anymore from the blob store. The master
+     * table is read in chunks to collect the references, so that the writes are not blocked
+     * for long. The values stored meanwhile are kept by the blob store.
      */
-    @Override
-    public MasterTable getMasterTable()
+    private void compactBlobs()
     {
-        return master;
-    }
+        BlobStore store = blobStore;
 
+        try
+        {
+            store.startCompaction();
 
-    /**
-     * Acquire a Read lock
-     */
-    private void lockRead()
-    {
-        rwLock.readLock().lock();
-    }
+            List<byte[]> references = new ArrayList<>();
+            String lastId = null;
+            boolean done = false;
 
+            while ( !done )
+            {
+                if ( !initialized )
+                {
+                    return;
+                }
 
-    /**
-     * Release a Read lock
-     */
-    private void unlockRead()
-    {
-        rwLock.readLock().unlock();
-    }
+                try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                {
+                    lockRead();
 
+                    try ( Cursor<Tuple<String, Entry>> cursor = master.cursor() )
+                    {
+                        if ( lastId == null )
+                        {
+                            cursor.beforeFirst();
+                        }
+                        else
+                        {
+                            cursor.after( new Tuple<String, Entry>( lastId, null ) );
+                        }
 
-    /**
-     * Acquire a Write lock
-     */
-    private void lockWrite()
-    {
-        rwLock.writeLock().lock();
-    }
+                        int count = 0;
+                        done = true;
 
+                        while ( cursor.next() )
+                        {
+                            Tuple<String, Entry> tuple = cursor.get();
+                            lastId = tuple.getKey();
+
+                            for ( Attribute attribute : tuple.getValue() )
+                            {
+                                if ( attribute instanceof BlobAttribute )
+                                {
+                                    references.addAll( ( ( BlobAttribute ) attribute ).getReferences() );
+                                }
+                            }
+
+                            if ( ++count == STATISTICS_CHUNK_SIZE )
+                            {
+                                done = false;
+                                break;
+                            }
+                        }
+                    }
+                    finally
+                    {
+                        unlockRead();
+                    }
+                }
+            }
 
-    /**
-     * Release a Write lock
-     */
-    private void unlockWrite()
-    {
-        rwLock.writeLock().unlock();
+            store.compact( references );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot compact the blob store of the {} partition : {}", suffixDn, e.getMessage() );
+        }
+        finally
+        {
+            blobCompactionSize = Math.max( 2L * store.size(), MIN_BLOB_COMPACTION_SIZE );
+            blobCompactionRunning.set( false );
+        }
     }
 
 
@@ -3726,7 +5077,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
 
     /**
-     * Set and return the ReadWrite lock we use to protect the backend against concurrent modifications
+     * Set and return the ReadWrite lock we use to protect the backend against concurrent modifications.
+     * This lock is shared with the OperationManager, and is specific to this partition
      * 
      * @param operationContext The OperationContext which contain the reference to the OperationManager
      */
@@ -3734,7 +5086,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            operationManager = operationContext.getSession().getDirectoryService().getOperationManager();
+            rwLock = operationManager.getRWLock( this );
         }
         else
         {
@@ -3765,6 +5118,218 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         return aliasCache;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SubtreeLabels getSubtreeLabels() throws LdapException
+    {
+        if ( !subtreeLabelsEnabled )
+        {
+            return null;
+        }
+
+        if ( !subtreeLabels.isBuilt() )
+        {
+            // The Rdn index must not be modified while the labels are built, and they
+            // must reflect its latest state, whatever the transaction of the caller
+            lockRead();
+
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                subtreeLabels.build( partitionTxn, rdnIdx );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+            finally
+            {
+                unlockRead();
+            }
+        }
+
+        return subtreeLabels;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StatisticsCatalog getStatistics( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( !statisticsEnabled )
+        {
+            return null;
+        }
+
+        ExecutorService executor = statisticsExecutor;
+
+        // The refresh needs the lock shared with the OperationManager
+        if ( ( executor != null ) && ( rwLock != null ) && statistics.startRefresh( master.count( partitionTxn ) ) )
+        {
+            try
+            {
+                executor.execute( this::refreshStatistics );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // The partition is being destroyed
+                statistics.endRefresh();
+            }
+        }
+
+        return statistics;
+    }
+
+
+    /**
+     * Gathers the statistics of the indexes used by the optimizer. Each index is read in
+     * chunks, so that the writes are not blocked for long.
+     */
+    private void refreshStatistics()
+    {
+        List<Index<?, String>> indexes = new ArrayList<>( userIndices.values() );
+        indexes.add( objectClassIdx );
+        indexes.add( entryCsnIdx );
+        indexes.add( presenceIdx );
+
+        try
+        {
+            for ( Index<?, String> index : indexes )
+            {
+                String oid = index.getAttribute().getOid();
+                Comparator<? super String> comparator = StatisticsCatalog.getComparator( schemaManager, oid );
+
+                if ( comparator == null )
+                {
+                    continue;
+                }
+
+                IndexStatistics.Builder builder = null;
+                boolean done = false;
+
+                while ( !done )
+                {
+                    if ( !initialized || Thread.currentThread().isInterrupted() )
+                    {
+                        return;
+                    }
+
+                    try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                    {
+                        lockRead();
+
+                        try
+                        {
+                            if ( builder == null )
+                            {
+                                builder = new IndexStatistics.Builder( index.count( partitionTxn ) );
+                            }
+
+                            done = builder.scan( partitionTxn, index, STATISTICS_CHUNK_SIZE );
+                        }
+                        finally
+                        {
+                            unlockRead();
+                        }
+                    }
+                }
+
+                statistics.put( oid, builder.build( comparator ) );
+            }
+
+            LOG.debug( "Refreshed the statistics of {} indexes for {}", statistics.size(), suffixDn );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot refresh the statistics of the {} partition : {}", suffixDn, e.getMessage() );
+        }
+        finally
+        {
+            statistics.endRefresh();
+        }
+    }
+
+
+    /**
+     * @return The file where the statistics are kept, or null if the partition has no directory
+     */
+    private File getStatisticsFile()
+    {
+        return getPartitionFile( STATISTICS_FILE );
+    }
+
+
+    /**
+     * @param name The file name
+     * @return A file of the partition directory, or null if the partition has no directory
+     */
+    private File getPartitionFile( String name )
+    {
+        if ( ( partitionPath == null ) || !"file".equals( partitionPath.getScheme() ) )
+        {
+            return null;
+        }
+
+        File directory = new File( partitionPath );
+
+        if ( !directory.isDirectory() )
+        {
+            return null;
+        }
+
+        return new File( directory, name );
+    }
+
+
+    /**
+     * Loads the statistics saved when the partition was stopped, if any.
+     */
+    private void loadStatistics()
+    {
+        File file = getStatisticsFile();
+
+        if ( ( file == null ) || !file.exists() )
+        {
+            return;
+        }
+
+        try
+        {
+            statistics.load( file, schemaManager );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot load the statistics from {} : {}", file, ioe.getMessage() );
+        }
+    }
+
+
+    /**
+     * Saves the statistics, so that they don't have to be gathered on the next start.
+     */
+    private void saveStatistics()
+    {
+        File file = getStatisticsFile();
+
+        if ( file == null )
+        {
+            return;
+        }
+
+        try
+        {
+            statistics.save( file );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot save the statistics in {} : {}", file, ioe.getMessage() );
+        }
+    }
     
     
     /**
@@ -3863,7 +5428,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             origEntry.add( contextCsnAT, contextCsn );
             
-            master.put( partitionTxn, contextEntryId, origEntry );
+            writeEntry( partitionTxn, contextEntryId, origEntry );
             
             ctxCsnChanged = false;
             
@@ -3887,17 +5452,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         try
         {
             // Check into the Rdn index, starting with the partition Suffix
+            lockRead();
+
             try
             {
-                rwLock.readLock().lock();
-                ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+                ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, id );
 
                 subordinates.setNbChildren( parentIdAndRdn.getNbChildren() );
-                subordinates.setNbSubordinates( parentIdAndRdn.getNbDescendants() );
+                subordinates.setNbSubordinates( getNbDescendants( partitionTxn, id, parentIdAndRdn ) );
             }
             finally
             {
-                rwLock.readLock().unlock();
+                unlockRead();
             }
         }
         catch ( Exception e )
@@ -0,0 +1,92 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * An attribute read from the master table, some of whose values are stored in the
+ * {@link org.apache.directory.server.xdbm.BlobStore} of the partition. The attribute only
+ * contains the values stored in the entry, the other ones are known by their reference, and
+ * are read when the attribute is returned. The {@link EntryCodec} writes the references
+ * back as they are, so an entry can be written without reading its blobs.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BlobAttribute extends DefaultAttribute
+{
+    /** The serial version UID */
+    private static final long serialVersionUID = 1L;
+
+    /** The references of the values stored in the blob store */
+    private final List<byte[]> references = new ArrayList<>();
+
+
+    /**
+     * Creates a new BlobAttribute instance.
+     *
+     * @param attributeType The attribute type
+     */
+    public BlobAttribute( AttributeType attributeType )
+    {
+        super( attributeType );
+    }
+
+
+    /**
+     * Creates a new BlobAttribute instance.
+     *
+     * @param upId The user provided ID
+     * @param attributeType The attribute type
+     */
+    public BlobAttribute( String upId, AttributeType attributeType )
+    {
+        super( upId, attributeType );
+    }
+
+
+    /**
+     * Adds the reference of a value stored in the blob store.
+     *
+     * @param reference The reference
+     */
+    public void addReference( byte[] reference )
+    {
+        references.add( reference );
+    }
+
+
+    /**
+     * @return The references of the values stored in the blob store
+     */
+    public List<byte[]> getReferences()
+    {
+        return Collections.unmodifiableList( references );
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+
+/**
+ * The entry cache of a partition. It has two tiers :
+ * <ul>
+ *   <li>an on-heap tier, holding the entries, which is either bounded by a number of entries,
+ *   or by the serialized size of the entries, in bytes</li>
+ *   <li>an optional off-heap tier, bounded by a size in bytes, holding the serialized entries
+ *   evicted from the on-heap tier. An entry found in this tier is deserialized and moved
+ *   back to the on-heap tier</li>
+ * </ul>
+ * The entries are serialized using the {@link EntryCodec}, so their Dn is not kept : the
+ * caller has to set it back on the returned entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntryCache.class );
+
+    /** The memory used by a cached entry, on top of its serialized form */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    /** The on-heap tier */
+    private final Cache<String, Entry> heapCache;
+
+    /** The off-heap tier, null if disabled */
+    private final Cache<String, ByteBuffer> offHeapCache;
+
+    /** The codec used to compute the size of the entries, and to serialize them off-heap */
+    private final EntryCodec codec;
+
+
+    /**
+     * Creates a new EntryCache instance
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param maxEntries The maximum number of entries in the on-heap tier, used if maxSize is negative
+     * @param maxSize The maximum size, in bytes, of the entries in the on-heap tier, or a negative value
+     * to bound it by a number of entries
+     * @param maxOffHeapSize The maximum size, in bytes, of the off-heap tier, 0 to disable it
+     */
+    public EntryCache( SchemaManager schemaManager, int maxEntries, long maxSize, long maxOffHeapSize )
+    {
+        codec = new EntryCodec( schemaManager );
+
+        if ( maxOffHeapSize > 0L )
+        {
+            offHeapCache = Caffeine.newBuilder()
+                .maximumWeight( maxOffHeapSize )
+                .weigher( ( String id, ByteBuffer buffer ) -> buffer.capacity() )
+                .executor( Runnable::run )
+                .recordStats()
+                .build();
+        }
+        else
+        {
+            offHeapCache = null;
+        }
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().executor( Runnable::run ).recordStats();
+
+        if ( maxSize >= 0L )
+        {
+            builder.maximumWeight( maxSize ).weigher( ( Object id, Object entry ) -> weigh( ( Entry ) entry ) );
+        }
+        else
+        {
+            builder.maximumSize( maxEntries );
+        }
+
+        if ( offHeapCache != null )
+        {
+            // The evicted entries are moved to the off-heap tier. This is done atomically
+            // with the eviction, so a newer version of the entry can't be overwritten
+            builder.writer( new CacheWriter<Object, Object>()
+            {
+                @Override
+                public void write( Object id, Object entry )
+                {
+                    // Nothing to do
+                }
+
+
+                @Override
+                public void delete( Object id, Object entry, RemovalCause cause )
+                {
+                    if ( cause == RemovalCause.SIZE )
+                    {
+                        moveOffHeap( ( String ) id, ( Entry ) entry );
+                    }
+                }
+            } );
+        }
+
+        heapCache = builder.build();
+    }
+
+
+    /**
+     * Computes the serialized size of an entry
+     */
+    private int weigh( Entry entry )
+    {
+        try
+        {
+            return codec.encode( entry ).length + ENTRY_OVERHEAD;
+        }
+        catch ( RuntimeException re )
+        {
+            LOG.debug( "Cannot compute the size of the entry {}", entry.getDn(), re );
+
+            return Integer.MAX_VALUE;
+        }
+    }
+
+
+    /**
+     * Stores an entry evicted from the on-heap tier in the off-heap tier
+     */
+    private void moveOffHeap( String id, Entry entry )
+    {
+        try
+        {
+            byte[] bytes = codec.encode( entry );
+            ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+            buffer.put( bytes );
+            offHeapCache.put( id, buffer );
+        }
+        catch ( RuntimeException | OutOfMemoryError e )
+        {
+            // Not a problem, the entry will be read from the master table
+            LOG.debug( "Cannot move the entry {} off-heap", id, e );
+        }
+    }
+
+
+    /**
+     * Looks for an entry in the cache. If found in the off-heap tier, it's moved back
+     * to the on-heap tier.
+     *
+     * @param id The entry ID
+     * @return The cached entry, or null
+     */
+    public Entry get( String id )
+    {
+        Entry entry = heapCache.getIfPresent( id );
+
+        if ( ( entry != null ) || ( offHeapCache == null ) )
+        {
+            return entry;
+        }
+
+        ByteBuffer buffer = offHeapCache.getIfPresent( id );
+
+        if ( buffer == null )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[buffer.capacity()];
+        ByteBuffer reader = buffer.duplicate();
+        reader.clear();
+        reader.get( bytes );
+
+        try
+        {
+            entry = codec.decode( bytes, 0, bytes.length );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot deserialize the off-heap entry {}", id, ioe );
+            offHeapCache.invalidate( id );
+
+            return null;
+        }
+
+        // Move it back on heap, unless a newer version has been added meanwhile
+        offHeapCache.invalidate( id );
+        Entry current = heapCache.asMap().putIfAbsent( id, entry );
+
+        return current != null ? current : entry;
+    }
+
+
+    /**
+     * Adds or replaces an entry in the cache
+     *
+     * @param id The entry ID
+     * @param entry The entry
+     */
+    public void put( String id, Entry entry )
+    {
+        if ( offHeapCache != null )
+        {
+            offHeapCache.invalidate( id );
+        }
+
+        heapCache.put( id, entry );
+    }
+
+
+    /**
+     * Removes an entry from the cache
+     *
+     * @param id The entry ID
+     */
+    public void invalidate( String id )
+    {
+        heapCache.invalidate( id );
+
+        if ( offHeapCache != null )
+        {
+            offHeapCache.invalidate( id );
+        }
+    }
+
+
+    /**
+     * Removes all the entries from the cache
+     */
+    public void invalidateAll()
+    {
+        heapCache.invalidateAll();
+
+        if ( offHeapCache != null )
+        {
+            offHeapCache.invalidateAll();
+        }
+    }
+
+
+    /**
+     * @return The number of entries in the on-heap tier
+     */
+    public long getNbEntries()
+    {
+        return heapCache.estimatedSize();
+    }
+
+
+    /**
+     * @return The number of entries in the off-heap tier
+     */
+    public long getNbOffHeapEntries()
+    {
+        return offHeapCache != null ? offHeapCache.estimatedSize() : 0L;
+    }
+
+
+    /**
+     * @return The size of the on-heap tier, in bytes, if it's bounded by size, otherwise its number of entries
+     */
+    public long getSize()
+    {
+        heapCache.cleanUp();
+
+        return heapCache.policy().eviction().map( eviction -> eviction.weightedSize().orElse( getNbEntries() ) )
+            .orElse( getNbEntries() );
+    }
+
+
+    /**
+     * @return The size of the off-heap tier, in bytes
+     */
+    public long getOffHeapSize()
+    {
+        if ( offHeapCache == null )
+        {
+            return 0L;
+        }
+
+        offHeapCache.cleanUp();
+
+        return offHeapCache.policy().eviction().map( eviction -> eviction.weightedSize().orElse( 0L ) ).orElse( 0L );
+    }
+
+
+    /**
+     * @return The statistics of the on-heap tier
+     */
+    public CacheStats getStats()
+    {
+        return heapCache.stats();
+    }
+
+
+    /**
+     * @return The statistics of the off-heap tier, or null if it's disabled
+     */
+    public CacheStats getOffHeapStats()
+    {
+        return offHeapCache != null ? offHeapCache.stats() : null;
+    }
+}
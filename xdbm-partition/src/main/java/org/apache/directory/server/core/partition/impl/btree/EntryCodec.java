@@ -0,0 +1,1077 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.BlockCompressor;
+import org.apache.directory.server.xdbm.ValueDictionary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The binary format used to store the entries in the master table. Like the previous
+ * format, the entry's Dn is not stored, only its Rdn.
+ * <p>
+ * The structure used to store the entry is the following :
+ * <ul>
+ *   <li><b>[version]</b> : the format version, {@link #VERSION_1}, {@link #VERSION_2} or
+ *   {@link #VERSION_3}</li>
+ *   <li><b>[format]</b> : {@link #COMPRESSED}, followed by the length of the uncompressed
+ *   data, the next fields being compressed using the {@link BlockCompressor}. Not in the
+ *   version 1</li>
+ *   <li><b>[Rdn]</b> : in the version 3, the length of the externalized Rdn followed by its
+ *   bytes, which contain its normalized form. Otherwise the Rdn user provided form. An
+ *   empty Dn is stored as a 0 length</li>
+ *   <li><b>[numberAttr]</b> : the number of attributes</li>
+ *   <li>For each Attribute :
+ *     <ul>
+ *       <li><b>[type]</b> : the ordinal of the attribute type in the {@link #KNOWN_OIDS} list plus 1,
+ *       or 0 followed by the attribute type OID</li>
+ *       <li><b>[flags]</b> : {@link #HUMAN_READABLE}, {@link #HAS_UP_ID}, {@link #HAS_REFERENCES}</li>
+ *       <li><b>[upId]</b> : the attribute user provided ID, if it's not the attribute type name</li>
+ *       <li><b>[numberValues]</b> : the number of values</li>
+ *       <li>For each value, its user provided form, as a length followed by the bytes. In the
+ *       versions 2 and 3, the length is shifted by one bit, and a value found in the
+ *       {@link ValueDictionary} of the partition is replaced by its number, shifted by one
+ *       bit, plus 1. In the version 3, a String value which is not in the dictionary is
+ *       followed by its normalized form : {@link #SAME_NORMALIZED}, {@link #NOT_NORMALIZED},
+ *       or the length of its bytes plus 2 followed by the bytes</li>
+ *       <li><b>[numberReferences]</b> : the number of values stored in the blob store of the
+ *       partition, followed by their references, if the attribute is a {@link BlobAttribute}</li>
+ *     </ul>
+ *   </li>
+ * </ul>
+ * All the numbers and lengths are stored as variable length integers, 7 bits per byte, and
+ * the strings as their UTF-8 bytes. Only the version 3 is written : storing the normalized
+ * forms, the entries are read without parsing their Rdn nor normalizing their values again.
+ * The versions 1 and 2 and the entries written with an <code>ObjectOutputStream</code> by the
+ * previous versions of the server are still read, they are converted when they are written
+ * back.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryCodec
+{
+    /** the logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntryCodec.class );
+
+    /** The current format version */
+    public static final byte VERSION_1 = 0x01;
+
+    /** The format version of the entries using a dictionary or compressed */
+    public static final byte VERSION_2 = 0x02;
+
+    /** The format version storing the normalized forms of the Rdn and of the values */
+    public static final byte VERSION_3 = 0x03;
+
+    /** The entry is compressed */
+    private static final int COMPRESSED = 0x01;
+
+    /** The first byte of the entries serialized with an ObjectOutputStream */
+    private static final byte LEGACY_MAGIC = ( byte ) 0xAC;
+
+    /** The attribute values are Strings */
+    private static final int HUMAN_READABLE = 0x01;
+
+    /** The attribute user provided ID is stored */
+    private static final int HAS_UP_ID = 0x02;
+
+    /** Some of the attribute values are stored in the blob store */
+    private static final int HAS_REFERENCES = 0x04;
+
+    /** The normalized form of a value is its user provided form */
+    private static final int SAME_NORMALIZED = 0;
+
+    /** The normalized form of a value is not stored, it's computed when the value is read */
+    private static final int NOT_NORMALIZED = 1;
+
+    /**
+     * The attribute types stored as an ordinal rather than as an OID. This list can only
+     * be appended to, as the ordinals are stored in the existing databases.
+     */
+    private static final String[] KNOWN_OIDS =
+        {
+            // objectClass
+            "2.5.4.0",
+            // entryUUID
+            "1.3.6.1.1.16.4",
+            // entryCSN
+            "1.3.6.1.4.1.4203.666.1.7",
+            // creatorsName
+            "2.5.18.3",
+            // createTimestamp
+            "2.5.18.1",
+            // modifiersName
+            "2.5.18.4",
+            // modifyTimestamp
+            "2.5.18.2",
+            // cn
+            "2.5.4.3",
+            // sn
+            "2.5.4.4",
+            // givenName
+            "2.5.4.42",
+            // uid
+            "0.9.2342.19200300.100.1.1",
+            // mail
+            "0.9.2342.19200300.100.1.3",
+            // ou
+            "2.5.4.11",
+            // o
+            "2.5.4.10",
+            // dc
+            "0.9.2342.19200300.100.1.25",
+            // userPassword
+            "2.5.4.35",
+            // description
+            "2.5.4.13",
+            // telephoneNumber
+            "2.5.4.20",
+            // member
+            "2.5.4.31",
+            // uniqueMember
+            "2.5.4.50",
+            // displayName
+            "2.16.840.1.113730.3.1.241"
+        };
+
+    /** The ordinals of the known attribute types */
+    private static final Map<String, Integer> KNOWN_ORDINALS = new HashMap<>();
+
+    static
+    {
+        for ( int i = 0; i < KNOWN_OIDS.length; i++ )
+        {
+            KNOWN_ORDINALS.put( KNOWN_OIDS[i], i );
+        }
+    }
+
+    /** The attribute types which values are never repeated, so never added to the dictionary */
+    private static final String[] UNIQUE_OIDS =
+        {
+            // entryUUID
+            "1.3.6.1.1.16.4",
+            // entryCSN
+            "1.3.6.1.4.1.4203.666.1.7"
+        };
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+    /** The dictionary of the repeated values, or null */
+    private final ValueDictionary dictionary;
+
+    /** The minimum size of the compressed entries, 0 to disable the compression */
+    private final int compressionThreshold;
+
+    /** The size of the encoded entries, without the dictionary and the compression */
+    private final AtomicLong rawSize = new AtomicLong();
+
+    /** The size of the encoded entries */
+    private final AtomicLong encodedSize = new AtomicLong();
+
+    /** The String values of the dictionary, per attribute type OID and number, shared by the decoded entries */
+    private final Map<String, Map<Integer, Value>> dictionaryValues = new ConcurrentHashMap<>();
+
+
+    /**
+     * Creates a new instance of EntryCodec.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public EntryCodec( SchemaManager schemaManager )
+    {
+        this( schemaManager, null, 0 );
+    }
+
+
+    /**
+     * Creates a new instance of EntryCodec, writing the version 2 of the format if a
+     * dictionary or a compression threshold is given.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     * @param dictionary The dictionary of the repeated values, or null
+     * @param compressionThreshold The minimum size of the compressed entries, in bytes,
+     * 0 to disable the compression
+     */
+    public EntryCodec( SchemaManager schemaManager, ValueDictionary dictionary, int compressionThreshold )
+    {
+        this.schemaManager = schemaManager;
+        this.dictionary = dictionary;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+
+    /**
+     * Serializes an entry. The values are not counted as dictionary candidates and the
+     * compression statistics are not updated, as the same entry may be serialized many
+     * times, each time the page containing it is written : this is done once per written
+     * entry by {@link #countWrite(Entry)}.
+     *
+     * @param entry The entry to serialize
+     * @return The serialized entry
+     */
+    public byte[] encode( Entry entry )
+    {
+        return encode( entry, false );
+    }
+
+
+    /**
+     * Records an entry being written in the master table : its repeated values are
+     * counted, and added to the dictionary when they are frequent enough, and the
+     * compression statistics are updated.
+     *
+     * @param entry The written entry
+     */
+    public void countWrite( Entry entry )
+    {
+        if ( ( dictionary != null ) || ( compressionThreshold > 0 ) )
+        {
+            encode( entry, true );
+        }
+    }
+
+
+    /**
+     * Serializes an entry, counting it if it's written
+     */
+    private byte[] encode( Entry entry, boolean written )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 256 );
+        int saved = writeBody( out, entry, written );
+        byte[] body = out.toByteArray();
+        byte[] compressed = null;
+
+        if ( ( compressionThreshold > 0 ) && ( body.length >= compressionThreshold ) )
+        {
+            compressed = BlockCompressor.compress( body, 0, body.length );
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream( body.length + 8 );
+        result.write( VERSION_3 );
+
+        if ( compressed != null )
+        {
+            result.write( COMPRESSED );
+            writeVarInt( result, body.length );
+            result.write( compressed, 0, compressed.length );
+        }
+        else
+        {
+            result.write( 0 );
+            result.write( body, 0, body.length );
+        }
+
+        byte[] bytes = result.toByteArray();
+
+        if ( written )
+        {
+            rawSize.addAndGet( 1L + body.length + saved );
+            encodedSize.addAndGet( bytes.length );
+        }
+
+        return bytes;
+    }
+
+
+    /**
+     * Writes the Rdn and the attributes of an entry.
+     *
+     * @return The number of bytes saved using the dictionary
+     */
+    private int writeBody( ByteArrayOutputStream out, Entry entry, boolean written )
+    {
+        int saved = 0;
+
+        // The Rdn of the Dn
+        Dn dn = entry.getDn();
+
+        if ( ( dn == null ) || dn.isEmpty() )
+        {
+            writeVarInt( out, 0 );
+        }
+        else
+        {
+            writeRdn( out, dn.getRdn() );
+        }
+
+        // Then the attributes.
+        writeVarInt( out, entry.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+            Integer ordinal = KNOWN_ORDINALS.get( attributeType.getOid() );
+
+            if ( ordinal == null )
+            {
+                writeVarInt( out, 0 );
+                writeString( out, attributeType.getOid() );
+            }
+            else
+            {
+                writeVarInt( out, ordinal + 1 );
+            }
+
+            int flags = 0;
+            String upId = attribute.getUpId();
+
+            if ( attribute.isHumanReadable() )
+            {
+                flags |= HUMAN_READABLE;
+            }
+
+            if ( ( upId != null ) && !upId.equals( attributeType.getName() ) )
+            {
+                flags |= HAS_UP_ID;
+            }
+
+            List<byte[]> references = null;
+
+            if ( attribute instanceof BlobAttribute )
+            {
+                references = ( ( BlobAttribute ) attribute ).getReferences();
+
+                if ( !references.isEmpty() )
+                {
+                    flags |= HAS_REFERENCES;
+                }
+            }
+
+            out.write( flags );
+
+            if ( ( flags & HAS_UP_ID ) != 0 )
+            {
+                writeString( out, upId );
+            }
+
+            writeVarInt( out, attribute.size() );
+            boolean useDictionary = ( dictionary != null ) && isRepeated( attributeType );
+
+            for ( Value value : attribute )
+            {
+                byte[] bytes;
+
+                if ( ( flags & HUMAN_READABLE ) != 0 )
+                {
+                    bytes = value.getString().getBytes( StandardCharsets.UTF_8 );
+                }
+                else
+                {
+                    bytes = value.getBytes();
+                }
+
+                int number = useDictionary ? lookup( bytes, written ) : -1;
+
+                if ( number >= 0 )
+                {
+                    writeVarInt( out, ( number << 1 ) | 1 );
+                    saved += bytes.length;
+
+                    continue;
+                }
+
+                writeVarInt( out, bytes.length << 1 );
+                out.write( bytes, 0, bytes.length );
+
+                if ( ( flags & HUMAN_READABLE ) != 0 )
+                {
+                    writeNormalized( out, value );
+                }
+            }
+
+            if ( ( flags & HAS_REFERENCES ) != 0 )
+            {
+                writeVarInt( out, references.size() );
+
+                for ( byte[] reference : references )
+                {
+                    writeVarInt( out, reference.length );
+                    out.write( reference, 0, reference.length );
+                }
+            }
+        }
+
+        return saved;
+    }
+
+
+    /**
+     * Writes the externalized form of a Rdn, preceded by its length. A Rdn which is not
+     * schema aware is normalized first, if it can be.
+     */
+    private void writeRdn( ByteArrayOutputStream out, Rdn rdn )
+    {
+        if ( !rdn.isSchemaAware() )
+        {
+            try
+            {
+                rdn = new Rdn( schemaManager, rdn.getName() );
+            }
+            catch ( LdapException le )
+            {
+                // Stored as it is
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 );
+
+        try ( DataObjectOutput rdnOut = new DataObjectOutput( bytes ) )
+        {
+            rdn.writeExternal( rdnOut );
+        }
+        catch ( IOException ioe )
+        {
+            // Can't happen, the Rdn is written in memory
+            throw new UncheckedIOException( ioe );
+        }
+
+        writeVarInt( out, bytes.size() );
+        out.write( bytes.toByteArray(), 0, bytes.size() );
+    }
+
+
+    /**
+     * Writes the normalized form of a String value
+     */
+    private static void writeNormalized( ByteArrayOutputStream out, Value value )
+    {
+        String normalized = value.getNormalized();
+
+        if ( normalized == null )
+        {
+            writeVarInt( out, NOT_NORMALIZED );
+        }
+        else if ( normalized.equals( value.getString() ) )
+        {
+            writeVarInt( out, SAME_NORMALIZED );
+        }
+        else
+        {
+            byte[] bytes = normalized.getBytes( StandardCharsets.UTF_8 );
+            writeVarInt( out, bytes.length + 2 );
+            out.write( bytes, 0, bytes.length );
+        }
+    }
+
+
+    /**
+     * Tells if the values of an attribute type may be repeated in many entries
+     */
+    private static boolean isRepeated( AttributeType attributeType )
+    {
+        for ( String oid : UNIQUE_OIDS )
+        {
+            if ( oid.equals( attributeType.getOid() ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Looks for a value in the dictionary, counting it if it's written. If the dictionary
+     * can't be updated, the value is written in the entry.
+     */
+    private int lookup( byte[] value, boolean written )
+    {
+        if ( !written )
+        {
+            return dictionary.find( value );
+        }
+
+        try
+        {
+            return dictionary.lookup( value );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot add a value to the dictionary : {}", ioe.getMessage() );
+
+            return -1;
+        }
+    }
+
+
+    /**
+     * Deserializes an entry, whatever the format it has been written with.
+     *
+     * @param buffer The buffer containing the serialized entry
+     * @param pos The position of the entry in the buffer
+     * @param len The length of the serialized entry
+     * @return The deserialized entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    public Entry decode( byte[] buffer, int pos, int len ) throws IOException
+    {
+        if ( len == 0 )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, "empty buffer" ) );
+        }
+
+        if ( isLegacy( buffer, pos ) )
+        {
+            return decodeLegacy( buffer, pos, len );
+        }
+
+        int end = pos + len;
+
+        byte version = buffer[pos];
+
+        if ( version == VERSION_1 )
+        {
+            return decodeBody( buffer, new int[]
+                { pos + 1 }, end, version );
+        }
+
+        if ( ( version != VERSION_2 ) && ( version != VERSION_3 ) )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, "unknown entry format " + version ) );
+        }
+
+        int[] cursor = new int[]
+            { pos + 1 };
+        checkRemaining( cursor, end, 1 );
+        int format = buffer[cursor[0]++];
+
+        if ( ( format & COMPRESSED ) != 0 )
+        {
+            int length = readVarInt( buffer, cursor, end );
+            byte[] body = BlockCompressor.decompress( buffer, cursor[0], end - cursor[0], length );
+
+            return decodeBody( body, new int[]
+                { 0 }, body.length, version );
+        }
+
+        return decodeBody( buffer, cursor, end, version );
+    }
+
+
+    /**
+     * Reads the Rdn and the attributes of an entry.
+     */
+    private Entry decodeBody( byte[] buffer, int[] cursor, int end, byte version ) throws IOException
+    {
+        try
+        {
+            Entry entry = new DefaultEntry( schemaManager );
+
+            // Read the Rdn, if any
+            if ( version == VERSION_3 )
+            {
+                entry.setDn( readDn( buffer, cursor, end ) );
+            }
+            else
+            {
+                String rdn = readString( buffer, cursor, end );
+
+                if ( rdn.isEmpty() )
+                {
+                    entry.setDn( Dn.EMPTY_DN );
+                }
+                else
+                {
+                    entry.setDn( new Dn( schemaManager, new Rdn( schemaManager, rdn ) ) );
+                }
+            }
+
+            // Read the attributes
+            int nbAttributes = readVarInt( buffer, cursor, end );
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                int ordinal = readVarInt( buffer, cursor, end );
+                String oid;
+
+                if ( ordinal == 0 )
+                {
+                    oid = readString( buffer, cursor, end );
+                }
+                else if ( ordinal <= KNOWN_OIDS.length )
+                {
+                    oid = KNOWN_OIDS[ordinal - 1];
+                }
+                else
+                {
+                    throw new IOException( I18n.err( I18n.ERR_134, "unknown attribute type ordinal " + ordinal ) );
+                }
+
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+
+                checkRemaining( cursor, end, 1 );
+                int flags = buffer[cursor[0]++];
+
+                Attribute attribute;
+                String upId = null;
+
+                if ( ( flags & HAS_UP_ID ) != 0 )
+                {
+                    upId = readString( buffer, cursor, end );
+                }
+
+                if ( ( flags & HAS_REFERENCES ) != 0 )
+                {
+                    attribute = ( upId != null ) ? new BlobAttribute( upId, attributeType )
+                        : new BlobAttribute( attributeType );
+                }
+                else if ( upId != null )
+                {
+                    attribute = new DefaultAttribute( upId, attributeType );
+                }
+                else
+                {
+                    attribute = new DefaultAttribute( attributeType );
+                }
+
+                int nbValues = readVarInt( buffer, cursor, end );
+
+                for ( int j = 0; j < nbValues; j++ )
+                {
+                    if ( ( flags & HUMAN_READABLE ) != 0 )
+                    {
+                        attribute.add( readStringValue( buffer, cursor, end, attributeType, version ) );
+                    }
+                    else
+                    {
+                        byte[] value = ( version != VERSION_1 ) ? readBytesValue( buffer, cursor, end )
+                            : readBytes( buffer, cursor, end );
+                        attribute.add( new Value( attributeType, value ) );
+                    }
+                }
+
+                if ( ( flags & HAS_REFERENCES ) != 0 )
+                {
+                    int nbReferences = readVarInt( buffer, cursor, end );
+
+                    for ( int j = 0; j < nbReferences; j++ )
+                    {
+                        ( ( BlobAttribute ) attribute ).addReference( readBytes( buffer, cursor, end ) );
+                    }
+                }
+
+                entry.add( attribute );
+            }
+
+            return entry;
+        }
+        catch ( LdapException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, le.getLocalizedMessage() ) );
+            throw new IOException( le.getLocalizedMessage(), le );
+        }
+    }
+
+
+    /**
+     * Tells if an entry has been serialized by the previous versions of the server, with an
+     * <code>ObjectOutputStream</code>.
+     *
+     * @param buffer The buffer containing the serialized entry
+     * @param pos The position of the entry in the buffer
+     * @return <code>true</code> if the entry has to be converted
+     */
+    public static boolean isLegacy( byte[] buffer, int pos )
+    {
+        return buffer[pos] == LEGACY_MAGIC;
+    }
+
+
+    /**
+     * Reads an entry written with an ObjectOutputStream.
+     */
+    private Entry decodeLegacy( byte[] buffer, int pos, int len ) throws IOException
+    {
+        ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer, pos, len ) );
+
+        try
+        {
+            Entry entry = new DefaultEntry( schemaManager );
+
+            // Read the Dn, if any
+            byte hasDn = in.readByte();
+
+            if ( hasDn == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                entry.setDn( new Dn( schemaManager, rdn ) );
+            }
+            else
+            {
+                entry.setDn( Dn.EMPTY_DN );
+            }
+
+            // Read the number of attributes
+            int nbAttributes = in.readInt();
+
+            // Read the attributes
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                // Read the attribute's OID
+                String oid = in.readUTF();
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+
+                // Create the attribute we will read
+                Attribute attribute = new DefaultAttribute( attributeType );
+
+                // Read the attribute
+                attribute.readExternal( in );
+
+                entry.add( attribute );
+            }
+
+            return entry;
+        }
+        catch ( LdapException | ClassNotFoundException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, e.getLocalizedMessage() ) );
+            throw new IOException( e.getLocalizedMessage(), e );
+        }
+    }
+
+
+    /**
+     * Writes a positive int, 7 bits per byte, the lowest bits first
+     */
+    private static void writeVarInt( ByteArrayOutputStream out, int value )
+    {
+        while ( ( value & ~0x7F ) != 0 )
+        {
+            out.write( ( value & 0x7F ) | 0x80 );
+            value >>>= 7;
+        }
+
+        out.write( value );
+    }
+
+
+    /**
+     * Writes the length of a String UTF-8 bytes, followed by the bytes
+     */
+    private static void writeString( ByteArrayOutputStream out, String value )
+    {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        writeVarInt( out, bytes.length );
+        out.write( bytes, 0, bytes.length );
+    }
+
+
+    /**
+     * Reads a positive int written by {@link #writeVarInt(ByteArrayOutputStream, int)}
+     */
+    private static int readVarInt( byte[] buffer, int[] cursor, int end ) throws IOException
+    {
+        int value = 0;
+
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            checkRemaining( cursor, end, 1 );
+            byte b = buffer[cursor[0]++];
+            value |= ( b & 0x7F ) << shift;
+
+            if ( ( b & 0x80 ) == 0 )
+            {
+                if ( value < 0 )
+                {
+                    break;
+                }
+
+                return value;
+            }
+        }
+
+        throw new IOException( I18n.err( I18n.ERR_134, "invalid length" ) );
+    }
+
+
+    /**
+     * Reads a length prefixed array of bytes
+     */
+    private static byte[] readBytes( byte[] buffer, int[] cursor, int end ) throws IOException
+    {
+        int length = readVarInt( buffer, cursor, end );
+        checkRemaining( cursor, end, length );
+        byte[] bytes = new byte[length];
+        System.arraycopy( buffer, cursor[0], bytes, 0, length );
+        cursor[0] += length;
+
+        return bytes;
+    }
+
+
+    /**
+     * Reads a length prefixed UTF-8 String
+     */
+    private static String readString( byte[] buffer, int[] cursor, int end ) throws IOException
+    {
+        int length = readVarInt( buffer, cursor, end );
+        checkRemaining( cursor, end, length );
+        String value = new String( buffer, cursor[0], length, StandardCharsets.UTF_8 );
+        cursor[0] += length;
+
+        return value;
+    }
+
+
+    /**
+     * Reads the Dn of the version 3, containing the externalized Rdn
+     */
+    private Dn readDn( byte[] buffer, int[] cursor, int end ) throws IOException, LdapException
+    {
+        int length = readVarInt( buffer, cursor, end );
+
+        if ( length == 0 )
+        {
+            return Dn.EMPTY_DN;
+        }
+
+        checkRemaining( cursor, end, length );
+        Rdn rdn = new Rdn( schemaManager );
+
+        try ( DataObjectInput in = new DataObjectInput( buffer, cursor[0], length ) )
+        {
+            rdn.readExternal( in );
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getLocalizedMessage(), cnfe );
+        }
+
+        cursor[0] += length;
+
+        return new Dn( schemaManager, rdn );
+    }
+
+
+    /**
+     * Reads a String value. From the version 2, it may be in the dictionary, and from the
+     * version 3, it's followed by its normalized form, so it's not normalized again.
+     */
+    private Value readStringValue( byte[] buffer, int[] cursor, int end, AttributeType attributeType, byte version )
+        throws IOException, LdapException
+    {
+        if ( version == VERSION_1 )
+        {
+            return new Value( attributeType, readString( buffer, cursor, end ) );
+        }
+
+        int header = readVarInt( buffer, cursor, end );
+
+        if ( ( header & 1 ) != 0 )
+        {
+            return getDictionaryValue( attributeType, header >>> 1 );
+        }
+
+        int length = header >>> 1;
+        checkRemaining( cursor, end, length );
+        String value = new String( buffer, cursor[0], length, StandardCharsets.UTF_8 );
+        cursor[0] += length;
+
+        if ( version == VERSION_2 )
+        {
+            return new Value( attributeType, value );
+        }
+
+        int normalized = readVarInt( buffer, cursor, end );
+
+        switch ( normalized )
+        {
+            case SAME_NORMALIZED:
+                return new Value( attributeType, value, value );
+
+            case NOT_NORMALIZED:
+                return new Value( attributeType, value );
+
+            default:
+                length = normalized - 2;
+                checkRemaining( cursor, end, length );
+                String normValue = new String( buffer, cursor[0], length, StandardCharsets.UTF_8 );
+                cursor[0] += length;
+
+                return new Value( attributeType, value, normValue );
+        }
+    }
+
+
+    /**
+     * Reads a binary value of the versions 2 and 3, which may be in the dictionary
+     */
+    private byte[] readBytesValue( byte[] buffer, int[] cursor, int end ) throws IOException
+    {
+        int header = readVarInt( buffer, cursor, end );
+
+        if ( ( header & 1 ) != 0 )
+        {
+            byte[] value = getDictionaryValue( header >>> 1 );
+
+            // The dictionary values are shared
+            return Arrays.copyOf( value, value.length );
+        }
+
+        int length = header >>> 1;
+        checkRemaining( cursor, end, length );
+        byte[] value = new byte[length];
+        System.arraycopy( buffer, cursor[0], value, 0, length );
+        cursor[0] += length;
+
+        return value;
+    }
+
+
+    /**
+     * Reads a value from the dictionary
+     */
+    private byte[] getDictionaryValue( int number ) throws IOException
+    {
+        if ( dictionary == null )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, "the entry uses a value dictionary" ) );
+        }
+
+        return dictionary.get( number );
+    }
+
+
+    /**
+     * Gets a String value from the dictionary. The values being immutable, each of them is
+     * only created and normalized once, and then shared by the decoded entries.
+     */
+    private Value getDictionaryValue( AttributeType attributeType, int number ) throws IOException, LdapException
+    {
+        Map<Integer, Value> values = dictionaryValues.computeIfAbsent( attributeType.getOid(),
+            oid -> new ConcurrentHashMap<>() );
+        Value value = values.get( number );
+
+        if ( value == null )
+        {
+            value = new Value( attributeType, new String( getDictionaryValue( number ), StandardCharsets.UTF_8 ) );
+            values.put( number, value );
+        }
+
+        return value;
+    }
+
+
+    /**
+     * @return The size of the entries written with this codec divided by their size without the
+     * dictionary and the compression, 1 if no entry has been written with a dictionary or compressed
+     */
+    public double getCompressionRatio()
+    {
+        long raw = rawSize.get();
+
+        return ( raw == 0L ) ? 1d : ( double ) encodedSize.get() / raw;
+    }
+
+
+    /**
+     * @return The dictionary of the repeated values, or null
+     */
+    public ValueDictionary getDictionary()
+    {
+        return dictionary;
+    }
+
+
+    /**
+     * Writes the externalized objects without the <code>ObjectOutputStream</code> headers.
+     * Only the primitive types can be written.
+     */
+    private static final class DataObjectOutput extends DataOutputStream implements ObjectOutput
+    {
+        private DataObjectOutput( ByteArrayOutputStream out )
+        {
+            super( out );
+        }
+
+
+        @Override
+        public void writeObject( Object object ) throws IOException
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, "objects can't be written" ) );
+        }
+    }
+
+
+    /**
+     * Reads the externalized objects written by a {@link DataObjectOutput}.
+     */
+    private static final class DataObjectInput extends DataInputStream implements ObjectInput
+    {
+        private DataObjectInput( byte[] buffer, int pos, int len )
+        {
+            super( new ByteArrayInputStream( buffer, pos, len ) );
+        }
+
+
+        @Override
+        public Object readObject() throws IOException
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, "objects can't be read" ) );
+        }
+    }
+
+
+    /**
+     * Checks that the buffer contains enough bytes
+     */
+    private static void checkRemaining( int[] cursor, int end, int length ) throws IOException
+    {
+        if ( end - cursor[0] < length )
+        {
+            throw new IOException( I18n.err( I18n.ERR_134, "truncated entry" ) );
+        }
+    }
+}
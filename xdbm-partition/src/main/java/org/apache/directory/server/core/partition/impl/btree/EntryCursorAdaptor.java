@@ -21,6 +21,9 @@ package org.apache.directory.server.core.partition.impl.btree;
 
 
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
@@ -30,6 +33,7 @@ import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -39,7 +43,10 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Adapts index cursors to return just Entry objects.
+ * Adapts index cursors to return just Entry objects. The cursor is read after the
+ * OperationManager has released the partition lock, so each step, and each entry read,
+ * takes the partition read lock again : a writer can't modify the underlying BTrees
+ * while the cursor is being moved, but the lock is never held between two steps.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -57,8 +64,35 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The partition the entries are read from */
+    private final AbstractBTreePartition db;
+
+    /** The attributeTypes to read in the entries, or null to read them all */
+    private final Set<AttributeType> fetchedAttributes;
+
+    /** Tells if the snapshot retained by this cursor has been released */
+    private boolean snapshotReleased;
+
+    /** The partition read lock, taken for each step */
+    private final Lock readLock;
+
 
     public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult )
+    {
+        this( partitionTxn, db, searchResult, null );
+    }
+
+
+    /**
+     * Creates a new EntryCursorAdaptor which only reads some of the entries attributes.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param db The partition the entries are read from
+     * @param searchResult The result of the search
+     * @param fetchedAttributes The attributeTypes to read in the entries, or null to read them all
+     */
+    public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult,
+        Set<AttributeType> fetchedAttributes )
     {
         if ( IS_DEBUG )
         {
@@ -68,6 +102,25 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
         this.partitionTxn = partitionTxn;
+        this.db = db;
+        this.fetchedAttributes = fetchedAttributes;
+
+        ReadWriteLock rwLock = db.getReadWriteLock();
+
+        if ( rwLock != null )
+        {
+            readLock = rwLock.readLock();
+        }
+        else
+        {
+            readLock = null;
+        }
+
+        // The cursor is read after the search operation is completed : keep the snapshot
+        if ( partitionTxn instanceof SnapshotReadTxn )
+        {
+            ( ( SnapshotReadTxn ) partitionTxn ).retain();
+        }
     }
 
 
@@ -85,7 +138,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void afterLast() throws LdapException, CursorException
     {
-        this.indexCursor.afterLast();
+        lockRead();
+
+        try
+        {
+            indexCursor.afterLast();
+        }
+        finally
+        {
+            unlockRead();
+        }
     }
 
 
@@ -112,7 +174,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void beforeFirst() throws LdapException, CursorException
     {
-        indexCursor.beforeFirst();
+        lockRead();
+
+        try
+        {
+            indexCursor.beforeFirst();
+        }
+        finally
+        {
+            unlockRead();
+        }
     }
 
 
@@ -137,7 +208,14 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Closing EntryCursorAdaptor {}", this );
         }
 
-        indexCursor.close();
+        try
+        {
+            indexCursor.close();
+        }
+        finally
+        {
+            releaseSnapshot();
+        }
     }
 
 
@@ -152,7 +230,27 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Closing EntryCursorAdaptor {}", this );
         }
 
-        indexCursor.close( cause );
+        try
+        {
+            indexCursor.close( cause );
+        }
+        finally
+        {
+            releaseSnapshot();
+        }
+    }
+
+
+    /**
+     * Releases the snapshot retained by this cursor, once
+     */
+    private void releaseSnapshot()
+    {
+        if ( ( partitionTxn instanceof SnapshotReadTxn ) && !snapshotReleased )
+        {
+            snapshotReleased = true;
+            ( ( SnapshotReadTxn ) partitionTxn ).release();
+        }
     }
 
 
@@ -161,7 +259,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean first() throws LdapException, CursorException
     {
-        return indexCursor.first();
+        lockRead();
+
+        try
+        {
+            return indexCursor.first();
+        }
+        finally
+        {
+            unlockRead();
+        }
     }
 
 
@@ -172,13 +279,28 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     {
         IndexEntry<String, String> indexEntry = indexCursor.get();
 
+        lockRead();
+
         try
         {
+            // Evaluate first : the candidates rejected using the indexes only are never read
             if ( evaluator.evaluate( partitionTxn, indexEntry ) )
             {
                 Entry entry = indexEntry.getEntry();
                 indexEntry.setEntry( null );
 
+                // The evaluators may have used the indexes only : read the returned entry now,
+                // copying only the needed attributes
+                if ( entry == null )
+                {
+                    entry = db.fetch( partitionTxn, indexEntry.getId(), fetchedAttributes );
+                }
+                else
+                {
+                    // The evaluators have only read the blobs of the filter attributes
+                    db.resolveBlobs( entry, null );
+                }
+
                 return entry;
             }
             else
@@ -192,6 +314,34 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         {
             throw new CursorException( e.getMessage(), e );
         }
+        finally
+        {
+            unlockRead();
+        }
+    }
+
+
+    /**
+     * Takes the partition read lock, if any
+     */
+    private void lockRead()
+    {
+        if ( readLock != null )
+        {
+            readLock.lock();
+        }
+    }
+
+
+    /**
+     * Releases the partition read lock, if any
+     */
+    private void unlockRead()
+    {
+        if ( readLock != null )
+        {
+            readLock.unlock();
+        }
     }
 
 
@@ -210,7 +360,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean last() throws LdapException, CursorException
     {
-        return indexCursor.last();
+        lockRead();
+
+        try
+        {
+            return indexCursor.last();
+        }
+        finally
+        {
+            unlockRead();
+        }
     }
 
 
@@ -219,7 +378,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean next() throws LdapException, CursorException
     {
-        return indexCursor.next();
+        lockRead();
+
+        try
+        {
+            return indexCursor.next();
+        }
+        finally
+        {
+            unlockRead();
+        }
     }
 
 
@@ -228,7 +396,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean previous() throws LdapException, CursorException
     {
-        return indexCursor.previous();
+        lockRead();
+
+        try
+        {
+            return indexCursor.previous();
+        }
+        finally
+        {
+            unlockRead();
+        }
     }
 
 
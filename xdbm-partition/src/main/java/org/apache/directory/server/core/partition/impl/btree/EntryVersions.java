@@ -0,0 +1,375 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+
+/**
+ * Keeps the older versions of the entries of a partition, so that a read transaction
+ * sees the entries as they were when it started, whatever the writes done since then.
+ * The indexes are not versioned : the entries are the only stable part of the partition.
+ * <p>
+ * Each committed write transaction creates a new revision of the partition. Before an
+ * entry is modified, deleted, moved or renamed, a copy of it is stored with the revision
+ * being written. An added entry is stored as a missing entry. A read transaction started
+ * on revision <em>r</em> finds the state of an entry in the first version stored after
+ * <em>r</em>. If there is none, the entry hasn't changed since <em>r</em>, and the
+ * master table can be read.
+ * <p>
+ * The versions are only needed by the read transactions started before the pending
+ * revision, so nothing is saved while no read transaction is opened. A read transaction
+ * started while a write which has not saved its entries is in progress may see the
+ * entries this write has already changed.
+ * <p>
+ * The versions are discarded as soon as no read transaction needs them anymore. As a read
+ * transaction which is never closed would retain all the versions created after it, their
+ * number is bounded : when the limit is reached, the oldest versions are dropped, and the
+ * transactions started before them read the latest state of the entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryVersions
+{
+    /** The default maximum number of versions we keep */
+    public static final int DEFAULT_MAX_VERSIONS = 10000;
+
+    /** The last committed revision */
+    private volatile long revision = 0L;
+
+    /** The revision before which some versions have been dropped */
+    private volatile long floor = 0L;
+
+    /** The revisions in use by the opened read transactions, and their number of users */
+    private final NavigableMap<Long, Integer> readers = new TreeMap<>();
+
+    /** The number of opened read transactions */
+    private volatile int nbReaders = 0;
+
+    /** The versions of each entry, ordered by revision */
+    private final Map<String, ConcurrentNavigableMap<Long, Version>> entries = new ConcurrentHashMap<>();
+
+    /** The IDs of the entries saved in each revision */
+    private final ConcurrentNavigableMap<Long, Set<String>> revisions = new ConcurrentSkipListMap<>();
+
+    /** The number of versions we currently keep */
+    private final AtomicInteger nbVersions = new AtomicInteger( 0 );
+
+    /** The maximum number of versions we keep */
+    private final int maxVersions;
+
+    /**
+     * The state of an entry at a given revision
+     */
+    public static final class Version
+    {
+        /** The entry, or null if it does not exist in this revision */
+        private final Entry entry;
+
+
+        private Version( Entry entry )
+        {
+            this.entry = entry;
+        }
+
+
+        /**
+         * @return The entry, or null if it does not exist in this revision
+         */
+        public Entry getEntry()
+        {
+            return entry;
+        }
+    }
+
+
+    /**
+     * Creates a new EntryVersions instance, keeping at most {@link #DEFAULT_MAX_VERSIONS} versions
+     */
+    public EntryVersions()
+    {
+        this( DEFAULT_MAX_VERSIONS );
+    }
+
+
+    /**
+     * Creates a new EntryVersions instance
+     *
+     * @param maxVersions The maximum number of versions to keep
+     */
+    public EntryVersions( int maxVersions )
+    {
+        this.maxVersions = maxVersions;
+    }
+
+
+    /**
+     * @return The last committed revision
+     */
+    public long getRevision()
+    {
+        return revision;
+    }
+
+
+    /**
+     * @return The number of versions currently stored
+     */
+    public int size()
+    {
+        return nbVersions.get();
+    }
+
+
+    /**
+     * Registers a reader on the last committed revision.
+     *
+     * @return The revision the reader will see
+     */
+    public synchronized long acquire()
+    {
+        long current = revision;
+        readers.merge( current, 1, Integer::sum );
+        nbReaders++;
+
+        return current;
+    }
+
+
+    /**
+     * Unregisters a reader, and drops the versions that are not needed anymore.
+     *
+     * @param readRevision The revision the reader was using
+     */
+    public synchronized void release( long readRevision )
+    {
+        Integer count = readers.get( readRevision );
+
+        if ( count == null )
+        {
+            return;
+        }
+
+        if ( count == 1 )
+        {
+            readers.remove( readRevision );
+        }
+        else
+        {
+            readers.put( readRevision, count - 1 );
+        }
+
+        nbReaders--;
+        purge();
+    }
+
+
+    /**
+     * Makes the pending revision visible to the readers which will start from now on,
+     * and drops the versions that are not needed anymore.
+     */
+    public synchronized void publish()
+    {
+        revision++;
+        purge();
+    }
+
+
+    /**
+     * Tells if the entries modified by the pending revision have to be saved, because
+     * some read transactions, all started before this revision, are opened.
+     *
+     * @return <tt>true</tt> if the entries have to be saved
+     */
+    public boolean isRead()
+    {
+        return nbReaders > 0;
+    }
+
+
+    /**
+     * Tells if the state of an entry has already been saved in the pending revision
+     *
+     * @param id The entry ID
+     * @return <tt>true</tt> if the entry has already been saved
+     */
+    public boolean contains( String id )
+    {
+        ConcurrentNavigableMap<Long, Version> versions = entries.get( id );
+
+        return ( versions != null ) && versions.containsKey( revision + 1 );
+    }
+
+
+    /**
+     * Saves the state of an entry before it gets modified by the pending revision. Only the
+     * first state saved for an entry in a revision is kept.
+     *
+     * @param id The entry ID
+     * @param entry The entry before the modification, or null if it is being added. It must
+     * not be modified afterward.
+     */
+    public void save( String id, Entry entry )
+    {
+        long pending = revision + 1;
+        boolean[] added = new boolean[1];
+
+        entries.compute( id, ( key, versions ) ->
+        {
+            if ( versions == null )
+            {
+                versions = new ConcurrentSkipListMap<>();
+            }
+
+            added[0] = versions.putIfAbsent( pending, new Version( entry ) ) == null;
+
+            return versions;
+        } );
+
+        if ( added[0] )
+        {
+            revisions.computeIfAbsent( pending, r -> ConcurrentHashMap.newKeySet() ).add( id );
+
+            if ( nbVersions.incrementAndGet() > maxVersions )
+            {
+                trim();
+            }
+        }
+    }
+
+
+    /**
+     * Gets the state of an entry, as seen by a reader
+     *
+     * @param id The entry ID
+     * @param readRevision The revision the reader is using
+     * @return The entry version, or null if the entry hasn't changed since this revision
+     */
+    public Version get( String id, long readRevision )
+    {
+        if ( entries.isEmpty() || ( readRevision < floor ) )
+        {
+            return null;
+        }
+
+        ConcurrentNavigableMap<Long, Version> versions = entries.get( id );
+
+        if ( versions == null )
+        {
+            return null;
+        }
+
+        Map.Entry<Long, Version> version = versions.higherEntry( readRevision );
+
+        if ( version == null )
+        {
+            return null;
+        }
+
+        return version.getValue();
+    }
+
+
+    /**
+     * Drops the versions which can't be read by any reader
+     */
+    private void purge()
+    {
+        long oldest = revision;
+
+        if ( !readers.isEmpty() )
+        {
+            oldest = Math.min( oldest, readers.firstKey() );
+        }
+
+        drop( oldest );
+    }
+
+
+    /**
+     * Drops the oldest versions when there are too many of them. The readers
+     * using a revision older than the dropped ones will read the latest entries.
+     */
+    private synchronized void trim()
+    {
+        while ( nbVersions.get() > maxVersions )
+        {
+            if ( revisions.isEmpty() )
+            {
+                return;
+            }
+
+            long oldest = revisions.firstKey();
+
+            // Never drop the revision being written
+            if ( oldest > revision )
+            {
+                return;
+            }
+
+            drop( oldest );
+            floor = oldest;
+        }
+    }
+
+
+    /**
+     * Drops all the versions saved up to a given revision
+     *
+     * @param lastRevision The last revision to drop
+     */
+    private void drop( long lastRevision )
+    {
+        Iterator<Map.Entry<Long, Set<String>>> iterator = revisions.headMap( lastRevision, true ).entrySet()
+            .iterator();
+
+        while ( iterator.hasNext() )
+        {
+            Map.Entry<Long, Set<String>> saved = iterator.next();
+            Long savedRevision = saved.getKey();
+
+            for ( String id : saved.getValue() )
+            {
+                entries.computeIfPresent( id, ( key, versions ) ->
+                {
+                    if ( versions.remove( savedRevision ) != null )
+                    {
+                        nbVersions.decrementAndGet();
+                    }
+
+                    return versions.isEmpty() ? null : versions;
+                } );
+            }
+
+            iterator.remove();
+        }
+    }
+}
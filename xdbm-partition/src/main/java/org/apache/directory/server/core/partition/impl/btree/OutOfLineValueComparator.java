@@ -0,0 +1,52 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+
+
+/**
+ * A serializable comparator for the values stored out of line. They are compared as
+ * plain Strings, so that the values sharing the same normalized form are grouped.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OutOfLineValueComparator extends SerializableComparator<String>
+{
+    public static final OutOfLineValueComparator INSTANCE = new OutOfLineValueComparator();
+
+    /** The serial version UID */
+    private static final long serialVersionUID = 1L;
+
+
+    public OutOfLineValueComparator()
+    {
+        super( SchemaConstants.CASE_EXACT_MATCH_MR_OID );
+    }
+
+
+    @Override
+    public int compare( String s1, String s2 )
+    {
+        return s1.compareTo( s2 );
+    }
+}
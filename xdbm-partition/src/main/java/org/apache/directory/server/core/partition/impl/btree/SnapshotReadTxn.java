@@ -0,0 +1,176 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+
+
+/**
+ * A read transaction which sees the entries as they were when it started. The
+ * revision it uses is kept until the transaction, and all the cursors which
+ * have retained it, are closed.
+ * <br>
+ * Only the entry contents are versioned, the indexes always reflect the latest
+ * state, so this is not a snapshot isolation : a search may return an entry which
+ * did not match the filter when the transaction started, or miss one. The backend
+ * BTrees are not versioned either : the entries are fetched without the partition
+ * read lock, as the version of an entry is checked once it has been read, but the
+ * cursors browsing the BTrees must still be protected by this lock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotReadTxn extends PartitionReadTxn
+{
+    /** The versions of the partition entries */
+    private final EntryVersions entryVersions;
+
+    /** The revision this transaction sees */
+    private final long revision;
+
+    /** The number of users of this transaction */
+    private final AtomicInteger users = new AtomicInteger( 1 );
+
+    /** Tells if the transaction has been closed */
+    private final AtomicBoolean closed = new AtomicBoolean( false );
+
+
+    /**
+     * Creates a new SnapshotReadTxn instance, on the last committed revision
+     *
+     * @param entryVersions The versions of the partition entries
+     */
+    public SnapshotReadTxn( EntryVersions entryVersions )
+    {
+        this.entryVersions = entryVersions;
+        revision = entryVersions.acquire();
+    }
+
+
+    /**
+     * @return The revision this transaction sees
+     */
+    public long getRevision()
+    {
+        return revision;
+    }
+
+
+    /**
+     * @return The versions of the partition entries
+     */
+    public EntryVersions getEntryVersions()
+    {
+        return entryVersions;
+    }
+
+
+    /**
+     * Gets the state of an entry in the revision this transaction sees
+     *
+     * @param id The entry ID
+     * @return The entry version, or null if the entry hasn't changed since this revision
+     */
+    public EntryVersions.Version getVersion( String id )
+    {
+        return entryVersions.get( id, revision );
+    }
+
+
+    /**
+     * Keeps the revision alive after the transaction is closed, until {@link #release()}
+     * is called. This is used by the cursors which are read after the operation has
+     * been completed.
+     */
+    public void retain()
+    {
+        users.incrementAndGet();
+    }
+
+
+    /**
+     * Releases the revision retained by a call to {@link #retain()}
+     */
+    public void release()
+    {
+        if ( users.decrementAndGet() == 0 )
+        {
+            entryVersions.release( revision );
+            released();
+        }
+    }
+
+
+    /**
+     * Called once the transaction and all the cursors which have retained it are
+     * closed. The backends holding resources for the transaction free them here.
+     */
+    protected void released()
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() throws IOException
+    {
+        close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() throws IOException
+    {
+        close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return closed.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( closed.compareAndSet( false, true ) )
+        {
+            release();
+        }
+    }
+}
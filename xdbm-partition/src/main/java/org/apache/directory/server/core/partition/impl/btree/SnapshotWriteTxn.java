@@ -0,0 +1,145 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+
+
+/**
+ * A write transaction which creates a new revision of the partition when it's
+ * committed. The {@link SnapshotReadTxn} started before the commit keep on seeing
+ * the previous revision. The changes the partition has deferred until the commit
+ * are applied before.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotWriteTxn extends PartitionWriteTxn
+{
+    /** The versions of the partition entries */
+    private final EntryVersions entryVersions;
+
+    /** The partition, or null if it has no deferred changes */
+    private final AbstractBTreePartition partition;
+
+
+    /**
+     * Creates a new SnapshotWriteTxn instance
+     *
+     * @param entryVersions The versions of the partition entries
+     */
+    public SnapshotWriteTxn( EntryVersions entryVersions )
+    {
+        this.entryVersions = entryVersions;
+        this.partition = null;
+    }
+
+
+    /**
+     * Creates a new SnapshotWriteTxn instance
+     *
+     * @param partition The partition this transaction writes into
+     */
+    public SnapshotWriteTxn( AbstractBTreePartition partition )
+    {
+        this.entryVersions = partition.entryVersions;
+        this.partition = partition;
+    }
+
+
+    /**
+     * @return The partition this transaction writes into, or null if it has no deferred changes
+     */
+    AbstractBTreePartition getPartition()
+    {
+        return partition;
+    }
+
+
+    /**
+     * Applies the changes the partition has deferred until the commit.
+     *
+     * @throws IOException If the changes can't be applied
+     */
+    protected void prepareCommit() throws IOException
+    {
+        if ( partition != null )
+        {
+            try
+            {
+                partition.flushDescendants( this );
+            }
+            catch ( LdapException le )
+            {
+                throw new IOException( le.getMessage(), le );
+            }
+        }
+    }
+
+
+    /**
+     * Drops the changes the partition has deferred until the commit, once the
+     * transaction has been rolled back.
+     */
+    protected void discardDeferred()
+    {
+        if ( partition != null )
+        {
+            partition.discardDescendants( this );
+            partition.discardSubtreeLabels();
+        }
+    }
+
+
+    /**
+     * Makes the changes visible to the new snapshot readers
+     */
+    protected void publish()
+    {
+        entryVersions.publish();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() throws IOException
+    {
+        prepareCommit();
+        publish();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() throws IOException
+    {
+        // The backend may not be able to roll back the changes : the readers
+        // starting from now on must see them, whatever happened
+        prepareCommit();
+        publish();
+    }
+}
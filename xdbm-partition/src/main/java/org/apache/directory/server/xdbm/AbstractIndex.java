@@ -20,15 +20,26 @@
 package org.apache.directory.server.xdbm;
 
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 
 
 /**
  * A generic index implementation that is just used to hold the index configuration
- * parameters (attributeId, cacheSize, wkDirPath). All other methods are not working.
+ * parameters (attributeId, cacheSize, wkDirPath, ngramLength). All other methods are not
+ * working, except the n-gram table management, which only relies on the Table interface.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -52,6 +63,16 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The length of the n-grams, 0 if we don't have a n-gram table */
+    protected int ngramLength;
+
+    /**
+     * the n-gram table where the key is a n-gram and the values are the values of the
+     * indexed attribute containing this n-gram. It's created by the backend if the
+     * ngramLength is set and if the attribute supports substring filters
+     */
+    protected Table<String, K> ngrams;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -141,6 +162,25 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public int getNgramLength()
+    {
+        return ngramLength;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setNgramLength( int ngramLength )
+    {
+        protect( "ngramLength" );
+        this.ngramLength = ngramLength;
+    }
+
+
     /**
      * Protects configuration properties from being set after initialization.
      *
@@ -162,4 +202,201 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     {
         return withReverse;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNgrams()
+    {
+        return ngrams != null;
+    }
+
+
+    /**
+     * Tells if the backend should create a n-gram table for this index. The attribute
+     * must be human readable and must have a SUBSTR matching rule.
+     *
+     * @return true if a n-gram table must be created
+     */
+    protected boolean useNgrams()
+    {
+        return ( ngramLength > 0 ) && attributeType.getSyntax().isHumanReadable()
+            && ( attributeType.getSubstring() != null );
+    }
+
+
+    /**
+     * Gets the distinct n-grams of a value. The n-grams containing a space are ignored,
+     * as the insignificant spaces may be normalized differently in a stored value and in
+     * a substring assertion.
+     *
+     * @param value The value to cut
+     * @param ngramLength The length of the n-grams
+     * @return The n-grams of the value, empty if the value is shorter than ngramLength
+     */
+    public static Set<String> getNgrams( String value, int ngramLength )
+    {
+        Set<String> result = new HashSet<>();
+
+        for ( int i = 0; i + ngramLength <= value.length(); i++ )
+        {
+            String ngram = value.substring( i, i + ngramLength );
+
+            if ( ngram.indexOf( ' ' ) < 0 )
+            {
+                result.add( ngram );
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String selectNgram( PartitionTxn partitionTxn, List<String> substrings ) throws LdapException
+    {
+        if ( ngrams == null )
+        {
+            return null;
+        }
+
+        String selected = null;
+        long minCount = Long.MAX_VALUE;
+
+        for ( String substring : substrings )
+        {
+            for ( String ngram : getNgrams( substring, ngramLength ) )
+            {
+                long count = ngrams.count( partitionTxn, ngram );
+
+                if ( count < minCount )
+                {
+                    selected = ngram;
+                    minCount = count;
+                }
+
+                if ( count == 0L )
+                {
+                    // No value can match
+                    return selected;
+                }
+            }
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public long ngramCount( PartitionTxn partitionTxn, String ngram ) throws LdapException
+    {
+        if ( ngrams == null )
+        {
+            return 0L;
+        }
+
+        return ngrams.count( partitionTxn, ngram );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Cursor<K> ngramValueCursor( PartitionTxn partitionTxn, String ngram ) throws LdapException
+    {
+        if ( ngrams == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return ngrams.valueCursor( partitionTxn, ngram );
+    }
+
+
+    /**
+     * Adds the n-grams of a value in the n-gram table. This must be called when the
+     * value is added in the forward table for the first time.
+     *
+     * @param partitionTxn The transaction to use
+     * @param attrVal The added value
+     * @throws LdapException If the n-gram table can't be updated
+     */
+    protected void addNgrams( PartitionTxn partitionTxn, K attrVal ) throws LdapException
+    {
+        for ( String ngram : getNgrams( ( String ) attrVal, ngramLength ) )
+        {
+            ngrams.put( partitionTxn, ngram, attrVal );
+        }
+    }
+
+
+    /**
+     * Removes the n-grams of a value from the n-gram table, if the value is not
+     * present anymore in the forward table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param attrVal The dropped value
+     * @throws LdapException If the n-gram table can't be updated
+     */
+    protected void dropNgrams( PartitionTxn partitionTxn, K attrVal ) throws LdapException
+    {
+        if ( forward( partitionTxn, attrVal ) )
+        {
+            // Still used by another entry
+            return;
+        }
+
+        for ( String ngram : getNgrams( ( String ) attrVal, ngramLength ) )
+        {
+            ngrams.remove( partitionTxn, ngram, attrVal );
+        }
+    }
+
+
+    /**
+     * Fills an empty n-gram table with the n-grams of all the values already present in
+     * the forward table. This is needed when the n-gram table is added to an existing
+     * index.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the n-gram table can't be built
+     */
+    protected void buildNgrams( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( ( ngrams.count( partitionTxn ) > 0L ) || ( count( partitionTxn ) == 0L ) )
+        {
+            return;
+        }
+
+        Cursor<IndexEntry<K, E>> cursor = forwardCursor( partitionTxn );
+
+        try
+        {
+            K previous = null;
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                K key = cursor.get().getKey();
+
+                // The keys are sorted, we just have to skip the duplicated ones
+                if ( !key.equals( previous ) )
+                {
+                    addNgrams( partitionTxn, key );
+                    previous = key;
+                }
+            }
+
+            cursor.close();
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
 }
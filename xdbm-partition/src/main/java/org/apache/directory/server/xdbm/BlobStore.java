@@ -0,0 +1,462 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A store for the large binary values of a partition, like the jpegPhoto or the
+ * userCertificate values. The entries stored in the master table only keep the reference
+ * of those values, so that they are small to read and to cache, and a value is only read
+ * when it is returned.
+ * <br>
+ * The store is content addressed : the reference of a value is its SHA-256 digest, so a
+ * value used by many entries is stored once. It is append only : each value is written at
+ * the end of the file, preceded by its reference and its length, and is never modified.
+ * The values which are not referenced anymore are removed by {@link #compact(Collection)},
+ * which copies the other ones in a new file.
+ * <br>
+ * The position of the values is kept in memory, it's built when the store is opened.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BlobStore
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( BlobStore.class );
+
+    /** The length of a reference */
+    public static final int REFERENCE_LENGTH = 32;
+
+    /** The length of the header of a value : its reference and its length */
+    private static final int HEADER_LENGTH = REFERENCE_LENGTH + 4;
+
+    /** The position of a value in the file */
+    private static final class Location
+    {
+        /** The position of the value header */
+        private final long offset;
+
+        /** The length of the value */
+        private final int length;
+
+
+        private Location( long offset, int length )
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /** The file */
+    private final File file;
+
+    /** The channel used to read and write the file */
+    private FileChannel channel;
+
+    /** The position of the values, per reference */
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+
+    /** The end of the file, where the next value is written */
+    private long end;
+
+    /** The end of the file when the running compaction has started, or -1 */
+    private long compactionStart = -1L;
+
+    /** The values stored again while a compaction is running */
+    private final Set<String> reused = new HashSet<>();
+
+    /** Protects the file while it's replaced by a compaction */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Creates a new BlobStore instance.
+     *
+     * @param file The file containing the values
+     */
+    public BlobStore( File file )
+    {
+        this.file = file;
+    }
+
+
+    /**
+     * Opens the store, reading the position of all the values. A value which has not been
+     * completely written, because the server has been stopped meanwhile, is removed.
+     *
+     * @throws IOException If the file can't be read
+     */
+    public void open() throws IOException
+    {
+        channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE );
+
+        long size = channel.size();
+        long position = 0L;
+        ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+
+        while ( position + HEADER_LENGTH <= size )
+        {
+            header.clear();
+            readFully( channel, header, position );
+            header.flip();
+
+            byte[] reference = new byte[REFERENCE_LENGTH];
+            header.get( reference );
+            int length = header.getInt();
+
+            if ( ( length < 0 ) || ( position + HEADER_LENGTH + length > size ) )
+            {
+                break;
+            }
+
+            locations.put( getKey( reference ), new Location( position, length ) );
+            position += HEADER_LENGTH + length;
+        }
+
+        if ( position < size )
+        {
+            LOG.warn( "Removing {} bytes of incomplete values at the end of {}", size - position, file );
+            channel.truncate( position );
+        }
+
+        end = position;
+        LOG.debug( "Opened the blob store {}, containing {} values", file, locations.size() );
+    }
+
+
+    /**
+     * Stores a value, if it's not already stored. The value is on the disk when this method
+     * returns, so an entry referencing it can be written.
+     *
+     * @param value The value
+     * @return The value reference
+     * @throws IOException If the value can't be written
+     */
+    public byte[] put( byte[] value ) throws IOException
+    {
+        byte[] reference = digest( value );
+        String key = getKey( reference );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            if ( locations.containsKey( key ) )
+            {
+                if ( compactionStart >= 0L )
+                {
+                    reused.add( key );
+                }
+
+                return reference;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate( HEADER_LENGTH + value.length );
+            buffer.put( reference ).putInt( value.length ).put( value );
+            buffer.flip();
+
+            long position = end;
+
+            while ( buffer.hasRemaining() )
+            {
+                position += channel.write( buffer, position );
+            }
+
+            channel.force( false );
+
+            locations.put( key, new Location( end, value.length ) );
+            end = position;
+
+            return reference;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Reads a value.
+     *
+     * @param reference The value reference
+     * @return The value
+     * @throws IOException If the value does not exist or can't be read
+     */
+    public byte[] get( byte[] reference ) throws IOException
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            Location location = locations.get( getKey( reference ) );
+
+            if ( location == null )
+            {
+                throw new IOException( "No value stored in " + file + " for the reference " + getKey( reference ) );
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate( location.length );
+            readFully( channel, buffer, location.offset + HEADER_LENGTH );
+
+            return buffer.array();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Starts a compaction. The values stored from now on are kept by the compaction, so the
+     * references given to {@link #compact(Collection)} only have to be the ones of the
+     * entries written before this call.
+     */
+    public void startCompaction()
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            compactionStart = end;
+            reused.clear();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes the values which are not referenced anymore, copying the other ones in a new
+     * file. The values written before the compaction has started are copied without blocking
+     * the other threads, then the new file replaces the current one.
+     *
+     * @param references The references of the values used by the entries
+     * @throws IOException If the file can't be compacted
+     */
+    public void compact( Collection<byte[]> references ) throws IOException
+    {
+        Set<String> live = new HashSet<>();
+
+        for ( byte[] reference : references )
+        {
+            live.add( getKey( reference ) );
+        }
+
+        File compacted = new File( file.getPath() + ".compact" );
+        Map<String, Location> copied = new HashMap<>();
+
+        try ( FileChannel target = FileChannel.open( compacted.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) )
+        {
+            long position = 0L;
+
+            for ( Map.Entry<String, Location> location : locations.entrySet() )
+            {
+                if ( ( location.getValue().offset < compactionStart ) && live.contains( location.getKey() ) )
+                {
+                    position = copy( target, location.getKey(), location.getValue(), position, copied );
+                }
+            }
+
+            lock.writeLock().lock();
+
+            try
+            {
+                // Then the values written or stored again since the compaction has started
+                for ( Map.Entry<String, Location> location : locations.entrySet() )
+                {
+                    String key = location.getKey();
+
+                    if ( !copied.containsKey( key )
+                        && ( ( location.getValue().offset >= compactionStart ) || reused.contains( key ) ) )
+                    {
+                        position = copy( target, key, location.getValue(), position, copied );
+                    }
+                }
+
+                target.force( true );
+                target.close();
+                Files.move( compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+
+                long before = end;
+                channel.close();
+                channel = FileChannel.open( file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE );
+                locations.clear();
+                locations.putAll( copied );
+                end = position;
+
+                LOG.info( "Compacted the blob store {} from {} to {} bytes", file, before, end );
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+        finally
+        {
+            lock.writeLock().lock();
+
+            try
+            {
+                compactionStart = -1L;
+                reused.clear();
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+
+            Files.deleteIfExists( compacted.toPath() );
+        }
+    }
+
+
+    /**
+     * Copies a value, with its header, at the given position of a file.
+     *
+     * @return The position following the copied value
+     */
+    private long copy( FileChannel target, String key, Location location, long position,
+        Map<String, Location> copied ) throws IOException
+    {
+        long count = HEADER_LENGTH + ( long ) location.length;
+        long done = 0L;
+
+        while ( done < count )
+        {
+            done += channel.transferTo( location.offset + done, count - done, target );
+        }
+
+        copied.put( key, new Location( position, location.length ) );
+
+        return position + count;
+    }
+
+
+    /**
+     * @return The size of the file, in bytes
+     */
+    public long size()
+    {
+        return end;
+    }
+
+
+    /**
+     * @return The number of stored values
+     */
+    public int count()
+    {
+        return locations.size();
+    }
+
+
+    /**
+     * Closes the store.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    public void close() throws IOException
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            if ( channel != null )
+            {
+                channel.close();
+                channel = null;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Computes the reference of a value.
+     */
+    private static byte[] digest( byte[] value )
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" ).digest( value );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // Every JVM supports SHA-256
+            throw new IllegalStateException( nsae );
+        }
+    }
+
+
+    private static String getKey( byte[] reference )
+    {
+        return Base64.getEncoder().encodeToString( reference );
+    }
+
+
+    private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            int read = channel.read( buffer, position );
+
+            if ( read < 0 )
+            {
+                throw new EOFException();
+            }
+
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * A fast block compressor, using the LZF format : the compressed block is a sequence of
+ * literal runs and back references.
+ * <ul>
+ *   <li>A literal run starts with a byte lower than 32, the number of literals minus 1,
+ *   followed by the literals</li>
+ *   <li>A back reference starts with a byte containing the match length minus 2 in its
+ *   3 highest bits, and the highest 5 bits of the distance minus 1. If the length bits are
+ *   all set, the length is continued on the next byte. The lowest 8 bits of the distance
+ *   follow</li>
+ * </ul>
+ * The matches are found using a hash table of the 3 bytes sequences, without any lookahead,
+ * which favors the speed over the compression ratio. The uncompressed length is not stored
+ * in the block, the caller has to keep it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class BlockCompressor
+{
+    /** The number of bits of the hash table size */
+    private static final int HASH_BITS = 13;
+
+    /** The maximum number of literals in a run */
+    private static final int MAX_LITERALS = 32;
+
+    /** The maximum distance of a back reference */
+    private static final int MAX_DISTANCE = 1 << 13;
+
+    /** The maximum length of a back reference */
+    private static final int MAX_MATCH = 2 + 7 + 255;
+
+
+    private BlockCompressor()
+    {
+    }
+
+
+    /**
+     * Compresses a block.
+     *
+     * @param in The buffer containing the block
+     * @param off The position of the block in the buffer
+     * @param len The length of the block
+     * @return The compressed block, or null if it's not smaller than the block
+     */
+    public static byte[] compress( byte[] in, int off, int len )
+    {
+        byte[] out = new byte[len];
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill( table, -1 );
+
+        int end = off + len;
+        int ip = off;
+        int op = 0;
+
+        // The position of the current literal run control byte, and its number of literals
+        int run = -1;
+        int literals = 0;
+
+        while ( ip < end )
+        {
+            int matchLength = 0;
+            int ref = -1;
+
+            if ( ip + 2 < end )
+            {
+                int hash = hash( in, ip );
+                ref = table[hash];
+                table[hash] = ip;
+
+                if ( ( ref >= 0 ) && ( ip - ref <= MAX_DISTANCE ) && ( in[ref] == in[ip] )
+                    && ( in[ref + 1] == in[ip + 1] ) && ( in[ref + 2] == in[ip + 2] ) )
+                {
+                    matchLength = 3;
+                    int maxLength = Math.min( MAX_MATCH, end - ip );
+
+                    while ( ( matchLength < maxLength ) && ( in[ref + matchLength] == in[ip + matchLength] ) )
+                    {
+                        matchLength++;
+                    }
+                }
+            }
+
+            if ( matchLength == 0 )
+            {
+                // A literal : open a new run if needed
+                if ( run < 0 )
+                {
+                    if ( op + 2 > len )
+                    {
+                        return null;
+                    }
+
+                    run = op++;
+                    literals = 0;
+                }
+                else if ( op + 1 > len )
+                {
+                    return null;
+                }
+
+                out[op++] = in[ip++];
+                literals++;
+
+                if ( literals == MAX_LITERALS )
+                {
+                    out[run] = ( byte ) ( literals - 1 );
+                    run = -1;
+                }
+
+                continue;
+            }
+
+            // Close the current literal run
+            if ( run >= 0 )
+            {
+                out[run] = ( byte ) ( literals - 1 );
+                run = -1;
+            }
+
+            if ( op + 3 > len )
+            {
+                return null;
+            }
+
+            int length = matchLength - 2;
+            int distance = ip - ref - 1;
+
+            if ( length < 7 )
+            {
+                out[op++] = ( byte ) ( ( length << 5 ) | ( distance >>> 8 ) );
+            }
+            else
+            {
+                out[op++] = ( byte ) ( ( 7 << 5 ) | ( distance >>> 8 ) );
+                out[op++] = ( byte ) ( length - 7 );
+            }
+
+            out[op++] = ( byte ) distance;
+            ip += matchLength;
+        }
+
+        if ( run >= 0 )
+        {
+            out[run] = ( byte ) ( literals - 1 );
+        }
+
+        if ( op >= len )
+        {
+            return null;
+        }
+
+        return Arrays.copyOf( out, op );
+    }
+
+
+    /**
+     * Decompresses a block.
+     *
+     * @param in The buffer containing the compressed block
+     * @param off The position of the compressed block in the buffer
+     * @param len The length of the compressed block
+     * @param length The uncompressed length
+     * @return The uncompressed block
+     * @throws IOException If the block is corrupted
+     */
+    public static byte[] decompress( byte[] in, int off, int len, int length ) throws IOException
+    {
+        byte[] out = new byte[length];
+        int end = off + len;
+        int ip = off;
+        int op = 0;
+
+        while ( ip < end )
+        {
+            int control = in[ip++] & 0xFF;
+
+            if ( control < MAX_LITERALS )
+            {
+                int literals = control + 1;
+
+                if ( ( ip + literals > end ) || ( op + literals > length ) )
+                {
+                    throw new IOException( "Corrupted block : truncated literal run" );
+                }
+
+                System.arraycopy( in, ip, out, op, literals );
+                ip += literals;
+                op += literals;
+
+                continue;
+            }
+
+            int matchLength = control >>> 5;
+
+            if ( matchLength == 7 )
+            {
+                if ( ip >= end )
+                {
+                    throw new IOException( "Corrupted block : truncated back reference" );
+                }
+
+                matchLength += in[ip++] & 0xFF;
+            }
+
+            if ( ip >= end )
+            {
+                throw new IOException( "Corrupted block : truncated back reference" );
+            }
+
+            matchLength += 2;
+            int ref = op - ( ( ( control & 0x1F ) << 8 ) | ( in[ip++] & 0xFF ) ) - 1;
+
+            if ( ( ref < 0 ) || ( op + matchLength > length ) )
+            {
+                throw new IOException( "Corrupted block : invalid back reference" );
+            }
+
+            // The match may overlap the bytes it produces, copy them one by one
+            for ( int i = 0; i < matchLength; i++ )
+            {
+                out[op++] = out[ref++];
+            }
+        }
+
+        if ( op != length )
+        {
+            throw new IOException( "Corrupted block : expected " + length + " bytes, got " + op );
+        }
+
+        return out;
+    }
+
+
+    /**
+     * Hashes the 3 bytes at a position
+     */
+    private static int hash( byte[] in, int pos )
+    {
+        int value = ( ( in[pos] & 0xFF ) << 16 ) | ( ( in[pos + 1] & 0xFF ) << 8 ) | ( in[pos + 2] & 0xFF );
+
+        return ( value * 0x9E3779B1 ) >>> ( 32 - HASH_BITS );
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.exception.LdapException;
@@ -101,6 +102,24 @@ public interface Index<K, E>
     URI getWkDirPath();
 
 
+    /**
+     * Gets the length of the n-grams stored in the n-gram table of this index. The n-gram
+     * table is used to find the values containing a substring when a substring filter has
+     * no initial part.
+     *
+     * @return the n-gram length, or 0 if this index has no n-gram table
+     */
+    int getNgramLength();
+
+
+    /**
+     * Sets the length of the n-grams stored in the n-gram table of this index.
+     *
+     * @param ngramLength the n-gram length, or 0 for no n-gram table
+     */
+    void setNgramLength( int ngramLength );
+
+
     // -----------------------------------------------------------------------
     // E N D   C O N F I G U R A T I O N   M E T H O D S
     // -----------------------------------------------------------------------
@@ -345,4 +364,47 @@ public interface Index<K, E>
      * @return true if the index has a reverse table
      */
     boolean hasReverse();
+
+
+    /**
+     * Tells if the index has a n-gram table or not
+     * 
+     * @return true if the index has a n-gram table
+     */
+    boolean hasNgrams();
+
+
+    /**
+     * Selects the n-gram of the given substrings which is contained in the smallest
+     * number of indexed values.
+     *
+     * @param partitionTxn The transaction to use
+     * @param substrings The substrings the searched values must contain
+     * @return The selected n-gram, or null if the index has no n-gram table or if none
+     * of the substrings contains a n-gram
+     * @throws LdapException If the n-gram table can't be read
+     */
+    String selectNgram( PartitionTxn partitionTxn, List<String> substrings ) throws LdapException;
+
+
+    /**
+     * Gets the number of indexed values containing a n-gram.
+     *
+     * @param partitionTxn The transaction to use
+     * @param ngram The n-gram
+     * @return the number of indexed values containing the n-gram
+     * @throws LdapException If the n-gram table can't be read
+     */
+    long ngramCount( PartitionTxn partitionTxn, String ngram ) throws LdapException;
+
+
+    /**
+     * Gets a Cursor over the indexed values containing a n-gram.
+     *
+     * @param partitionTxn The transaction to use
+     * @param ngram The n-gram
+     * @return A Cursor over the indexed values containing the n-gram
+     * @throws LdapException If the n-gram table can't be read
+     */
+    Cursor<K> ngramValueCursor( PartitionTxn partitionTxn, String ngram ) throws LdapException;
 }
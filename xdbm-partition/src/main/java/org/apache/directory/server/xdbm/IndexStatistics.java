@@ -0,0 +1,616 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * Statistics about the keys of an index : the number of distinct keys, the most common
+ * keys with their frequency, and an equi-depth histogram of all the keys. The optimizer
+ * uses them to estimate the number of candidates of a filter without reading the index.
+ * <br>
+ * The statistics are gathered by a scan of the whole index. Until the next scan, the
+ * estimates are scaled by the current number of keys of the index, which is known
+ * without reading it. Only the indexes with String keys are handled.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The number of most common keys kept */
+    public static final int NB_MOST_COMMON = 32;
+
+    /** The number of buckets of the histogram */
+    public static final int NB_BUCKETS = 64;
+
+    /** The longest key kept, the longer ones are truncated */
+    private static final int MAX_KEY_LENGTH = 256;
+
+    /** The number of keys when the statistics were gathered */
+    private final long count;
+
+    /** The number of distinct keys */
+    private final long nbDistinct;
+
+    /** The number of keys in each bucket of the histogram */
+    private final long step;
+
+    /** The most common keys, with their number of occurrences */
+    private final Map<String, Long> mostCommon;
+
+    /** The first key of each bucket of the histogram */
+    private final String[] bounds;
+
+    /** The comparator of the index keys */
+    private final Comparator<? super String> comparator;
+
+
+    private IndexStatistics( long count, long nbDistinct, long step, Map<String, Long> mostCommon, String[] bounds,
+        Comparator<? super String> comparator )
+    {
+        this.count = count;
+        this.nbDistinct = nbDistinct;
+        this.step = step;
+        this.mostCommon = mostCommon;
+        this.bounds = bounds;
+        this.comparator = comparator;
+    }
+
+
+    /**
+     * @return The number of keys when the statistics were gathered
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The number of distinct keys when the statistics were gathered
+     */
+    public long getNbDistinct()
+    {
+        return nbDistinct;
+    }
+
+
+    /**
+     * @return The number of most common keys
+     */
+    public int getNbMostCommon()
+    {
+        return mostCommon.size();
+    }
+
+
+    /**
+     * Estimates the number of entries having a given key.
+     *
+     * @param key The normalized key
+     * @param currentCount The current number of keys of the index
+     * @return The estimated number of entries, or -1 if it can't be estimated
+     */
+    public long equalityCount( String key, long currentCount )
+    {
+        Long frequency = mostCommon.get( truncate( key ) );
+
+        if ( frequency != null )
+        {
+            return scale( frequency, currentCount );
+        }
+
+        // The other keys are assumed to be evenly distributed
+        long nbOthers = count;
+
+        for ( long mostCommonFrequency : mostCommon.values() )
+        {
+            nbOthers -= mostCommonFrequency;
+        }
+
+        long nbOtherKeys = Math.max( 1L, nbDistinct - mostCommon.size() );
+
+        return scale( Math.max( 1L, nbOthers / nbOtherKeys ), currentCount );
+    }
+
+
+    /**
+     * Estimates the number of entries having a key greater than or equal to a given key.
+     *
+     * @param key The normalized key
+     * @param currentCount The current number of keys of the index
+     * @return The estimated number of entries, or -1 if it can't be estimated
+     */
+    public long greaterOrEqualCount( String key, long currentCount )
+    {
+        int rank = rank( key, false );
+
+        if ( rank < 0 )
+        {
+            return -1L;
+        }
+
+        return scale( count - before( rank ), currentCount );
+    }
+
+
+    /**
+     * Estimates the number of entries having a key lower than or equal to a given key.
+     *
+     * @param key The normalized key
+     * @param currentCount The current number of keys of the index
+     * @return The estimated number of entries, or -1 if it can't be estimated
+     */
+    public long lessOrEqualCount( String key, long currentCount )
+    {
+        int rank = rank( key, true );
+
+        if ( rank < 0 )
+        {
+            return -1L;
+        }
+
+        return scale( before( rank ), currentCount );
+    }
+
+
+    /**
+     * Estimates the number of entries having a key starting with a given prefix.
+     *
+     * @param prefix The normalized prefix
+     * @param currentCount The current number of keys of the index
+     * @return The estimated number of entries, or -1 if it can't be estimated
+     */
+    public long prefixCount( String prefix, long currentCount )
+    {
+        int low = rank( prefix, false );
+        int high = rank( prefix + '\uffff', true );
+
+        if ( ( low < 0 ) || ( high < 0 ) )
+        {
+            return -1L;
+        }
+
+        long estimate = before( high ) - before( low );
+        long mostCommonCount = 0L;
+
+        for ( Map.Entry<String, Long> entry : mostCommon.entrySet() )
+        {
+            if ( entry.getKey().startsWith( prefix ) )
+            {
+                mostCommonCount += entry.getValue();
+            }
+        }
+
+        // A prefix within a bucket is assumed to match one key
+        long averageFrequency = count / Math.max( 1L, nbDistinct );
+
+        return scale( Math.max( estimate, Math.max( mostCommonCount, averageFrequency ) ), currentCount );
+    }
+
+
+    /**
+     * Gets the bucket of the histogram holding a position in the index, so that a cursor
+     * can be moved close to this position without reading the keys before it.
+     *
+     * @param position The position in the index, starting at 0
+     * @param currentCount The current number of keys of the index
+     * @return The bucket number, or -1 if the histogram is empty
+     */
+    public int getBucket( long position, long currentCount )
+    {
+        if ( ( bounds.length == 0 ) || ( count == 0L ) || ( currentCount <= 0L ) )
+        {
+            return -1;
+        }
+
+        long scaled = ( long ) ( ( double ) position * count / currentCount );
+
+        return ( int ) Math.max( 0L, Math.min( bounds.length - 1L, scaled / step ) );
+    }
+
+
+    /**
+     * @param bucket The bucket number
+     * @return The first key of the bucket
+     */
+    public String getBound( int bucket )
+    {
+        return bounds[bucket];
+    }
+
+
+    /**
+     * Estimates the position in the index of the first key of a bucket.
+     *
+     * @param bucket The bucket number
+     * @param currentCount The current number of keys of the index
+     * @return The estimated position, starting at 0
+     */
+    public long getBucketStart( int bucket, long currentCount )
+    {
+        if ( count == 0L )
+        {
+            return 0L;
+        }
+
+        return ( long ) ( ( double ) bucket * step * currentCount / count );
+    }
+
+
+    /**
+     * Gets the number of bounds lower than a key, or lower than or equal to it.
+     *
+     * @return The number of bounds, or -1 if the key can't be compared with them
+     */
+    private int rank( String key, boolean inclusive )
+    {
+        int low = 0;
+        int high = bounds.length;
+
+        try
+        {
+            while ( low < high )
+            {
+                int middle = ( low + high ) >>> 1;
+                int comparison = comparator.compare( bounds[middle], key );
+
+                if ( ( comparison < 0 ) || ( inclusive && ( comparison == 0 ) ) )
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+        }
+        catch ( RuntimeException re )
+        {
+            return -1;
+        }
+
+        return low;
+    }
+
+
+    /**
+     * Estimates the number of keys in the buckets before a rank, counting half of the
+     * last bucket, which contains the searched key.
+     */
+    private long before( int rank )
+    {
+        if ( rank == 0 )
+        {
+            return 0L;
+        }
+
+        long start = ( rank - 1L ) * step;
+        long lastBucket = Math.max( 0L, Math.min( step, count - start ) );
+
+        return Math.min( count, start + ( lastBucket + 1L ) / 2L );
+    }
+
+
+    /**
+     * Scales an estimate by the growth of the index since the statistics were gathered.
+     * As the estimates are never exact, they are never lower than 1, unless the index
+     * is empty.
+     */
+    private long scale( long estimate, long currentCount )
+    {
+        if ( currentCount <= 0L )
+        {
+            return 0L;
+        }
+
+        if ( count == 0L )
+        {
+            return -1L;
+        }
+
+        long scaled = ( long ) ( ( double ) estimate * currentCount / count );
+
+        return Math.max( 1L, Math.min( currentCount, scaled ) );
+    }
+
+
+    private static String truncate( String key )
+    {
+        if ( key.length() > MAX_KEY_LENGTH )
+        {
+            return key.substring( 0, MAX_KEY_LENGTH );
+        }
+
+        return key;
+    }
+
+
+    /**
+     * Writes the statistics.
+     *
+     * @param out The output
+     * @throws IOException If the statistics can't be written
+     */
+    public void write( DataOutput out ) throws IOException
+    {
+        out.writeLong( count );
+        out.writeLong( nbDistinct );
+        out.writeLong( step );
+        out.writeInt( mostCommon.size() );
+
+        for ( Map.Entry<String, Long> entry : mostCommon.entrySet() )
+        {
+            out.writeUTF( entry.getKey() );
+            out.writeLong( entry.getValue() );
+        }
+
+        out.writeInt( bounds.length );
+
+        for ( String bound : bounds )
+        {
+            out.writeUTF( bound );
+        }
+    }
+
+
+    /**
+     * Reads statistics written by {@link #write(DataOutput)}.
+     *
+     * @param in The input
+     * @param comparator The comparator of the index keys
+     * @return The read statistics
+     * @throws IOException If the statistics can't be read
+     */
+    public static IndexStatistics read( DataInput in, Comparator<? super String> comparator ) throws IOException
+    {
+        long count = in.readLong();
+        long nbDistinct = in.readLong();
+        long step = in.readLong();
+        int nbMostCommon = in.readInt();
+        Map<String, Long> mostCommon = new HashMap<>();
+
+        for ( int i = 0; i < nbMostCommon; i++ )
+        {
+            String key = in.readUTF();
+            mostCommon.put( key, in.readLong() );
+        }
+
+        String[] bounds = new String[in.readInt()];
+
+        for ( int i = 0; i < bounds.length; i++ )
+        {
+            bounds[i] = in.readUTF();
+        }
+
+        return new IndexStatistics( count, nbDistinct, step, mostCommon, bounds, comparator );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "IndexStatistics[count=" + count + ", distinct=" + nbDistinct + ", mostCommon=" + mostCommon
+            + ", bounds=" + Arrays.toString( bounds ) + "]";
+    }
+
+
+    /**
+     * Gathers the statistics of an index, reading it in chunks. The keys read in a
+     * chunk are kept, so that the next chunk starts right after them.
+     */
+    public static class Builder
+    {
+        /** The number of keys in each bucket of the histogram */
+        private final long step;
+
+        /** The first key of each bucket */
+        private final List<String> bounds = new ArrayList<>();
+
+        /** The most common keys seen so far, the least common first */
+        private final PriorityQueue<Map.Entry<String, Long>> mostCommon = new PriorityQueue<>(
+            Comparator.comparingLong( Map.Entry::getValue ) );
+
+        /** The number of keys read */
+        private long count;
+
+        /** The number of distinct keys read */
+        private long nbDistinct;
+
+        /** The key being counted */
+        private String currentKey;
+
+        /** The number of occurrences of the key being counted */
+        private long currentFrequency;
+
+        /** The last index entry read */
+        private IndexEntry<Object, String> last;
+
+        /** Tells if a key which is not a String has been found */
+        private boolean unsupported;
+
+
+        /**
+         * Creates a Builder.
+         *
+         * @param expectedCount The number of keys of the index
+         */
+        public Builder( long expectedCount )
+        {
+            step = Math.max( 1L, expectedCount / NB_BUCKETS );
+        }
+
+
+        /**
+         * Reads the next keys of an index.
+         *
+         * @param partitionTxn The transaction to use
+         * @param index The index
+         * @param maxKeys The maximum number of keys to read
+         * @return <tt>true</tt> if the whole index has been read
+         * @throws LdapException If the index can't be read
+         */
+        @SuppressWarnings("unchecked")
+        public <K> boolean scan( PartitionTxn partitionTxn, Index<K, String> index, int maxKeys )
+            throws LdapException
+        {
+            try ( Cursor<IndexEntry<K, String>> cursor = index.forwardCursor( partitionTxn ) )
+            {
+                if ( last != null )
+                {
+                    cursor.after( ( IndexEntry<K, String> ) last );
+                }
+                else
+                {
+                    cursor.beforeFirst();
+                }
+
+                for ( int i = 0; i < maxKeys; i++ )
+                {
+                    if ( !cursor.next() )
+                    {
+                        return true;
+                    }
+
+                    IndexEntry<K, String> entry = cursor.get();
+                    K key = entry.getKey();
+
+                    if ( key == null )
+                    {
+                        continue;
+                    }
+
+                    if ( !( key instanceof String ) )
+                    {
+                        unsupported = true;
+
+                        return true;
+                    }
+
+                    add( ( String ) key );
+
+                    last = new IndexEntry<>();
+                    last.setKey( key );
+                    last.setId( entry.getId() );
+                }
+
+                return false;
+            }
+            catch ( CursorException | IOException e )
+            {
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+        }
+
+
+        private void add( String key )
+        {
+            String truncated = truncate( key );
+
+            if ( count % step == 0L )
+            {
+                bounds.add( truncated );
+            }
+
+            if ( !truncated.equals( currentKey ) )
+            {
+                flush();
+                currentKey = truncated;
+                currentFrequency = 0L;
+                nbDistinct++;
+            }
+
+            currentFrequency++;
+            count++;
+        }
+
+
+        /**
+         * Keeps the key being counted if it is one of the most common keys
+         */
+        private void flush()
+        {
+            // A key which is used once is not common
+            if ( ( currentKey == null ) || ( currentFrequency < 2L ) )
+            {
+                return;
+            }
+
+            if ( mostCommon.size() < NB_MOST_COMMON )
+            {
+                mostCommon.add( new AbstractMap.SimpleEntry<>( currentKey, currentFrequency ) );
+            }
+            else if ( mostCommon.peek().getValue() < currentFrequency )
+            {
+                mostCommon.poll();
+                mostCommon.add( new AbstractMap.SimpleEntry<>( currentKey, currentFrequency ) );
+            }
+        }
+
+
+        /**
+         * Builds the statistics from the keys read.
+         *
+         * @param comparator The comparator of the index keys
+         * @return The statistics, or null if the index keys are not Strings
+         */
+        public IndexStatistics build( Comparator<? super String> comparator )
+        {
+            if ( unsupported )
+            {
+                return null;
+            }
+
+            flush();
+            currentKey = null;
+
+            Map<String, Long> frequencies = new HashMap<>();
+
+            for ( Map.Entry<String, Long> entry : mostCommon )
+            {
+                frequencies.put( entry.getKey(), entry.getValue() );
+            }
+
+            return new IndexStatistics( count, nbDistinct, step, frequencies, bounds.toArray( new String[0] ),
+                comparator );
+        }
+    }
+}
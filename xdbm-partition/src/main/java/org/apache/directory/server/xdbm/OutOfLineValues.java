@@ -0,0 +1,540 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * The values of the large multi-valued attributes, like the members of a big group. When
+ * an attribute of an entry has more values than a threshold, its values are stored in a
+ * table keyed by the entry ID, one table per attribute type, and the entry stored in the
+ * master table only holds an empty attribute. Adding a value then only adds one tuple in
+ * the table, instead of writing the whole entry again, and checking if an entry has a value
+ * is a lookup in the table. Adding or removing some values of such an attribute only changes
+ * their tuples, the other values are not read.
+ * <br>
+ * Each value is stored as its normalized form followed by a NUL character and its user
+ * provided form. The values are then sorted on their normalized form.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OutOfLineValues
+{
+    /** Separates the normalized form of a stored value from its user provided form */
+    private static final char SEPARATOR = '\u0000';
+
+    /** The table of an attribute type */
+    private static final class ValueTable
+    {
+        private final AttributeType attributeType;
+
+        private final Table<String, String> table;
+
+
+        private ValueTable( AttributeType attributeType, Table<String, String> table )
+        {
+            this.attributeType = attributeType;
+            this.table = table;
+        }
+    }
+
+    /** The schemaManager */
+    private final SchemaManager schemaManager;
+
+    /** The number of values above which they are stored out of line, 0 to keep them all in the entries */
+    private final int threshold;
+
+    /** The tables, one per attribute type */
+    private final List<ValueTable> tables = new ArrayList<>();
+
+
+    /**
+     * Creates a new OutOfLineValues instance.
+     *
+     * @param schemaManager The schemaManager
+     * @param threshold The number of values above which they are stored out of line. With
+     * 0, the values already stored out of line are still read, but they are moved back in
+     * the entries when they are written
+     */
+    public OutOfLineValues( SchemaManager schemaManager, int threshold )
+    {
+        this.schemaManager = schemaManager;
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * Adds the table storing the values of an attribute type.
+     *
+     * @param attributeType The attribute type, which must be human readable
+     * @param table The table, keyed by entry ID, with duplicates sorted as Strings
+     */
+    public void addTable( AttributeType attributeType, Table<String, String> table )
+    {
+        tables.add( new ValueTable( attributeType, table ) );
+    }
+
+
+    /**
+     * @return <tt>true</tt> if no attribute values can be stored out of line
+     */
+    public boolean isEmpty()
+    {
+        return tables.isEmpty();
+    }
+
+
+    /**
+     * Gets the table of an attribute type.
+     */
+    private Table<String, String> getTable( AttributeType attributeType )
+    {
+        for ( ValueTable valueTable : tables )
+        {
+            if ( valueTable.attributeType.equals( attributeType ) )
+            {
+                return valueTable.table;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Writes the values of the large attributes of an entry in their tables. Only the
+     * tuples of the values which have been added or removed since the last write are
+     * changed.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param entry The entry
+     * @return The entry to store in the master table, in which the large attributes have
+     * no value. It's the given entry if there is no large attribute
+     * @throws LdapException If the tables can't be updated
+     */
+    public Entry store( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        Entry stored = entry;
+
+        for ( ValueTable valueTable : tables )
+        {
+            Attribute attribute = entry.get( valueTable.attributeType );
+
+            if ( ( attribute != null ) && ( attribute.size() == 0 ) )
+            {
+                // The values have not been read back from the table, they are unchanged
+                if ( valueTable.table.has( partitionTxn, id ) )
+                {
+                    continue;
+                }
+
+                // A reference to no stored value is dropped
+                stored = copyWithout( entry, stored, valueTable.attributeType );
+            }
+            else if ( ( threshold > 0 ) && ( attribute != null ) && ( attribute.size() > threshold ) )
+            {
+                update( partitionTxn, id, valueTable.table, attribute );
+
+                stored = copyWithout( entry, stored, valueTable.attributeType );
+                stored.put( new DefaultAttribute( attribute.getUpId(), valueTable.attributeType ) );
+            }
+            else if ( valueTable.table.has( partitionTxn, id ) )
+            {
+                // The values are back in the entry
+                valueTable.table.remove( partitionTxn, id );
+            }
+        }
+
+        return stored;
+    }
+
+
+    /**
+     * Removes an attribute from the entry to store. The given entry is not modified : the
+     * first time, a copy sharing its attributes is created.
+     */
+    private Entry copyWithout( Entry entry, Entry stored, AttributeType attributeType ) throws LdapException
+    {
+        if ( stored == entry )
+        {
+            stored = new DefaultEntry( schemaManager, entry.getDn() );
+
+            for ( Attribute attribute : entry )
+            {
+                stored.put( attribute );
+            }
+        }
+
+        stored.removeAttributes( attributeType );
+
+        return stored;
+    }
+
+
+    /**
+     * Updates the stored values of an attribute.
+     */
+    private void update( PartitionTxn partitionTxn, String id, Table<String, String> table, Attribute attribute )
+        throws LdapException
+    {
+        Set<String> added = new HashSet<>();
+
+        for ( Value value : attribute )
+        {
+            added.add( encode( value ) );
+        }
+
+        List<String> removed = new ArrayList<>();
+
+        try ( Cursor<String> cursor = table.valueCursor( partitionTxn, id ) )
+        {
+            while ( cursor.next() )
+            {
+                String record = cursor.get();
+
+                if ( !added.remove( record ) )
+                {
+                    removed.add( record );
+                }
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        for ( String record : removed )
+        {
+            table.remove( partitionTxn, id, record );
+        }
+
+        for ( String record : added )
+        {
+            table.put( partitionTxn, id, record );
+        }
+    }
+
+
+    /**
+     * Reads back the values of the large attributes of an entry read from the master table.
+     * The values are added in the empty attributes of the entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param entry The entry read from the master table
+     * @param attributeTypes The attribute types to read, or null to read them all
+     * @return <tt>true</tt> if all the values of the entry have been read
+     * @throws LdapException If the tables can't be read
+     */
+    public boolean load( PartitionTxn partitionTxn, String id, Entry entry, Set<AttributeType> attributeTypes )
+        throws LdapException
+    {
+        boolean complete = true;
+
+        for ( ValueTable valueTable : tables )
+        {
+            Attribute attribute = entry.get( valueTable.attributeType );
+
+            if ( ( attribute == null ) || ( attribute.size() > 0 ) )
+            {
+                continue;
+            }
+
+            if ( ( attributeTypes != null ) && !attributeTypes.contains( valueTable.attributeType ) )
+            {
+                complete = false;
+                continue;
+            }
+
+            try ( Cursor<String> cursor = valueTable.table.valueCursor( partitionTxn, id ) )
+            {
+                while ( cursor.next() )
+                {
+                    String record = cursor.get();
+                    int pos = record.indexOf( SEPARATOR );
+
+                    attribute.add( new Value( valueTable.attributeType, record.substring( pos + 1 ),
+                        record.substring( 0, pos ) ) );
+                }
+            }
+            catch ( CursorException | IOException e )
+            {
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+        }
+
+        return complete;
+    }
+
+
+    /**
+     * Removes the values of a deleted entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @throws LdapException If the tables can't be updated
+     */
+    public void remove( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        for ( ValueTable valueTable : tables )
+        {
+            if ( valueTable.table.has( partitionTxn, id ) )
+            {
+                valueTable.table.remove( partitionTxn, id );
+            }
+        }
+    }
+
+
+    /**
+     * Tells if the values of an attribute of an entry are stored out of line.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attributeType The attribute type
+     * @return <tt>true</tt> if the values are stored in the attribute table
+     * @throws LdapException If the table can't be read
+     */
+    public boolean isStored( PartitionTxn partitionTxn, String id, AttributeType attributeType ) throws LdapException
+    {
+        Table<String, String> table = getTable( attributeType );
+
+        return ( table != null ) && table.has( partitionTxn, id );
+    }
+
+
+    /**
+     * Checks if a value is stored out of line for an entry, without reading the other values.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attributeType The attribute type
+     * @param normalized The normalized value
+     * @return <tt>true</tt> if the entry has the value
+     * @throws LdapException If the table can't be read
+     */
+    public boolean contains( PartitionTxn partitionTxn, String id, AttributeType attributeType, String normalized )
+        throws LdapException
+    {
+        Table<String, String> table = getTable( attributeType );
+
+        return ( table != null ) && ( find( partitionTxn, id, table, normalized ) != null );
+    }
+
+
+    /**
+     * Counts the values stored out of line of an attribute of an entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param attributeType The attribute type
+     * @return The number of stored values
+     * @throws LdapException If the table can't be read
+     */
+    public long count( PartitionTxn partitionTxn, String id, AttributeType attributeType ) throws LdapException
+    {
+        Table<String, String> table = getTable( attributeType );
+
+        return ( table != null ) ? table.count( partitionTxn, id ) : 0L;
+    }
+
+
+    /**
+     * Adds some values to an attribute whose values are stored out of line, without reading
+     * its other values : the entry read from the master table only has an empty attribute.
+     * The values the entry already has are ignored.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param entry The entry read from the master table
+     * @param values The values to add
+     * @return The values which have been added, or null if the values of the attribute are
+     * not stored out of line, or have been read in the entry
+     * @throws LdapException If the table can't be updated
+     */
+    public List<Value> add( PartitionTxn partitionTxn, String id, Entry entry, Attribute values )
+        throws LdapException
+    {
+        Table<String, String> table = getWritableTable( entry, values.getAttributeType() );
+
+        if ( table == null )
+        {
+            return null;
+        }
+
+        List<Value> added = new ArrayList<>();
+
+        for ( Value value : values )
+        {
+            if ( find( partitionTxn, id, table, value.getNormalized() ) == null )
+            {
+                table.put( partitionTxn, id, encode( value ) );
+                added.add( value );
+            }
+        }
+
+        return added;
+    }
+
+
+    /**
+     * Removes some values from an attribute whose values are stored out of line, without
+     * reading its other values. The attribute is removed from the entry when it has no
+     * value left, and the values left are read in the entry when there are no more values
+     * than the threshold. The values the entry does not have are ignored.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @param entry The entry read from the master table
+     * @param values The values to remove
+     * @return The values which have been removed, or null if the values of the attribute
+     * are not stored out of line, or have been read in the entry
+     * @throws LdapException If the table can't be updated
+     */
+    public List<Value> remove( PartitionTxn partitionTxn, String id, Entry entry, Attribute values )
+        throws LdapException
+    {
+        Table<String, String> table = getWritableTable( entry, values.getAttributeType() );
+
+        if ( table == null )
+        {
+            return null;
+        }
+
+        List<Value> removed = new ArrayList<>();
+
+        for ( Value value : values )
+        {
+            String record = find( partitionTxn, id, table, value.getNormalized() );
+
+            if ( record != null )
+            {
+                table.remove( partitionTxn, id, record );
+                removed.add( value );
+            }
+        }
+
+        long count = table.count( partitionTxn, id );
+
+        if ( count == 0 )
+        {
+            entry.removeAttributes( values.getAttributeType() );
+        }
+        else if ( count <= threshold )
+        {
+            // The few values left are read, they are moved back in the entry when it's written
+            load( partitionTxn, id, entry, Collections.singleton( values.getAttributeType() ) );
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * Gets the table in which the values of an attribute can be changed in place. The values
+     * must not have been read in the entry, and they must be kept out of line when written.
+     */
+    private Table<String, String> getWritableTable( Entry entry, AttributeType attributeType )
+    {
+        Attribute attribute = entry.get( attributeType );
+
+        if ( ( threshold <= 0 ) || ( attribute == null ) || ( attribute.size() > 0 ) )
+        {
+            return null;
+        }
+
+        return getTable( attributeType );
+    }
+
+
+    /**
+     * Finds the stored record of a value, from its normalized form.
+     */
+    private String find( PartitionTxn partitionTxn, String id, Table<String, String> table, String normalized )
+        throws LdapException
+    {
+        String prefix = ( ( normalized == null ) ? "" : normalized ) + SEPARATOR;
+
+        try ( Cursor<String> cursor = table.valueCursor( partitionTxn, id ) )
+        {
+            cursor.before( prefix );
+
+            if ( cursor.next() )
+            {
+                String record = cursor.get();
+
+                if ( record.startsWith( prefix ) )
+                {
+                    return record;
+                }
+            }
+
+            return null;
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Closes the tables.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If a table can't be closed
+     */
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        for ( ValueTable valueTable : tables )
+        {
+            valueTable.table.close( partitionTxn );
+        }
+    }
+
+
+    private static String encode( Value value )
+    {
+        String normalized = value.getNormalized();
+
+        return ( ( normalized == null ) ? "" : normalized ) + SEPARATOR + value.getString();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The statistics of the indexes of a partition, per attribute type OID. The partition
+ * counts the modified entries, and the statistics are refreshed once a tenth of the
+ * entries have been modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StatisticsCatalog
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( StatisticsCatalog.class );
+
+    /** The version of the statistics file */
+    private static final int VERSION = 1;
+
+    /** The ratio of modified entries after which the statistics are refreshed */
+    private static final double REFRESH_RATIO = 0.1d;
+
+    /** The minimum number of modified entries before the statistics are refreshed */
+    private static final long MIN_CHANGES = 100L;
+
+    /** The statistics, per attribute type OID */
+    private final Map<String, IndexStatistics> statistics = new ConcurrentHashMap<>();
+
+    /** The number of modified entries since the last refresh */
+    private final AtomicLong nbChanges = new AtomicLong();
+
+    /** Tells if a refresh is running */
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /** Tells if the statistics have been gathered or loaded at least once */
+    private volatile boolean initialized;
+
+    /** Incremented each time the statistics are refreshed or loaded */
+    private final AtomicLong version = new AtomicLong();
+
+
+    /**
+     * Gets the statistics of an index.
+     *
+     * @param oid The OID of the indexed attribute type
+     * @return The statistics, or null if there are none
+     */
+    public IndexStatistics get( String oid )
+    {
+        return statistics.get( oid );
+    }
+
+
+    /**
+     * Sets the statistics of an index.
+     *
+     * @param oid The OID of the indexed attribute type
+     * @param indexStatistics The statistics, or null to remove them
+     */
+    public void put( String oid, IndexStatistics indexStatistics )
+    {
+        if ( indexStatistics == null )
+        {
+            statistics.remove( oid );
+        }
+        else
+        {
+            statistics.put( oid, indexStatistics );
+        }
+    }
+
+
+    /**
+     * @return The number of indexes having some statistics
+     */
+    public int size()
+    {
+        return statistics.size();
+    }
+
+
+    /**
+     * Counts a modified entry.
+     */
+    public void changed()
+    {
+        nbChanges.incrementAndGet();
+    }
+
+
+    /**
+     * @return The number of entries modified since the last refresh
+     */
+    public long getNbChanges()
+    {
+        return nbChanges.get();
+    }
+
+
+    /**
+     * Starts a refresh if the statistics have never been gathered, or if too many
+     * entries have been modified since the last refresh, and no refresh is running.
+     * The caller must then call {@link #endRefresh()} once done.
+     *
+     * @param nbEntries The number of entries of the partition
+     * @return <tt>true</tt> if the caller has to refresh the statistics
+     */
+    public boolean startRefresh( long nbEntries )
+    {
+        boolean due = !initialized || ( nbChanges.get() > Math.max( MIN_CHANGES, nbEntries * REFRESH_RATIO ) );
+
+        if ( due && refreshing.compareAndSet( false, true ) )
+        {
+            // The entries modified during the refresh will be counted for the next one
+            nbChanges.set( 0L );
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Ends a refresh started by {@link #startRefresh(long)}, successful or not.
+     */
+    public void endRefresh()
+    {
+        initialized = true;
+        version.incrementAndGet();
+        refreshing.set( false );
+    }
+
+
+    /**
+     * @return The version of the statistics, which changes each time they are refreshed
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+
+    /**
+     * Writes the statistics in a file.
+     *
+     * @param file The file
+     * @throws IOException If the file can't be written
+     */
+    public void save( File file ) throws IOException
+    {
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+        {
+            out.writeInt( VERSION );
+            out.writeLong( nbChanges.get() );
+            out.writeInt( statistics.size() );
+
+            for ( Map.Entry<String, IndexStatistics> entry : statistics.entrySet() )
+            {
+                out.writeUTF( entry.getKey() );
+                entry.getValue().write( out );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the statistics written by {@link #save(File)}. The statistics of the attribute
+     * types which are unknown, or which can't be compared, are ignored.
+     *
+     * @param file The file
+     * @param schemaManager The schema manager
+     * @throws IOException If the file can't be read
+     */
+    public void load( File file, SchemaManager schemaManager ) throws IOException
+    {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            if ( in.readInt() != VERSION )
+            {
+                LOG.info( "Ignoring the statistics file {}, written by another version", file );
+
+                return;
+            }
+
+            nbChanges.set( in.readLong() );
+            int nbIndexes = in.readInt();
+
+            for ( int i = 0; i < nbIndexes; i++ )
+            {
+                String oid = in.readUTF();
+                Comparator<? super String> comparator = getComparator( schemaManager, oid );
+                IndexStatistics indexStatistics = IndexStatistics.read( in, comparator );
+
+                if ( comparator != null )
+                {
+                    statistics.put( oid, indexStatistics );
+                }
+            }
+
+            initialized = true;
+            version.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Gets the comparator of the keys of an index.
+     *
+     * @param schemaManager The schema manager
+     * @param oid The OID of the indexed attribute type
+     * @return The comparator of its equality matching rule, or null if there is none
+     */
+    public static Comparator<? super String> getComparator( SchemaManager schemaManager, String oid )
+    {
+        try
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+            MatchingRule equality = attributeType.getEquality();
+
+            if ( ( equality == null ) || ( equality.getLdapComparator() == null ) )
+            {
+                return null;
+            }
+
+            return equality.getLdapComparator();
+        }
+        catch ( LdapException le )
+        {
+            return null;
+        }
+    }
+}
@@ -143,6 +143,22 @@ public interface Store
     boolean isSyncOnWrite();
 
 
+    /**
+     * Sets the flag telling the search engine to produce the candidates lazily
+     * from the index cursors, instead of gathering all of them in a set before
+     * the first entry is returned.
+     * 
+     * @param streamingSearch A boolean set to true if the candidates are streamed
+     */
+    void setStreamingSearch( boolean streamingSearch );
+
+
+    /**
+     * @return <code>true</code> if the search candidates are streamed
+     */
+    boolean isStreamingSearch();
+
+
     /**
      * Sets the cache size for this store.
      * @param cacheSize The cache size
@@ -158,6 +174,14 @@ public interface Store
     int getCacheSize();
 
 
+    /**
+     * Gets the number of filter shapes for which the optimizer keeps the scan counts.
+     *
+     * @return The size of the plan cache, 0 if the scan counts are computed for each search
+     */
+    int getPlanCacheSize();
+
+
     /**
      * Adds a (system or user) index to the list of index for this store.
      * Note that the attribute id returned by Index.getAttributeId() must be
@@ -374,6 +398,85 @@ public interface Store
     Entry fetch( PartitionTxn partitionTxn, String id, Dn dn ) throws LdapException;
 
 
+    /**
+     * Get back a search candidate knowing its UUID. The values stored in the blob store of
+     * the partition are not read : they are read by {@link #resolveBlobs(Entry, AttributeType)}
+     * when a filter is evaluated on their attribute, or when the entry is returned.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    Entry fetchCandidate( PartitionTxn partitionTxn, String id ) throws LdapException;
+
+
+    /**
+     * Reads the values stored in the blob store of an entry returned by
+     * {@link #fetchCandidate(PartitionTxn, String)}.
+     *
+     * @param entry The entry
+     * @param attributeType The attribute type whose values are read, with its descendants,
+     * or null to read all the values
+     * @throws LdapException If the values can't be read
+     */
+    void resolveBlobs( Entry entry, AttributeType attributeType ) throws LdapException;
+
+
+    /**
+     * Get back an entry knowing its UUID, with only some of its attributes
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @param dn The entry DN when we have it
+     * @param attributeTypes The attributeTypes to read, or null to read them all
+     * @return The found Entry, or null if not found
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    Entry fetch( PartitionTxn partitionTxn, String id, Dn dn, Set<AttributeType> attributeTypes ) throws LdapException;
+
+
+    /**
+     * Tells if the indexes reflect an entry as a transaction sees it, so that the filters
+     * can be checked on the indexes without reading the entry. This is not the case for a
+     * snapshot transaction when the entry has been modified since the snapshot was taken.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @return <tt>true</tt> if the indexes can be used instead of the entry
+     */
+    boolean isIndexCurrent( PartitionTxn partitionTxn, String id );
+
+
+    /**
+     * Tells if the values of an attribute of an entry are stored out of line, in a table
+     * keyed by the entry ID, rather than in the entry itself.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param attributeType The attribute type
+     * @return <tt>true</tt> if the values are stored out of line
+     * @throws LdapException If the table can't be read
+     */
+    boolean isStoredOutOfLine( PartitionTxn partitionTxn, String id, AttributeType attributeType )
+        throws LdapException;
+
+
+    /**
+     * Checks if an entry has a value, when the values of the attribute are stored out of
+     * line. Only this value is read.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param attributeType The attribute type
+     * @param normalized The normalized value
+     * @return <tt>true</tt> if the entry has the value
+     * @throws LdapException If the table can't be read
+     */
+    boolean hasOutOfLineValue( PartitionTxn partitionTxn, String id, AttributeType attributeType, String normalized )
+        throws LdapException;
+
+
     /**
      * Gets the count of immediate children of the given entry UUID.
      *
@@ -385,6 +488,18 @@ public interface Store
     long getChildCount( PartitionTxn partitionTxn, String id ) throws LdapException;
 
 
+    /**
+     * Gets the count of all the descendants of the given entry UUID, including the
+     * changes the given transaction has not yet written in the Rdn index.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id the entry UUID
+     * @return the descendant count
+     * @throws LdapException on failures to access the underlying store
+     */
+    long getDescendantCount( PartitionTxn partitionTxn, String id ) throws LdapException;
+
+
     /**
      * Modify an entry applying the given list of modifications.
      *
@@ -486,4 +601,24 @@ public interface Store
      * @return The cache
      */
     Cache< String, Dn > getAliasCache();
+
+    
+    /**
+     * Gets the nested interval labels of the entries, building them if needed.
+     * 
+     * @return The labels, or null if they are disabled for this store
+     * @throws LdapException If the labels can't be built
+     */
+    SubtreeLabels getSubtreeLabels() throws LdapException;
+
+
+    /**
+     * Gets the statistics of the indexes, starting a refresh in the background if they
+     * are missing or outdated.
+     * 
+     * @param partitionTxn The transaction to use
+     * @return The statistics, or null if they are disabled for this store
+     * @throws LdapException If the number of entries can't be read
+     */
+    StatisticsCatalog getStatistics( PartitionTxn partitionTxn ) throws LdapException;
 }
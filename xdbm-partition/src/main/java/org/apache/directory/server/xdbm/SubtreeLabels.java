@@ -0,0 +1,386 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Nested interval labels of the entries of a partition. Each entry gets an interval,
+ * [low, high[, which contains the intervals of all its descendants, and the intervals
+ * of two siblings never overlap. Checking if an entry is a descendant of another one is
+ * then a matter of comparing two numbers, instead of walking the ParentIdAndRdn up to
+ * the root.
+ * <br>
+ * The labels are built from the Rdn index, keeping some free space in each interval for
+ * the entries added later on. When an interval is full, the labels are dropped, and built
+ * again on the next use. The free space being proportional to the number of descendants,
+ * this does not happen often.
+ * <br>
+ * The labels are only kept in memory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubtreeLabels
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SubtreeLabels.class );
+
+    /** The interval width reserved per entry when the labels are built */
+    private static final long WIDTH = 1L << 32;
+
+    /** The upper bound of the labels */
+    private static final long MAX_LABEL = Long.MAX_VALUE / 2;
+
+    /** The result of a subtree check */
+    public enum Membership
+    {
+        /** The entry is a descendant of the base */
+        INSIDE,
+
+        /** The entry is not a descendant of the base */
+        OUTSIDE,
+
+        /** The labels can't tell, the ParentIdAndRdn have to be checked */
+        UNKNOWN
+    }
+
+    /** The label of an entry */
+    private static final class Label
+    {
+        /** The start of the interval, which is the entry position */
+        private final long low;
+
+        /** The end of the interval, excluded */
+        private final long high;
+
+        /** The start of the free space, where the next child will be added */
+        private long next;
+
+
+        private Label( long low, long high, long next )
+        {
+            this.low = low;
+            this.high = high;
+            this.next = next;
+        }
+    }
+
+    /** A consistent set of labels */
+    private static final class Labels
+    {
+        /** The labels, per entry ID */
+        private final Map<String, Label> byId = new ConcurrentHashMap<>();
+
+        /** The entry IDs, in label order */
+        private final NavigableMap<Long, String> byLow = new ConcurrentSkipListMap<>();
+
+        /** The number of labels, only used while building them */
+        private long size;
+
+
+        private void put( String id, Label label )
+        {
+            byId.put( id, label );
+            byLow.put( label.low, id );
+        }
+
+
+        private void remove( String id, Label label )
+        {
+            byId.remove( id );
+            byLow.remove( label.low );
+        }
+    }
+
+    /** The current labels, or null if they have to be built */
+    private volatile Labels labels;
+
+
+    /**
+     * @return <tt>true</tt> if the labels are built
+     */
+    public boolean isBuilt()
+    {
+        return labels != null;
+    }
+
+
+    /**
+     * Builds the labels of all the entries, walking the Rdn index. The caller must
+     * make sure the Rdn index is not modified meanwhile.
+     *
+     * @param partitionTxn The transaction to use
+     * @param rdnIdx The Rdn index
+     * @throws LdapException If the Rdn index can't be read
+     */
+    public synchronized void build( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIdx )
+        throws LdapException
+    {
+        if ( labels != null )
+        {
+            return;
+        }
+
+        Labels built = new Labels();
+        long high = build( partitionTxn, rdnIdx, built, Partition.ROOT_ID, 0L );
+
+        if ( high < 0L )
+        {
+            LOG.warn( "The partition is too deep to be labeled, the subtree checks will use the Rdn index" );
+
+            return;
+        }
+
+        LOG.debug( "Labeled {} entries", built.size );
+        labels = built;
+    }
+
+
+    /**
+     * Labels an entry and its descendants. The interval of the entry starts at the given
+     * position, and contains the intervals of its children followed by some free space.
+     *
+     * @return The end of the entry interval, or -1 if the labels are exhausted
+     */
+    private long build( PartitionTxn partitionTxn, Index<ParentIdAndRdn, String> rdnIdx, Labels built, String id,
+        long low ) throws LdapException
+    {
+        long next = low + 1L;
+        long sizeBefore = built.size;
+
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+        startingPos.setKey( new ParentIdAndRdn( id, ( Rdn[] ) null ) );
+
+        try ( Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn ) )
+        {
+            cursor.before( startingPos );
+
+            while ( cursor.next() )
+            {
+                IndexEntry<ParentIdAndRdn, String> child = cursor.get();
+
+                if ( !child.getKey().getParentId().equals( id ) )
+                {
+                    break;
+                }
+
+                next = build( partitionTxn, rdnIdx, built, child.getId(), next );
+
+                if ( next < 0L )
+                {
+                    return -1L;
+                }
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        // Keep as much free space as needed to double the number of descendants
+        long nbDescendants = built.size - sizeBefore;
+        long high = next + ( nbDescendants + 1L ) * WIDTH;
+
+        if ( ( nbDescendants >= MAX_LABEL / WIDTH ) || ( high > MAX_LABEL ) )
+        {
+            return -1L;
+        }
+
+        built.put( id, new Label( low, high, next ) );
+        built.size++;
+
+        return high;
+    }
+
+
+    /**
+     * Drops the labels. They will be built again on the next use.
+     */
+    public void invalidate()
+    {
+        labels = null;
+    }
+
+
+    /**
+     * Labels an added entry, in the free space of its parent. If there is no more
+     * free space, the labels are dropped.
+     *
+     * @param parentId The parent ID
+     * @param id The added entry ID
+     */
+    public synchronized void add( String parentId, String id )
+    {
+        Labels current = labels;
+
+        if ( current == null )
+        {
+            return;
+        }
+
+        Label parent = current.byId.get( parentId );
+        long free = ( parent != null ) ? parent.high - parent.next : 0L;
+
+        if ( free <= 0L )
+        {
+            labels = null;
+
+            return;
+        }
+
+        long width = Math.max( 1L, Math.min( WIDTH, free / 2L ) );
+        current.put( id, new Label( parent.next, parent.next + width, parent.next + 1L ) );
+        parent.next += width;
+    }
+
+
+    /**
+     * Removes the label of a deleted entry. Its interval is not reused.
+     *
+     * @param id The deleted entry ID
+     */
+    public synchronized void remove( String id )
+    {
+        Labels current = labels;
+
+        if ( current == null )
+        {
+            return;
+        }
+
+        Label label = current.byId.get( id );
+
+        if ( label != null )
+        {
+            current.remove( id, label );
+        }
+    }
+
+
+    /**
+     * Moves the labels of a moved subtree in the free space of its new parent. The
+     * relative positions of the moved entries don't change, so they are all shifted
+     * by the same offset. If there is not enough free space, the labels are dropped.
+     *
+     * @param id The moved entry ID
+     * @param newParentId The new parent ID
+     */
+    public synchronized void move( String id, String newParentId )
+    {
+        Labels current = labels;
+
+        if ( current == null )
+        {
+            return;
+        }
+
+        Label moved = current.byId.get( id );
+        Label parent = current.byId.get( newParentId );
+
+        if ( ( moved == null ) || ( parent == null ) || ( parent.high - parent.next < moved.high - moved.low ) )
+        {
+            labels = null;
+
+            return;
+        }
+
+        long offset = parent.next - moved.low;
+        parent.next += moved.high - moved.low;
+
+        List<String> subtree = new ArrayList<>( current.byLow.subMap( moved.low, true, moved.high, false ).values() );
+        List<Label> shifted = new ArrayList<>( subtree.size() );
+
+        // Remove all the labels first, so that a concurrent check never compares an old label
+        // with a new one : it will get UNKNOWN instead
+        for ( String movedId : subtree )
+        {
+            Label label = current.byId.get( movedId );
+            current.remove( movedId, label );
+            shifted.add( new Label( label.low + offset, label.high + offset, label.next + offset ) );
+        }
+
+        for ( int i = 0; i < subtree.size(); i++ )
+        {
+            current.put( subtree.get( i ), shifted.get( i ) );
+        }
+    }
+
+
+    /**
+     * Tells if an entry is a descendant of a base entry.
+     *
+     * @param baseId The base entry ID
+     * @param id The entry ID
+     * @return {@link Membership#UNKNOWN} if one of the entries has no label
+     */
+    public Membership isDescendant( String baseId, String id )
+    {
+        Labels current = labels;
+
+        if ( current == null )
+        {
+            return Membership.UNKNOWN;
+        }
+
+        Label base = current.byId.get( baseId );
+        Label label = current.byId.get( id );
+
+        if ( ( base == null ) || ( label == null ) )
+        {
+            return Membership.UNKNOWN;
+        }
+
+        if ( ( label.low > base.low ) && ( label.low < base.high ) )
+        {
+            return Membership.INSIDE;
+        }
+
+        return Membership.OUTSIDE;
+    }
+
+
+    /**
+     * @return The number of labeled entries, or -1 if the labels are not built
+     */
+    public long size()
+    {
+        Labels current = labels;
+
+        return ( current != null ) ? current.byId.size() : -1L;
+    }
+}
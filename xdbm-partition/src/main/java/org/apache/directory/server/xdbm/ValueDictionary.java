@@ -0,0 +1,380 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A dictionary of the values repeated in the entries of a partition, like the objectClass
+ * values or the creatorsName and modifiersName Dns. The entries stored in the master table
+ * only keep the number of those values in the dictionary.
+ * <br>
+ * The dictionary is built incrementally : a value is added once it has been written
+ * {@link #MIN_OCCURRENCES} times, until the dictionary contains its maximum number of
+ * values. A value is never removed, nor its number changed, as the stored entries use it.
+ * The file is append only : each value is written at its end, preceded by its length.
+ * <br>
+ * The values are kept in memory, they are read when the dictionary is opened.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ValueDictionary
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ValueDictionary.class );
+
+    /** The number of times a value has to be written before being added */
+    public static final int MIN_OCCURRENCES = 3;
+
+    /** The shortest value added to the dictionary */
+    public static final int MIN_LENGTH = 4;
+
+    /** The longest value added to the dictionary */
+    public static final int MAX_LENGTH = 1024;
+
+    /** The file */
+    private final File file;
+
+    /** The maximum number of values, 0 to stop adding values */
+    private final int maxSize;
+
+    /** The channel used to write the file */
+    private FileChannel channel;
+
+    /** The values, per number. Only the first size values are set */
+    private volatile byte[][] values = new byte[16][];
+
+    /** The number of values */
+    private volatile int size;
+
+    /** The value numbers */
+    private final Map<ByteBuffer, Integer> numbers = new ConcurrentHashMap<>();
+
+    /** The number of times the values which are not in the dictionary have been written */
+    private final Map<ByteBuffer, Integer> candidates = new ConcurrentHashMap<>();
+
+    /** The number of lookups */
+    private final AtomicLong nbLookups = new AtomicLong();
+
+    /** The number of values found in the dictionary */
+    private final AtomicLong nbHits = new AtomicLong();
+
+
+    /**
+     * Creates a new ValueDictionary instance.
+     *
+     * @param file The file containing the values
+     * @param maxSize The maximum number of values, 0 to only use the existing ones
+     */
+    public ValueDictionary( File file, int maxSize )
+    {
+        this.file = file;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Opens the dictionary, reading all the values. A value which has not been completely
+     * written, because the server has been stopped meanwhile, is removed.
+     *
+     * @throws IOException If the file can't be read
+     */
+    public synchronized void open() throws IOException
+    {
+        channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE );
+
+        long fileSize = channel.size();
+        long position = 0L;
+        ByteBuffer header = ByteBuffer.allocate( 4 );
+
+        while ( position + 4 <= fileSize )
+        {
+            header.clear();
+            readFully( channel, header, position );
+            header.flip();
+            int length = header.getInt();
+
+            if ( ( length < 0 ) || ( position + 4 + length > fileSize ) )
+            {
+                break;
+            }
+
+            ByteBuffer value = ByteBuffer.allocate( length );
+            readFully( channel, value, position + 4 );
+            append( value.array() );
+            position += 4 + length;
+        }
+
+        if ( position < fileSize )
+        {
+            LOG.warn( "Removing {} bytes of incomplete values at the end of {}", fileSize - position, file );
+            channel.truncate( position );
+        }
+
+        LOG.debug( "Opened the value dictionary {}, containing {} values", file, size );
+    }
+
+
+    /**
+     * Looks for a value written in an entry, and counts it as a candidate if it's not in the
+     * dictionary. A value added by this call is on the disk when it returns, so an entry
+     * using it can be written.
+     *
+     * @param value The value
+     * @return The value number, or -1 if the value is not in the dictionary
+     * @throws IOException If a new value can't be written
+     */
+    public int lookup( byte[] value ) throws IOException
+    {
+        if ( ( value.length < MIN_LENGTH ) || ( value.length > MAX_LENGTH ) )
+        {
+            return -1;
+        }
+
+        nbLookups.incrementAndGet();
+        ByteBuffer key = ByteBuffer.wrap( value );
+        Integer number = numbers.get( key );
+
+        if ( number != null )
+        {
+            nbHits.incrementAndGet();
+
+            return number;
+        }
+
+        if ( size >= maxSize )
+        {
+            return -1;
+        }
+
+        // Forget about the candidates when there are too many of them, the frequent
+        // values will quickly be counted again
+        if ( candidates.size() >= 4 * maxSize )
+        {
+            candidates.clear();
+        }
+
+        int count = candidates.merge( key, 1, Integer::sum );
+
+        if ( count < MIN_OCCURRENCES )
+        {
+            return -1;
+        }
+
+        return add( value );
+    }
+
+
+    /**
+     * Looks for a value in the dictionary, without counting it. This is used when an
+     * entry which has already been counted is serialized again.
+     *
+     * @param value The value
+     * @return The value number, or -1 if the value is not in the dictionary
+     */
+    public int find( byte[] value )
+    {
+        if ( ( value.length < MIN_LENGTH ) || ( value.length > MAX_LENGTH ) )
+        {
+            return -1;
+        }
+
+        Integer number = numbers.get( ByteBuffer.wrap( value ) );
+
+        return ( number == null ) ? -1 : number;
+    }
+
+
+    /**
+     * Adds a value at the end of the file
+     */
+    private synchronized int add( byte[] value ) throws IOException
+    {
+        ByteBuffer key = ByteBuffer.wrap( value );
+        Integer number = numbers.get( key );
+
+        if ( number != null )
+        {
+            return number;
+        }
+
+        if ( size >= maxSize )
+        {
+            return -1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( 4 + value.length );
+        buffer.putInt( value.length ).put( value );
+        buffer.flip();
+
+        long position = channel.size();
+
+        while ( buffer.hasRemaining() )
+        {
+            position += channel.write( buffer, position );
+        }
+
+        channel.force( false );
+        candidates.remove( key );
+
+        return append( Arrays.copyOf( value, value.length ) );
+    }
+
+
+    /**
+     * Adds a value to the in memory dictionary
+     */
+    private int append( byte[] value )
+    {
+        byte[][] current = values;
+        int number = size;
+
+        if ( number == current.length )
+        {
+            current = Arrays.copyOf( current, number * 2 );
+        }
+
+        // The value is visible before the size is incremented
+        current[number] = value;
+        values = current;
+        size = number + 1;
+        numbers.put( ByteBuffer.wrap( value ), number );
+
+        return number;
+    }
+
+
+    /**
+     * Reads a value.
+     *
+     * @param number The value number
+     * @return The value. It must not be modified
+     * @throws IOException If the dictionary does not contain this value
+     */
+    public byte[] get( int number ) throws IOException
+    {
+        // Read the size first, the values array is then at least as recent
+        int currentSize = size;
+        byte[][] current = values;
+
+        if ( ( number < 0 ) || ( number >= currentSize ) )
+        {
+            throw new IOException( "No value " + number + " in the dictionary " + file );
+        }
+
+        return current[number];
+    }
+
+
+    /**
+     * @return The maximum number of values
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * @return The number of values
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of values looked for
+     */
+    public long getNbLookups()
+    {
+        return nbLookups.get();
+    }
+
+
+    /**
+     * @return The number of values found in the dictionary
+     */
+    public long getNbHits()
+    {
+        return nbHits.get();
+    }
+
+
+    /**
+     * @return The ratio of the values found in the dictionary, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long lookups = nbLookups.get();
+
+        return ( lookups == 0L ) ? 0d : ( double ) nbHits.get() / lookups;
+    }
+
+
+    /**
+     * Closes the dictionary.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    public synchronized void close() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+
+    /**
+     * Reads the remaining bytes of a buffer
+     */
+    private static void readFully( FileChannel channel, ByteBuffer buffer, long position ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            int read = channel.read( buffer, position );
+
+            if ( read < 0 )
+            {
+                throw new EOFException();
+            }
+
+            position += read;
+        }
+    }
+}
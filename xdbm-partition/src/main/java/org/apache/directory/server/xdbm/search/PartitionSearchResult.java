@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
@@ -32,7 +33,7 @@ import org.apache.directory.server.xdbm.IndexEntry;
 /**
  * A class containing the result of a search :
  * <ul>
- * <li>A set of candidate UUIDs</li>
+ * <li>A set of candidate UUIDs, or a Cursor producing them lazily</li>
  * <li>A set of aliased entry if we have any</li>
  * <li>A flag telling if we are dereferencing aliases or not</li>
  * <li>A hierarchy of evaluators to use to validate the candidates</li>
@@ -41,8 +42,11 @@ import org.apache.directory.server.xdbm.IndexEntry;
  */
 public class PartitionSearchResult
 {
-    /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    /** The candidate UUIDs selected by the search */
+    private Cursor<IndexEntry<String, String>> resultSet;
+
+    /** Tells if the candidates are produced lazily by the result Cursor */
+    private boolean streamed;
 
     /** The set of candidate UUIDs */
     private Set<String> candidateSet;
@@ -71,7 +75,7 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
@@ -83,6 +87,29 @@ public class PartitionSearchResult
     public void setResultSet( Set<IndexEntry<String, String>> set )
     {
         resultSet = new SetCursor<>( set );
+        streamed = false;
+    }
+
+
+    /**
+     * Sets a Cursor which will produce the candidates on demand, instead of
+     * a set of already selected candidates.
+     * 
+     * @param cursor the Cursor producing the candidates
+     */
+    public void setResultCursor( Cursor<IndexEntry<String, String>> cursor )
+    {
+        resultSet = cursor;
+        streamed = true;
+    }
+
+
+    /**
+     * @return <code>true</code> if the candidates are produced on demand by the result Cursor
+     */
+    public boolean isStreamed()
+    {
+        return streamed;
     }
 
 
@@ -200,6 +227,11 @@ public class PartitionSearchResult
         {
             sb.append( "No UUID found" );
         }
+        else if ( streamed )
+        {
+            // Don't consume the candidates
+            sb.append( resultSet.toString( "" ) );
+        }
         else
         {
             sb.append( '{' );
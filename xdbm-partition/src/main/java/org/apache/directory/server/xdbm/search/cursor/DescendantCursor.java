@@ -266,8 +266,9 @@ public class DescendantCursor extends AbstractIndexCursor<String>
                         prefetched = cursorEntry;
                     }
 
-                    // Check if the current entry has children or not.
-                    if ( parentIdAndRdn.getNbDescendants() > 0 )
+                    // Check if the current entry has children or not. The number of children is
+                    // always up to date, unlike the number of descendants
+                    if ( parentIdAndRdn.getNbChildren() > 0 )
                     {
                         String newParentId = ( String ) cursorEntry.getId();
 
@@ -0,0 +1,274 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.search.impl.CandidateSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor wrapping an index Cursor which may return the same entry more than
+ * once (typically a range scan over a multi-valued attribute index), and which
+ * only returns the first occurrence of each entry ID. The IDs are remembered
+ * as they are returned, so the memory used by this cursor grows with the number
+ * of distinct candidates, not with the number of index tuples.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DistinctIdCursor<V> extends AbstractIndexCursor<V>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The wrapped cursor */
+    private final Cursor<IndexEntry<V, String>> wrapped;
+
+    /** The IDs already returned since the cursor was last positioned */
+    private final CandidateSet returnedIds = new CandidateSet();
+
+    /** The candidate we have fetched in the next/previous call */
+    private IndexEntry<V, String> prefetched;
+
+
+    /**
+     * Creates a new instance of a DistinctIdCursor
+     *
+     * @param partitionTxn The transaction to use
+     * @param wrapped The encapsulated Cursor
+     */
+    public DistinctIdCursor( PartitionTxn partitionTxn, Cursor<IndexEntry<V, String>> wrapped )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating DistinctIdCursor {}", this );
+        }
+
+        this.wrapped = wrapped;
+        this.partitionTxn = partitionTxn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        wrapped.beforeFirst();
+        returnedIds.clear();
+        prefetched = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        wrapped.afterLast();
+        returnedIds.clear();
+        prefetched = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        while ( wrapped.previous() )
+        {
+            checkNotClosed();
+            IndexEntry<V, String> candidate = wrapped.get();
+
+            if ( returnedIds.add( candidate.getId() ) )
+            {
+                prefetched = candidate;
+
+                return setAvailable( true );
+            }
+        }
+
+        prefetched = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        while ( wrapped.next() )
+        {
+            checkNotClosed();
+            IndexEntry<V, String> candidate = wrapped.get();
+
+            if ( returnedIds.add( candidate.getId() ) )
+            {
+                prefetched = candidate;
+
+                return setAvailable( true );
+            }
+        }
+
+        prefetched = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<V, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( available() )
+        {
+            return prefetched;
+        }
+
+        throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing DistinctIdCursor {}", this );
+        }
+
+        super.close();
+        wrapped.close();
+        returnedIds.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing DistinctIdCursor {}", this );
+        }
+
+        super.close( cause );
+        wrapped.close( cause );
+        returnedIds.clear();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "DistinctIdCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( " #" ).append( returnedIds.size() ).append( " :\n" );
+        sb.append( wrapped.toString( tabs + "  " ) );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
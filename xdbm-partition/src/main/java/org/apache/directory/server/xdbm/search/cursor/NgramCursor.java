@@ -0,0 +1,381 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the index tuples whose key contains a given n-gram. The keys are read
+ * from the n-gram table of the index, the ones not matching the substring pattern are
+ * skipped, and the tuples of the remaining keys are read from the forward table.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NgramCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The index to read */
+    private final Index<String, String> index;
+
+    /** The n-gram the keys must contain */
+    private final String ngram;
+
+    /** The pattern the keys must match */
+    private final Pattern pattern;
+
+    /** The Cursor over the keys containing the n-gram */
+    private final Cursor<String> keys;
+
+    /** The Cursor over the tuples of the current key */
+    private Cursor<IndexEntry<String, String>> tuples;
+
+    /** The candidate we have fetched in the next/previous call */
+    private IndexEntry<String, String> prefetched;
+
+
+    /**
+     * Creates a new instance of a NgramCursor
+     *
+     * @param partitionTxn The transaction to use
+     * @param index The index to read
+     * @param ngram The n-gram the keys must contain
+     * @param pattern The pattern the keys must match
+     * @throws LdapException If the n-gram table can't be read
+     */
+    public NgramCursor( PartitionTxn partitionTxn, Index<String, String> index, String ngram, Pattern pattern )
+        throws LdapException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating NgramCursor {}", this );
+        }
+
+        this.partitionTxn = partitionTxn;
+        this.index = index;
+        this.ngram = ngram;
+        this.pattern = pattern;
+        keys = index.ngramValueCursor( partitionTxn, ngram );
+    }
+
+
+    /**
+     * Gets the substrings a value must contain to match a substring filter, ie the
+     * any and final parts of the filter. The initial part is not used, as the forward
+     * index is already sorted on it.
+     *
+     * @param node The substring filter
+     * @return The list of substrings
+     */
+    public static List<String> getSubstrings( SubstringNode node )
+    {
+        List<String> substrings = new ArrayList<>();
+
+        if ( node.getAny() != null )
+        {
+            substrings.addAll( node.getAny() );
+        }
+
+        if ( node.getFinal() != null )
+        {
+            substrings.add( node.getFinal() );
+        }
+
+        return substrings;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * Closes the Cursor over the tuples of the current key, if any
+     */
+    private void closeTuples() throws LdapException
+    {
+        if ( tuples != null )
+        {
+            try
+            {
+                tuples.close();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            tuples = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        closeTuples();
+        keys.beforeFirst();
+        prefetched = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        closeTuples();
+        keys.afterLast();
+        prefetched = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * Moves to the next (or previous) key matching the pattern, and opens the Cursor
+     * over its tuples.
+     *
+     * @return false if there is no more key
+     */
+    private boolean moveToKey( boolean forward ) throws LdapException, CursorException
+    {
+        closeTuples();
+
+        while ( forward ? keys.next() : keys.previous() )
+        {
+            checkNotClosed();
+            String key = keys.get();
+
+            if ( ( pattern == null ) || pattern.matcher( key ).matches() )
+            {
+                tuples = index.forwardCursor( partitionTxn, key );
+
+                if ( forward )
+                {
+                    tuples.beforeFirst();
+                }
+                else
+                {
+                    tuples.afterLast();
+                }
+
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        do
+        {
+            if ( ( tuples != null ) && tuples.previous() )
+            {
+                prefetched = tuples.get();
+
+                return setAvailable( true );
+            }
+        }
+        while ( moveToKey( false ) );
+
+        prefetched = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        do
+        {
+            if ( ( tuples != null ) && tuples.next() )
+            {
+                prefetched = tuples.get();
+
+                return setAvailable( true );
+            }
+        }
+        while ( moveToKey( true ) );
+
+        prefetched = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( available() )
+        {
+            return prefetched;
+        }
+
+        throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing NgramCursor {}", this );
+        }
+
+        super.close();
+        keys.close();
+
+        if ( tuples != null )
+        {
+            tuples.close();
+            tuples = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing NgramCursor {}", this );
+        }
+
+        super.close( cause );
+        keys.close( cause );
+
+        if ( tuples != null )
+        {
+            tuples.close( cause );
+            tuples = null;
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "NgramCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( " #ngram<" ).append( ngram ).append( ">" );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor returning the entries having a value in an index, sorted by their value. An entry
+ * having many values is only returned once, with its lowest value, as required by the sort
+ * control. The candidates are not checked against the search filter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedIndexCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The sort index */
+    private final Index<String, String> sortIdx;
+
+    /** The Cursor over the sort index */
+    private final Cursor<IndexEntry<String, String>> cursor;
+
+    /** Tells if the entries are returned in the reverse order */
+    private final boolean reverse;
+
+    /** Tells if the entries may have more than one value */
+    private final boolean multiValued;
+
+    /** The prefetched element */
+    private IndexEntry<String, String> prefetched;
+
+
+    /**
+     * Creates a Cursor over the entries of an index, sorted by their value.
+     *
+     * @param partitionTxn The transaction to use
+     * @param sortIdx The sort index, which must have a reverse table if the values are multi-valued
+     * @param reverse Tells if the entries are returned in the reverse order
+     * @param multiValued Tells if the entries may have more than one value
+     * @throws LdapException If the index can't be read
+     */
+    public SortedIndexCursor( PartitionTxn partitionTxn, Index<String, String> sortIdx, boolean reverse,
+        boolean multiValued ) throws LdapException
+    {
+        this.partitionTxn = partitionTxn;
+        this.sortIdx = sortIdx;
+        this.cursor = sortIdx.forwardCursor( partitionTxn );
+        this.reverse = reverse;
+        this.multiValued = multiValued;
+
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating SortedIndexCursor {}", this );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( reverse )
+        {
+            cursor.afterLast();
+        }
+        else
+        {
+            cursor.beforeFirst();
+        }
+
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( reverse )
+        {
+            cursor.beforeFirst();
+        }
+        else
+        {
+            cursor.afterLast();
+        }
+
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        while ( reverse ? cursor.previous() : cursor.next() )
+        {
+            if ( isLowestValue( cursor.get() ) )
+            {
+                return setAvailable( true );
+            }
+        }
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        while ( reverse ? cursor.next() : cursor.previous() )
+        {
+            if ( isLowestValue( cursor.get() ) )
+            {
+                return setAvailable( true );
+            }
+        }
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * Checks if the current value is the one the entry is sorted by, and keeps a copy of it.
+     */
+    private boolean isLowestValue( IndexEntry<String, String> indexEntry ) throws LdapException
+    {
+        if ( multiValued )
+        {
+            String lowest = sortIdx.reverseLookup( partitionTxn, indexEntry.getId() );
+
+            if ( ( lowest != null ) && !lowest.equals( indexEntry.getKey() ) )
+            {
+                return false;
+            }
+        }
+
+        prefetched = new IndexEntry<>();
+        prefetched.setId( indexEntry.getId() );
+        prefetched.setKey( indexEntry.getKey() );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( available() )
+        {
+            return prefetched;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SortedIndexCursor {}", this );
+        }
+
+        cursor.close();
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing SortedIndexCursor {}", this );
+        }
+
+        cursor.close( cause );
+
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "SortedIndexCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( reverse ? " reverse" : "" ).append( " :\n" );
+        sb.append( cursor.toString( tabs + "  " ) );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -84,8 +84,24 @@ public class SubstringCursor extends AbstractIndexCursor<String>
 
         if ( hasIndex )
         {
-            wrapped = ( ( Index<String, String> ) store.getIndex( evaluator.getExpression().getAttributeType() ) )
-                .forwardCursor( partitionTxn );
+            Index<String, String> index = ( Index<String, String> ) store.getIndex( evaluator.getExpression()
+                .getAttributeType() );
+            String ngram = null;
+
+            if ( ( evaluator.getExpression().getInitial() == null ) && index.hasNgrams() )
+            {
+                // No initial part : only read the values containing the rarest n-gram
+                ngram = index.selectNgram( partitionTxn, NgramCursor.getSubstrings( evaluator.getExpression() ) );
+            }
+
+            if ( ngram != null )
+            {
+                wrapped = new NgramCursor( partitionTxn, index, ngram, evaluator.getPattern() );
+            }
+            else
+            {
+                wrapped = index.forwardCursor( partitionTxn );
+            }
         }
         else
         {
@@ -154,7 +154,7 @@ public class ApproximateEvaluator<T> extends LeafEvaluator<T>
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
@@ -165,6 +165,9 @@ public class ApproximateEvaluator<T> extends LeafEvaluator<T>
             indexEntry.setEntry( entry );
         }
 
+        // Only the values of the evaluated attribute stored in the blob store are read
+        db.resolveBlobs( entry, attributeType );
+
         return evaluate( entry );
     }
 
@@ -92,7 +92,7 @@ public class BaseLevelScopeEvaluator<E> implements Evaluator<ScopeNode>
         // Fetch the entry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
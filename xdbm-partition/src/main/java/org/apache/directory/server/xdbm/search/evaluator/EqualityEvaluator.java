@@ -101,15 +101,30 @@ public class EqualityEvaluator<T> extends LeafEvaluator<T>
     /**
      * {@inheritDoc}
      */
+    @SuppressWarnings("unchecked")
     @Override
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         Entry entry = indexEntry.getEntry();
 
+        // Check the index if the entry has not been read yet : it will only be read
+        // if the candidate is returned
+        if ( ( null == entry ) && isCovering( partitionTxn, indexEntry.getId() ) )
+        {
+            return idx.forward( partitionTxn, ( T ) node.getValue().getNormalized(), indexEntry.getId() );
+        }
+
+        // Same thing if the values are stored out of line : only the asserted value is read
+        if ( ( null == entry ) && isStoredOutOfLine( partitionTxn, indexEntry.getId() ) )
+        {
+            return db.hasOutOfLineValue( partitionTxn, indexEntry.getId(), attributeType,
+                node.getValue().getNormalized() );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
@@ -120,10 +135,24 @@ public class EqualityEvaluator<T> extends LeafEvaluator<T>
             indexEntry.setEntry( entry );
         }
 
+        // Only the values of the evaluated attribute stored in the blob store are read
+        db.resolveBlobs( entry, attributeType );
+
         return evaluate( entry );
     }
 
 
+    /**
+     * Tells if the values of the attribute of a candidate are stored out of line, and can
+     * be checked without reading the entry.
+     */
+    private boolean isStoredOutOfLine( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return ( id != null ) && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType )
+            && db.isIndexCurrent( partitionTxn, id ) && db.isStoredOutOfLine( partitionTxn, id, attributeType );
+    }
+
+
     /**
      * {@inheritDoc}
      */
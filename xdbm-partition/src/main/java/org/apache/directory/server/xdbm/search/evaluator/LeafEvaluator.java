@@ -20,11 +20,19 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
+import java.io.IOException;
+import java.util.function.Predicate;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -60,6 +68,9 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
     /** The index to use if any */
     protected Index<T, String> idx;
 
+    /** Tells if the index holds all the values the assertion is checked against, computed on first use */
+    private Boolean covering;
+
 
     /**
      * Creates a new LeafEvaluator
@@ -104,6 +115,61 @@ public abstract class LeafEvaluator<T> implements Evaluator<SimpleNode<T>>
     }
 
 
+    /**
+     * Tells if a candidate can be checked on the index rather than on its entry. This is
+     * possible when the attribute has a user index, holding the same normalized values
+     * as the entry, and no descendant whose values would be stored elsewhere.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The candidate ID
+     * @return <tt>true</tt> if the index can be used instead of the entry
+     * @throws LdapException If the indexes can't be checked
+     */
+    protected boolean isCovering( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( covering == null )
+        {
+            covering = ( idx != null ) && db.hasUserIndexOn( attributeType )
+                && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
+        }
+
+        return covering && ( id != null ) && db.isIndexCurrent( partitionTxn, id );
+    }
+
+
+    /**
+     * Looks for a value of a candidate in the reverse index. This must only be used when
+     * the index covers the assertion, and has a reverse table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The candidate ID
+     * @param matcher The test the value must pass
+     * @return The first value passing the test, or null if there is none
+     * @throws LdapException If the index can't be read
+     */
+    protected T findIndexedValue( PartitionTxn partitionTxn, String id, Predicate<T> matcher ) throws LdapException
+    {
+        try ( Cursor<T> values = idx.reverseValueCursor( partitionTxn, id ) )
+        {
+            while ( values.next() )
+            {
+                T value = values.get();
+
+                if ( matcher.test( value ) )
+                {
+                    return value;
+                }
+            }
+
+            return null;
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
     /**
      * @see Object#toString()
      */
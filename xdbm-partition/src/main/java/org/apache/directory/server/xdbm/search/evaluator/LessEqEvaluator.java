@@ -118,10 +118,29 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
     {
         Entry entry = indexEntry.getEntry();
 
+        // Check the values in the reverse index if the entry has not been read yet : it
+        // will only be read if the candidate is returned
+        if ( ( null == entry ) && isCovering( partitionTxn, indexEntry.getId() ) && idx.hasReverse() )
+        {
+            String nodeValue = node.getValue().getNormalized();
+            T value = findIndexedValue( partitionTxn, indexEntry.getId(),
+                indexedValue -> ldapComparator.compare( indexedValue, nodeValue ) <= 0 );
+
+            if ( value == null )
+            {
+                return false;
+            }
+
+            //noinspection unchecked
+            ( ( IndexEntry<Object, String> ) indexEntry ).setKey( value );
+
+            return true;
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
@@ -132,6 +151,9 @@ public class LessEqEvaluator<T> extends LeafEvaluator<T>
             indexEntry.setEntry( entry );
         }
 
+        // Only the values of the evaluated attribute stored in the blob store are read
+        db.resolveBlobs( entry, attributeType );
+
         // get the attribute
         Attribute attr = entry.get( attributeType );
 
@@ -95,13 +95,20 @@ public class OneLevelScopeEvaluator<E> implements Evaluator<ScopeNode>
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         ParentIdAndRdn parent = db.getRdnIndex().reverseLookup( partitionTxn, indexEntry.getId() );
-        boolean isChild = parent.getParentId().equals( baseId );
+        boolean isChild = ( parent != null ) && parent.getParentId().equals( baseId );
+
+        // No need to fetch a candidate which is out of scope
+        if ( !isChild && !dereferencing )
+        {
+            return false;
+        }
+
         Entry entry = indexEntry.getEntry();
 
         // Fetch the entry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
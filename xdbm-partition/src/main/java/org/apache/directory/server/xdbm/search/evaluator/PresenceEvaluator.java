@@ -55,6 +55,9 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     /** The SchemaManager instance */
     private final SchemaManager schemaManager;
 
+    /** Tells if the presence index holds the attribute, computed on first use */
+    private Boolean covering;
+
 
     /**
      * Creates a new PresenceEvaluator
@@ -101,10 +104,17 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     {
         Entry entry = indexEntry.getEntry();
 
+        // Check the presence index if the entry has not been read yet : it will only be
+        // read if the candidate is returned
+        if ( ( null == entry ) && isCovering( partitionTxn, indexEntry.getId() ) )
+        {
+            return db.getPresenceIndex().forward( partitionTxn, attributeType.getOid(), indexEntry.getId() );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
@@ -119,6 +129,23 @@ public class PresenceEvaluator implements Evaluator<PresenceNode>
     }
 
 
+    /**
+     * Tells if a candidate can be checked on the presence index rather than on its entry.
+     * The presence index only holds the attributes having a user index, and the values of
+     * the descendants are not stored under their ancestor.
+     */
+    private boolean isCovering( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( covering == null )
+        {
+            covering = db.hasUserIndexOn( attributeType )
+                && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
+        }
+
+        return covering && ( id != null ) && db.isIndexCurrent( partitionTxn, id );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -20,13 +20,17 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.regex.Pattern;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
@@ -34,7 +38,9 @@ import org.apache.directory.api.ldap.model.schema.Normalizer;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
@@ -64,6 +70,9 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
     /** The associated normalizer */
     private final Normalizer normalizer;
 
+    /** The index holding all the values the pattern is checked against, if any */
+    private Index<String, String> idx;
+
 
     /**
      * Creates a new SubstringEvaluator for substring expressions.
@@ -73,6 +82,7 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
      * @param schemaManager the schema manager
      * @throws LdapException if there are failures accessing resources and the db
      */
+    @SuppressWarnings("unchecked")
     public SubstringEvaluator( SubstringNode node, Store db, SchemaManager schemaManager ) throws LdapException
     {
         this.db = db;
@@ -106,6 +116,25 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
         {
             regex = null;
         }
+
+        // The values of the descendants are not stored in the index of their ancestor
+        if ( ( regex != null ) && ( attributeType.getEquality() != null ) && db.hasUserIndexOn( attributeType )
+            && !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType ) )
+        {
+            try
+            {
+                Index<String, String> index = ( Index<String, String> ) db.getIndex( attributeType );
+
+                if ( index.hasReverse() )
+                {
+                    idx = index;
+                }
+            }
+            catch ( IndexNotFoundException infe )
+            {
+                throw new LdapOtherException( infe.getMessage(), infe );
+            }
+        }
     }
 
 
@@ -120,10 +149,18 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
 
         Entry entry = indexEntry.getEntry();
 
+        // Check the values in the reverse index if the entry has not been read yet : it
+        // will only be read if the candidate is returned
+        if ( ( null == entry ) && ( idx != null ) && ( indexEntry.getId() != null )
+            && db.isIndexCurrent( partitionTxn, indexEntry.getId() ) )
+        {
+            return evaluateIndexed( partitionTxn, indexEntry );
+        }
+
         // resuscitate the entry if it has not been and set entry in IndexEntry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
@@ -134,6 +171,9 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
             indexEntry.setEntry( entry );
         }
 
+        // Only the values of the evaluated attribute stored in the blob store are read
+        db.resolveBlobs( entry, attributeType );
+
         /*
          * Don't make a call here to evaluateWithoutIndex( Entry ) for
          * code reuse since we do want to set the value on the indexEntry on
@@ -239,6 +279,36 @@ public class SubstringEvaluator implements Evaluator<SubstringNode>
     }
 
 
+    /**
+     * Checks the pattern against the values of a candidate stored in the reverse index.
+     * They are normalized the same way the values of the entry are.
+     */
+    private boolean evaluateIndexed( PartitionTxn partitionTxn, IndexEntry<String, String> indexEntry )
+        throws LdapException
+    {
+        try ( Cursor<String> values = idx.reverseValueCursor( partitionTxn, indexEntry.getId() ) )
+        {
+            while ( values.next() )
+            {
+                String value = values.get();
+
+                if ( regex.matcher( value ).matches() )
+                {
+                    indexEntry.setKey( value );
+
+                    return true;
+                }
+            }
+
+            return false;
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -31,6 +31,8 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.SubtreeLabels;
+import org.apache.directory.server.xdbm.SubtreeLabels.Membership;
 import org.apache.directory.server.xdbm.search.Evaluator;
 
 
@@ -66,6 +68,9 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     /** The entry database/store */
     private final Store db;
 
+    /** The nested interval labels of the entries, null if they are not used */
+    private final SubtreeLabels subtreeLabels;
+
 
     /**
      * Creates a subtree scope node evaluator for search expressions.
@@ -90,6 +95,8 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
         baseIsContextEntry = db.getSuffixId( partitionTxn ) == baseId;
 
         dereferencing = node.getDerefAliases().isDerefInSearching() || node.getDerefAliases().isDerefAlways();
+
+        subtreeLabels = baseIsContextEntry ? null : db.getSubtreeLabels();
     }
 
 
@@ -133,12 +140,25 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
     public boolean evaluate( PartitionTxn partitionTxn, IndexEntry<?, String> indexEntry ) throws LdapException
     {
         String id = indexEntry.getId();
+        Membership membership = Membership.UNKNOWN;
+
+        if ( ( subtreeLabels != null ) && !baseId.equals( id ) )
+        {
+            membership = subtreeLabels.isDescendant( baseId, id );
+
+            // No need to fetch a candidate which is out of scope
+            if ( ( membership == Membership.OUTSIDE ) && !dereferencing )
+            {
+                return false;
+            }
+        }
+
         Entry entry = indexEntry.getEntry();
 
         // Fetch the entry
         if ( null == entry )
         {
-            entry = db.fetch( partitionTxn, indexEntry.getId() );
+            entry = db.fetchCandidate( partitionTxn, indexEntry.getId() );
 
             if ( null == entry )
             {
@@ -156,7 +176,16 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
          * to all it's subordinates since that would be the entire set of 
          * entries in the db.
          */
-        boolean isDescendant = baseIsContextEntry || baseId.equals( id ) || entry.getDn().isDescendantOf( node.getBaseDn() );
+        boolean isDescendant;
+
+        if ( membership != Membership.UNKNOWN )
+        {
+            isDescendant = membership == Membership.INSIDE;
+        }
+        else
+        {
+            isDescendant = baseIsContextEntry || baseId.equals( id ) || entry.getDn().isDescendantOf( node.getBaseDn() );
+        }
 
         /*
          * The candidate id could be any entry in the db.  If search
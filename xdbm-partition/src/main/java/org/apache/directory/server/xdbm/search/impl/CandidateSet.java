@@ -0,0 +1,630 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * A compact Set of candidate entry UUIDs. The UUIDs are not stored as Strings, but
+ * packed as two longs in an open addressing hash table, which costs 16 bytes per slot
+ * instead of the hundred or so bytes used by a String in a HashSet. The rare IDs which
+ * are not lower case canonical UUIDs are stored in a plain HashSet on the side.
+ * <br>
+ * The intersection and union of two CandidateSets work on the packed values, without
+ * creating any String.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSet extends AbstractSet<String>
+{
+    /** The initial number of slots. Must be a power of 2 */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /** The length of a canonical UUID */
+    private static final int UUID_LENGTH = 36;
+
+    /** The hexadecimal digits */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The most significant bits of the stored UUIDs, one per slot */
+    private long[] msbs;
+
+    /** The least significant bits of the stored UUIDs, one per slot */
+    private long[] lsbs;
+
+    /** The number of packed UUIDs, not counting the zero UUID */
+    private int packedSize;
+
+    /** The zero UUID is used to mark the free slots, so it's stored apart */
+    private boolean hasZero;
+
+    /** The IDs which can't be packed */
+    private Set<String> others;
+
+
+    /**
+     * Creates a new empty CandidateSet
+     */
+    public CandidateSet()
+    {
+        msbs = new long[DEFAULT_CAPACITY];
+        lsbs = new long[DEFAULT_CAPACITY];
+    }
+
+
+    /**
+     * Parses a lower case canonical UUID, filling the given array with its most and least
+     * significant bits.
+     *
+     * @return <code>false</code> if the ID is not a lower case canonical UUID
+     */
+    private static boolean pack( String id, long[] bits )
+    {
+        if ( id.length() != UUID_LENGTH )
+        {
+            return false;
+        }
+
+        long msb = 0L;
+        long lsb = 0L;
+        int nbDigits = 0;
+
+        for ( int i = 0; i < UUID_LENGTH; i++ )
+        {
+            char c = id.charAt( i );
+
+            if ( ( i == 8 ) || ( i == 13 ) || ( i == 18 ) || ( i == 23 ) )
+            {
+                if ( c != '-' )
+                {
+                    return false;
+                }
+
+                continue;
+            }
+
+            int digit;
+
+            if ( ( c >= '0' ) && ( c <= '9' ) )
+            {
+                digit = c - '0';
+            }
+            else if ( ( c >= 'a' ) && ( c <= 'f' ) )
+            {
+                digit = c - 'a' + 10;
+            }
+            else
+            {
+                return false;
+            }
+
+            if ( nbDigits < 16 )
+            {
+                msb = ( msb << 4 ) | digit;
+            }
+            else
+            {
+                lsb = ( lsb << 4 ) | digit;
+            }
+
+            nbDigits++;
+        }
+
+        bits[0] = msb;
+        bits[1] = lsb;
+
+        return true;
+    }
+
+
+    /**
+     * Builds back the canonical form of a packed UUID
+     */
+    private static String unpack( long msb, long lsb )
+    {
+        char[] chars = new char[UUID_LENGTH];
+        int pos = 0;
+
+        for ( int i = 0; i < 32; i++ )
+        {
+            if ( ( i == 8 ) || ( i == 12 ) || ( i == 16 ) || ( i == 20 ) )
+            {
+                chars[pos++] = '-';
+            }
+
+            long bits = i < 16 ? msb : lsb;
+            int shift = ( 15 - ( i & 0x0F ) ) << 2;
+            chars[pos++] = HEX_DIGITS[( int ) ( bits >>> shift ) & 0x0F];
+        }
+
+        return new String( chars );
+    }
+
+
+    /**
+     * Computes the slot a packed UUID should be stored at
+     */
+    private static int hash( long msb, long lsb, int mask )
+    {
+        long h = msb * 0x9E3779B97F4A7C15L + lsb;
+        h ^= h >>> 32;
+        h *= 0x9E3779B97F4A7C15L;
+
+        return ( int ) ( h >>> 32 ) & mask;
+    }
+
+
+    /**
+     * Finds the slot containing a packed UUID, or the free slot where it should be stored
+     */
+    private int slot( long msb, long lsb )
+    {
+        int mask = msbs.length - 1;
+        int pos = hash( msb, lsb, mask );
+
+        while ( true )
+        {
+            long slotMsb = msbs[pos];
+            long slotLsb = lsbs[pos];
+
+            if ( ( ( slotMsb == 0L ) && ( slotLsb == 0L ) ) || ( ( slotMsb == msb ) && ( slotLsb == lsb ) ) )
+            {
+                return pos;
+            }
+
+            pos = ( pos + 1 ) & mask;
+        }
+    }
+
+
+    /**
+     * Adds a packed UUID in the set
+     *
+     * @return <code>true</code> if the UUID was not already present
+     */
+    private boolean addPacked( long msb, long lsb )
+    {
+        if ( ( msb == 0L ) && ( lsb == 0L ) )
+        {
+            boolean added = !hasZero;
+            hasZero = true;
+
+            return added;
+        }
+
+        int pos = slot( msb, lsb );
+
+        if ( ( msbs[pos] == msb ) && ( lsbs[pos] == lsb ) )
+        {
+            return false;
+        }
+
+        msbs[pos] = msb;
+        lsbs[pos] = lsb;
+        packedSize++;
+
+        // Keep the load factor under 0.5
+        if ( packedSize * 2 > msbs.length )
+        {
+            grow();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Tells if a packed UUID is present in the set
+     */
+    private boolean containsPacked( long msb, long lsb )
+    {
+        if ( ( msb == 0L ) && ( lsb == 0L ) )
+        {
+            return hasZero;
+        }
+
+        int pos = slot( msb, lsb );
+
+        return ( msbs[pos] == msb ) && ( lsbs[pos] == lsb );
+    }
+
+
+    /**
+     * Doubles the number of slots
+     */
+    private void grow()
+    {
+        long[] oldMsbs = msbs;
+        long[] oldLsbs = lsbs;
+
+        msbs = new long[oldMsbs.length * 2];
+        lsbs = new long[oldLsbs.length * 2];
+
+        for ( int i = 0; i < oldMsbs.length; i++ )
+        {
+            if ( ( oldMsbs[i] != 0L ) || ( oldLsbs[i] != 0L ) )
+            {
+                int pos = slot( oldMsbs[i], oldLsbs[i] );
+                msbs[pos] = oldMsbs[i];
+                lsbs[pos] = oldLsbs[i];
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add( String id )
+    {
+        long[] bits = new long[2];
+
+        if ( pack( id, bits ) )
+        {
+            return addPacked( bits[0], bits[1] );
+        }
+
+        if ( others == null )
+        {
+            others = new HashSet<>();
+        }
+
+        return others.add( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( Object id )
+    {
+        if ( !( id instanceof String ) )
+        {
+            return false;
+        }
+
+        long[] bits = new long[2];
+
+        if ( pack( ( String ) id, bits ) )
+        {
+            return containsPacked( bits[0], bits[1] );
+        }
+
+        return ( others != null ) && others.contains( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        int size = packedSize + ( hasZero ? 1 : 0 );
+
+        if ( others != null )
+        {
+            size += others.size();
+        }
+
+        return size;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        msbs = new long[DEFAULT_CAPACITY];
+        lsbs = new long[DEFAULT_CAPACITY];
+        packedSize = 0;
+        hasZero = false;
+        others = null;
+    }
+
+
+    /**
+     * Adds all the UUIDs of another CandidateSet to this set.
+     *
+     * @param candidates The CandidateSet to merge
+     * @return The number of UUIDs which were not already present in this set
+     */
+    public int union( CandidateSet candidates )
+    {
+        int nbAdded = 0;
+
+        if ( candidates.hasZero && addPacked( 0L, 0L ) )
+        {
+            nbAdded++;
+        }
+
+        for ( int i = 0; i < candidates.msbs.length; i++ )
+        {
+            long msb = candidates.msbs[i];
+            long lsb = candidates.lsbs[i];
+
+            if ( ( ( msb != 0L ) || ( lsb != 0L ) ) && addPacked( msb, lsb ) )
+            {
+                nbAdded++;
+            }
+        }
+
+        if ( candidates.others != null )
+        {
+            for ( String id : candidates.others )
+            {
+                if ( add( id ) )
+                {
+                    nbAdded++;
+                }
+            }
+        }
+
+        return nbAdded;
+    }
+
+
+    /**
+     * Removes from this set all the UUIDs which are not present in another CandidateSet.
+     *
+     * @param candidates The CandidateSet to intersect with
+     */
+    public void intersect( CandidateSet candidates )
+    {
+        long[] oldMsbs = msbs;
+        long[] oldLsbs = lsbs;
+        int capacity = DEFAULT_CAPACITY;
+
+        while ( capacity < Math.min( packedSize, candidates.packedSize ) * 2 )
+        {
+            capacity *= 2;
+        }
+
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        packedSize = 0;
+        hasZero = hasZero && candidates.hasZero;
+
+        for ( int i = 0; i < oldMsbs.length; i++ )
+        {
+            long msb = oldMsbs[i];
+            long lsb = oldLsbs[i];
+
+            if ( ( ( msb != 0L ) || ( lsb != 0L ) ) && candidates.containsPacked( msb, lsb ) )
+            {
+                addPacked( msb, lsb );
+            }
+        }
+
+        if ( others != null )
+        {
+            if ( candidates.others == null )
+            {
+                others = null;
+            }
+            else
+            {
+                others.retainAll( candidates.others );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean retainAll( Collection<?> collection )
+    {
+        if ( collection instanceof CandidateSet )
+        {
+            int size = size();
+            intersect( ( CandidateSet ) collection );
+
+            return size != size();
+        }
+
+        int size = size();
+        CandidateSet retained = new CandidateSet();
+
+        for ( String id : this )
+        {
+            if ( collection.contains( id ) )
+            {
+                retained.add( id );
+            }
+        }
+
+        msbs = retained.msbs;
+        lsbs = retained.lsbs;
+        packedSize = retained.packedSize;
+        hasZero = retained.hasZero;
+        others = retained.others;
+
+        return size != size();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove( Object id )
+    {
+        if ( !( id instanceof String ) )
+        {
+            return false;
+        }
+
+        long[] bits = new long[2];
+
+        if ( !pack( ( String ) id, bits ) )
+        {
+            return ( others != null ) && others.remove( id );
+        }
+
+        if ( ( bits[0] == 0L ) && ( bits[1] == 0L ) )
+        {
+            boolean removed = hasZero;
+            hasZero = false;
+
+            return removed;
+        }
+
+        int pos = slot( bits[0], bits[1] );
+
+        if ( ( msbs[pos] == bits[0] ) && ( lsbs[pos] == bits[1] ) )
+        {
+            removeSlot( pos );
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<String> iterator()
+    {
+        return new Iterator<String>()
+        {
+            /** The current slot */
+            private int pos = -1;
+
+            /** Tells if we have returned the zero UUID */
+            private boolean zeroDone = !hasZero;
+
+            /** The iterator on the IDs that can't be packed */
+            private Iterator<String> othersIterator;
+
+
+            private int nextSlot()
+            {
+                int next = pos + 1;
+
+                while ( ( next < msbs.length ) && ( msbs[next] == 0L ) && ( lsbs[next] == 0L ) )
+                {
+                    next++;
+                }
+
+                return next;
+            }
+
+
+            @Override
+            public boolean hasNext()
+            {
+                if ( !zeroDone || ( nextSlot() < msbs.length ) )
+                {
+                    return true;
+                }
+
+                if ( othersIterator == null )
+                {
+                    if ( others == null )
+                    {
+                        return false;
+                    }
+
+                    othersIterator = others.iterator();
+                }
+
+                return othersIterator.hasNext();
+            }
+
+
+            @Override
+            public String next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException();
+                }
+
+                if ( !zeroDone )
+                {
+                    zeroDone = true;
+
+                    return unpack( 0L, 0L );
+                }
+                else if ( othersIterator == null )
+                {
+                    pos = nextSlot();
+
+                    return unpack( msbs[pos], lsbs[pos] );
+                }
+                else
+                {
+                    return othersIterator.next();
+                }
+            }
+
+        };
+    }
+
+
+    /**
+     * Removes the UUID stored in a slot, moving back the following UUIDs of the
+     * same probing sequence so that they can still be found.
+     */
+    private void removeSlot( int removed )
+    {
+        int mask = msbs.length - 1;
+        int free = removed;
+        int pos = ( removed + 1 ) & mask;
+
+        msbs[free] = 0L;
+        lsbs[free] = 0L;
+        packedSize--;
+
+        while ( ( msbs[pos] != 0L ) || ( lsbs[pos] != 0L ) )
+        {
+            int home = hash( msbs[pos], lsbs[pos], mask );
+
+            // Move the element back if its home slot is not between the free slot and its position
+            if ( ( ( pos > free ) && ( ( home <= free ) || ( home > pos ) ) )
+                || ( ( pos < free ) && ( home <= free ) && ( home > pos ) ) )
+            {
+                msbs[free] = msbs[pos];
+                lsbs[free] = lsbs[pos];
+                msbs[pos] = 0L;
+                lsbs[pos] = 0L;
+                free = pos;
+            }
+
+            pos = ( pos + 1 ) & mask;
+        }
+    }
+}
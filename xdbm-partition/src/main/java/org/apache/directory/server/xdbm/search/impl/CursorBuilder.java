@@ -21,6 +21,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -35,6 +36,7 @@ import org.apache.directory.api.ldap.model.filter.ApproximateNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
 import org.apache.directory.api.ldap.model.filter.LessEqNode;
 import org.apache.directory.api.ldap.model.filter.NotNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
@@ -53,17 +55,32 @@ import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EmptyIndexCursor;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.cursor.ApproximateCursor;
 import org.apache.directory.server.xdbm.search.cursor.ChildrenCursor;
 import org.apache.directory.server.xdbm.search.cursor.DescendantCursor;
+import org.apache.directory.server.xdbm.search.cursor.DistinctIdCursor;
+import org.apache.directory.server.xdbm.search.cursor.EqualityCursor;
+import org.apache.directory.server.xdbm.search.cursor.GreaterEqCursor;
+import org.apache.directory.server.xdbm.search.cursor.LessEqCursor;
+import org.apache.directory.server.xdbm.search.cursor.NgramCursor;
+import org.apache.directory.server.xdbm.search.cursor.OrCursor;
+import org.apache.directory.server.xdbm.search.cursor.PresenceCursor;
+import org.apache.directory.server.xdbm.search.cursor.SubstringCursor;
 import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.EqualityEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.GreaterEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.LessEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.PresenceEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.SubstringEvaluator;
 
 
 /**
@@ -79,6 +96,12 @@ public class CursorBuilder
     /** Evaluator dependency on a EvaluatorBuilder */
     private EvaluatorBuilder evaluatorBuilder;
 
+    /** 
+     * The maximum ratio between the number of candidates of an AND child and the number
+     * of candidates of the smallest child for the two candidate sets to be intersected
+     */
+    private static final long MAX_INTERSECTION_RATIO = 16L;
+
 
     /**
      * Creates an expression tree enumerator.
@@ -165,6 +188,294 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Builds a Cursor returning the candidates for a filter lazily, instead of gathering
+     * them in the candidate set of the search result before the first one can be used.
+     * Each candidate is returned at most once by the built Cursor.
+     *
+     * @param partitionTxn The transaction to use
+     * @param node The annotated filter
+     * @param searchResult The search result
+     * @return The candidates Cursor, or <code>null</code> if the indexes can't be used
+     * for this filter and all the entries have to be scanned
+     * @throws LdapException If the Cursor can't be built
+     */
+    public Cursor<IndexEntry<String, String>> buildCursor( PartitionTxn partitionTxn, ExprNode node,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( ( count != null ) && ( ( Long ) count ) == 0L )
+        {
+            return new EmptyIndexCursor<>( partitionTxn );
+        }
+
+        try
+        {
+            switch ( node.getAssertionType() )
+            {
+                /* ---------- LEAF NODE HANDLING ---------- */
+    
+                case APPROXIMATE:
+                case EQUALITY:
+                case GREATEREQ:
+                case LESSEQ:
+                case PRESENCE:
+                case SUBSTRING:
+                    return buildLeafCursor( partitionTxn, ( LeafNode ) node );
+    
+                case SCOPE:
+                    return buildScopeCursor( partitionTxn, ( ScopeNode ) node );
+    
+                    /* ---------- LOGICAL OPERATORS ---------- */
+    
+                case AND:
+                    return buildAndCursor( partitionTxn, ( AndNode ) node, searchResult );
+    
+                case OR:
+                    return buildOrCursor( partitionTxn, ( OrNode ) node, searchResult );
+    
+                case NOT:
+                    // We have to check all the entries
+                    return null;
+    
+                    /* ----------  NOT IMPLEMENTED  ---------- */
+    
+                case ASSERTION:
+                case EXTENSIBLE:
+                    throw new NotImplementedException();
+    
+                default:
+                    throw new IllegalStateException( I18n.err( I18n.ERR_260, node.getAssertionType() ) );
+            }
+        }
+        catch ( IndexNotFoundException | CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Creates the Cursor for a leaf node, using the index on the node's AttributeType. If
+     * the attribute is multi-valued, a range or substring scan can hit the same entry more
+     * than once, so the Cursor is wrapped to get rid of the duplicates.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private <T> Cursor<IndexEntry<String, String>> buildLeafCursor( PartitionTxn partitionTxn, LeafNode node )
+        throws LdapException, IndexNotFoundException, CursorException
+    {
+        AttributeType attributeType = node.getAttributeType();
+
+        if ( node instanceof PresenceNode )
+        {
+            // The presence index does not contain the system indexed attributes
+            if ( !db.hasUserIndexOn( attributeType ) )
+            {
+                return null;
+            }
+        }
+        else if ( !db.hasIndexOn( attributeType ) )
+        {
+            // No index, we will have to do a full scan
+            return null;
+        }
+
+        Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, node );
+        Cursor cursor;
+
+        switch ( node.getAssertionType() )
+        {
+            case APPROXIMATE:
+                cursor = new ApproximateCursor<>( partitionTxn, db, ( ApproximateEvaluator<T> ) evaluator );
+                break;
+
+            case EQUALITY:
+                cursor = new EqualityCursor<>( partitionTxn, db, ( EqualityEvaluator<T> ) evaluator );
+                break;
+
+            case GREATEREQ:
+                cursor = new GreaterEqCursor<>( partitionTxn, db, ( GreaterEqEvaluator<T> ) evaluator );
+                break;
+
+            case LESSEQ:
+                cursor = new LessEqCursor<>( partitionTxn, db, ( LessEqEvaluator<T> ) evaluator );
+                break;
+
+            case PRESENCE:
+                cursor = new PresenceCursor( partitionTxn, db, ( PresenceEvaluator ) evaluator );
+                break;
+
+            default:
+                if ( attributeType.getSubstring() == null )
+                {
+                    // No SUBSTRING matching rule : no candidate
+                    return new EmptyIndexCursor<>( partitionTxn );
+                }
+
+                cursor = new SubstringCursor( partitionTxn, db, ( SubstringEvaluator ) evaluator );
+                break;
+        }
+
+        // Position the cursor on the first candidate
+        cursor.beforeFirst();
+
+        switch ( node.getAssertionType() )
+        {
+            case EQUALITY:
+            case PRESENCE:
+                // An entry is referenced only once for a given key
+                return cursor;
+
+            default:
+                if ( attributeType.isSingleValued() )
+                {
+                    return cursor;
+                }
+
+                return new DistinctIdCursor<>( partitionTxn, cursor );
+        }
+    }
+
+
+    /**
+     * Creates the Cursor for a scope node, using the RdnIndex. If the scope is SUBTREE and
+     * the base is the partition's context entry, we simply return null as all the entries
+     * will be selected.
+     */
+    private Cursor<IndexEntry<String, String>> buildScopeCursor( PartitionTxn partitionTxn, ScopeNode node ) 
+        throws LdapException, CursorException
+    {
+        String baseId = node.getBaseId();
+
+        if ( node.getScope() == SearchScope.ONELEVEL )
+        {
+            Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = db.getRdnIndex().forwardCursor( partitionTxn );
+
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+            startingPos.setKey( new ParentIdAndRdn( baseId, ( Rdn[] ) null ) );
+            rdnCursor.before( startingPos );
+
+            return new ChildrenCursor( partitionTxn, db, baseId, rdnCursor );
+        }
+
+        // If we are searching from the partition DN, better get out.
+        String contextEntryId = db.getEntryId( partitionTxn, ( ( Partition ) db ).getSuffixDn() );
+
+        if ( baseId == contextEntryId )
+        {
+            return null;
+        }
+
+        ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( partitionTxn, baseId );
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+
+        startingPos.setKey( parentIdAndRdn );
+        startingPos.setId( baseId );
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<>( partitionTxn, 
+            startingPos );
+
+        return new DescendantCursor( partitionTxn, db, baseId, parentIdAndRdn.getParentId(), rdnCursor );
+    }
+
+
+    /**
+     * Creates the Cursor for an AND node : we use the Cursor of the child with the 
+     * smallest scan count, the other children will be checked by the evaluator. If
+     * this child can't produce a Cursor (a NOT node, for instance), the next best
+     * child is tried, and we only fall back to a full scan when none of them can.
+     */
+    private Cursor<IndexEntry<String, String>> buildAndCursor( PartitionTxn partitionTxn, AndNode node, 
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        List<ExprNode> children = new ArrayList<>( node.getChildren() );
+
+        children.sort( ( child1, child2 ) -> Long.compare( getCount( child1 ), getCount( child2 ) ) );
+
+        for ( ExprNode child : children )
+        {
+            Cursor<IndexEntry<String, String>> cursor = buildCursor( partitionTxn, child, searchResult );
+
+            if ( cursor != null )
+            {
+                return cursor;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return The scan count annotated on the node, or Long.MAX_VALUE if there is none
+     */
+    private static long getCount( ExprNode node )
+    {
+        Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( count == null )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        return ( Long ) count;
+    }
+
+
+    /**
+     * Creates the Cursor for an OR node. The children Cursors are consumed one after the
+     * other, and the children evaluators are used by the OrCursor to skip the candidates 
+     * that have already been returned by another child.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Cursor<IndexEntry<String, String>> buildOrCursor( PartitionTxn partitionTxn, OrNode node, 
+        PartitionSearchResult searchResult ) throws LdapException, IOException
+    {
+        List<Cursor<IndexEntry<String, String>>> cursors = new ArrayList<>();
+        List<Evaluator<? extends ExprNode>> evaluators = new ArrayList<>();
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            Object count = child.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+            if ( ( count != null ) && ( ( Long ) count ) == 0L )
+            {
+                // We can skip the cursor, it will not return any candidate
+                continue;
+            }
+
+            Cursor<IndexEntry<String, String>> cursor = buildCursor( partitionTxn, child, searchResult );
+
+            if ( cursor == null )
+            {
+                // We will do a full scan anyway
+                for ( Cursor<IndexEntry<String, String>> built : cursors )
+                {
+                    built.close();
+                }
+
+                return null;
+            }
+
+            cursors.add( cursor );
+            evaluators.add( evaluatorBuilder.build( partitionTxn, child ) );
+        }
+
+        switch ( cursors.size() )
+        {
+            case 0:
+                return new EmptyIndexCursor<>( partitionTxn );
+
+            case 1:
+                return cursors.get( 0 );
+
+            default:
+                return new OrCursor( partitionTxn, cursors, evaluators );
+        }
+    }
+
+
     /**
      * Computes the set of candidates for an Approximate filter. We will feed the set only if
      * we have an index for the AT.
@@ -617,6 +928,18 @@ public class CursorBuilder
         if ( db.hasIndexOn( attributeType ) )
         {
             Index<String, String> userIndex = ( Index<String, String> ) db.getIndex( attributeType );
+
+            if ( ( node.getInitial() == null ) && userIndex.hasNgrams() )
+            {
+                // No initial part : only read the values containing the rarest n-gram
+                String ngram = userIndex.selectNgram( partitionTxn, NgramCursor.getSubstrings( node ) );
+
+                if ( ngram != null )
+                {
+                    return computeNgramSubstring( partitionTxn, userIndex, ngram, node, searchResult );
+                }
+            }
+
             Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor( partitionTxn );
 
             // Position the index on the element we should start from
@@ -720,6 +1043,38 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Computes the candidates of a substring filter with no initial part, using the
+     * n-gram table of the index : only the values containing the selected n-gram are
+     * checked against the filter's regular expression.
+     */
+    private long computeNgramSubstring( PartitionTxn partitionTxn, Index<String, String> userIndex, String ngram,
+        SubstringNode node, PartitionSearchResult searchResult )
+        throws LdapException, CursorException, IOException
+    {
+        SubstringEvaluator evaluator = ( SubstringEvaluator ) evaluatorBuilder.build( partitionTxn, node );
+        Set<String> uuidSet = searchResult.getCandidateSet();
+        long nbResults = 0;
+
+        Cursor<IndexEntry<String, String>> cursor = new NgramCursor( partitionTxn, userIndex, ngram,
+            evaluator.getPattern() );
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            // if the UUID was added increment the result count
+            if ( uuidSet.add( cursor.get().getId() ) )
+            {
+                nbResults++;
+            }
+        }
+
+        cursor.close();
+
+        return nbResults;
+    }
+
+
     /**
      * Creates a OrCursor over a disjunction expression branch node.
      *
@@ -821,7 +1176,112 @@ public class CursorBuilder
         // Once found we return the number of candidates for this child
         ExprNode minChild = children.get( minIndex );
 
-        return build( partitionTxn, minChild, searchResult );
+        if ( ( minValue == Long.MAX_VALUE ) || ( children.size() == 1 ) )
+        {
+            return build( partitionTxn, minChild, searchResult );
+        }
+
+        // Gather the candidates of the smallest child in a dedicated set, and intersect
+        // it with the candidates of the other children which are not much bigger : reading
+        // their index is way cheaper than fetching and evaluating the extra entries
+        Set<String> parentCandidates = searchResult.getCandidateSet();
+        CandidateSet candidates = new CandidateSet();
+
+        try
+        {
+            searchResult.setCandidateSet( candidates );
+
+            if ( build( partitionTxn, minChild, searchResult ) == Long.MAX_VALUE )
+            {
+                searchResult.setCandidateSet( parentCandidates );
+
+                return build( partitionTxn, minChild, searchResult );
+            }
+
+            for ( int i = 0; i < children.size(); i++ )
+            {
+                if ( ( i == minIndex ) || candidates.isEmpty() )
+                {
+                    continue;
+                }
+
+                ExprNode child = children.get( i );
+
+                if ( !isIntersectable( child, minValue, searchResult ) )
+                {
+                    continue;
+                }
+
+                CandidateSet childCandidates = new CandidateSet();
+                searchResult.setCandidateSet( childCandidates );
+
+                if ( build( partitionTxn, child, searchResult ) != Long.MAX_VALUE )
+                {
+                    candidates.intersect( childCandidates );
+                }
+            }
+        }
+        finally
+        {
+            searchResult.setCandidateSet( parentCandidates );
+        }
+
+        // Now, feed the parent set
+        if ( parentCandidates instanceof CandidateSet )
+        {
+            return ( ( CandidateSet ) parentCandidates ).union( candidates );
+        }
+
+        long nbResults = 0;
+
+        for ( String uuid : candidates )
+        {
+            if ( parentCandidates.add( uuid ) )
+            {
+                nbResults++;
+            }
+        }
+
+        return nbResults;
+    }
+
+
+    /**
+     * Tells if the candidates of an AND child can be intersected with the candidates
+     * of the smallest child.
+     */
+    private boolean isIntersectable( ExprNode child, long minCount, PartitionSearchResult searchResult )
+        throws LdapException
+    {
+        Object count = child.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( ( count == null ) || ( ( Long ) count == Long.MAX_VALUE ) )
+        {
+            return false;
+        }
+
+        if ( ( Long ) count / MAX_INTERSECTION_RATIO > minCount )
+        {
+            // Too many candidates to read
+            return false;
+        }
+
+        switch ( child.getAssertionType() )
+        {
+            case NOT:
+                return false;
+
+            case SCOPE:
+                // The scope candidates may include dereferenced aliases
+                return !searchResult.isDerefAlways() && !searchResult.isDerefInSearching();
+
+            case PRESENCE:
+                // The system attributes are not stored in the presence index
+                return db.hasUserIndexOn( ( ( PresenceNode ) child ).getAttributeType() );
+
+            default:
+                return true;
+        }
     }
 
 
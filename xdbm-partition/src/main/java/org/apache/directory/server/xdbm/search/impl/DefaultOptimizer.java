@@ -21,8 +21,12 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -51,12 +55,17 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.StatisticsCatalog;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
+import org.apache.directory.server.xdbm.search.cursor.NgramCursor;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter using scan counts. When the store gathers the
+ * statistics of its indexes, the scan counts are estimated from them instead of being
+ * read from the indexes.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -66,10 +75,41 @@ public class DefaultOptimizer implements Optimizer
     
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /** The ratio of candidates above which reading all the entries is cheaper than using an index */
+    private static final double FULL_SCAN_RATIO = 0.5d;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
 
+    /** The scan counts per filter shape, or null if they are not cached */
+    private final SearchPlanCache planCache;
+
+    /** The scan counts of the leaves of a filter, replayed from the cache or recorded in it */
+    private static final class Plan
+    {
+        /** The position of each leaf in the counts */
+        private final Map<ExprNode, Integer> positions = new IdentityHashMap<>();
+
+        /** The scan counts */
+        private final long[] counts;
+
+        /** Tells if the counts come from the cache */
+        private final boolean replay;
+
+
+        private Plan( List<ExprNode> leaves, long[] counts, boolean replay )
+        {
+            for ( int i = 0; i < leaves.size(); i++ )
+            {
+                positions.put( leaves.get( i ), i );
+            }
+
+            this.counts = counts;
+            this.replay = replay;
+        }
+    }
+
 
     /**
      * Creates an optimizer on a database.
@@ -79,6 +119,18 @@ public class DefaultOptimizer implements Optimizer
     public DefaultOptimizer( Store db )
     {
         this.db = db;
+
+        int planCacheSize = db.getPlanCacheSize();
+        planCache = ( planCacheSize > 0 ) ? new SearchPlanCache( planCacheSize ) : null;
+    }
+
+
+    /**
+     * @return The cache of the scan counts per filter shape, or null if it is disabled
+     */
+    public SearchPlanCache getPlanCache()
+    {
+        return planCache;
     }
 
 
@@ -107,6 +159,38 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Gets the statistics of an index, if they have been gathered.
+     */
+    private IndexStatistics getStatistics( PartitionTxn partitionTxn, Index<?, String> idx ) throws LdapException
+    {
+        StatisticsCatalog statistics = db.getStatistics( partitionTxn );
+
+        if ( statistics == null )
+        {
+            return null;
+        }
+
+        return statistics.get( idx.getAttribute().getOid() );
+    }
+
+
+    /**
+     * Turns an estimated number of candidates into a scan count. When most of the entries
+     * are candidates, fetching them one by one through the index costs more than reading
+     * all the entries, so the worst case is returned to get a full scan.
+     */
+    private long getEstimatedScan( PartitionTxn partitionTxn, long estimate ) throws LdapException
+    {
+        if ( estimate > db.count( partitionTxn ) * FULL_SCAN_RATIO )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        return estimate;
+    }
+
+
     /**
      * Annotates the expression tree to determine optimal evaluation order based
      * on the scan count for indices that exist for each expression node.  If an
@@ -116,8 +200,46 @@ public class DefaultOptimizer implements Optimizer
      * {@inheritDoc}
      */
     @Override
-    @SuppressWarnings("unchecked")
     public Long annotate( PartitionTxn partitionTxn, ExprNode node ) throws LdapException
+    {
+        if ( planCache == null )
+        {
+            return annotate( partitionTxn, node, null );
+        }
+
+        List<ExprNode> leaves = new ArrayList<>();
+        String shape = SearchPlanCache.getShape( db, node, leaves );
+
+        if ( shape == null )
+        {
+            return annotate( partitionTxn, node, null );
+        }
+
+        long nbEntries = db.count( partitionTxn );
+        StatisticsCatalog statistics = db.getStatistics( partitionTxn );
+        long version = ( statistics != null ) ? statistics.getVersion() : 0L;
+        long[] counts = planCache.get( shape, nbEntries, version );
+
+        if ( counts != null )
+        {
+            return annotate( partitionTxn, node, new Plan( leaves, counts, true ) );
+        }
+
+        counts = new long[leaves.size()];
+        Arrays.fill( counts, -1L );
+        Long count = annotate( partitionTxn, node, new Plan( leaves, counts, false ) );
+        planCache.put( shape, counts, nbEntries, version );
+
+        return count;
+    }
+
+
+    /**
+     * Annotates a filter, reusing or recording the scan counts of its leaves if a plan
+     * is given.
+     */
+    @SuppressWarnings("unchecked")
+    private Long annotate( PartitionTxn partitionTxn, ExprNode node, Plan plan ) throws LdapException
     {
         // Start off with the worst case unless scan count says otherwise.
         Long count = Long.MAX_VALUE;
@@ -150,10 +272,15 @@ public class DefaultOptimizer implements Optimizer
         else if ( node.isLeaf() )
         {
             LeafNode leaf = ( LeafNode ) node;
+            Integer position = ( plan != null ) ? plan.positions.get( node ) : null;
 
             try
             {  
-                if ( node instanceof PresenceNode )
+                if ( ( position != null ) && plan.replay && ( plan.counts[position] >= 0L ) )
+                {
+                    count = plan.counts[position];
+                }
+                else if ( node instanceof PresenceNode )
                 {
                     count = getPresenceScan( partitionTxn, ( PresenceNode ) leaf );
                 }
@@ -193,6 +320,12 @@ public class DefaultOptimizer implements Optimizer
             {
                 throw new LdapOtherException( e.getMessage(), e );
             }
+
+            if ( ( position != null ) && !plan.replay )
+            {
+                // A count of 0 would discard the candidates of the next filters
+                plan.counts[position] = Math.max( 1L, count );
+            }
         }
         // --------------------------------------------------------------------
         //                 H A N D L E   B R A N C H   N O D E S       
@@ -201,15 +334,15 @@ public class DefaultOptimizer implements Optimizer
         {
             if ( node instanceof AndNode )
             {
-                count = getConjunctionScan( partitionTxn, ( AndNode ) node );
+                count = getConjunctionScan( partitionTxn, ( AndNode ) node, plan );
             }
             else if ( node instanceof OrNode )
             {
-                count = getDisjunctionScan( partitionTxn, ( OrNode ) node );
+                count = getDisjunctionScan( partitionTxn, ( OrNode ) node, plan );
             }
             else if ( node instanceof NotNode )
             {
-                annotate( partitionTxn, ( ( NotNode ) node ).getFirstChild() );
+                annotate( partitionTxn, ( ( NotNode ) node ).getFirstChild(), plan );
 
                 /*
                  * A negation filter is always worst case since we will have
@@ -248,7 +381,7 @@ public class DefaultOptimizer implements Optimizer
      * @return the calculated scan count
      * @throws Exception if there is an error
      */
-    private long getConjunctionScan( PartitionTxn partitionTxn, BranchNode node ) throws LdapException
+    private long getConjunctionScan( PartitionTxn partitionTxn, BranchNode node, Plan plan ) throws LdapException
     {
         long count = Long.MAX_VALUE;
         List<ExprNode> children = node.getChildren();
@@ -261,7 +394,7 @@ public class DefaultOptimizer implements Optimizer
                 break;
             }
 
-            annotate( partitionTxn, child );
+            annotate( partitionTxn, child, plan );
             count = Math.min( ( ( Long ) child.get( COUNT_ANNOTATION ) ), count );
 
             if ( count == 0 )
@@ -284,21 +417,23 @@ public class DefaultOptimizer implements Optimizer
      * @return the scan count on the OR node
      * @throws Exception if there is an error
      */
-    private long getDisjunctionScan( PartitionTxn partitionTxn, BranchNode node ) throws LdapException
+    private long getDisjunctionScan( PartitionTxn partitionTxn, BranchNode node, Plan plan ) throws LdapException
     {
         List<ExprNode> children = node.getChildren();
         long total = 0L;
 
         for ( ExprNode child : children )
         {
-            annotate( partitionTxn, child );
-            total += ( Long ) child.get( COUNT_ANNOTATION );
+            annotate( partitionTxn, child, plan );
+            long count = ( Long ) child.get( COUNT_ANNOTATION );
 
-            if ( total == Long.MAX_VALUE )
+            if ( ( count == Long.MAX_VALUE ) || ( total > Long.MAX_VALUE - count ) )
             {
-                // We can stop here withoit evaluating the following filters
-                break;
+                // Saturate, and stop here without evaluating the following filters
+                return Long.MAX_VALUE;
             }
+
+            total += count;
         }
 
         return total;
@@ -330,6 +465,22 @@ public class DefaultOptimizer implements Optimizer
             {
                 normalizedKey = node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getString() );
             }
+
+            IndexStatistics statistics = getStatistics( partitionTxn, idx );
+
+            if ( statistics != null )
+            {
+                long estimate = getEstimatedScan( partitionTxn,
+                    statistics.equalityCount( normalizedKey, idx.count( partitionTxn ) ) );
+
+                // No need to gather the candidates if there are too many of them
+                if ( estimate >= 100 )
+                {
+                    node.set( CANDIDATES_ANNOTATION_KEY, null );
+
+                    return estimate;
+                }
+            }
             
             Cursor<String> result = idx.forwardValueCursor( partitionTxn, ( V ) normalizedKey );
             Set<String> values = new HashSet<>();
@@ -385,6 +536,21 @@ public class DefaultOptimizer implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = getStatistics( partitionTxn, idx );
+
+            if ( statistics != null )
+            {
+                String key = node.getValue().isSchemaAware() ? node.getValue().getNormalized() : node.getValue()
+                    .getString();
+                long count = idx.count( partitionTxn );
+                long estimate = isGreaterThan ? statistics.greaterOrEqualCount( key, count ) : statistics
+                    .lessOrEqualCount( key, count );
+
+                if ( estimate >= 0L )
+                {
+                    return getEstimatedScan( partitionTxn, estimate );
+                }
+            }
 
             if ( isGreaterThan )
             {
@@ -421,11 +587,35 @@ public class DefaultOptimizer implements Optimizer
 
             if ( Strings.isEmpty( initial ) )
             {
+                if ( idx.hasNgrams() )
+                {
+                    String ngram = idx.selectNgram( partitionTxn, NgramCursor.getSubstrings( node ) );
+
+                    if ( ngram != null )
+                    {
+                        // Only the values containing the n-gram will be read. We don't know
+                        // how many entries share each of them, so we count one per value
+                        return idx.ngramCount( partitionTxn, ngram );
+                    }
+                }
+
                 // Not a (attr=ABC*) filter : full index scan
                 return idx.count( partitionTxn );
             }
             else
             {
+                IndexStatistics statistics = getStatistics( partitionTxn, idx );
+
+                if ( statistics != null )
+                {
+                    long estimate = statistics.prefixCount( initial, idx.count( partitionTxn ) );
+
+                    if ( estimate >= 0L )
+                    {
+                        return getEstimatedScan( partitionTxn, estimate );
+                    }
+                }
+
                 return idx.greaterThanCount( partitionTxn, initial );
             }
         }
@@ -472,6 +662,18 @@ public class DefaultOptimizer implements Optimizer
              || node.getAttributeType().getOid().equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
         {
             Index<String, String> presenceIndex = db.getPresenceIndex();
+            IndexStatistics statistics = getStatistics( partitionTxn, presenceIndex );
+
+            if ( statistics != null )
+            {
+                long estimate = statistics.equalityCount( node.getAttributeType().getOid(),
+                    presenceIndex.count( partitionTxn ) );
+
+                if ( estimate >= 0L )
+                {
+                    return getEstimatedScan( partitionTxn, estimate );
+                }
+            }
 
             return presenceIndex.count( partitionTxn, node.getAttributeType().getOid() );
         }
@@ -513,7 +715,7 @@ public class DefaultOptimizer implements Optimizer
                 }
                 else
                 {
-                    return db.getRdnIndex().reverseLookup( partitionTxn, id ).getNbDescendants() + 1L;
+                    return db.getDescendantCount( partitionTxn, id ) + 1L;
                 }
 
             default:
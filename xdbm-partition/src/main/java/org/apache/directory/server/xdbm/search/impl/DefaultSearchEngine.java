@@ -21,10 +21,16 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
@@ -35,6 +41,10 @@ import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortResponse;
+import org.apache.directory.api.ldap.model.message.controls.SortResponseImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortResultCode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
@@ -48,6 +58,7 @@ import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.AllEntriesCursor;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -193,7 +204,8 @@ public class DefaultSearchEngine implements SearchEngine
             indexEntry.setId( effectiveBaseId );
 
             // Fetch the entry, as we have only one
-            Entry entry = db.fetch( partitionTxn, indexEntry.getId(), effectiveBase );
+            Entry entry = db.fetch( partitionTxn, indexEntry.getId(), effectiveBase,
+                searchContext.getFetchedAttributes() );
 
             Evaluator<? extends ExprNode> evaluator;
 
@@ -245,8 +257,33 @@ public class DefaultSearchEngine implements SearchEngine
         optimizer.annotate( partitionTxn, root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
 
-        Set<String> uuidSet = new HashSet<>();
         searchResult.setAliasDerefMode( aliasDerefMode );
+
+        if ( computeSortedResult( partitionTxn, schemaManager, searchContext, root, evaluator, searchResult ) )
+        {
+            return searchResult;
+        }
+
+        if ( db.isStreamingSearch() && !mustDereferenceAliases( partitionTxn, searchResult ) )
+        {
+            // Let the cursors produce the candidates on demand
+            Cursor<IndexEntry<String, String>> candidates = cursorBuilder.buildCursor( partitionTxn, root, searchResult );
+
+            if ( candidates == null )
+            {
+                // Full scan : use the MasterTable
+                candidates = new AllEntriesCursor( partitionTxn, db );
+            }
+
+            LOG.debug( "Streaming candidates for filter : {}", root );
+
+            searchResult.setEvaluator( evaluator );
+            searchResult.setResultCursor( candidates );
+
+            return searchResult;
+        }
+
+        Set<String> uuidSet = new CandidateSet();
         searchResult.setCandidateSet( uuidSet );
 
         long nbResults = cursorBuilder.build( partitionTxn, root, searchResult );
@@ -295,6 +332,98 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Reads the candidates in the order requested by a sort control from the index of the
+     * sort attribute, if the search allows it. When a VLV control is present, only the
+     * requested window is read. Otherwise, the entries will be sorted by the session.
+     *
+     * @return <tt>true</tt> if the sorted candidates have been read
+     */
+    private boolean computeSortedResult( PartitionTxn partitionTxn, SchemaManager schemaManager,
+        SearchOperationContext searchContext, ExprNode root, Evaluator<? extends ExprNode> evaluator,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        SortRequest sortRequest = ( SortRequest ) searchContext.getRequestControl( SortRequest.OID );
+        VirtualListViewRequest vlvRequest = ( VirtualListViewRequest ) searchContext
+            .getRequestControl( VirtualListViewRequest.OID );
+
+        if ( ( sortRequest == null ) || ( evaluator == null ) )
+        {
+            return false;
+        }
+
+        if ( ( vlvRequest != null ) && !vlvRequest.hasAssertionValue() && ( vlvRequest.getOffset() <= 0 ) )
+        {
+            // Let the session report the error
+            return false;
+        }
+
+        if ( mustDereferenceAliases( partitionTxn, searchResult ) )
+        {
+            return false;
+        }
+
+        VirtualListView vlv = VirtualListView.create( partitionTxn, db, schemaManager, sortRequest,
+            searchContext.getFilter(), root, evaluator );
+
+        if ( vlv == null )
+        {
+            return false;
+        }
+
+        if ( vlvRequest == null )
+        {
+            if ( !vlv.isDense() )
+            {
+                // Sorting a few candidates is cheaper than walking the whole index
+                return false;
+            }
+
+            LOG.debug( "Reading the candidates in the sort index order for filter : {}", root );
+
+            searchResult.setResultCursor( vlv.getCandidates( partitionTxn ) );
+        }
+        else
+        {
+            List<IndexEntry<String, String>> window = vlv.getWindow( partitionTxn, vlvRequest );
+
+            VirtualListViewResponse vlvResponse = new VirtualListViewResponseImpl();
+            vlvResponse.setTargetPosition( ( int ) Math.min( Integer.MAX_VALUE, vlv.getTargetPosition() ) );
+            vlvResponse.setContentCount( ( int ) Math.min( Integer.MAX_VALUE, vlv.getContentCount() ) );
+            vlvResponse.setViewListResult( VirtualListViewResultCode.SUCCESS );
+            vlvResponse.setContextId( vlvRequest.getContextId() );
+            searchContext.addResponseControl( vlvResponse );
+
+            LOG.debug( "Read a VLV window of {} candidates for filter : {}", window.size(), root );
+
+            searchResult.setResultCursor( new ListCursor<>( window ) );
+        }
+
+        SortResponse sortResponse = new SortResponseImpl();
+        sortResponse.setSortResult( SortResultCode.SUCCESS );
+        searchContext.addResponseControl( sortResponse );
+        searchResult.setEvaluator( evaluator );
+
+        return true;
+    }
+
+
+    /**
+     * Tells if the scope cursors will have to dereference aliases while searching. This is
+     * only necessary when the partition actually contains some aliases.
+     */
+    private boolean mustDereferenceAliases( PartitionTxn partitionTxn, PartitionSearchResult searchResult )
+        throws LdapException
+    {
+        if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
+        {
+            return db.getAliasIndex().count( partitionTxn ) > 0L;
+        }
+
+        return false;
+    }
+
+
     /**
      * {@inheritDoc}
      */
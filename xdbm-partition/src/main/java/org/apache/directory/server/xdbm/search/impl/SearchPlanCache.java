@@ -0,0 +1,307 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.time.Duration;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ApproximateNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.NotNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.xdbm.Store;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A cache of the scan counts computed by the {@link DefaultOptimizer}, per filter shape.
+ * The shape of a filter is made of its operators and attribute types, without the
+ * assertion values and the search base : (&amp;(objectClass=person)(uid=jdoe)) and
+ * (&amp;(objectClass=person)(uid=jsmith)) have the same shape. The scan counts of the
+ * leaves of a filter are reused for the next filters with the same shape, so the
+ * indexes don't have to be read again to annotate them. The scope counts depend on
+ * the search base, they are never cached.
+ * <br>
+ * A plan is dropped when the number of entries has changed by more than 10%, when the
+ * statistics of the indexes have been refreshed, or after a minute.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchPlanCache
+{
+    /** The change of the number of entries after which a plan is outdated */
+    private static final double MAX_DRIFT = 0.1d;
+
+    /** The plans, per filter shape */
+    private final Cache<String, SearchPlan> plans;
+
+    /** The scan counts computed for a filter shape */
+    private static final class SearchPlan
+    {
+        /** The scan counts of the leaves, in depth first order, or -1 if unknown */
+        private final long[] counts;
+
+        /** The number of entries when the counts were computed */
+        private final long nbEntries;
+
+        /** The version of the statistics when the counts were computed */
+        private final long version;
+
+
+        private SearchPlan( long[] counts, long nbEntries, long version )
+        {
+            this.counts = counts;
+            this.nbEntries = nbEntries;
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * Creates a SearchPlanCache.
+     *
+     * @param size The maximum number of plans
+     */
+    public SearchPlanCache( int size )
+    {
+        plans = Caffeine.newBuilder().maximumSize( size ).expireAfterWrite( Duration.ofMinutes( 1 ) ).build();
+    }
+
+
+    /**
+     * Computes the shape of a filter, and gathers its leaves in depth first order. The
+     * attribute types which are indexed are marked, so that adding an index changes the
+     * shape of the filters using it.
+     *
+     * @param db The store
+     * @param node The filter
+     * @param leaves The list where the leaves are added
+     * @return The shape, or null if the filter contains some nodes which can't be cached
+     * @throws LdapException If the indexes can't be checked
+     */
+    public static String getShape( Store db, ExprNode node, List<ExprNode> leaves ) throws LdapException
+    {
+        StringBuilder sb = new StringBuilder();
+
+        if ( !appendShape( db, node, leaves, sb ) )
+        {
+            return null;
+        }
+
+        return sb.toString();
+    }
+
+
+    private static boolean appendShape( Store db, ExprNode node, List<ExprNode> leaves, StringBuilder sb )
+        throws LdapException
+    {
+        if ( node instanceof BranchNode )
+        {
+            if ( node instanceof AndNode )
+            {
+                sb.append( "(&" );
+            }
+            else if ( node instanceof OrNode )
+            {
+                sb.append( "(|" );
+            }
+            else if ( node instanceof NotNode )
+            {
+                sb.append( "(!" );
+            }
+            else
+            {
+                return false;
+            }
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( !appendShape( db, child, leaves, sb ) )
+                {
+                    return false;
+                }
+            }
+
+            sb.append( ')' );
+
+            return true;
+        }
+
+        if ( node instanceof ScopeNode )
+        {
+            ScopeNode scopeNode = ( ScopeNode ) node;
+            sb.append( "(scope=" ).append( scopeNode.getScope() ).append( ',' )
+                .append( scopeNode.getDerefAliases() ).append( ')' );
+
+            return true;
+        }
+
+        // The ObjectClassNode, AssertionNode and UndefinedNode are not cached
+        if ( !( node instanceof LeafNode ) || ( ( ( LeafNode ) node ).getAttributeType() == null ) )
+        {
+            return false;
+        }
+
+        AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
+        sb.append( '(' ).append( attributeType.getOid() );
+
+        if ( db.hasIndexOn( attributeType ) )
+        {
+            sb.append( '#' );
+        }
+
+        if ( node instanceof EqualityNode )
+        {
+            sb.append( "=" );
+        }
+        else if ( node instanceof GreaterEqNode )
+        {
+            sb.append( ">=" );
+        }
+        else if ( node instanceof LessEqNode )
+        {
+            sb.append( "<=" );
+        }
+        else if ( node instanceof ApproximateNode )
+        {
+            sb.append( "~=" );
+        }
+        else if ( node instanceof PresenceNode )
+        {
+            sb.append( "=*" );
+        }
+        else if ( node instanceof SubstringNode )
+        {
+            // A prefix and a n-gram lookup have different costs
+            SubstringNode substringNode = ( SubstringNode ) node;
+            sb.append( '=' );
+
+            if ( substringNode.getInitial() != null )
+            {
+                sb.append( 'I' );
+            }
+
+            sb.append( '*' );
+
+            if ( substringNode.getAny() != null )
+            {
+                for ( int i = 0; i < substringNode.getAny().size(); i++ )
+                {
+                    sb.append( "A*" );
+                }
+            }
+
+            if ( substringNode.getFinal() != null )
+            {
+                sb.append( 'F' );
+            }
+        }
+        else if ( node instanceof ExtensibleNode )
+        {
+            sb.append( ':' ).append( ( ( ExtensibleNode ) node ).getMatchingRuleId() ).append( ":=" );
+        }
+        else
+        {
+            return false;
+        }
+
+        sb.append( ')' );
+        leaves.add( node );
+
+        return true;
+    }
+
+
+    /**
+     * Gets the scan counts of a filter shape, if they are still valid.
+     *
+     * @param shape The filter shape
+     * @param nbEntries The current number of entries
+     * @param version The current version of the statistics
+     * @return The scan counts of the leaves, or null if there is no valid plan
+     */
+    public long[] get( String shape, long nbEntries, long version )
+    {
+        SearchPlan plan = plans.getIfPresent( shape );
+
+        if ( plan == null )
+        {
+            return null;
+        }
+
+        if ( ( plan.version != version ) || ( Math.abs( nbEntries - plan.nbEntries ) > plan.nbEntries * MAX_DRIFT ) )
+        {
+            plans.invalidate( shape );
+
+            return null;
+        }
+
+        return plan.counts;
+    }
+
+
+    /**
+     * Stores the scan counts of a filter shape.
+     *
+     * @param shape The filter shape
+     * @param counts The scan counts of the leaves, -1 for the leaves which have not been annotated
+     * @param nbEntries The current number of entries
+     * @param version The current version of the statistics
+     */
+    public void put( String shape, long[] counts, long nbEntries, long version )
+    {
+        plans.put( shape, new SearchPlan( counts, nbEntries, version ) );
+    }
+
+
+    /**
+     * Drops all the plans.
+     */
+    public void invalidateAll()
+    {
+        plans.invalidateAll();
+    }
+
+
+    /**
+     * @return The number of cached plans
+     */
+    public long size()
+    {
+        plans.cleanUp();
+
+        return plans.estimatedSize();
+    }
+}
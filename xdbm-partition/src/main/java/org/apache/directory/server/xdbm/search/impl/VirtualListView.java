@@ -0,0 +1,687 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.ObjectClass;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.StatisticsCatalog;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.cursor.SortedIndexCursor;
+
+
+/**
+ * A virtual list view (VLV) of the entries matching a search, sorted by the values of an
+ * attribute, read from the index of this attribute. As the index is sorted, the target entry
+ * is found by moving a cursor in the index, and only the entries around it are checked against
+ * the filter, instead of sorting all the entries matching the search.
+ * <br>
+ * The positions are estimates, as the VLV specification allows. The number of entries matching
+ * the search is the count computed by the optimizer, from the index counts and the number of
+ * descendants of the search base, and these entries are assumed to be evenly spread in the index.
+ * When the index statistics are available, their histogram is used to move to a position without
+ * reading the keys before it : only the keys of one bucket are read. Without statistics, the
+ * index can't tell the key at a given position, so the cursor is moved key by key from the
+ * closest end of the index : jumping to an offset costs up to half the index keys. The targets
+ * given by an assertion value are always reached with a single seek.
+ * <br>
+ * Only the searches whose candidates all have a value for the sort attribute are handled : the
+ * entries without a value, which are sorted last, are not in the index.
+ * <br>
+ * When the sort control comes alone, the whole list is returned, in the index order.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class VirtualListView
+{
+    /** The minimal ratio of index keys selected by the search for walking the index to be worth it */
+    private static final long MIN_DENSITY = 10L;
+
+    /** The index of the sort attribute */
+    private final Index<String, String> sortIdx;
+
+    /** Tells if the entries are sorted in the reverse order */
+    private final boolean reverse;
+
+    /** Tells if the entries may have more than one value for the sort attribute */
+    private final boolean multiValued;
+
+    /** The evaluator of the search filter and scope */
+    private final Evaluator<? extends ExprNode> evaluator;
+
+    /** The statistics of the sort index, if any */
+    private final IndexStatistics statistics;
+
+    /** The number of keys of the sort index */
+    private final long nbKeys;
+
+    /** The estimated number of entries matching the search */
+    private final long contentCount;
+
+    /** The estimated position of the target entry, starting at 1 */
+    private long targetPosition;
+
+
+    private VirtualListView( Index<String, String> sortIdx, boolean reverse, boolean multiValued,
+        Evaluator<? extends ExprNode> evaluator, IndexStatistics statistics, long nbKeys, long contentCount )
+    {
+        this.sortIdx = sortIdx;
+        this.reverse = reverse;
+        this.multiValued = multiValued;
+        this.evaluator = evaluator;
+        this.statistics = statistics;
+        this.nbKeys = nbKeys;
+        this.contentCount = contentCount;
+    }
+
+
+    /**
+     * Creates a VirtualListView if a search can be served by the index of the sort attribute.
+     * This requires an index sorted the way the entries have to be, and a filter only
+     * selecting entries having a value for the sort attribute.
+     *
+     * @param partitionTxn The transaction to use
+     * @param db The store
+     * @param schemaManager The SchemaManager
+     * @param sortRequest The sort control of the search
+     * @param filter The search filter
+     * @param root The annotated filter, including the scope
+     * @param evaluator The evaluator of the annotated filter
+     * @return The VirtualListView, or null if the entries have to be sorted
+     * @throws LdapException If the indexes can't be read
+     */
+    @SuppressWarnings("unchecked")
+    public static VirtualListView create( PartitionTxn partitionTxn, Store db, SchemaManager schemaManager,
+        SortRequest sortRequest, ExprNode filter, ExprNode root, Evaluator<? extends ExprNode> evaluator )
+        throws LdapException
+    {
+        List<SortKey> sortKeys = sortRequest.getSortKeys();
+
+        if ( ( sortKeys == null ) || ( sortKeys.size() != 1 ) )
+        {
+            return null;
+        }
+
+        SortKey sortKey = sortKeys.get( 0 );
+        AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+        if ( ( attributeType == null ) || ( attributeType.getEquality() == null )
+            || !attributeType.getSyntax().isHumanReadable() || !db.hasUserIndexOn( attributeType ) )
+        {
+            return null;
+        }
+
+        // The index keys are sorted with the equality comparator, the entries must be sorted the same way
+        String mrOid = sortKey.getMatchingRuleId();
+
+        if ( mrOid == null )
+        {
+            MatchingRule ordering = attributeType.getOrdering();
+            mrOid = ( ordering != null ) ? ordering.getOid() : attributeType.getEquality().getOid();
+        }
+
+        LdapComparator<?> sortComparator;
+
+        try
+        {
+            sortComparator = schemaManager.lookupComparatorRegistry( mrOid );
+        }
+        catch ( LdapException le )
+        {
+            return null;
+        }
+
+        if ( sortComparator.getClass() != attributeType.getEquality().getLdapComparator().getClass() )
+        {
+            return null;
+        }
+
+        Index<String, String> sortIdx;
+
+        try
+        {
+            sortIdx = ( Index<String, String> ) db.getIndex( attributeType );
+        }
+        catch ( IndexNotFoundException infe )
+        {
+            throw new LdapOtherException( infe.getMessage(), infe );
+        }
+
+        // An entry with many values is sorted by its lowest value, read from the reverse index
+        boolean multiValued = !attributeType.isSingleValued();
+
+        if ( multiValued && !sortIdx.hasReverse() )
+        {
+            return null;
+        }
+
+        long nbEntries = db.count( partitionTxn );
+
+        if ( !requiresValue( schemaManager, filter, attributeType )
+            && ( db.getPresenceIndex().count( partitionTxn, attributeType.getOid() ) < nbEntries ) )
+        {
+            return null;
+        }
+
+        long nbKeys = sortIdx.count( partitionTxn );
+        Long count = ( Long ) root.get( DefaultOptimizer.COUNT_ANNOTATION );
+        long contentCount = Math.min( nbEntries, nbKeys );
+
+        if ( count != null )
+        {
+            contentCount = Math.min( contentCount, count );
+        }
+
+        IndexStatistics statistics = null;
+        StatisticsCatalog catalog = db.getStatistics( partitionTxn );
+
+        if ( catalog != null )
+        {
+            statistics = catalog.get( attributeType.getOid() );
+        }
+
+        return new VirtualListView( sortIdx, sortKey.isReverseOrder(), multiValued, evaluator, statistics, nbKeys,
+            contentCount );
+    }
+
+
+    /**
+     * Tells if all the entries selected by a filter have a value for an attribute, because
+     * the filter checks its values, or because they all belong to an objectClass where it is
+     * mandatory.
+     */
+    private static boolean requiresValue( SchemaManager schemaManager, ExprNode node, AttributeType attributeType )
+        throws LdapException
+    {
+        if ( node instanceof AndNode )
+        {
+            for ( ExprNode child : ( ( AndNode ) node ).getChildren() )
+            {
+                if ( requiresValue( schemaManager, child, attributeType ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        if ( node instanceof OrNode )
+        {
+            for ( ExprNode child : ( ( OrNode ) node ).getChildren() )
+            {
+                if ( !requiresValue( schemaManager, child, attributeType ) )
+                {
+                    return false;
+                }
+            }
+
+            return !( ( OrNode ) node ).getChildren().isEmpty();
+        }
+
+        if ( !( node instanceof LeafNode ) )
+        {
+            return false;
+        }
+
+        AttributeType nodeType = ( ( LeafNode ) node ).getAttributeType();
+
+        if ( attributeType.equals( nodeType ) )
+        {
+            // The values of the descendants would match too
+            return !schemaManager.getAttributeTypeRegistry().hasDescendants( attributeType );
+        }
+
+        if ( ( node instanceof EqualityNode ) && ( nodeType != null ) && nodeType.equals( schemaManager.getAttributeType( "objectClass" ) ) )
+        {
+            try
+            {
+                ObjectClass objectClass = schemaManager.lookupObjectClassRegistry(
+                    ( ( EqualityNode<?> ) node ).getValue().getString() );
+
+                return isMandatory( objectClass, attributeType );
+            }
+            catch ( LdapException le )
+            {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Tells if an attribute is mandatory in an objectClass or in one of its superiors
+     */
+    private static boolean isMandatory( ObjectClass objectClass, AttributeType attributeType )
+    {
+        if ( objectClass.getMustAttributeTypes().contains( attributeType ) )
+        {
+            return true;
+        }
+
+        for ( ObjectClass superior : objectClass.getSuperiors() )
+        {
+            if ( isMandatory( superior, attributeType ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * @return The estimated number of entries matching the search
+     */
+    public long getContentCount()
+    {
+        return contentCount;
+    }
+
+
+    /**
+     * @return The estimated position of the target entry, starting at 1. It is one more than the
+     * content count when the target is after the last entry.
+     */
+    public long getTargetPosition()
+    {
+        return targetPosition;
+    }
+
+
+    /**
+     * Tells if the search selects enough keys of the sort index for a walk over the whole index
+     * to be cheaper than sorting the candidates.
+     *
+     * @return <tt>true</tt> if at least one key out of ten is expected to be selected
+     */
+    public boolean isDense()
+    {
+        return contentCount * MIN_DENSITY >= nbKeys;
+    }
+
+
+    /**
+     * Gets all the candidates, in the sort order. They still have to be checked against the
+     * search filter.
+     *
+     * @param partitionTxn The transaction to use
+     * @return A Cursor over the candidates
+     * @throws LdapException If the sort index can't be read
+     */
+    public Cursor<IndexEntry<String, String>> getCandidates( PartitionTxn partitionTxn ) throws LdapException
+    {
+        return new SortedIndexCursor( partitionTxn, sortIdx, reverse, multiValued );
+    }
+
+
+    /**
+     * Gets the candidates of the requested window : the target entry, with the requested number
+     * of entries before and after it. The target is either the entry at the requested offset, or
+     * the first entry whose value is greater than or equal to the assertion value.
+     *
+     * @param partitionTxn The transaction to use
+     * @param vlvRequest The VLV control of the search
+     * @return The candidates, in the sort order
+     * @throws LdapException If the indexes can't be read
+     */
+    public List<IndexEntry<String, String>> getWindow( PartitionTxn partitionTxn, VirtualListViewRequest vlvRequest )
+        throws LdapException
+    {
+        if ( contentCount == 0L )
+        {
+            targetPosition = 0L;
+
+            return Collections.emptyList();
+        }
+
+        try ( Cursor<IndexEntry<String, String>> cursor = sortIdx.forwardCursor( partitionTxn ) )
+        {
+            boolean available;
+
+            if ( vlvRequest.hasAssertionValue() )
+            {
+                String key = sortIdx.getAttribute().getEquality().getNormalizer().normalize(
+                    Strings.utf8ToString( vlvRequest.getAssertionValue() ) );
+                targetPosition = getKeyPosition( partitionTxn, key );
+                available = seek( cursor, key );
+            }
+            else
+            {
+                targetPosition = getOffsetPosition( vlvRequest.getOffset(), vlvRequest.getContentCount() );
+                available = moveTo( cursor, ( long ) ( ( targetPosition - 1L ) * ( ( double ) nbKeys / contentCount ) ) );
+            }
+
+            // The target is the first matching entry from there
+            IndexEntry<String, String> target = null;
+
+            while ( available )
+            {
+                target = accept( partitionTxn, cursor.get() );
+
+                if ( target != null )
+                {
+                    break;
+                }
+
+                available = forward( cursor );
+            }
+
+            if ( target == null )
+            {
+                targetPosition = contentCount + 1L;
+            }
+
+            List<IndexEntry<String, String>> window = getBefore( partitionTxn, target, vlvRequest.getBeforeCount() );
+
+            if ( target != null )
+            {
+                window.add( target );
+                int nbAfter = 0;
+
+                while ( ( nbAfter < vlvRequest.getAfterCount() ) && forward( cursor ) )
+                {
+                    IndexEntry<String, String> candidate = accept( partitionTxn, cursor.get() );
+
+                    if ( candidate != null )
+                    {
+                        window.add( candidate );
+                        nbAfter++;
+                    }
+                }
+            }
+
+            return window;
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Gets the matching entries before the target, or before the end of the list if there
+     * is no target, reading the index backward.
+     */
+    private List<IndexEntry<String, String>> getBefore( PartitionTxn partitionTxn, IndexEntry<String, String> target,
+        int beforeCount ) throws LdapException, CursorException, IOException
+    {
+        List<IndexEntry<String, String>> before = new ArrayList<>();
+
+        if ( beforeCount <= 0 )
+        {
+            return before;
+        }
+
+        try ( Cursor<IndexEntry<String, String>> cursor = sortIdx.forwardCursor( partitionTxn ) )
+        {
+            if ( target == null )
+            {
+                if ( reverse )
+                {
+                    cursor.beforeFirst();
+                }
+                else
+                {
+                    cursor.afterLast();
+                }
+            }
+            else if ( reverse )
+            {
+                cursor.after( target );
+            }
+            else
+            {
+                cursor.before( target );
+            }
+
+            while ( ( before.size() < beforeCount ) && backward( cursor ) )
+            {
+                IndexEntry<String, String> candidate = accept( partitionTxn, cursor.get() );
+
+                if ( candidate != null )
+                {
+                    before.add( candidate );
+                }
+            }
+        }
+
+        Collections.reverse( before );
+
+        return before;
+    }
+
+
+    /**
+     * Checks if an index entry is an entry of the list : it must match the search, and be the
+     * lowest value of the entry.
+     *
+     * @return The candidate, or null if it is not in the list
+     */
+    private IndexEntry<String, String> accept( PartitionTxn partitionTxn, IndexEntry<String, String> indexEntry )
+        throws LdapException
+    {
+        if ( multiValued )
+        {
+            String lowest = sortIdx.reverseLookup( partitionTxn, indexEntry.getId() );
+
+            if ( ( lowest != null ) && !lowest.equals( indexEntry.getKey() ) )
+            {
+                return null;
+            }
+        }
+
+        IndexEntry<String, String> candidate = new IndexEntry<>();
+        candidate.setId( indexEntry.getId() );
+        candidate.setKey( indexEntry.getKey() );
+
+        if ( evaluator.evaluate( partitionTxn, candidate ) )
+        {
+            return candidate;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Computes the position of the target from the requested offset. When the client gives
+     * its own estimate of the content count, the offset is scaled to the server estimate.
+     */
+    private long getOffsetPosition( int offset, int clientCount )
+    {
+        long position;
+
+        if ( ( clientCount == 0 ) || ( offset == 1 ) )
+        {
+            position = offset;
+        }
+        else if ( offset >= clientCount )
+        {
+            position = contentCount;
+        }
+        else
+        {
+            position = Math.round( ( double ) offset * contentCount / clientCount );
+        }
+
+        return Math.max( 1L, Math.min( position, contentCount ) );
+    }
+
+
+    /**
+     * Estimates the position of the first entry whose value is greater than or equal to a key,
+     * from the number of keys before it in the index.
+     */
+    private long getKeyPosition( PartitionTxn partitionTxn, String key ) throws LdapException
+    {
+        long keysBefore = -1L;
+
+        if ( statistics != null )
+        {
+            long keysAfter = reverse ? statistics.lessOrEqualCount( key, nbKeys )
+                : statistics.greaterOrEqualCount( key, nbKeys );
+
+            if ( keysAfter >= 0L )
+            {
+                keysBefore = nbKeys - keysAfter;
+            }
+        }
+
+        if ( keysBefore < 0L )
+        {
+            keysBefore = reverse ? sortIdx.greaterThanCount( partitionTxn, key )
+                : sortIdx.lessThanCount( partitionTxn, key );
+        }
+
+        long position = 1L + ( long ) ( ( double ) keysBefore * contentCount / nbKeys );
+
+        return Math.max( 1L, Math.min( position, contentCount + 1L ) );
+    }
+
+
+    /**
+     * Moves the cursor on the first key greater than or equal to a key, in the sort order.
+     */
+    private boolean seek( Cursor<IndexEntry<String, String>> cursor, String key )
+        throws LdapException, CursorException
+    {
+        IndexEntry<String, String> start = new IndexEntry<>();
+        start.setKey( key );
+
+        if ( reverse )
+        {
+            cursor.after( start );
+
+            return cursor.previous();
+        }
+        else
+        {
+            cursor.before( start );
+
+            return cursor.next();
+        }
+    }
+
+
+    /**
+     * Moves the cursor on a position in the index, in the sort order. The closest bucket of
+     * the index histogram is used as a starting point, if any, so that only the keys of this
+     * bucket are read. Otherwise, the cursor starts from the closest end of the index.
+     */
+    private boolean moveTo( Cursor<IndexEntry<String, String>> cursor, long position )
+        throws LdapException, CursorException
+    {
+        long forwardPosition = Math.max( 0L, Math.min( nbKeys - 1L, reverse ? nbKeys - 1L - position : position ) );
+        long skip = forwardPosition;
+        int bucket = ( statistics != null ) ? statistics.getBucket( forwardPosition, nbKeys ) : -1;
+
+        if ( bucket > 0 )
+        {
+            IndexEntry<String, String> start = new IndexEntry<>();
+            start.setKey( statistics.getBound( bucket ) );
+            cursor.before( start );
+            skip = Math.max( 0L, forwardPosition - statistics.getBucketStart( bucket, nbKeys ) );
+        }
+        else if ( forwardPosition > nbKeys / 2L )
+        {
+            // Closer to the last key : walk backward from there
+            cursor.afterLast();
+            boolean available = cursor.previous();
+
+            for ( long i = nbKeys - 1L; available && ( i > forwardPosition ); i-- )
+            {
+                available = cursor.previous();
+            }
+
+            if ( !available )
+            {
+                // The index has less keys than counted
+                cursor.beforeFirst();
+                available = cursor.next();
+            }
+
+            return available;
+        }
+        else
+        {
+            cursor.beforeFirst();
+        }
+
+        boolean available = cursor.next();
+
+        for ( long i = 0L; available && ( i < skip ); i++ )
+        {
+            available = cursor.next();
+        }
+
+        if ( !available && reverse )
+        {
+            // The estimate went past the last key, which is the first one in the reverse order
+            cursor.afterLast();
+            available = cursor.previous();
+        }
+
+        return available;
+    }
+
+
+    private boolean forward( Cursor<IndexEntry<String, String>> cursor ) throws LdapException, CursorException
+    {
+        return reverse ? cursor.previous() : cursor.next();
+    }
+
+
+    private boolean backward( Cursor<IndexEntry<String, String>> cursor ) throws LdapException, CursorException
+    {
+        return reverse ? cursor.next() : cursor.previous();
+    }
+}
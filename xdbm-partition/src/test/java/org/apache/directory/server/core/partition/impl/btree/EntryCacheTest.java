@@ -0,0 +1,170 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the EntryCache class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryCacheTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = EntryCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    private static Entry entry( int i ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=entry" + i + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: entry" + i,
+            "sn: surname " + i,
+            "description: a description long enough to give the entry some weight" );
+    }
+
+
+    @Test
+    public void testBoundedByCount() throws Exception
+    {
+        EntryCache cache = new EntryCache( schemaManager, 10, -1L, 0L );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( Integer.toString( i ), entry( i ) );
+        }
+
+        assertEquals( 10L, cache.getSize() );
+        assertEquals( 0L, cache.getNbOffHeapEntries() );
+        assertNull( cache.getOffHeapStats() );
+    }
+
+
+    @Test
+    public void testBoundedBySize() throws Exception
+    {
+        EntryCache cache = new EntryCache( schemaManager, 1000, 4096L, 0L );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( Integer.toString( i ), entry( i ) );
+        }
+
+        // The count bound is ignored, the size bound is enforced
+        assertTrue( cache.getSize() <= 4096L );
+        assertTrue( cache.getNbEntries() < 100L );
+        assertTrue( cache.getNbEntries() > 0L );
+    }
+
+
+    @Test
+    public void testOffHeap() throws Exception
+    {
+        EntryCache cache = new EntryCache( schemaManager, 1000, 4096L, 1024L * 1024L );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( Integer.toString( i ), entry( i ) );
+        }
+
+        // The entries evicted from the heap are kept off-heap
+        assertEquals( 100L, cache.getNbEntries() + cache.getNbOffHeapEntries() );
+        assertTrue( cache.getOffHeapSize() > 0L );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            Entry found = cache.get( Integer.toString( i ) );
+
+            assertNotNull( found );
+            assertEquals( "surname " + i, found.get( "sn" ).getString() );
+        }
+    }
+
+
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        EntryCache cache = new EntryCache( schemaManager, 1000, 4096L, 1024L * 1024L );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.put( Integer.toString( i ), entry( i ) );
+        }
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            cache.invalidate( Integer.toString( i ) );
+            assertNull( cache.get( Integer.toString( i ) ) );
+        }
+
+        cache.put( "0", entry( 0 ) );
+        cache.invalidateAll();
+
+        assertNull( cache.get( "0" ) );
+        assertEquals( 0L, cache.getNbEntries() + cache.getNbOffHeapEntries() );
+    }
+}
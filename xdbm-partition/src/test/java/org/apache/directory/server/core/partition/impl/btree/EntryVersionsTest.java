@@ -0,0 +1,178 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.junit.Test;
+
+
+/**
+ * Tests the EntryVersions class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryVersionsTest
+{
+    private static Entry entry( String cn ) throws Exception
+    {
+        return new DefaultEntry( "cn=" + cn, "cn: " + cn );
+    }
+
+
+    @Test
+    public void testNoReader() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+
+        versions.save( "1", entry( "a" ) );
+        assertTrue( versions.contains( "1" ) );
+        assertEquals( 1, versions.size() );
+
+        // Nobody can read the saved version after the commit
+        versions.publish();
+        assertEquals( 1L, versions.getRevision() );
+        assertEquals( 0, versions.size() );
+        assertFalse( versions.contains( "1" ) );
+    }
+
+
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+        Entry a = entry( "a" );
+        Entry b = entry( "b" );
+
+        SnapshotReadTxn first = new SnapshotReadTxn( versions );
+
+        // Modify entry 1, add entry 2
+        versions.save( "1", a );
+        versions.save( "1", b );
+        versions.save( "2", null );
+        SnapshotWriteTxn writeTxn = new SnapshotWriteTxn( versions );
+        writeTxn.commit();
+
+        SnapshotReadTxn second = new SnapshotReadTxn( versions );
+
+        // Modify entry 1 again
+        versions.save( "1", b );
+        writeTxn.commit();
+
+        // The first reader sees the initial state
+        assertEquals( a, first.getVersion( "1" ).getEntry() );
+        assertNotNull( first.getVersion( "2" ) );
+        assertNull( first.getVersion( "2" ).getEntry() );
+        assertNull( first.getVersion( "3" ) );
+
+        // The second one sees the first modification
+        assertEquals( b, second.getVersion( "1" ).getEntry() );
+        assertNull( second.getVersion( "2" ) );
+
+        // A new reader sees the latest state
+        try ( SnapshotReadTxn third = new SnapshotReadTxn( versions ) )
+        {
+            assertNull( third.getVersion( "1" ) );
+        }
+
+        first.close();
+        assertEquals( 1, versions.size() );
+        assertEquals( b, second.getVersion( "1" ).getEntry() );
+
+        second.close();
+        assertEquals( 0, versions.size() );
+    }
+
+
+    @Test
+    public void testRetain() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+        Entry a = entry( "a" );
+
+        SnapshotReadTxn txn = new SnapshotReadTxn( versions );
+        txn.retain();
+        txn.close();
+        txn.close();
+
+        versions.save( "1", a );
+        versions.publish();
+
+        // The transaction is closed, but still retained by a cursor
+        assertTrue( txn.isClosed() );
+        assertEquals( a, txn.getVersion( "1" ).getEntry() );
+
+        txn.release();
+        assertEquals( 0, versions.size() );
+    }
+
+
+    @Test
+    public void testIsRead() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+
+        // Nothing has to be saved without readers
+        assertFalse( versions.isRead() );
+
+        SnapshotReadTxn first = new SnapshotReadTxn( versions );
+        SnapshotReadTxn second = new SnapshotReadTxn( versions );
+        assertTrue( versions.isRead() );
+
+        first.close();
+        assertTrue( versions.isRead() );
+
+        // A cursor still reads the second transaction once it's closed
+        second.retain();
+        second.close();
+        assertTrue( versions.isRead() );
+
+        second.release();
+        assertFalse( versions.isRead() );
+    }
+
+
+    @Test
+    public void testMaxVersions() throws Exception
+    {
+        EntryVersions versions = new EntryVersions( 2 );
+
+        // A reader which is never closed
+        SnapshotReadTxn txn = new SnapshotReadTxn( versions );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            versions.save( Integer.toString( i ), entry( Integer.toString( i ) ) );
+            versions.publish();
+        }
+
+        assertTrue( versions.size() <= 2 );
+
+        // Some versions are gone : the reader sees the latest entries
+        assertNull( txn.getVersion( "4" ) );
+    }
+}
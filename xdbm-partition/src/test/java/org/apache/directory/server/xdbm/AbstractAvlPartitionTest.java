@@ -0,0 +1,150 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+
+
+/**
+ * A base class for the tests run against an in memory AvlPartition loaded with the
+ * example data of {@link StoreUtils}. The subclasses add the indexes and the options
+ * they need to the partition before it is initialized.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class AbstractAvlPartitionTest
+{
+    protected static SchemaManager schemaManager;
+    protected static DnFactory dnFactory;
+
+    /** The partition, loaded with the example data */
+    protected AvlPartition partition;
+
+    /** A read transaction, opened once the data are loaded */
+    protected PartitionTxn txn;
+
+    /** A session to use in the operation contexts */
+    protected CoreSession session;
+
+
+    @BeforeClass
+    public static void loadSchemaManager() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AbstractAvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+        dnFactory = new DefaultDnFactory( schemaManager, 100 );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createPartition() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        partition = newPartition();
+        partition.setId( "example" );
+        partition.setCacheSize( 10 );
+        partition.setSyncOnWrite( false );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+
+        configure( partition );
+
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+        txn = partition.beginReadTransaction();
+
+        MockDirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+    }
+
+
+    @After
+    public void destroyPartition() throws Exception
+    {
+        if ( partition != null )
+        {
+            partition.destroy( txn );
+        }
+
+        partition = null;
+    }
+
+
+    /**
+     * @return The partition to test, not initialized yet
+     */
+    protected AvlPartition newPartition()
+    {
+        return new AvlPartition( schemaManager, dnFactory );
+    }
+
+
+    /**
+     * Adds the indexes and sets the options of the partition, before it is initialized.
+     *
+     * @param partition The partition to configure
+     * @throws Exception If the partition can't be configured
+     */
+    protected abstract void configure( AvlPartition partition ) throws Exception;
+}
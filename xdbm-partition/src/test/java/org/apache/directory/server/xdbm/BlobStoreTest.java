@@ -0,0 +1,159 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the BlobStore class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BlobStoreTest
+{
+    private File file;
+
+    private BlobStore store;
+
+
+    @Before
+    public void openStore() throws Exception
+    {
+        file = File.createTempFile( "blobs", ".db" );
+        file.deleteOnExit();
+
+        store = new BlobStore( file );
+        store.open();
+    }
+
+
+    @After
+    public void closeStore() throws Exception
+    {
+        store.close();
+        file.delete();
+    }
+
+
+    private static byte[] value( int length, int seed )
+    {
+        byte[] value = new byte[length];
+        Arrays.fill( value, ( byte ) seed );
+
+        return value;
+    }
+
+
+    @Test
+    public void testPutGet() throws Exception
+    {
+        byte[] photo = value( 10000, 1 );
+        byte[] reference = store.put( photo );
+
+        assertEquals( BlobStore.REFERENCE_LENGTH, reference.length );
+        assertArrayEquals( photo, store.get( reference ) );
+
+        // The same value is only stored once
+        assertArrayEquals( reference, store.put( value( 10000, 1 ) ) );
+        assertEquals( 1, store.count() );
+
+        try
+        {
+            store.get( new byte[BlobStore.REFERENCE_LENGTH] );
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        byte[] reference1 = store.put( value( 1000, 1 ) );
+        byte[] reference2 = store.put( value( 2000, 2 ) );
+        long size = store.size();
+        store.close();
+
+        // Simulate a value partially written before a crash
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+        {
+            raf.seek( size );
+            raf.write( value( 100, 3 ) );
+        }
+
+        store = new BlobStore( file );
+        store.open();
+
+        assertEquals( 2, store.count() );
+        assertEquals( size, store.size() );
+        assertEquals( size, file.length() );
+        assertArrayEquals( value( 1000, 1 ), store.get( reference1 ) );
+        assertArrayEquals( value( 2000, 2 ), store.get( reference2 ) );
+    }
+
+
+    @Test
+    public void testCompact() throws Exception
+    {
+        byte[] live = store.put( value( 1000, 1 ) );
+        store.put( value( 2000, 2 ) );
+        byte[] reused = store.put( value( 3000, 3 ) );
+
+        store.startCompaction();
+
+        // Written or stored again while the references are collected : they are kept
+        byte[] added = store.put( value( 4000, 4 ) );
+        store.put( value( 3000, 3 ) );
+
+        store.compact( Collections.singletonList( live ) );
+
+        assertEquals( 3, store.count() );
+        assertTrue( store.size() < 1000 + 2000 + 3000 + 4000 + 4 * ( BlobStore.REFERENCE_LENGTH + 4 ) );
+        assertArrayEquals( value( 1000, 1 ), store.get( live ) );
+        assertArrayEquals( value( 3000, 3 ), store.get( reused ) );
+        assertArrayEquals( value( 4000, 4 ), store.get( added ) );
+
+        // The compacted file is read back
+        store.close();
+        store = new BlobStore( file );
+        store.open();
+
+        assertEquals( 3, store.count() );
+        assertArrayEquals( value( 4000, 4 ), store.get( added ) );
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.Test;
+
+
+/**
+ * Tests the BlockCompressor class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class BlockCompressorTest
+{
+    /**
+     * Compresses and decompresses a block, which must be compressed
+     */
+    private static byte[] roundTrip( byte[] block ) throws IOException
+    {
+        byte[] compressed = BlockCompressor.compress( block, 0, block.length );
+
+        assertNotNull( compressed );
+        assertTrue( compressed.length < block.length );
+        assertArrayEquals( block, BlockCompressor.decompress( compressed, 0, compressed.length, block.length ) );
+
+        return compressed;
+    }
+
+
+    /**
+     * A block of random bytes followed by a repeated sequence
+     */
+    private static byte[] repeated( int prefixLength, int length, int period )
+    {
+        byte[] block = new byte[length];
+        new Random( length ).nextBytes( block );
+
+        for ( int i = prefixLength; i < length; i++ )
+        {
+            block[i] = block[i - period];
+        }
+
+        return block;
+    }
+
+
+    @Test
+    public void testShortBlocks() throws Exception
+    {
+        // Too short to contain a match : never smaller
+        for ( int length = 0; length < 4; length++ )
+        {
+            byte[] block = new byte[length];
+
+            assertNull( BlockCompressor.compress( block, 0, length ) );
+        }
+
+        roundTrip( new byte[5] );
+    }
+
+
+    @Test
+    public void testText() throws Exception
+    {
+        byte[] block = Strings.getBytesUtf8( "objectClass: top\nobjectClass: person\nobjectClass: "
+            + "organizationalPerson\nobjectClass: inetOrgPerson\ncreatorsName: uid=admin,ou=system\n"
+            + "modifiersName: uid=admin,ou=system\n" );
+
+        roundTrip( block );
+    }
+
+
+    /**
+     * The literal runs are at most 32 bytes long.
+     */
+    @Test
+    public void testLiteralRunBoundaries() throws Exception
+    {
+        for ( int literals = 30; literals <= 66; literals++ )
+        {
+            // The literals, then a long match
+            roundTrip( repeated( literals, literals + 100, literals ) );
+        }
+    }
+
+
+    /**
+     * The match lengths above 8 use an extra byte, and they are at most 264 bytes long.
+     */
+    @Test
+    public void testMatchLengthBoundaries() throws Exception
+    {
+        for ( int length : new int[]
+            { 3, 4, 8, 9, 10, 263, 264, 265, 266, 528, 529, 1000 } )
+        {
+            // 40 random bytes, repeated for the given length, then random bytes again
+            byte[] block = new byte[40 + length + 40];
+            new Random( length ).nextBytes( block );
+
+            for ( int i = 40; i < 40 + length; i++ )
+            {
+                block[i] = block[i - 40];
+            }
+
+            byte[] compressed = BlockCompressor.compress( block, 0, block.length );
+
+            if ( compressed != null )
+            {
+                assertArrayEquals( block,
+                    BlockCompressor.decompress( compressed, 0, compressed.length, block.length ) );
+            }
+            else
+            {
+                // Only a short match may not save enough bytes
+                assertTrue( length < 10 );
+            }
+        }
+    }
+
+
+    /**
+     * The back references are at most 8192 bytes far.
+     */
+    @Test
+    public void testDistanceBoundaries() throws Exception
+    {
+        for ( int distance : new int[]
+            { 8190, 8191, 8192, 8193, 8194, 10000 } )
+        {
+            // 200 random bytes, zeros, and the random bytes again
+            byte[] block = new byte[distance + 200];
+            byte[] random = new byte[200];
+            new Random( distance ).nextBytes( random );
+            System.arraycopy( random, 0, block, 0, 200 );
+            System.arraycopy( random, 0, block, distance, 200 );
+
+            byte[] compressed = roundTrip( block );
+
+            if ( distance <= 8192 )
+            {
+                // The random bytes are only written once
+                assertTrue( compressed.length < 400 );
+            }
+            else
+            {
+                assertTrue( compressed.length > 400 );
+            }
+        }
+    }
+
+
+    /**
+     * The matches may overlap the bytes they produce.
+     */
+    @Test
+    public void testOverlappingMatches() throws Exception
+    {
+        byte[] block = new byte[10000];
+        Arrays.fill( block, ( byte ) 'a' );
+
+        byte[] compressed = roundTrip( block );
+        assertTrue( compressed.length < 200 );
+
+        roundTrip( repeated( 3, 5000, 3 ) );
+        roundTrip( repeated( 7, 5000, 7 ) );
+    }
+
+
+    @Test
+    public void testIncompressible() throws Exception
+    {
+        Random random = new Random( 0L );
+
+        for ( int length : new int[]
+            { 10, 100, 1000, 100000 } )
+        {
+            byte[] block = new byte[length];
+            random.nextBytes( block );
+
+            assertNull( BlockCompressor.compress( block, 0, length ) );
+        }
+
+        // Almost incompressible : the compressed block must still fit
+        byte[] block = new byte[1000];
+        random.nextBytes( block );
+        System.arraycopy( block, 0, block, 990, 10 );
+        byte[] compressed = BlockCompressor.compress( block, 0, block.length );
+
+        if ( compressed != null )
+        {
+            assertArrayEquals( block, BlockCompressor.decompress( compressed, 0, compressed.length, block.length ) );
+        }
+    }
+
+
+    @Test
+    public void testOffsets() throws Exception
+    {
+        byte[] block = repeated( 20, 500, 20 );
+        byte[] buffer = new byte[block.length + 20];
+        System.arraycopy( block, 0, buffer, 7, block.length );
+
+        byte[] compressed = BlockCompressor.compress( buffer, 7, block.length );
+        assertArrayEquals( compressed, BlockCompressor.compress( block, 0, block.length ) );
+
+        byte[] framed = new byte[compressed.length + 9];
+        System.arraycopy( compressed, 0, framed, 5, compressed.length );
+        assertArrayEquals( block, BlockCompressor.decompress( framed, 5, compressed.length, block.length ) );
+    }
+
+
+    @Test
+    public void testCorruptedBlocks() throws Exception
+    {
+        byte[] block = repeated( 20, 500, 20 );
+        byte[] compressed = roundTrip( block );
+
+        // A truncated block
+        for ( int len = 0; len < compressed.length; len++ )
+        {
+            try
+            {
+                BlockCompressor.decompress( compressed, 0, len, block.length );
+                fail();
+            }
+            catch ( IOException ioe )
+            {
+                // Expected
+            }
+        }
+
+        // A wrong length
+        try
+        {
+            BlockCompressor.decompress( compressed, 0, compressed.length, block.length - 1 );
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+
+        // A reference before the start of the block
+        try
+        {
+            BlockCompressor.decompress( new byte[]
+                { 0x00, 'a', 0x20, 0x05 }, 0, 4, 4 );
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+    }
+}
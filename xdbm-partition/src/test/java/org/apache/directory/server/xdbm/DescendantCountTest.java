@@ -0,0 +1,180 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.junit.Test;
+
+
+/**
+ * Tests the number of children and descendants of the entries, which changes for the
+ * ancestors above the parent are deferred until the write transaction is committed.
+ * 
+ * The example data are :
+ * <pre>
+ * o=Good Times Co. (1)
+ *   ou=Sales (2) : 5, 6
+ *   ou=Board of Directors (3)
+ *     ou=Apache (7) : 9
+ *     10
+ *   ou=Engineering (4) : 8, 11
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DescendantCountTest extends AbstractAvlPartitionTest
+{
+    private static final String SUFFIX = Strings.getUUID( 1L );
+    private static final String BOARD = Strings.getUUID( 3L );
+    private static final String ENGINEERING = Strings.getUUID( 4L );
+    private static final String APACHE = Strings.getUUID( 7L );
+
+    private final CsnFactory csnFactory = new CsnFactory( 1 );
+
+
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+    }
+
+
+    private void add( PartitionTxn writeTxn, String dn, long id ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, new Dn( schemaManager, dn ),
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: test",
+            "entryCSN", csnFactory.newInstance().toString(),
+            "entryUUID", Strings.getUUID( id ) );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        addContext.setTransaction( writeTxn );
+        partition.add( addContext );
+    }
+
+
+    private void assertCounts( PartitionTxn partitionTxn, long suffix, long board, long apache ) throws Exception
+    {
+        assertEquals( suffix, partition.getDescendantCount( partitionTxn, SUFFIX ) );
+        assertEquals( board, partition.getDescendantCount( partitionTxn, BOARD ) );
+        assertEquals( apache, partition.getDescendantCount( partitionTxn, APACHE ) );
+    }
+
+
+    @Test
+    public void testAdd() throws Exception
+    {
+        PartitionWriteTxn writeTxn = partition.beginWriteTransaction();
+
+        add( writeTxn, "cn=test,ou=Apache,ou=Board of Directors,o=Good Times Co.", 12L );
+
+        // The writer sees its own changes, the parent is updated at once
+        assertCounts( writeTxn, 11L, 4L, 2L );
+        assertCounts( txn, 10L, 3L, 2L );
+        assertEquals( 2L, partition.getChildCount( txn, APACHE ) );
+
+        writeTxn.commit();
+
+        assertCounts( txn, 11L, 4L, 2L );
+        assertCounts( partition.beginReadTransaction(), 11L, 4L, 2L );
+    }
+
+
+    @Test
+    public void testDelete() throws Exception
+    {
+        PartitionWriteTxn writeTxn = partition.beginWriteTransaction();
+
+        partition.delete( writeTxn, Strings.getUUID( 9L ) );
+
+        assertCounts( writeTxn, 9L, 2L, 0L );
+        assertCounts( txn, 10L, 3L, 0L );
+        assertEquals( 0L, partition.getChildCount( txn, APACHE ) );
+
+        writeTxn.commit();
+
+        assertCounts( txn, 9L, 2L, 0L );
+    }
+
+
+    @Test
+    public void testAddAndDeleteInOneTransaction() throws Exception
+    {
+        PartitionWriteTxn writeTxn = partition.beginWriteTransaction();
+
+        add( writeTxn, "cn=test,ou=Apache,ou=Board of Directors,o=Good Times Co.", 12L );
+        partition.delete( writeTxn, Strings.getUUID( 12L ) );
+        partition.delete( writeTxn, Strings.getUUID( 9L ) );
+
+        assertCounts( writeTxn, 9L, 2L, 0L );
+
+        writeTxn.commit();
+
+        assertCounts( txn, 9L, 2L, 0L );
+    }
+
+
+    @Test
+    public void testMove() throws Exception
+    {
+        PartitionWriteTxn writeTxn = partition.beginWriteTransaction();
+
+        // Some changes are pending for the moved subtree ancestors
+        add( writeTxn, "cn=test,ou=Apache,ou=Board of Directors,o=Good Times Co.", 12L );
+
+        Dn apacheDn = new Dn( schemaManager, "ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        Dn newSuperior = new Dn( schemaManager, "ou=Engineering,o=Good Times Co." );
+        Dn newDn = new Dn( schemaManager, "ou=Apache,ou=Engineering,o=Good Times Co." );
+        partition.move( writeTxn, apacheDn, newSuperior, newDn, null );
+
+        assertCounts( writeTxn, 11L, 1L, 2L );
+        assertEquals( 5L, partition.getDescendantCount( writeTxn, ENGINEERING ) );
+        assertEquals( 3L, partition.getChildCount( writeTxn, ENGINEERING ) );
+
+        writeTxn.commit();
+
+        assertCounts( txn, 11L, 1L, 2L );
+        assertEquals( 5L, partition.getDescendantCount( txn, ENGINEERING ) );
+        assertEquals( 1L, partition.getChildCount( txn, BOARD ) );
+    }
+
+
+    @Test
+    public void testForeignTransactionUpdatesAtOnce() throws Exception
+    {
+        // A transaction created by another partition won't flush the changes on commit
+        add( new MockPartitionWriteTxn(), "cn=test,ou=Apache,ou=Board of Directors,o=Good Times Co.", 12L );
+
+        assertCounts( txn, 11L, 4L, 2L );
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the IndexStatistics and StatisticsCatalog classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest extends AbstractAvlPartitionTest
+{
+    private AttributeType ouAt;
+    private Index<String, String> ouIdx;
+    private Comparator<? super String> comparator;
+
+
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+        partition.setStatisticsEnabled( true );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+    }
+
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void getIndex() throws Exception
+    {
+        ouAt = schemaManager.getAttributeType( SchemaConstants.OU_AT );
+        ouIdx = ( Index<String, String> ) partition.getUserIndex( ouAt );
+        comparator = StatisticsCatalog.getComparator( schemaManager, SchemaConstants.OU_AT_OID );
+    }
+
+
+    private IndexStatistics build( int chunkSize ) throws Exception
+    {
+        IndexStatistics.Builder builder = new IndexStatistics.Builder( ouIdx.count( txn ) );
+
+        while ( !builder.scan( txn, ouIdx, chunkSize ) )
+        {
+            // Read the next chunk
+        }
+
+        return builder.build( comparator );
+    }
+
+
+    @Test
+    public void testBuild() throws Exception
+    {
+        IndexStatistics statistics = build( 1000 );
+        long count = ouIdx.count( txn );
+
+        assertEquals( count, statistics.getCount() );
+        assertEquals( 4L, statistics.getNbDistinct() );
+
+        // The keys used more than once are the most common ones, their count is exact
+        assertEquals( ouIdx.count( txn, "sales" ), statistics.equalityCount( "sales", count ) );
+        assertEquals( ouIdx.count( txn, "engineering" ), statistics.equalityCount( "engineering", count ) );
+
+        // An unknown key is never estimated to 0
+        assertTrue( statistics.equalityCount( "marketing", count ) > 0L );
+    }
+
+
+    @Test
+    public void testChunks() throws Exception
+    {
+        IndexStatistics all = build( 1000 );
+        IndexStatistics chunked = build( 1 );
+        long count = ouIdx.count( txn );
+
+        assertEquals( all.getCount(), chunked.getCount() );
+        assertEquals( all.getNbDistinct(), chunked.getNbDistinct() );
+        assertEquals( all.getNbMostCommon(), chunked.getNbMostCommon() );
+        assertEquals( all.equalityCount( "sales", count ), chunked.equalityCount( "sales", count ) );
+    }
+
+
+    @Test
+    public void testRanges() throws Exception
+    {
+        IndexStatistics statistics = build( 1000 );
+        long count = ouIdx.count( txn );
+
+        // apache < board of directors < engineering < sales
+        assertEquals( count, statistics.greaterOrEqualCount( "apache", count ) );
+        assertEquals( count, statistics.lessOrEqualCount( "sales", count ) );
+        assertEquals( 1L, statistics.lessOrEqualCount( "a", count ) );
+        assertEquals( 1L, statistics.greaterOrEqualCount( "z", count ) );
+
+        long lower = statistics.lessOrEqualCount( "c", count );
+        long upper = statistics.greaterOrEqualCount( "c", count );
+        assertEquals( ouIdx.count( txn, "apache" ) + ouIdx.count( txn, "board of directors" ), lower );
+        assertEquals( count - lower, upper );
+
+        assertEquals( ouIdx.count( txn, "sales" ), statistics.prefixCount( "sa", count ) );
+    }
+
+
+    @Test
+    public void testScale() throws Exception
+    {
+        IndexStatistics statistics = build( 1000 );
+        long count = ouIdx.count( txn );
+
+        // The estimates follow the growth of the index
+        assertEquals( 2L * ouIdx.count( txn, "sales" ), statistics.equalityCount( "sales", 2L * count ) );
+        assertEquals( 0L, statistics.equalityCount( "sales", 0L ) );
+    }
+
+
+    @Test
+    public void testSaveAndLoad() throws Exception
+    {
+        StatisticsCatalog catalog = new StatisticsCatalog();
+        catalog.put( SchemaConstants.OU_AT_OID, build( 1000 ) );
+
+        File file = File.createTempFile( "statistics", ".db" );
+        file.deleteOnExit();
+        catalog.save( file );
+
+        StatisticsCatalog loaded = new StatisticsCatalog();
+        loaded.load( file, schemaManager );
+        long count = ouIdx.count( txn );
+
+        IndexStatistics statistics = loaded.get( SchemaConstants.OU_AT_OID );
+        assertNotNull( statistics );
+        assertEquals( 4L, statistics.getNbDistinct() );
+        assertEquals( ouIdx.count( txn, "sales" ), statistics.equalityCount( "sales", count ) );
+        assertEquals( count, statistics.greaterOrEqualCount( "apache", count ) );
+
+        // Loaded statistics don't have to be gathered again
+        assertFalse( loaded.startRefresh( 1000L ) );
+    }
+
+
+    @Test
+    public void testRefreshPolicy() throws Exception
+    {
+        StatisticsCatalog catalog = new StatisticsCatalog();
+
+        // Never gathered
+        assertTrue( catalog.startRefresh( 1000L ) );
+        assertFalse( catalog.startRefresh( 1000L ) );
+        catalog.endRefresh();
+
+        // Up to date
+        assertFalse( catalog.startRefresh( 1000L ) );
+
+        for ( int i = 0; i < 101; i++ )
+        {
+            catalog.changed();
+        }
+
+        // More than a tenth of the entries have been modified
+        assertFalse( catalog.startRefresh( 10000L ) );
+        assertTrue( catalog.startRefresh( 1000L ) );
+        assertEquals( 0L, catalog.getNbChanges() );
+        catalog.endRefresh();
+    }
+
+
+    @Test
+    public void testOptimizer() throws Exception
+    {
+        assertNull( new AvlPartition( schemaManager, dnFactory ).getStatistics( txn ) );
+
+        // The statistics are gathered in the background
+        StatisticsCatalog catalog = partition.getStatistics( txn );
+        long deadline = System.currentTimeMillis() + 10000L;
+
+        while ( ( catalog.get( partition.getPresenceIndex().getAttribute().getOid() ) == null )
+            && ( System.currentTimeMillis() < deadline ) )
+        {
+            Thread.sleep( 10L );
+        }
+
+        assertNotNull( catalog.get( SchemaConstants.OU_AT_OID ) );
+
+        DefaultOptimizer optimizer = new DefaultOptimizer( partition );
+
+        // A few candidates : the index is used
+        EqualityNode<String> equality = new EqualityNode<String>( ouAt, new Value( ouAt, "Sales" ) );
+        assertEquals( ouIdx.count( txn, "sales" ), optimizer.annotate( txn, equality ).longValue() );
+
+        // Most of the entries have an ou : they are all read instead
+        PresenceNode presence = new PresenceNode( ouAt );
+        assertEquals( Long.MAX_VALUE, optimizer.annotate( txn, presence ).longValue() );
+
+        // The disjunctions of such filters don't overflow
+        OrNode or = new OrNode( new PresenceNode( ouAt ), new PresenceNode( ouAt ) );
+        assertEquals( Long.MAX_VALUE, optimizer.annotate( txn, or ).longValue() );
+
+        or = new OrNode( new EqualityNode<String>( ouAt, new Value( ouAt, "Sales" ) ), new PresenceNode( ouAt ) );
+        assertEquals( Long.MAX_VALUE, optimizer.annotate( txn, or ).longValue() );
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.search.evaluator.EqualityEvaluator;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the values of the large attributes stored out of the entries. The ou attribute is
+ * stored out of line above 2 values, and is not indexed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OutOfLineValuesTest extends AbstractAvlPartitionTest
+{
+    private AttributeType ouAt;
+
+    private Dn dn;
+
+    private String id;
+
+
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+        partition.setLargeValueThreshold( 2 );
+        partition.setLargeValueAttributes( Collections.singleton( SchemaConstants.OU_AT ) );
+    }
+
+
+    @Before
+    public void getEntry() throws Exception
+    {
+        ouAt = schemaManager.getAttributeType( SchemaConstants.OU_AT );
+        dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        id = partition.getEntryId( txn, dn );
+    }
+
+
+    private Entry modify( ModificationOperation operation, String... values ) throws Exception
+    {
+        return partition.modify( txn, dn,
+            new DefaultModification( operation, new DefaultAttribute( SchemaConstants.OU_AT, ouAt, values ) ) );
+    }
+
+
+    private boolean hasValue( String value ) throws Exception
+    {
+        return partition.hasOutOfLineValue( txn, id, ouAt, new Value( ouAt, value ).getNormalized() );
+    }
+
+
+    /**
+     * Checks the values read back from the partition. As all the stored values are read,
+     * an orphaned value would be returned.
+     */
+    private void assertValues( String... values ) throws Exception
+    {
+        Entry fetched = partition.fetch( txn, id );
+
+        assertEquals( values.length, fetched.get( ouAt ).size() );
+        assertTrue( fetched.contains( ouAt, values ) );
+    }
+
+
+    @Test
+    public void testAboveThreshold() throws Exception
+    {
+        assertFalse( partition.isStoredOutOfLine( txn, id, ouAt ) );
+
+        // 2 values stay in the entry
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Marketing" );
+        assertFalse( partition.isStoredOutOfLine( txn, id, ouAt ) );
+
+        // 3 values are moved out of the entry
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Support" );
+        assertTrue( partition.isStoredOutOfLine( txn, id, ouAt ) );
+
+        // The master table only holds a reference
+        Entry stored = partition.getMasterTable().get( txn, id );
+        assertEquals( 0, stored.get( ouAt ).size() );
+
+        assertTrue( hasValue( "Sales" ) );
+        assertTrue( hasValue( "marketing" ) );
+        assertTrue( hasValue( "SUPPORT" ) );
+        assertFalse( hasValue( "Engineering" ) );
+        assertValues( "Sales", "Marketing", "Support" );
+    }
+
+
+    @Test
+    public void testModifyOutOfLine() throws Exception
+    {
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Marketing", "Support" );
+
+        // The other values are not read to add one
+        Entry modified = modify( ModificationOperation.ADD_ATTRIBUTE, "Engineering" );
+        assertEquals( 0, modified.get( ouAt ).size() );
+        assertTrue( hasValue( "Engineering" ) );
+        assertValues( "Sales", "Marketing", "Support", "Engineering" );
+
+        // A value the entry already has is not added twice
+        modify( ModificationOperation.ADD_ATTRIBUTE, "marketing" );
+        assertValues( "Sales", "Marketing", "Support", "Engineering" );
+
+        // Still above the threshold, the other values are not read to remove one
+        modified = modify( ModificationOperation.REMOVE_ATTRIBUTE, "Sales" );
+        assertEquals( 0, modified.get( ouAt ).size() );
+        assertTrue( partition.isStoredOutOfLine( txn, id, ouAt ) );
+        assertFalse( hasValue( "Sales" ) );
+        assertValues( "Marketing", "Support", "Engineering" );
+
+        // The replaced values are all removed from the table
+        modify( ModificationOperation.REPLACE_ATTRIBUTE, "Board", "Apache", "Finance" );
+        assertTrue( partition.isStoredOutOfLine( txn, id, ouAt ) );
+        assertFalse( hasValue( "Marketing" ) );
+        assertFalse( hasValue( "Support" ) );
+        assertFalse( hasValue( "Engineering" ) );
+        assertValues( "Board", "Apache", "Finance" );
+    }
+
+
+    @Test
+    public void testBelowThreshold() throws Exception
+    {
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Marketing", "Support" );
+        assertTrue( partition.isStoredOutOfLine( txn, id, ouAt ) );
+
+        // Back to 2 values, they are moved in the entry and removed from the table
+        modify( ModificationOperation.REMOVE_ATTRIBUTE, "Support" );
+        assertFalse( partition.isStoredOutOfLine( txn, id, ouAt ) );
+        assertFalse( hasValue( "Sales" ) );
+        assertValues( "Sales", "Marketing" );
+
+        Entry stored = partition.getMasterTable().get( txn, id );
+        assertEquals( 2, stored.get( ouAt ).size() );
+
+        // Above and then under the threshold again, with a replace
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Support", "Engineering" );
+        assertTrue( partition.isStoredOutOfLine( txn, id, ouAt ) );
+
+        modify( ModificationOperation.REPLACE_ATTRIBUTE, "Board" );
+        assertFalse( partition.isStoredOutOfLine( txn, id, ouAt ) );
+        assertValues( "Board" );
+
+        // Without any value
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Sales", "Marketing" );
+        assertTrue( partition.isStoredOutOfLine( txn, id, ouAt ) );
+
+        modify( ModificationOperation.REMOVE_ATTRIBUTE );
+        assertFalse( partition.isStoredOutOfLine( txn, id, ouAt ) );
+        assertNull( partition.fetch( txn, id ).get( ouAt ) );
+    }
+
+
+    @Test
+    public void testDelete() throws Exception
+    {
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Marketing", "Support" );
+
+        Dn otherDn = new Dn( schemaManager, "cn=JIM BEAN,ou=Sales,o=Good Times Co." );
+        String otherId = partition.getEntryId( txn, otherDn );
+        partition.modify( txn, otherDn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            new DefaultAttribute( SchemaConstants.OU_AT, ouAt, "Marketing", "Support" ) ) );
+        assertTrue( partition.isStoredOutOfLine( txn, otherId, ouAt ) );
+
+        partition.delete( txn, id );
+
+        // No value is left in the table for the deleted entry
+        assertFalse( partition.isStoredOutOfLine( txn, id, ouAt ) );
+        assertFalse( hasValue( "Sales" ) );
+        assertFalse( hasValue( "Marketing" ) );
+        assertFalse( hasValue( "Support" ) );
+
+        // The values of the other entry are kept
+        assertTrue( partition.isStoredOutOfLine( txn, otherId, ouAt ) );
+        assertTrue( partition.hasOutOfLineValue( txn, otherId, ouAt,
+            new Value( ouAt, "Support" ).getNormalized() ) );
+        assertEquals( 3, partition.fetch( txn, otherId ).get( ouAt ).size() );
+    }
+
+
+    /**
+     * An equality filter on the attribute only checks the asserted value in the table : the
+     * candidate entry is not read.
+     */
+    @Test
+    public void testEqualityWithoutReadingTheEntry() throws Exception
+    {
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Marketing", "Support" );
+
+        EqualityEvaluator<String> support = new EqualityEvaluator<String>(
+            new EqualityNode<String>( ouAt, new Value( ouAt, "support" ) ), partition, schemaManager );
+        EqualityEvaluator<String> engineering = new EqualityEvaluator<String>(
+            new EqualityNode<String>( ouAt, new Value( ouAt, "Engineering" ) ), partition, schemaManager );
+
+        IndexEntry<String, String> candidate = new IndexEntry<>();
+        candidate.setId( id );
+
+        assertTrue( support.evaluate( txn, candidate ) );
+        assertFalse( engineering.evaluate( txn, candidate ) );
+        assertNull( candidate.getEntry() );
+
+        // The same result with the entry
+        candidate.setEntry( partition.fetch( txn, id ) );
+        assertTrue( support.evaluate( txn, candidate ) );
+        assertFalse( engineering.evaluate( txn, candidate ) );
+    }
+
+
+    /**
+     * The values are only read if the attribute is requested.
+     */
+    @Test
+    public void testFetchOtherAttributes() throws Exception
+    {
+        modify( ModificationOperation.ADD_ATTRIBUTE, "Marketing", "Support" );
+        AttributeType cnAt = schemaManager.getAttributeType( SchemaConstants.CN_AT );
+
+        Entry fetched = partition.fetch( txn, id, Collections.singleton( cnAt ) );
+        assertTrue( fetched.contains( cnAt, "JOhnny WAlkeR" ) );
+
+        // The entry read without the values is not kept in the cache
+        assertValues( "Sales", "Marketing", "Support" );
+
+        fetched = partition.fetch( txn, id, Collections.singleton( ouAt ) );
+        assertEquals( 3, fetched.get( ouAt ).size() );
+    }
+}
@@ -30,10 +30,13 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -44,6 +47,7 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -280,6 +284,107 @@ public class PartitionTest
     }
 
 
+    /**
+     * Replacing the values of an indexed attribute should only change the tuples of the
+     * changed values, and update the presence index when the attribute appears or disappears.
+     */
+    @Test
+    public void testModifyReplaceIndexedAttribute() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String entryId = partition.getEntryId( txn, dn );
+
+        Index<String, String> ouIndex = ( Index<String, String> ) partition.getUserIndex( OU_AT );
+        Index<String, String> uidIndex = ( Index<String, String> ) partition.getUserIndex( UID_AT );
+
+        // Add a value to the ou attribute, keeping the existing one
+        Attribute ous = new DefaultAttribute( SchemaConstants.OU_AT, OU_AT, "Sales", "Marketing" );
+        Entry lookedup = partition.modify( txn, dn,
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, ous ) );
+
+        assertTrue( ouIndex.forward( txn, " sales ", entryId ) );
+        assertTrue( ouIndex.forward( txn, " marketing ", entryId ) );
+        assertTrue( partition.getPresenceIndex().forward( txn, "2.5.4.11", entryId ) );
+        assertEquals( 2, lookedup.get( "ou" ).size() );
+
+        // Replace an absent attribute : it must be added in the presence index
+        Attribute uid = new DefaultAttribute( SchemaConstants.UID_AT, UID_AT, "jwalker" );
+        String normalizedUid = uid.get().getNormalized();
+        lookedup = partition.modify( txn, dn, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, uid ) );
+
+        assertTrue( uidIndex.forward( txn, normalizedUid, entryId ) );
+        assertTrue( partition.getPresenceIndex().forward( txn, UID_AT.getOid(), entryId ) );
+        assertTrue( lookedup.contains( UID_AT, "jwalker" ) );
+
+        // Replace it by no value : it must be removed from the indexes
+        lookedup = partition.modify( txn, dn, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            new DefaultAttribute( SchemaConstants.UID_AT, UID_AT ) ) );
+
+        assertFalse( uidIndex.reverse( txn, entryId ) );
+        assertFalse( partition.getPresenceIndex().forward( txn, UID_AT.getOid(), entryId ) );
+        assertNull( lookedup.get( UID_AT ) );
+    }
+
+
+    /**
+     * The values of a large attribute are stored out of the entry, and read back when
+     * the entry is fetched.
+     */
+    @Test
+    public void testOutOfLineValues() throws Exception
+    {
+        AvlPartition largeValuePartition = new AvlPartition( schemaManager, dnFactory );
+        largeValuePartition.setId( "largeValues" );
+        largeValuePartition.setSyncOnWrite( false );
+        largeValuePartition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        largeValuePartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        largeValuePartition.setLargeValueThreshold( 2 );
+        largeValuePartition.setLargeValueAttributes( Collections.singleton( SchemaConstants.OU_AT ) );
+        largeValuePartition.initialize();
+
+        try
+        {
+            StoreUtils.loadExampleData( largeValuePartition, schemaManager );
+
+            PartitionTxn txn = largeValuePartition.beginReadTransaction();
+            Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+            String entryId = largeValuePartition.getEntryId( txn, dn );
+            assertFalse( largeValuePartition.isStoredOutOfLine( txn, entryId, OU_AT ) );
+
+            // Above the threshold, the values are moved out of the entry
+            Attribute ous = new DefaultAttribute( SchemaConstants.OU_AT, OU_AT, "Marketing", "Support" );
+            largeValuePartition.modify( txn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, ous ) );
+
+            assertTrue( largeValuePartition.isStoredOutOfLine( txn, entryId, OU_AT ) );
+            assertTrue( largeValuePartition.hasOutOfLineValue( txn, entryId, OU_AT,
+                new Value( OU_AT, "Support" ).getNormalized() ) );
+            assertFalse( largeValuePartition.hasOutOfLineValue( txn, entryId, OU_AT,
+                new Value( OU_AT, "Engineering" ).getNormalized() ) );
+
+            Entry fetched = largeValuePartition.fetch( txn, entryId );
+            assertEquals( 3, fetched.get( OU_AT ).size() );
+            assertTrue( fetched.contains( OU_AT, "Sales", "Marketing", "Support" ) );
+            assertTrue( largeValuePartition.getUserIndex( OU_AT ).forward( txn,
+                new Value( OU_AT, "Support" ).getNormalized(), entryId ) );
+
+            // Back under the threshold, the values are moved back in the entry
+            ous = new DefaultAttribute( SchemaConstants.OU_AT, OU_AT, "Support" );
+            largeValuePartition.modify( txn, dn, new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, ous ) );
+
+            assertFalse( largeValuePartition.isStoredOutOfLine( txn, entryId, OU_AT ) );
+            fetched = largeValuePartition.fetch( txn, entryId );
+            assertEquals( 2, fetched.get( OU_AT ).size() );
+            assertTrue( fetched.contains( OU_AT, "Sales", "Marketing" ) );
+        }
+        finally
+        {
+            largeValuePartition.destroy( null );
+        }
+    }
+
+
     /**
      * Removing an objectClass value should also remove it from the objectClass index.
      */
@@ -424,6 +529,32 @@ public class PartitionTest
     }
 
 
+    @Test
+    public void testFetchSomeAttributes() throws Exception
+    {
+        PartitionTxn txn = partition.beginReadTransaction();
+        
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String entryId = partition.getEntryId( txn, dn );
+
+        Set<AttributeType> attributeTypes = new HashSet<>();
+        attributeTypes.add( CN_AT );
+
+        Entry entry = partition.fetch( txn, entryId, attributeTypes );
+
+        assertEquals( dn, entry.getDn() );
+        assertTrue( entry.contains( CN_AT, "JOhnny WAlkeR" ) );
+        assertFalse( entry.containsAttribute( SchemaConstants.OBJECT_CLASS_AT ) );
+        assertTrue( entry.containsAttribute( SchemaConstants.ENTRY_DN_AT ) );
+
+        // The stored entry is not modified
+        entry = partition.fetch( txn, entryId );
+
+        assertTrue( entry.contains( CN_AT, "JOhnny WAlkeR" ) );
+        assertTrue( entry.containsAttribute( SchemaConstants.OBJECT_CLASS_AT ) );
+    }
+
+
     private Entry verifyParentId( PartitionTxn txn, Dn dn ) throws Exception
     {
         String entryId = partition.getEntryId( txn, dn );
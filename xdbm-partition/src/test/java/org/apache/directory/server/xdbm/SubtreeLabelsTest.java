@@ -0,0 +1,166 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.SubtreeLabels.Membership;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.Test;
+
+
+/**
+ * Tests the SubtreeLabels class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubtreeLabelsTest extends AbstractAvlPartitionTest
+{
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+        partition.setSubtreeLabelsEnabled( true );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+    }
+
+
+    private static String id( long id )
+    {
+        return Strings.getUUID( id );
+    }
+
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        assertNull( new AvlPartition( schemaManager, dnFactory ).getSubtreeLabels() );
+    }
+
+
+    @Test
+    public void testBuild() throws Exception
+    {
+        SubtreeLabels labels = partition.getSubtreeLabels();
+
+        assertNotNull( labels );
+        assertTrue( labels.isBuilt() );
+
+        // The 11 entries, and the root
+        assertEquals( 12L, labels.size() );
+
+        // cn=JOhnny WAlkeR,ou=Sales
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 2L ), id( 5L ) ) );
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 1L ), id( 5L ) ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 4L ), id( 5L ) ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 5L ), id( 2L ) ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 5L ), id( 5L ) ) );
+
+        // commonName=Jim Bean,ou=Apache,ou=Board of Directors
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 3L ), id( 9L ) ) );
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 7L ), id( 9L ) ) );
+
+        assertEquals( Membership.UNKNOWN, labels.isDescendant( id( 2L ), id( 100L ) ) );
+    }
+
+
+    @Test
+    public void testAddAndDelete() throws Exception
+    {
+        SubtreeLabels labels = partition.getSubtreeLabels();
+
+        Dn dn = new Dn( schemaManager, "cn=Private Ryan,ou=Engineering,o=Good Times Co." );
+        String newId = UUID.randomUUID().toString();
+        DefaultEntry entry = new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "ou: Engineering",
+            "cn", "Private Ryan",
+            "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID", newId );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        addContext.setTransaction( partition.beginWriteTransaction() );
+        partition.add( addContext );
+
+        assertTrue( labels.isBuilt() );
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 4L ), newId ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 2L ), newId ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 8L ), newId ) );
+
+        partition.delete( txn, newId );
+
+        assertEquals( Membership.UNKNOWN, labels.isDescendant( id( 4L ), newId ) );
+    }
+
+
+    @Test
+    public void testMove() throws Exception
+    {
+        SubtreeLabels labels = partition.getSubtreeLabels();
+
+        // Move ou=Apache and its child below ou=Sales
+        Dn dn = new Dn( schemaManager, "ou=Apache,ou=Board of Directors,o=Good Times Co." );
+        Dn newSuperior = new Dn( schemaManager, "ou=Sales,o=Good Times Co." );
+        partition.move( txn, dn, newSuperior, newSuperior.add( dn.getRdn() ), null );
+
+        assertTrue( labels.isBuilt() );
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 2L ), id( 7L ) ) );
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 2L ), id( 9L ) ) );
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 7L ), id( 9L ) ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 3L ), id( 7L ) ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 3L ), id( 9L ) ) );
+
+        // The other entries are not impacted
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 3L ), id( 10L ) ) );
+        assertEquals( Membership.INSIDE, labels.isDescendant( id( 2L ), id( 5L ) ) );
+        assertEquals( Membership.OUTSIDE, labels.isDescendant( id( 7L ), id( 5L ) ) );
+    }
+
+
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        SubtreeLabels labels = partition.getSubtreeLabels();
+
+        labels.invalidate();
+
+        assertEquals( Membership.UNKNOWN, labels.isDescendant( id( 2L ), id( 5L ) ) );
+        assertEquals( -1L, labels.size() );
+
+        // Built again on the next use
+        assertEquals( Membership.INSIDE, partition.getSubtreeLabels().isDescendant( id( 2L ), id( 5L ) ) );
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the ValueDictionary class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ValueDictionaryTest
+{
+    private File file;
+
+    private ValueDictionary dictionary;
+
+
+    @Before
+    public void openDictionary() throws Exception
+    {
+        file = File.createTempFile( "dictionary", ".db" );
+        file.deleteOnExit();
+
+        dictionary = open( 4 );
+    }
+
+
+    @After
+    public void closeDictionary() throws Exception
+    {
+        dictionary.close();
+        file.delete();
+    }
+
+
+    private ValueDictionary open( int maxSize ) throws IOException
+    {
+        ValueDictionary opened = new ValueDictionary( file, maxSize );
+        opened.open();
+
+        return opened;
+    }
+
+
+    private ValueDictionary reopen( int maxSize ) throws IOException
+    {
+        dictionary.close();
+        dictionary = open( maxSize );
+
+        return dictionary;
+    }
+
+
+    /**
+     * Looks for a value until it's added to the dictionary
+     */
+    private int add( String value ) throws IOException
+    {
+        for ( int i = 1; i < ValueDictionary.MIN_OCCURRENCES; i++ )
+        {
+            assertEquals( -1, dictionary.lookup( Strings.getBytesUtf8( value ) ) );
+        }
+
+        return dictionary.lookup( Strings.getBytesUtf8( value ) );
+    }
+
+
+    private static byte[] value( int length )
+    {
+        byte[] value = new byte[length];
+
+        for ( int i = 0; i < length; i++ )
+        {
+            value[i] = ( byte ) ( 'a' + i % 26 );
+        }
+
+        return value;
+    }
+
+
+    @Test
+    public void testAddFrequentValues() throws Exception
+    {
+        assertEquals( 0, add( "person" ) );
+        assertEquals( 1, add( "uid=admin,ou=system" ) );
+        assertEquals( 2, dictionary.size() );
+
+        assertEquals( 0, dictionary.lookup( Strings.getBytesUtf8( "person" ) ) );
+        assertEquals( 1, dictionary.lookup( Strings.getBytesUtf8( "uid=admin,ou=system" ) ) );
+        assertArrayEquals( Strings.getBytesUtf8( "person" ), dictionary.get( 0 ) );
+        assertArrayEquals( Strings.getBytesUtf8( "uid=admin,ou=system" ), dictionary.get( 1 ) );
+
+        // The value given to the dictionary is copied
+        byte[] value = Strings.getBytesUtf8( "organizationalPerson" );
+        dictionary.lookup( value );
+        dictionary.lookup( value );
+        assertEquals( 2, dictionary.lookup( value ) );
+        value[0] = 'O';
+        assertArrayEquals( Strings.getBytesUtf8( "organizationalPerson" ), dictionary.get( 2 ) );
+    }
+
+
+    @Test
+    public void testLengthLimits() throws Exception
+    {
+        byte[] shortValue = value( ValueDictionary.MIN_LENGTH - 1 );
+        byte[] longValue = value( ValueDictionary.MAX_LENGTH + 1 );
+
+        for ( int i = 0; i < 2 * ValueDictionary.MIN_OCCURRENCES; i++ )
+        {
+            assertEquals( -1, dictionary.lookup( shortValue ) );
+            assertEquals( -1, dictionary.lookup( longValue ) );
+        }
+
+        // Not counted as lookups
+        assertEquals( 0L, dictionary.getNbLookups() );
+
+        byte[] minValue = value( ValueDictionary.MIN_LENGTH );
+        byte[] maxValue = value( ValueDictionary.MAX_LENGTH );
+
+        for ( int i = 1; i < ValueDictionary.MIN_OCCURRENCES; i++ )
+        {
+            dictionary.lookup( minValue );
+            dictionary.lookup( maxValue );
+        }
+
+        assertEquals( 0, dictionary.lookup( minValue ) );
+        assertEquals( 1, dictionary.lookup( maxValue ) );
+    }
+
+
+    /**
+     * A full dictionary keeps its values, and does not add new ones.
+     */
+    @Test
+    public void testFull() throws Exception
+    {
+        for ( int i = 0; i < 4; i++ )
+        {
+            assertEquals( i, add( "value" + i ) );
+        }
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            assertEquals( -1, dictionary.lookup( Strings.getBytesUtf8( "value4" ) ) );
+        }
+
+        assertEquals( 4, dictionary.size() );
+        assertEquals( 3, dictionary.lookup( Strings.getBytesUtf8( "value3" ) ) );
+    }
+
+
+    /**
+     * The occurrences are forgotten when there are too many candidates.
+     */
+    @Test
+    public void testCandidatesEviction() throws Exception
+    {
+        byte[] value = Strings.getBytesUtf8( "frequent" );
+
+        for ( int i = 1; i < ValueDictionary.MIN_OCCURRENCES; i++ )
+        {
+            dictionary.lookup( value );
+        }
+
+        // 4 times the maximum size of the dictionary
+        for ( int i = 1; i < 16; i++ )
+        {
+            assertEquals( -1, dictionary.lookup( Strings.getBytesUtf8( "rare" + i ) ) );
+        }
+
+        // Counted again from the start
+        assertEquals( -1, dictionary.lookup( value ) );
+        assertEquals( 0, dictionary.size() );
+
+        for ( int i = 2; i < ValueDictionary.MIN_OCCURRENCES; i++ )
+        {
+            assertEquals( -1, dictionary.lookup( value ) );
+        }
+
+        assertEquals( 0, dictionary.lookup( value ) );
+    }
+
+
+    @Test
+    public void testHitRate() throws Exception
+    {
+        assertEquals( 0d, dictionary.getHitRate(), 0d );
+
+        add( "person" );
+
+        for ( int i = 0; i < 7; i++ )
+        {
+            dictionary.lookup( Strings.getBytesUtf8( "person" ) );
+        }
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            dictionary.lookup( Strings.getBytesUtf8( "other" + i ) );
+        }
+
+        assertEquals( 12L, dictionary.getNbLookups() );
+        assertEquals( 7L, dictionary.getNbHits() );
+        assertEquals( 7d / 12d, dictionary.getHitRate(), 0.0001d );
+    }
+
+
+    @Test
+    public void testFind() throws Exception
+    {
+        byte[] value = Strings.getBytesUtf8( "person" );
+
+        // Finding a value does not count it
+        for ( int i = 0; i < 2 * ValueDictionary.MIN_OCCURRENCES; i++ )
+        {
+            assertEquals( -1, dictionary.find( value ) );
+        }
+
+        assertEquals( 0, dictionary.size() );
+        assertEquals( 0L, dictionary.getNbLookups() );
+
+        add( "person" );
+
+        assertEquals( 0, dictionary.find( value ) );
+        assertEquals( ( long ) ValueDictionary.MIN_OCCURRENCES, dictionary.getNbLookups() );
+        assertEquals( 0L, dictionary.getNbHits() );
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        add( "person" );
+        add( "uid=admin,ou=system" );
+
+        reopen( 4 );
+
+        assertEquals( 2, dictionary.size() );
+        assertEquals( 0, dictionary.lookup( Strings.getBytesUtf8( "person" ) ) );
+        assertEquals( 1, dictionary.lookup( Strings.getBytesUtf8( "uid=admin,ou=system" ) ) );
+
+        // The values are added after the existing ones
+        assertEquals( 2, add( "inetOrgPerson" ) );
+
+        // Without a maximum size, the existing values are still used
+        reopen( 0 );
+
+        assertEquals( 3, dictionary.size() );
+        assertArrayEquals( Strings.getBytesUtf8( "inetOrgPerson" ), dictionary.get( 2 ) );
+        assertEquals( -1, add( "organizationalPerson" ) );
+        assertEquals( 3, dictionary.size() );
+    }
+
+
+    /**
+     * A value partially written when the server was stopped is removed.
+     */
+    @Test
+    public void testIncompleteValue() throws Exception
+    {
+        add( "person" );
+        dictionary.close();
+        long length = file.length();
+
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+        {
+            raf.seek( length );
+            raf.writeInt( 20 );
+            raf.write( Strings.getBytesUtf8( "uid=" ) );
+        }
+
+        dictionary = open( 4 );
+
+        assertEquals( 1, dictionary.size() );
+        assertEquals( length, file.length() );
+
+        assertEquals( 1, add( "uid=admin,ou=system" ) );
+
+        reopen( 4 );
+
+        assertEquals( 2, dictionary.size() );
+        assertArrayEquals( Strings.getBytesUtf8( "uid=admin,ou=system" ), dictionary.get( 1 ) );
+    }
+
+
+    @Test
+    public void testUnknownValue() throws Exception
+    {
+        add( "person" );
+
+        for ( int number : new int[]
+            { -1, 1, 100 } )
+        {
+            try
+            {
+                dictionary.get( number );
+                fail();
+            }
+            catch ( IOException ioe )
+            {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the CandidateSet class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CandidateSetTest
+{
+    private static final String ZERO_UUID = "00000000-0000-0000-0000-000000000000";
+
+
+    private static List<String> uuids( int nb )
+    {
+        List<String> uuids = new ArrayList<>();
+
+        for ( int i = 0; i < nb; i++ )
+        {
+            uuids.add( UUID.randomUUID().toString() );
+        }
+
+        return uuids;
+    }
+
+
+    @Test
+    public void testAddContains()
+    {
+        CandidateSet candidates = new CandidateSet();
+        Set<String> expected = new HashSet<>();
+
+        for ( String uuid : uuids( 1000 ) )
+        {
+            assertTrue( candidates.add( uuid ) );
+            expected.add( uuid );
+        }
+
+        // Some IDs which are not canonical UUIDs
+        assertTrue( candidates.add( ZERO_UUID ) );
+        assertTrue( candidates.add( "1" ) );
+        assertTrue( candidates.add( "ABCDEF01-0000-0000-0000-000000000000" ) );
+        expected.add( ZERO_UUID );
+        expected.add( "1" );
+        expected.add( "ABCDEF01-0000-0000-0000-000000000000" );
+
+        for ( String uuid : expected )
+        {
+            assertTrue( candidates.contains( uuid ) );
+            assertFalse( candidates.add( uuid ) );
+        }
+
+        assertFalse( candidates.contains( UUID.randomUUID().toString() ) );
+        assertFalse( candidates.contains( "abcdef01-0000-0000-0000-000000000000" ) );
+        assertFalse( candidates.contains( null ) );
+        assertEquals( expected.size(), candidates.size() );
+        assertEquals( expected, new HashSet<>( candidates ) );
+        assertEquals( expected, candidates );
+
+        candidates.clear();
+        assertTrue( candidates.isEmpty() );
+        assertFalse( candidates.iterator().hasNext() );
+    }
+
+
+    @Test
+    public void testUnion()
+    {
+        List<String> uuids = uuids( 300 );
+        CandidateSet set1 = new CandidateSet();
+        CandidateSet set2 = new CandidateSet();
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            set1.add( uuids.get( i ) );
+        }
+
+        for ( int i = 100; i < 300; i++ )
+        {
+            set2.add( uuids.get( i ) );
+        }
+
+        set2.add( ZERO_UUID );
+        set2.add( "1" );
+
+        assertEquals( 102, set1.union( set2 ) );
+        assertEquals( 302, set1.size() );
+        assertTrue( set1.containsAll( uuids ) );
+        assertTrue( set1.contains( ZERO_UUID ) );
+        assertTrue( set1.contains( "1" ) );
+        assertEquals( 0, set1.union( set2 ) );
+    }
+
+
+    @Test
+    public void testIntersect()
+    {
+        List<String> uuids = uuids( 300 );
+        CandidateSet set1 = new CandidateSet();
+        CandidateSet set2 = new CandidateSet();
+
+        for ( int i = 0; i < 200; i++ )
+        {
+            set1.add( uuids.get( i ) );
+        }
+
+        for ( int i = 100; i < 300; i++ )
+        {
+            set2.add( uuids.get( i ) );
+        }
+
+        set1.add( ZERO_UUID );
+        set1.add( "1" );
+        set1.add( "2" );
+        set2.add( "2" );
+
+        set1.intersect( set2 );
+
+        Set<String> expected = new HashSet<>( uuids.subList( 100, 200 ) );
+        expected.add( "2" );
+
+        assertEquals( 101, set1.size() );
+        assertEquals( expected, new HashSet<>( set1 ) );
+        assertTrue( set1.contains( "2" ) );
+        assertFalse( set1.contains( ZERO_UUID ) );
+        assertFalse( set1.contains( "1" ) );
+    }
+
+
+    @Test
+    public void testRetainAllRemove()
+    {
+        List<String> uuids = uuids( 500 );
+        CandidateSet candidates = new CandidateSet();
+        candidates.addAll( uuids );
+
+        // Retain with a plain collection
+        Set<String> retained = new HashSet<>( uuids.subList( 0, 250 ) );
+        retained.add( UUID.randomUUID().toString() );
+        assertTrue( candidates.retainAll( retained ) );
+        assertEquals( new HashSet<>( uuids.subList( 0, 250 ) ), new HashSet<>( candidates ) );
+        assertFalse( candidates.retainAll( retained ) );
+
+        // Remove half of the remaining elements, the other half must still be found
+        for ( int i = 0; i < 250; i += 2 )
+        {
+            assertTrue( candidates.remove( uuids.get( i ) ) );
+            assertFalse( candidates.remove( uuids.get( i ) ) );
+        }
+
+        assertEquals( 125, candidates.size() );
+
+        for ( int i = 0; i < 250; i++ )
+        {
+            assertEquals( i % 2 == 1, candidates.contains( uuids.get( i ) ) );
+        }
+
+        assertEquals( 125, new HashSet<>( candidates ).size() );
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.GreaterEqNode;
+import org.apache.directory.api.ldap.model.filter.LessEqNode;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.xdbm.AbstractAvlPartitionTest;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.evaluator.EqualityEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.GreaterEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.LessEqEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.PresenceEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.SubstringEvaluator;
+import org.junit.Test;
+
+
+/**
+ * Tests the evaluation of the candidates on the indexes, without reading the entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexedEvaluationTest extends AbstractAvlPartitionTest
+{
+    /**
+     * An AvlPartition counting the entries it reads
+     */
+    private static class CountingPartition extends AvlPartition
+    {
+        private int nbFetches;
+
+
+        CountingPartition()
+        {
+            super( schemaManager, dnFactory );
+        }
+
+
+        @Override
+        public Entry fetch( PartitionTxn partitionTxn, String id, Set<AttributeType> attributeTypes )
+            throws LdapException
+        {
+            nbFetches++;
+
+            return super.fetch( partitionTxn, id, attributeTypes );
+        }
+    }
+
+
+    @Override
+    protected AvlPartition newPartition()
+    {
+        return new CountingPartition();
+    }
+
+
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( StoreUtils.TEST_INT_OID ) );
+    }
+
+
+    /**
+     * Evaluates all the entries with and without reading them, and checks the results are the same.
+     *
+     * @return The number of matching entries
+     */
+    private int evaluate( Evaluator<?> evaluator, boolean indexed ) throws Exception
+    {
+        int nbMatches = 0;
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            for ( int i = 1; i <= 11; i++ )
+            {
+                IndexEntry<String, String> candidate = new IndexEntry<>();
+                candidate.setId( Strings.getUUID( i ) );
+
+                IndexEntry<String, String> fetched = new IndexEntry<>();
+                fetched.setId( Strings.getUUID( i ) );
+                fetched.setEntry( partition.fetch( txn, Strings.getUUID( i ) ) );
+
+                boolean matches = evaluator.evaluate( txn, candidate );
+                assertEquals( evaluator.evaluate( txn, fetched ), matches );
+
+                if ( indexed )
+                {
+                    // The entry has not been read
+                    assertNull( candidate.getEntry() );
+                }
+                else
+                {
+                    assertNotNull( candidate.getEntry() );
+                }
+
+                if ( matches )
+                {
+                    nbMatches++;
+                }
+            }
+        }
+
+        return nbMatches;
+    }
+
+
+    @Test
+    public void testEquality() throws Exception
+    {
+        AttributeType at = schemaManager.getAttributeType( SchemaConstants.OU_AT_OID );
+        EqualityNode<String> node = new EqualityNode<String>( at, new Value( at, "SALES" ) );
+
+        assertEquals( 3, evaluate( new EqualityEvaluator<String>( node, partition, schemaManager ), true ) );
+    }
+
+
+    @Test
+    public void testPresence() throws Exception
+    {
+        AttributeType at = schemaManager.getAttributeType( SchemaConstants.OU_AT_OID );
+        PresenceNode node = new PresenceNode( at );
+
+        assertEquals( 9, evaluate( new PresenceEvaluator( node, partition, schemaManager ), true ) );
+    }
+
+
+    @Test
+    public void testRanges() throws Exception
+    {
+        AttributeType at = schemaManager.getAttributeType( SchemaConstants.OU_AT_OID );
+        GreaterEqNode<String> greaterEq = new GreaterEqNode<String>( at, new Value( at, "Engineering" ) );
+        LessEqNode<String> lessEq = new LessEqNode<String>( at, new Value( at, "Board of Directors" ) );
+
+        assertEquals( 6, evaluate( new GreaterEqEvaluator<String>( greaterEq, partition, schemaManager ), true ) );
+        assertEquals( 3, evaluate( new LessEqEvaluator<String>( lessEq, partition, schemaManager ), true ) );
+    }
+
+
+    @Test
+    public void testSubstring() throws Exception
+    {
+        AttributeType at = schemaManager.getAttributeType( SchemaConstants.OU_AT_OID );
+        SubstringNode node = new SubstringNode( at, "sa", null );
+
+        assertEquals( 3, evaluate( new SubstringEvaluator( node, partition, schemaManager ), true ) );
+    }
+
+
+    @Test
+    public void testDescendantsReadTheEntries() throws Exception
+    {
+        // The testIntDescendant values are not in the testInt index
+        AttributeType at = schemaManager.getAttributeType( StoreUtils.TEST_INT_OID );
+        EqualityNode<String> node = new EqualityNode<String>( at, new Value( at, "1" ) );
+
+        assertEquals( 3, evaluate( new EqualityEvaluator<String>( node, partition, schemaManager ), false ) );
+    }
+
+
+    @Test
+    public void testProjectedSearchOnlyReadsTheMatches() throws Exception
+    {
+        AttributeType at = schemaManager.getAttributeType( SchemaConstants.OU_AT_OID );
+        EqualityNode<String> node = new EqualityNode<String>( at, new Value( at, "SALES" ) );
+
+        // All the entries are candidates, only 3 of them match
+        Set<IndexEntry<String, String>> candidates = new HashSet<>();
+
+        for ( int i = 1; i <= 11; i++ )
+        {
+            IndexEntry<String, String> candidate = new IndexEntry<>();
+            candidate.setId( Strings.getUUID( i ) );
+            candidates.add( candidate );
+        }
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        searchResult.setResultSet( candidates );
+        searchResult.setEvaluator( new EqualityEvaluator<String>( node, partition, schemaManager ) );
+
+        Set<AttributeType> fetchedAttributes = new HashSet<>();
+        fetchedAttributes.add( at );
+        fetchedAttributes.add( schemaManager.getAttributeType( SchemaConstants.OBJECT_CLASS_AT ) );
+        fetchedAttributes.add( schemaManager.getAttributeType( SchemaConstants.ENTRY_UUID_AT ) );
+
+        CountingPartition countingPartition = ( CountingPartition ) partition;
+        countingPartition.nbFetches = 0;
+        int nbCandidates = 0;
+        int nbEntries = 0;
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            Cursor<Entry> cursor = new EntryCursorAdaptor( txn, partition, searchResult, fetchedAttributes );
+
+            while ( cursor.next() )
+            {
+                nbCandidates++;
+                Entry entry = cursor.get();
+
+                if ( entry != null )
+                {
+                    nbEntries++;
+
+                    // Only the requested attributes have been copied
+                    assertNotNull( entry.get( SchemaConstants.OU_AT ) );
+                    assertNull( entry.get( SchemaConstants.CN_AT ) );
+                }
+            }
+
+            cursor.close();
+        }
+
+        assertEquals( 11, nbCandidates );
+        assertEquals( 3, nbEntries );
+
+        // The rejected candidates have not been read
+        assertEquals( 3, countingPartition.nbFetches );
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.filter.ScopeNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.AbstractAvlPartitionTest;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the SearchPlanCache class, and its use by the DefaultOptimizer.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchPlanCacheTest extends AbstractAvlPartitionTest
+{
+    private DefaultOptimizer optimizer;
+
+
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+        partition.setPlanCacheSize( 10 );
+
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+    }
+
+
+    @Before
+    public void createOptimizer() throws Exception
+    {
+        optimizer = new DefaultOptimizer( partition );
+    }
+
+
+    private String shape( String filter, List<ExprNode> leaves ) throws Exception
+    {
+        return SearchPlanCache.getShape( partition, FilterParser.parse( schemaManager, filter ), leaves );
+    }
+
+
+    @Test
+    public void testShape() throws Exception
+    {
+        List<ExprNode> leaves = new ArrayList<>();
+        String shape = shape( "(&(ou=Sales)(cn=JOhnny WAlkeR))", leaves );
+
+        assertNotNull( shape );
+        assertEquals( 2, leaves.size() );
+
+        // The assertion values are not part of the shape
+        assertEquals( shape, shape( "(&(ou=Engineering)(cn=Jack Daniels))", new ArrayList<>() ) );
+
+        // The operators and the attribute types are
+        assertNotEquals( shape, shape( "(|(ou=Sales)(cn=JOhnny WAlkeR))", new ArrayList<>() ) );
+        assertNotEquals( shape, shape( "(&(ou=Sales)(sn=Walker))", new ArrayList<>() ) );
+        assertNotEquals( shape( "(ou=Sa*)", new ArrayList<>() ), shape( "(ou=*les)", new ArrayList<>() ) );
+        assertEquals( shape( "(ou=Sa*)", new ArrayList<>() ), shape( "(ou=Eng*)", new ArrayList<>() ) );
+    }
+
+
+    @Test
+    public void testReplay() throws Exception
+    {
+        ExprNode sales = FilterParser.parse( schemaManager, "(ou=Sales)" );
+        long count = optimizer.annotate( txn, sales );
+
+        assertEquals( 1L, optimizer.getPlanCache().size() );
+
+        // The count of the first filter is reused, without reading the index
+        ExprNode apache = FilterParser.parse( schemaManager, "(ou=Apache)" );
+        assertEquals( count, optimizer.annotate( txn, apache ).longValue() );
+        assertNull( apache.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY ) );
+    }
+
+
+    @Test
+    public void testNoEmptyReplay() throws Exception
+    {
+        // No candidate for this value, but the next values may have some
+        assertEquals( 0L, optimizer.annotate( txn, FilterParser.parse( schemaManager, "(cn=nobody)" ) ).longValue() );
+        assertEquals( 1L, optimizer.annotate( txn, FilterParser.parse( schemaManager, "(cn=JIM BEAN)" ) )
+            .longValue() );
+    }
+
+
+    @Test
+    public void testScopeNotCached() throws Exception
+    {
+        Dn sales = new Dn( schemaManager, "ou=Sales,o=Good Times Co." );
+        ScopeNode salesScope = new ScopeNode( AliasDerefMode.NEVER_DEREF_ALIASES, sales, Strings.getUUID( 2L ),
+            SearchScope.SUBTREE );
+        AndNode salesFilter = new AndNode();
+        salesFilter.getChildren().add( FilterParser.parse( schemaManager, "(ou=Sales)" ) );
+        salesFilter.getChildren().add( salesScope );
+        optimizer.annotate( txn, salesFilter );
+
+        Dn board = new Dn( schemaManager, "ou=Board of Directors,o=Good Times Co." );
+        ScopeNode boardScope = new ScopeNode( AliasDerefMode.NEVER_DEREF_ALIASES, board, Strings.getUUID( 3L ),
+            SearchScope.SUBTREE );
+        AndNode boardFilter = new AndNode();
+        boardFilter.getChildren().add( FilterParser.parse( schemaManager, "(ou=Apache)" ) );
+        boardFilter.getChildren().add( boardScope );
+        optimizer.annotate( txn, boardFilter );
+
+        // Same shape, but the scope counts depend on the base
+        assertEquals( 1L, optimizer.getPlanCache().size() );
+        assertEquals( 3L, ( ( Long ) salesScope.get( DefaultOptimizer.COUNT_ANNOTATION ) ).longValue() );
+        assertEquals( 4L, ( ( Long ) boardScope.get( DefaultOptimizer.COUNT_ANNOTATION ) ).longValue() );
+    }
+
+
+    @Test
+    public void testInvalidation() throws Exception
+    {
+        SearchPlanCache cache = new SearchPlanCache( 10 );
+        long[] counts = new long[]
+            { 1L, Long.MAX_VALUE };
+
+        cache.put( "shape", counts, 100L, 1L );
+        assertSame( counts, cache.get( "shape", 105L, 1L ) );
+
+        // The statistics have been refreshed
+        assertNull( cache.get( "shape", 100L, 2L ) );
+
+        // Too many entries added since the plan was computed
+        cache.put( "shape", counts, 100L, 1L );
+        assertNull( cache.get( "shape", 111L, 1L ) );
+        assertNull( cache.get( "shape", 100L, 1L ) );
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.xdbm.AbstractAvlPartitionTest;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.Test;
+
+
+/**
+ * Checks that the streamed candidates give the same search results than the
+ * candidates gathered in a set.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StreamingSearchTest extends AbstractAvlPartitionTest
+{
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.POSTALCODE_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( StoreUtils.TEST_INT_OID ) );
+    }
+
+
+    /**
+     * Runs the search and returns the entryUUIDs of the selected entries
+     */
+    private Set<String> search( String base, SearchScope scope, String filter, boolean streaming ) throws Exception
+    {
+        partition.setStreamingSearch( streaming );
+        Set<String> uuids = new HashSet<>();
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            SearchOperationContext searchContext = new SearchOperationContext( session, new Dn( schemaManager, base ),
+                scope, FilterParser.parse( schemaManager, filter ), SchemaConstants.ALL_USER_ATTRIBUTES,
+                SchemaConstants.ENTRY_UUID_AT );
+            searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+            PartitionSearchResult searchResult = partition.getSearchEngine().computeResult( txn, schemaManager,
+                searchContext );
+            assertEquals( streaming, searchResult.isStreamed() );
+
+            Cursor<Entry> cursor = new EntryCursorAdaptor( txn, partition, searchResult );
+
+            while ( cursor.next() )
+            {
+                Entry entry = cursor.get();
+
+                if ( entry != null )
+                {
+                    // Each entry must be returned only once
+                    assertTrue( uuids.add( entry.get( SchemaConstants.ENTRY_UUID_AT ).getString() ) );
+                }
+            }
+
+            cursor.close();
+        }
+
+        return uuids;
+    }
+
+
+    private void assertSameResults( String base, SearchScope scope, String filter ) throws Exception
+    {
+        Set<String> expected = search( base, scope, filter, false );
+        Set<String> streamed = search( base, scope, filter, true );
+
+        assertEquals( filter, expected, streamed );
+    }
+
+
+    @Test
+    public void testStreamedIndexedFilters() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(cn=J*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(testInt>=3)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(testInt<=3)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(ou=sales)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(ou=*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(&(postalCode=1)(!(ou=sales)))" );
+    }
+
+
+    @Test
+    public void testStreamedOrFilters() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(|(cn=J*)(ou=apache))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(|(ou=sales)(ou=engineering)(cn=J*))" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(|(&(cn=J*)(sn=w*))(ou=apache))" );
+    }
+
+
+    @Test
+    public void testStreamedScopes() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.ONELEVEL, "(objectClass=*)" );
+        assertSameResults( "ou=Sales,o=Good Times Co.", SearchScope.SUBTREE, "(objectClass=*)" );
+        assertSameResults( "ou=Board of Directors,o=Good Times Co.", SearchScope.SUBTREE, "(ou=*)" );
+        assertSameResults( "ou=Sales,o=Good Times Co.", SearchScope.ONELEVEL, "(cn=J*)" );
+    }
+
+
+    @Test
+    public void testStreamedFullScan() throws Exception
+    {
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(sn=w*)" );
+        assertSameResults( "o=Good Times Co.", SearchScope.SUBTREE, "(!(ou=sales))" );
+
+        Set<String> streamed = search( "o=Good Times Co.", SearchScope.SUBTREE, "(objectClass=*)", true );
+        assertEquals( partition.count( null ), streamed.size() );
+        assertFalse( search( "o=Good Times Co.", SearchScope.SUBTREE, "(cn=nobody)", true ).iterator().hasNext() );
+    }
+}
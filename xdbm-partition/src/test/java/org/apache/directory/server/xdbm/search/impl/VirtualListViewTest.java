@@ -0,0 +1,253 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequestImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortRequestImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortResponse;
+import org.apache.directory.api.ldap.model.message.controls.SortResultCode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.xdbm.AbstractAvlPartitionTest;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.junit.Test;
+
+
+/**
+ * Tests the sorted candidates and the VLV windows read from the index of the sort attribute.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class VirtualListViewTest extends AbstractAvlPartitionTest
+{
+    /** The VLV response control of the last search */
+    private VirtualListViewResponse vlvResponse;
+
+    /** The sort response control of the last search */
+    private SortResponse sortResponse;
+
+
+    @Override
+    protected void configure( AvlPartition partition ) throws Exception
+    {
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        partition.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+    }
+
+
+    /**
+     * Runs a search sorted by ou, with a VLV control if not null, and returns the IDs of the
+     * returned entries, in order
+     */
+    private List<String> search( String filter, boolean reverse, VirtualListViewRequest vlvRequest ) throws Exception
+    {
+        List<String> ids = new ArrayList<>();
+
+        try ( PartitionTxn txn = partition.beginReadTransaction() )
+        {
+            SearchOperationContext searchContext = new SearchOperationContext( session,
+                new Dn( schemaManager, "o=Good Times Co." ), SearchScope.SUBTREE,
+                FilterParser.parse( schemaManager, filter ), SchemaConstants.ALL_USER_ATTRIBUTES,
+                SchemaConstants.ENTRY_UUID_AT );
+            searchContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+
+            SortRequest sortRequest = new SortRequestImpl();
+            sortRequest.addSortKey( new SortKey( "ou", null, reverse ) );
+            searchContext.addRequestControl( sortRequest );
+
+            if ( vlvRequest != null )
+            {
+                searchContext.addRequestControl( vlvRequest );
+            }
+
+            PartitionSearchResult searchResult = partition.getSearchEngine().computeResult( txn, schemaManager,
+                searchContext );
+            vlvResponse = ( VirtualListViewResponse ) searchContext.getResponseControl( VirtualListViewResponse.OID );
+            sortResponse = ( SortResponse ) searchContext.getResponseControl( SortResponse.OID );
+
+            Cursor<Entry> cursor = new EntryCursorAdaptor( txn, partition, searchResult );
+
+            while ( cursor.next() )
+            {
+                ids.add( cursor.get().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+
+            cursor.close();
+        }
+
+        return ids;
+    }
+
+
+    private VirtualListViewRequest offset( int offset, int beforeCount, int afterCount )
+    {
+        VirtualListViewRequest vlvRequest = new VirtualListViewRequestImpl();
+        vlvRequest.setOffset( offset );
+        vlvRequest.setContentCount( 0 );
+        vlvRequest.setBeforeCount( beforeCount );
+        vlvRequest.setAfterCount( afterCount );
+
+        return vlvRequest;
+    }
+
+
+    private VirtualListViewRequest assertion( String value, int beforeCount, int afterCount )
+    {
+        VirtualListViewRequest vlvRequest = new VirtualListViewRequestImpl();
+        vlvRequest.setAssertionValue( Strings.getBytesUtf8( value ) );
+        vlvRequest.setBeforeCount( beforeCount );
+        vlvRequest.setAfterCount( afterCount );
+
+        return vlvRequest;
+    }
+
+
+    private List<String> uuids( int... ids )
+    {
+        List<String> uuids = new ArrayList<>();
+
+        for ( int id : ids )
+        {
+            uuids.add( Strings.getUUID( id ) );
+        }
+
+        return uuids;
+    }
+
+
+    @Test
+    public void testOffset() throws Exception
+    {
+        // The entries sorted by ou are 7, 9 (Apache), 3 (Board of Directors), 4, 8, 11 (Engineering), 2, 5, 6 (Sales)
+        assertEquals( uuids( 3, 4, 8, 11 ), search( "(ou=*)", false, offset( 4, 1, 2 ) ) );
+        assertNotNull( vlvResponse );
+        assertEquals( VirtualListViewResultCode.SUCCESS, vlvResponse.getViewListResult() );
+        assertEquals( 4, vlvResponse.getTargetPosition() );
+        assertEquals( 9, vlvResponse.getContentCount() );
+
+        assertEquals( uuids( 7, 9 ), search( "(ou=*)", false, offset( 1, 5, 1 ) ) );
+        assertEquals( 1, vlvResponse.getTargetPosition() );
+
+        assertEquals( uuids( 5, 6 ), search( "(ou=*)", false, offset( 20, 1, 5 ) ) );
+        assertEquals( 9, vlvResponse.getTargetPosition() );
+    }
+
+
+    @Test
+    public void testReverseOffset() throws Exception
+    {
+        assertEquals( uuids( 6, 5, 2 ), search( "(ou=*)", true, offset( 1, 0, 2 ) ) );
+        assertEquals( 1, vlvResponse.getTargetPosition() );
+    }
+
+
+    @Test
+    public void testOffsetWithoutStatistics() throws Exception
+    {
+        // The second half of the index is reached from its end
+        assertEquals( uuids( 2, 5 ), search( "(ou=*)", false, offset( 7, 0, 1 ) ) );
+        assertEquals( 7, vlvResponse.getTargetPosition() );
+
+        assertEquals( uuids( 5, 2 ), search( "(ou=*)", true, offset( 2, 0, 1 ) ) );
+        assertEquals( 2, vlvResponse.getTargetPosition() );
+
+        assertEquals( uuids( 11, 2, 5, 6 ), search( "(ou=*)", false, offset( 9, 3, 0 ) ) );
+        assertEquals( 9, vlvResponse.getTargetPosition() );
+    }
+
+
+    @Test
+    public void testAssertion() throws Exception
+    {
+        assertEquals( uuids( 3, 4, 8 ), search( "(ou=*)", false, assertion( "E", 1, 1 ) ) );
+        assertEquals( uuids( 2, 5, 6 ), search( "(ou=*)", false, assertion( "sales", 0, 5 ) ) );
+
+        // Past the last entry, only the entries before the end are returned
+        assertEquals( uuids( 5, 6 ), search( "(ou=*)", false, assertion( "zzz", 2, 2 ) ) );
+        assertEquals( 10, vlvResponse.getTargetPosition() );
+    }
+
+
+    @Test
+    public void testFilteredWindow() throws Exception
+    {
+        // The entries which don't match the filter are skipped
+        List<String> ids = search( "(&(ou=*)(!(ou=sales)))", false, assertion( "b", 1, 10 ) );
+
+        assertEquals( uuids( 9, 3, 4, 8, 11 ), ids );
+        assertTrue( vlvResponse.getContentCount() <= 9 );
+    }
+
+
+    @Test
+    public void testEntriesWithoutValue() throws Exception
+    {
+        // Some entries have no ou : the window can't be read from the index
+        assertFalse( search( "(objectClass=*)", false, offset( 1, 0, 2 ) ).isEmpty() );
+        assertNull( vlvResponse );
+
+        assertEquals( Arrays.asList(), search( "(ou=nobody)", false, offset( 1, 0, 2 ) ) );
+        assertNotNull( vlvResponse );
+    }
+
+
+    @Test
+    public void testSortedCandidates() throws Exception
+    {
+        assertEquals( uuids( 7, 9, 3, 4, 8, 11, 2, 5, 6 ), search( "(ou=*)", false, null ) );
+        assertNotNull( sortResponse );
+        assertEquals( SortResultCode.SUCCESS, sortResponse.getSortResult() );
+        assertNull( vlvResponse );
+
+        assertEquals( uuids( 6, 5, 2, 11, 8, 4, 3, 9, 7 ), search( "(ou=*)", true, null ) );
+        assertEquals( uuids( 4, 8, 11 ), search( "(ou=engineering)", false, null ) );
+
+        // Some entries have no ou : the session has to sort them
+        assertEquals( 11, search( "(objectClass=*)", false, null ).size() );
+        assertNull( sortResponse );
+    }
+}